@@ -3,13 +3,21 @@ package com.pcd.imageanalysis;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Profiles;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableDiscoveryClient
+@EnableScheduling
 public class ImageAnalysisApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(ImageAnalysisApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(ImageAnalysisApplication.class, args);
+		// The offline bulk runner is done once run() returns; exit with its code instead of staying up
+		if (context.getEnvironment().acceptsProfiles(Profiles.of("bulk"))) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
@@ -0,0 +1,356 @@
+package com.pcd.imageanalysis.cli;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pcd.imageanalysis.config.InferenceThreadBudget;
+import com.pcd.imageanalysis.model.ModelSpec;
+import com.pcd.imageanalysis.services.DecodedImageContext;
+import com.pcd.imageanalysis.services.ImageAnalysisService;
+import com.pcd.imageanalysis.services.InferenceEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Offline bulk analysis, for backfills and model evaluation:
+ * <pre>
+ * java -jar imageAnalysis-service.jar --spring.profiles.active=bulk \
+ *      --bulk.input=/data/images --bulk.output=/data/results.ndjson [--bulk.format=csv] [--bulk.parallelism=8]
+ * </pre>
+ * Walks the input directory and runs every image through the configured inference engine with the
+ * default model, bypassing HTTP, image-management and GridFS. The output file doubles as the
+ * checkpoint: on restart, paths with a successful row in it are skipped and new rows are appended,
+ * so an interrupted run resumes where it stopped and images that failed are tried again (a path can
+ * then have several rows, the last one counts). Throughput and latency percentiles are logged at
+ * the end, and the process exits with 1 if any image failed.
+ * <p>
+ * The run itself never touches MongoDB, but the service's repositories still start with the
+ * context, so the configured MongoDB has to be reachable; the bulk profile only turns off index
+ * creation and the background jobs that would write to it.
+ */
+@Component
+@Profile("bulk")
+public class BulkAnalysisRunner implements ApplicationRunner, ExitCodeGenerator {
+    private static final Logger log = LoggerFactory.getLogger(BulkAnalysisRunner.class);
+    private static final String CSV_HEADER = "path,isFalsified,confidenceScore,modelVersion,inferenceMode,latencyMs,error";
+    private static final int CSV_COLUMNS = CSV_HEADER.split(",").length;
+
+    private final InferenceEngine inferenceEngine;
+    private final ImageAnalysisService analysisService;
+    private final ObjectMapper objectMapper;
+    private final InferenceThreadBudget threadBudget;
+
+    private volatile int exitCode;
+
+    @Value("${bulk.input:}")
+    private String input;
+
+    @Value("${bulk.output:bulk-results.ndjson}")
+    private String output;
+
+    @Value("${bulk.format:ndjson}")
+    private String format;
+
+    // 0 means one task per inference worker
+    @Value("${bulk.parallelism:0}")
+    private int parallelism;
+
+    @Value("${bulk.extensions:jpg,jpeg,png,bmp,gif,tif,tiff,webp}")
+    private String extensions;
+
+    @Value("${bulk.progress-every:1000}")
+    private int progressEvery;
+
+    @Autowired
+    public BulkAnalysisRunner(InferenceEngine inferenceEngine, ImageAnalysisService analysisService, ObjectMapper objectMapper,
+                              InferenceThreadBudget threadBudget) {
+        this.inferenceEngine = inferenceEngine;
+        this.analysisService = analysisService;
+        this.objectMapper = objectMapper;
+        this.threadBudget = threadBudget;
+    }
+
+    // ImageAnalysisApplication exits with it once the run is over
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        exitCode = runBulk();
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    private int runBulk() throws IOException, InterruptedException {
+        if (input.isBlank()) {
+            log.error("bulk.input must point at a directory of images");
+            return 2;
+        }
+        Path root = Path.of(input).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            log.error("bulk.input {} is not a directory", root);
+            return 2;
+        }
+        boolean csv = "csv".equalsIgnoreCase(format);
+        Path outputPath = Path.of(output).toAbsolutePath();
+        Set<String> done = loadCheckpoint(outputPath, csv);
+        Set<String> accepted = new HashSet<>(Arrays.asList(extensions.toLowerCase(Locale.ROOT).split("\\s*,\\s*")));
+        int workers = parallelism > 0 ? parallelism : threadBudget.getWorkers();
+        ModelSpec model = analysisService.defaultModelSpec();
+        log.info("Bulk analysis of {} with {} engine, model {}, {} parallel task(s); {} image(s) already done",
+                root, inferenceEngine.getName(), model.getVersion(), workers, done.size());
+
+        LatencyRecorder latencies = new LatencyRecorder();
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        // Bounds the queue so a huge directory is walked lazily instead of materialising every task
+        Semaphore queued = new Semaphore(workers * 2);
+        long start = System.nanoTime();
+
+        boolean newFile = !Files.exists(outputPath) || Files.size(outputPath) == 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             Stream<Path> files = Files.walk(root)) {
+            if (csv && newFile) {
+                writer.write(CSV_HEADER);
+                writer.newLine();
+            }
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String relative = root.relativize(file).toString();
+                if (!accepted.contains(extension(file))) {
+                    continue;
+                }
+                if (done.contains(relative)) {
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                queued.acquire();
+                executor.execute(() -> {
+                    try {
+                        Map<String, Object> row = analyze(file, relative, model, latencies);
+                        if (row.containsKey("error")) {
+                            failed.incrementAndGet();
+                        }
+                        synchronized (writer) {
+                            writer.write(csv ? toCsv(row) : objectMapper.writeValueAsString(row));
+                            writer.newLine();
+                            // Flushed per row: the output file is also the resume checkpoint
+                            writer.flush();
+                        }
+                        int count = processed.incrementAndGet();
+                        if (count % progressEvery == 0) {
+                            log.info("{} image(s) analyzed, {} failed, {} img/s", count, failed.get(),
+                                    String.format(Locale.ROOT, "%.1f", count / seconds(start)));
+                        }
+                    } catch (IOException e) {
+                        log.error("Could not write result for {}", relative, e);
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+
+        double elapsed = seconds(start);
+        log.info("Bulk analysis finished: {} analyzed, {} failed, {} skipped (already done) in {} s",
+                processed.get(), failed.get(), skipped.get(), String.format(Locale.ROOT, "%.1f", elapsed));
+        log.info("Throughput: {} images/s; latency p50={} ms p90={} ms p99={} ms max={} ms",
+                String.format(Locale.ROOT, "%.2f", processed.get() / elapsed),
+                latencies.percentileMillis(50), latencies.percentileMillis(90),
+                latencies.percentileMillis(99), latencies.percentileMillis(100));
+        return failed.get() > 0 ? 1 : 0;
+    }
+
+    private Map<String, Object> analyze(Path file, String relative, ModelSpec model, LatencyRecorder latencies) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("path", relative);
+        long begin = System.nanoTime();
+        try (DecodedImageContext image = DecodedImageContext.open(relative, file)) {
+            Map<String, Object> result = inferenceEngine.analyze(image, model);
+            long nanos = System.nanoTime() - begin;
+            latencies.record(nanos);
+            row.put("isFalsified", result.get("isFalsified"));
+            row.put("confidenceScore", result.get("confidenceScore"));
+            row.put("modelVersion", result.getOrDefault("modelVersion", model.getVersion()));
+            row.put("inferenceMode", result.get("inferenceMode"));
+            row.put("latencyMs", TimeUnit.NANOSECONDS.toMillis(nanos));
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            row.put("latencyMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+            row.put("error", e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+        return row;
+    }
+
+    /**
+     * Paths already analyzed successfully according to the output. A trailing partial line left by a crash is cut off first,
+     * so appended rows always start on a fresh line.
+     */
+    private Set<String> loadCheckpoint(Path outputPath, boolean csv) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(outputPath) || Files.size(outputPath) == 0) {
+            return done;
+        }
+        truncatePartialLine(outputPath);
+        try (BufferedReader reader = Files.newBufferedReader(outputPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || (csv && line.equals(CSV_HEADER))) {
+                    continue;
+                }
+                String path;
+                boolean succeeded;
+                if (csv) {
+                    List<String> fields = csvFields(line);
+                    path = fields.get(0);
+                    // error is the last column
+                    succeeded = fields.size() < CSV_COLUMNS || fields.get(CSV_COLUMNS - 1).isEmpty();
+                } else {
+                    JsonNode row = objectMapper.readTree(line);
+                    path = row.path("path").asText(null);
+                    succeeded = !row.hasNonNull("error");
+                }
+                // Failed rows are not checkpoints, those images are analyzed again
+                if (path != null && succeeded) {
+                    done.add(path);
+                }
+            }
+        }
+        return done;
+    }
+
+    private static void truncatePartialLine(Path path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long end = file.length();
+            while (end > 0) {
+                file.seek(end - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end != file.length()) {
+                log.warn("Dropping incomplete last line of {} before resuming", path);
+                file.setLength(end);
+            }
+        }
+    }
+
+    private static String toCsv(Map<String, Object> row) {
+        StringBuilder line = new StringBuilder();
+        for (String column : CSV_HEADER.split(",")) {
+            if (line.length() > 0) {
+                line.append(',');
+            }
+            Object value = row.get(column);
+            if (value != null) {
+                line.append(csvEscape(value.toString()));
+            }
+        }
+        return line.toString();
+    }
+
+    private static String csvEscape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"").replace("\r", " ").replace("\n", " ") + '"';
+    }
+
+    private static List<String> csvFields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static double seconds(long startNanos) {
+        return Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    // Every successful latency is kept (8 bytes each), so percentiles are exact even for large runs
+    private static final class LatencyRecorder {
+        private long[] samples = new long[1024];
+        private int count;
+
+        synchronized void record(long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = nanos;
+        }
+
+        synchronized long percentileMillis(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+            return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, Math.min(count - 1, index))]);
+        }
+    }
+}
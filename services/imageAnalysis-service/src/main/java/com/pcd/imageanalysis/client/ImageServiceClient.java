@@ -10,6 +10,8 @@ import org.springframework.http.*;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StreamUtils;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -25,6 +27,16 @@ import java.util.Optional;
 public class ImageServiceClient {
     private static final Logger log = LoggerFactory.getLogger(ImageServiceClient.class);
 
+    /**
+     * Outcome of a status update. {@code REJECTED} means image management refused it because the image
+     * is no longer in the expected status (409); {@code FAILED} means it could not be made at all.
+     */
+    public enum StatusUpdateOutcome {
+        UPDATED,
+        REJECTED,
+        FAILED
+    }
+
     private final RestTemplate restTemplate;
     private final String imageServiceBaseUrl;
 
@@ -49,6 +61,10 @@ public class ImageServiceClient {
         } catch (HttpClientErrorException.NotFound e) {
             log.warn("Image with ID {} not found at {}", imageId, url);
             return Optional.empty();
+        } catch (ResourceAccessException | HttpServerErrorException e) {
+            // Not the same as "not found": callers may retry once image-management is back
+            log.error("Image management unavailable while fetching metadata for ID: {}: {}", imageId, e.getMessage());
+            throw new ImageServiceUnavailableException("Image management unavailable: " + e.getMessage(), e);
         } catch (Exception e) {
             log.error("Generic error retrieving image metadata for ID: {} from URL: {}. Exception Type: {}, Message: {}",
                     imageId, url, e.getClass().getName(), e.getMessage());
@@ -124,26 +140,41 @@ public class ImageServiceClient {
     }
 
     public boolean updateImageAnalysisStatus(String imageId, String status, String userId, String userRole) {
-        String url = imageServiceBaseUrl + "/api/v1/images/{id}/analysis-status?status={status}&userId={userId}&userRole={userRole}";
-        log.debug("Updating status via URL: {} for ID: {} to Status: {}", url, imageId, status);
+        return updateImageAnalysisStatus(imageId, null, status, userId, userRole) == StatusUpdateOutcome.UPDATED;
+    }
+
+    // Applied only while the image is still in expectedStatus, when one is given
+    public StatusUpdateOutcome updateImageAnalysisStatus(String imageId, String expectedStatus, String status, String userId, String userRole) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(imageServiceBaseUrl)
+                .path("/api/v1/images/{id}/analysis-status")
+                .queryParam("status", status)
+                .queryParam("userId", userId)
+                .queryParam("userRole", userRole);
+        if (expectedStatus != null) {
+            builder.queryParam("expectedStatus", expectedStatus);
+        }
+        URI uri = builder.buildAndExpand(imageId).encode().toUri();
+        log.debug("Updating status via URL: {} for ID: {} to Status: {}", uri, imageId, status);
         try {
             HttpHeaders headers = new HttpHeaders();
             ResponseEntity<Void> response = restTemplate.exchange(
-                    url,
+                    uri,
                     HttpMethod.PUT,
                     new HttpEntity<>(headers),
-                    Void.class,
-                    imageId, status, userId, userRole
+                    Void.class
             );
             boolean success = response.getStatusCode().is2xxSuccessful();
             log.info("Update analysis status for image ID: {} to {} successful: {}", imageId, status, success);
-            return success;
+            return success ? StatusUpdateOutcome.UPDATED : StatusUpdateOutcome.FAILED;
+        } catch (HttpClientErrorException.Conflict e) {
+            log.warn("Analysis status update for image ID: {} to {} (expected {}) rejected: {}", imageId, status, expectedStatus, e.getResponseBodyAsString());
+            return StatusUpdateOutcome.REJECTED;
         } catch (HttpClientErrorException e) {
-            log.error("HTTP error updating analysis status for image ID: {} to {} via URL: {}. Status: {}, Body: {}", imageId, status, url, e.getStatusCode(), e.getResponseBodyAsString(), e);
-            return false;
+            log.error("HTTP error updating analysis status for image ID: {} to {} via URL: {}. Status: {}, Body: {}", imageId, status, uri, e.getStatusCode(), e.getResponseBodyAsString(), e);
+            return StatusUpdateOutcome.FAILED;
         } catch (Exception e) {
-            log.error("Generic error updating analysis status for image ID: {} to {} via URL: {}", imageId, status, url, e);
-            return false;
+            log.error("Generic error updating analysis status for image ID: {} to {} via URL: {}", imageId, status, uri, e);
+            return StatusUpdateOutcome.FAILED;
         }
     }
-}
\ No newline at end of file
+}
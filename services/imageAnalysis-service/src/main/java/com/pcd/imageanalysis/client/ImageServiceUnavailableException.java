@@ -0,0 +1,9 @@
+package com.pcd.imageanalysis.client;
+
+// image-management could not be reached or answered with a 5xx; the same call may succeed later
+public class ImageServiceUnavailableException extends RuntimeException {
+
+    public ImageServiceUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
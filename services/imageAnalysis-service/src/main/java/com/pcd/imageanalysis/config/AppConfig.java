@@ -4,6 +4,9 @@ import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
@@ -25,4 +28,10 @@ public class AppConfig {
                 .requestFactory(() -> requestFactory)
                 .build();
     }
-}
\ No newline at end of file
+
+    // Heatmaps live in their own bucket so they never mix with evidence files
+    @Bean
+    public GridFsTemplate gridFsTemplate(MongoDatabaseFactory mongoDatabaseFactory, MongoConverter mongoConverter) {
+        return new GridFsTemplate(mongoDatabaseFactory, mongoConverter, "analysis_heatmaps");
+    }
+}
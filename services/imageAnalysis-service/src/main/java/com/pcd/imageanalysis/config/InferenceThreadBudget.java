@@ -0,0 +1,167 @@
+package com.pcd.imageanalysis.config;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * How the available cores are split between concurrent inference workers.
+ * <p>
+ * Each worker gets an explicit torch intra-op thread count so that {@code workers * intraOpThreads}
+ * never exceeds the core count; left to its defaults every torch process would spin up one
+ * thread per core and N workers would fight over the same CPUs.
+ */
+public final class InferenceThreadBudget {
+
+    public static final String AUTO = "auto";
+
+    private static final Path PROC_STATUS = Path.of("/proc/self/status");
+
+    // Beyond ~4 threads a single small CNN forward pass stops scaling, more workers pay off instead
+    private static final int MAX_AUTO_THREADS_PER_WORKER = 4;
+
+    private final List<Integer> cpus;
+    private final int workers;
+    private final int intraOpThreads;
+    private final int interOpThreads;
+    private final boolean pinned;
+
+    private InferenceThreadBudget(List<Integer> cpus, int workers, int intraOpThreads, int interOpThreads, boolean pinned) {
+        this.cpus = cpus;
+        this.workers = workers;
+        this.intraOpThreads = intraOpThreads;
+        this.interOpThreads = interOpThreads;
+        this.pinned = pinned;
+    }
+
+    /**
+     * Budget over CPUs {@code 0..availableCores-1}.
+     */
+    public static InferenceThreadBudget compute(int availableCores, String workersSetting, String threadsSetting,
+                                                int interOpThreads, boolean pinned) {
+        return compute(IntStream.range(0, Math.max(1, availableCores)).boxed().toList(),
+                workersSetting, threadsSetting, interOpThreads, pinned);
+    }
+
+    /**
+     * Budget over the given CPU ids, those the process may run on; pinned workers only get CPUs from this list.
+     */
+    public static InferenceThreadBudget compute(List<Integer> allowedCpus, String workersSetting, String threadsSetting,
+                                                int interOpThreads, boolean pinned) {
+        List<Integer> cpus = allowedCpus.isEmpty() ? List.of(0) : List.copyOf(allowedCpus);
+        int cores = cpus.size();
+        Integer workers = parse(workersSetting, "workers");
+        Integer threads = parse(threadsSetting, "torch-threads");
+
+        if (workers == null && threads == null) {
+            threads = Math.min(cores, MAX_AUTO_THREADS_PER_WORKER);
+            workers = Math.max(1, cores / threads);
+        } else if (workers == null) {
+            workers = Math.max(1, cores / threads);
+        } else if (threads == null) {
+            threads = Math.max(1, cores / workers);
+        }
+        // Pinning only makes sense when every worker can own a disjoint set of cores
+        boolean canPin = pinned && workers * threads <= cores;
+        return new InferenceThreadBudget(cpus, workers, threads, Math.max(1, interOpThreads), canPin);
+    }
+
+    /**
+     * The CPUs this process may run on. Under a cpuset (e.g. a container pinned to CPUs 8-15) these are
+     * not {@code 0..n-1}, so they are read from {@code Cpus_allowed_list}; where that is unavailable, or
+     * lists more CPUs than the JVM is allowed to use under a CPU quota, the first
+     * {@link Runtime#availableProcessors()} of them are taken.
+     */
+    public static List<Integer> allowedCpus() {
+        int available = Runtime.getRuntime().availableProcessors();
+        List<Integer> allowed = List.of();
+        try {
+            allowed = Files.readAllLines(PROC_STATUS).stream()
+                    .filter(line -> line.startsWith("Cpus_allowed_list:"))
+                    .findFirst()
+                    .map(line -> parseCpuList(line.substring(line.indexOf(':') + 1)))
+                    .orElse(List.of());
+        } catch (IOException | RuntimeException e) {
+            // Not Linux, or an unexpected format: fall back to the JVM's view
+        }
+        if (allowed.isEmpty()) {
+            return IntStream.range(0, available).boxed().toList();
+        }
+        return allowed.size() > available ? allowed.subList(0, available) : allowed;
+    }
+
+    /**
+     * Parses a kernel CPU list such as {@code 0-3,8,10-11}.
+     */
+    static List<Integer> parseCpuList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : list.trim().split(",")) {
+            if (range.isBlank()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            int first = Integer.parseInt(range.substring(0, dash < 0 ? range.length() : dash).trim());
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1).trim());
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus;
+    }
+
+    private static Integer parse(String value, String name) {
+        if (value == null || value.isBlank() || AUTO.equalsIgnoreCase(value.trim())) {
+            return null;
+        }
+        int parsed = Integer.parseInt(value.trim());
+        if (parsed < 1) {
+            throw new IllegalArgumentException("python." + name + " must be 'auto' or a positive integer, got: " + value);
+        }
+        return parsed;
+    }
+
+    public int getAvailableCores() {
+        return cpus.size();
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getIntraOpThreads() {
+        return intraOpThreads;
+    }
+
+    public int getInterOpThreads() {
+        return interOpThreads;
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    /**
+     * CPU list for the given worker slot in {@code taskset -c} syntax, or empty when workers are not pinned.
+     */
+    public List<Integer> coresForWorker(int slot) {
+        if (!pinned) {
+            return Collections.emptyList();
+        }
+        List<Integer> cores = new ArrayList<>(intraOpThreads);
+        for (int i = 0; i < intraOpThreads; i++) {
+            cores.add(cpus.get(slot * intraOpThreads + i));
+        }
+        return cores;
+    }
+
+    @Override
+    public String toString() {
+        return "InferenceThreadBudget{cores=" + cpus + ", workers=" + workers
+                + ", intraOpThreads=" + intraOpThreads + ", interOpThreads=" + interOpThreads
+                + ", pinned=" + pinned + "}";
+    }
+}
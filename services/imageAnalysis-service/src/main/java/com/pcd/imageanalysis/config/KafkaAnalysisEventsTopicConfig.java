@@ -0,0 +1,20 @@
+package com.pcd.imageanalysis.config;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+@Configuration
+@ConditionalOnProperty(name = "analysis.events.broker.enabled", havingValue = "true")
+public class KafkaAnalysisEventsTopicConfig {
+
+    @Bean
+    public NewTopic analysisEventsTopic(@Value("${analysis.events.broker.topic:analysis-events}") String topic) {
+        return TopicBuilder
+                .name(topic)
+                .build();
+    }
+}
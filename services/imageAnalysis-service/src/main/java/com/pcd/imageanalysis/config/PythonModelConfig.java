@@ -1,6 +1,9 @@
 package com.pcd.imageanalysis.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
@@ -13,6 +16,7 @@ import java.nio.file.StandardCopyOption;
 
 @Configuration
 public class PythonModelConfig {
+    private static final Logger log = LoggerFactory.getLogger(PythonModelConfig.class);
 
     @Value("${model.pytorch.path:classpath:models/falsification_detector.pth}")
     private Resource modelResource;
@@ -23,7 +27,20 @@ public class PythonModelConfig {
     @Value("${temp.dir:${java.io.tmpdir}}")
     private String tempDir;
 
+    @Value("${python.workers:auto}")
+    private String workers;
+
+    @Value("${python.torch-threads:auto}")
+    private String torchThreads;
+
+    @Value("${python.interop-threads:1}")
+    private int interOpThreads;
+
+    @Value("${python.cpu-affinity:false}")
+    private boolean cpuAffinity;
+
     @Bean(name = "modelPath")
+    @ConditionalOnProperty(name = "analysis.inference.engine", havingValue = "python", matchIfMissing = true)
     public String modelPath() throws IOException {
         Path tempFile = Paths.get(tempDir, "falsification_detector.pth");
         Files.copy(modelResource.getInputStream(), tempFile, StandardCopyOption.REPLACE_EXISTING);
@@ -31,9 +48,22 @@ public class PythonModelConfig {
     }
 
     @Bean(name = "pythonScriptPath")
+    @ConditionalOnProperty(name = "analysis.inference.engine", havingValue = "python", matchIfMissing = true)
     public String pythonScriptPath() throws IOException {
         Path tempFile = Paths.get(tempDir, "detect_falsification.py");
         Files.copy(pythonScriptResource.getInputStream(), tempFile, StandardCopyOption.REPLACE_EXISTING);
         return tempFile.toString();
     }
-}
\ No newline at end of file
+
+    @Bean
+    public InferenceThreadBudget inferenceThreadBudget() {
+        InferenceThreadBudget budget = InferenceThreadBudget.compute(
+                InferenceThreadBudget.allowedCpus(), workers, torchThreads, interOpThreads, cpuAffinity);
+        if (cpuAffinity && !budget.isPinned()) {
+            log.warn("python.cpu-affinity requested but {} workers x {} threads exceed {} cores; running unpinned",
+                    budget.getWorkers(), budget.getIntraOpThreads(), budget.getAvailableCores());
+        }
+        log.info("Inference thread layout: {}", budget);
+        return budget;
+    }
+}
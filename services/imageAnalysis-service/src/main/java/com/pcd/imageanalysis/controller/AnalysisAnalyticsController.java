@@ -0,0 +1,62 @@
+package com.pcd.imageanalysis.controller;
+
+import com.pcd.imageanalysis.services.AnalysisAnalyticsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.List;
+
+// Aggregated views over analysis results; all filters are optional, time bounds are ISO-8601 instants [from, to)
+@RestController
+@RequestMapping("/api/v1/analysis/analytics")
+public class AnalysisAnalyticsController {
+
+    private final AnalysisAnalyticsService analyticsService;
+
+    @Autowired
+    public AnalysisAnalyticsController(AnalysisAnalyticsService analyticsService) {
+        this.analyticsService = analyticsService;
+    }
+
+    @GetMapping("/confidence-histogram")
+    public ResponseEntity<List<AnalysisAnalyticsService.ConfidenceBucket>> getConfidenceHistogram(
+            @RequestParam(value = "caseId", required = false) String caseId,
+            @RequestParam(value = "analysisVersion", required = false) String analysisVersion,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+            @RequestParam(value = "buckets", defaultValue = "10") int buckets) {
+        try {
+            return ResponseEntity.ok(analyticsService.confidenceHistogram(
+                    new AnalysisAnalyticsService.Filter(caseId, analysisVersion, from, to), buckets));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @GetMapping("/rates-by-version")
+    public ResponseEntity<List<AnalysisAnalyticsService.VersionRate>> getRatesByVersion(
+            @RequestParam(value = "caseId", required = false) String caseId,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        return ResponseEntity.ok(analyticsService.ratesByVersion(
+                new AnalysisAnalyticsService.Filter(caseId, null, from, to)));
+    }
+
+    @GetMapping("/daily")
+    public ResponseEntity<List<AnalysisAnalyticsService.DailyCount>> getDailyCounts(
+            @RequestParam(value = "caseId", required = false) String caseId,
+            @RequestParam(value = "analysisVersion", required = false) String analysisVersion,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to) {
+        return ResponseEntity.ok(analyticsService.dailyCounts(
+                new AnalysisAnalyticsService.Filter(caseId, analysisVersion, from, to)));
+    }
+}
@@ -0,0 +1,40 @@
+package com.pcd.imageanalysis.controller;
+
+import com.pcd.imageanalysis.services.AnalysisResultCompactionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+@RequestMapping("/api/v1/analysis/retention")
+public class AnalysisRetentionController {
+
+    private final AnalysisResultCompactionService compactionService;
+
+    @Autowired
+    public AnalysisRetentionController(AnalysisResultCompactionService compactionService) {
+        this.compactionService = compactionService;
+    }
+
+    // Runs a pass now and returns its report; a pass can take minutes on a large backlog
+    @PostMapping("/compact")
+    public ResponseEntity<AnalysisResultCompactionService.CompactionReport> compact() {
+        try {
+            return compactionService.compact()
+                    .map(ResponseEntity::ok)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.CONFLICT, "A compaction pass is already running"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Compaction was interrupted");
+        }
+    }
+
+    @GetMapping("/last-report")
+    public ResponseEntity<AnalysisResultCompactionService.CompactionReport> getLastReport() {
+        return compactionService.getLastReport()
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "No compaction has run on this node yet"));
+    }
+}
@@ -0,0 +1,40 @@
+package com.pcd.imageanalysis.controller;
+
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.services.AnalysisRetryService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/analysis/retries")
+public class AnalysisRetryController {
+
+    private final AnalysisRetryService retryService;
+
+    @Autowired
+    public AnalysisRetryController(AnalysisRetryService retryService) {
+        this.retryService = retryService;
+    }
+
+    // Analyses that failed permanently or ran out of attempts, most recent first
+    @GetMapping("/dead-letter")
+    public ResponseEntity<List<AnalysisRetry>> getDeadLetters(@RequestParam(value = "limit", defaultValue = "50") int limit) {
+        if (limit <= 0 || limit > 500) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be between 1 and 500");
+        }
+        return ResponseEntity.ok(retryService.getDeadLetters(limit));
+    }
+
+    @PostMapping("/{retryId}/requeue")
+    public ResponseEntity<AnalysisRetry> requeue(@PathVariable String retryId) {
+        return retryService.requeue(retryId)
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new ResponseStatusException(
+                        HttpStatus.NOT_FOUND, "No dead-lettered analysis with retry ID: " + retryId));
+    }
+}
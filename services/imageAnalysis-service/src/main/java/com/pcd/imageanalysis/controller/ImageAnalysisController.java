@@ -1,39 +1,62 @@
 package com.pcd.imageanalysis.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisResultPage;
+import com.pcd.imageanalysis.model.ResultView;
+import com.pcd.imageanalysis.services.AnalysisEventBus;
+import com.pcd.imageanalysis.services.HeatmapService;
 import com.pcd.imageanalysis.services.ImageAnalysisService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.servlet.http.HttpServletRequest;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
 @RestController
 @RequestMapping("/api/v1/analysis")
 public class ImageAnalysisController {
     private static final Logger log = LoggerFactory.getLogger(ImageAnalysisController.class);
 
     private final ImageAnalysisService analysisService;
+    private final AnalysisEventBus eventBus;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public ImageAnalysisController(ImageAnalysisService analysisService) {
+    public ImageAnalysisController(ImageAnalysisService analysisService, AnalysisEventBus eventBus, ObjectMapper objectMapper) {
         this.analysisService = analysisService;
+        this.eventBus = eventBus;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping("/images/{imageId}")
     public ResponseEntity<AnalysisResult> analyzeImage(
             @PathVariable String imageId,
             @RequestParam(value = "userId", required = false) String userId,
+            @RequestParam(value = "heatmap", defaultValue = "false") boolean heatmap,
             HttpServletRequest request) {
 
         log.info("Received analysis request for image ID: {} from user: {}", imageId, userId);
 
         try {
-            return analysisService.analyzeImage(imageId)
+            return analysisService.analyzeImage(imageId, heatmap)
                     .map(ResponseEntity::ok)
                     .orElseThrow(() -> new ResponseStatusException(
                             HttpStatus.INTERNAL_SERVER_ERROR, "Analysis failed to complete"));
@@ -54,8 +77,133 @@ public class ImageAnalysisController {
                         HttpStatus.NOT_FOUND, "No analysis result found for image ID: " + imageId));
     }
 
+    // Audit view: every run for the image, including results moved to the retention archive
+    @GetMapping("/images/{imageId}/history")
+    public ResponseEntity<List<AnalysisResult>> getAnalysisHistory(@PathVariable String imageId) {
+        List<AnalysisResult> history = analysisService.getAnalysisHistory(imageId);
+        if (history.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No analysis result found for image ID: " + imageId);
+        }
+        return ResponseEntity.ok(history);
+    }
+
+    // Pushes lifecycle events for the image's analysis; the stream ends after COMPLETED or FAILED
+    @GetMapping(value = "/images/{imageId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamImageEvents(@PathVariable String imageId) {
+        return eventBus.subscribeToImage(imageId, analysisService.getCurrentAnalysisEvent(imageId).orElse(null));
+    }
+
+    @GetMapping(value = "/images/{imageId}/heatmap", produces = MediaType.IMAGE_PNG_VALUE)
+    public ResponseEntity<byte[]> getHeatmap(@PathVariable String imageId, WebRequest webRequest) {
+        try {
+            HeatmapService.Heatmap heatmap = analysisService.getHeatmap(imageId)
+                    .orElseThrow(() -> new ResponseStatusException(
+                            HttpStatus.NOT_FOUND, "No heatmap available for image ID: " + imageId));
+            // A stored heatmap never changes, so its GridFS id is a valid strong validator
+            String etag = "\"" + heatmap.fileId() + "\"";
+            if (webRequest.checkNotModified(etag)) {
+                return null;
+            }
+            return ResponseEntity.ok()
+                    .eTag(etag)
+                    .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable())
+                    .contentType(MediaType.IMAGE_PNG)
+                    .body(heatmap.png());
+        } catch (ResponseStatusException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error retrieving heatmap for image ID: {}", imageId, e);
+            throw new ResponseStatusException(
+                    HttpStatus.INTERNAL_SERVER_ERROR, "Failed to retrieve heatmap: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The original, unpaginated listing of every result of the case as full documents, kept so existing
+     * clients keep working. Deprecated (flagged as such in the OpenAPI docs and by a {@code Deprecation}
+     * header): large cases are loaded whole, new clients should page through {@code /case/{caseId}/results}.
+     */
+    @Deprecated
     @GetMapping("/case/{caseId}")
-    public ResponseEntity<Iterable<AnalysisResult>> getAnalysisResultsByCase(@PathVariable String caseId) {
-        return ResponseEntity.ok(analysisService.getAnalysisResultsByCase(caseId));
+    public ResponseEntity<List<AnalysisResult>> getAnalysisResultsByCase(@PathVariable String caseId) {
+        return ResponseEntity.ok()
+                .header("Deprecation", "true")
+                .header(HttpHeaders.LINK, "</api/v1/analysis/case/" + caseId + "/results>; rel=\"successor-version\"")
+                .body(analysisService.getAnalysisResultsByCase(caseId));
+    }
+
+    // Hot results only; those compacted into the archive are listed by /images/{imageId}/history
+    @GetMapping("/case/{caseId}/results")
+    public ResponseEntity<AnalysisResultPage<?>> getAnalysisResultPageByCase(
+            @PathVariable String caseId,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "view", defaultValue = "SUMMARY") ResultView view) {
+        try {
+            return ResponseEntity.ok(analysisService.getAnalysisResultsByCase(caseId, cursor, limit, view));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    // One JSON document per line, written from a Mongo cursor so large cases are never held in memory
+    @GetMapping(value = "/case/{caseId}/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportAnalysisResultsByCase(
+            @PathVariable String caseId,
+            @RequestParam(value = "view", defaultValue = "FULL") ResultView view) {
+        StreamingResponseBody body = out -> {
+            try (Stream<?> results = analysisService.streamAnalysisResultsByCase(caseId, view)) {
+                writeNdjson(results.iterator(), out);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    @GetMapping("/results/verdict")
+    public ResponseEntity<AnalysisResultPage<?>> getAnalysisResultsByVerdict(
+            @RequestParam("falsified") Boolean falsified,
+            @RequestParam(value = "minConfidence", required = false) Double minConfidence,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "view", defaultValue = "SUMMARY") ResultView view) {
+        try {
+            return ResponseEntity.ok(analysisService.getAnalysisResultsByVerdict(falsified, minConfidence, cursor, limit, view));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @GetMapping("/results/status/{status}")
+    public ResponseEntity<AnalysisResultPage<?>> getAnalysisResultsByStatus(
+            @PathVariable String status,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "view", defaultValue = "SUMMARY") ResultView view) {
+        try {
+            return ResponseEntity.ok(analysisService.getAnalysisResultsByStatus(status, cursor, limit, view));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    // Pushes lifecycle events for every analysis in the case until the client disconnects
+    @GetMapping(value = "/case/{caseId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamCaseEvents(@PathVariable String caseId) {
+        return eventBus.subscribeToCase(caseId);
+    }
+
+    private void writeNdjson(Iterator<?> results, OutputStream out) throws IOException {
+        int written = 0;
+        while (results.hasNext()) {
+            out.write(objectMapper.writeValueAsBytes(results.next()));
+            out.write('\n');
+            // Flush periodically so the client starts receiving before the export finishes
+            if (++written % 100 == 0) {
+                out.flush();
+            }
+        }
+        out.flush();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,34 @@
+package com.pcd.imageanalysis.controller;
+
+import com.pcd.imageanalysis.services.ShadowEvaluationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/analysis/shadow")
+public class ShadowEvaluationController {
+
+    private final ShadowEvaluationService shadowEvaluationService;
+
+    @Autowired
+    public ShadowEvaluationController(ShadowEvaluationService shadowEvaluationService) {
+        this.shadowEvaluationService = shadowEvaluationService;
+    }
+
+    // Agreement with the primary model and latency comparison for a candidate version
+    @GetMapping("/{candidateVersion}/summary")
+    public ResponseEntity<Map<String, Object>> getSummary(@PathVariable String candidateVersion) {
+        return shadowEvaluationService.summarize(candidateVersion)
+                .map(ResponseEntity::ok)
+                .orElseThrow(() -> new ResponseStatusException(
+                        HttpStatus.NOT_FOUND, "No shadow evaluations recorded for model version: " + candidateVersion));
+    }
+}
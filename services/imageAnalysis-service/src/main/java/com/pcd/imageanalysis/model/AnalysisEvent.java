@@ -0,0 +1,34 @@
+package com.pcd.imageanalysis.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// Lifecycle transition of one analysis, pushed to SSE subscribers and relayed between nodes
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AnalysisEvent {
+
+    public enum Type {
+        QUEUED,
+        STARTED,
+        STAGE_COMPLETED,
+        RETRY_SCHEDULED,
+        COMPLETED,
+        FAILED
+    }
+
+    private String imageId;
+    private String caseId;
+    private String analysisId;
+    private Type type;
+    private String stage; // e.g. "download", "inference", detector name; null for other types
+    private String detail;
+    private Instant timestamp;
+    private String originNode;
+}
@@ -2,12 +2,11 @@ package com.pcd.imageanalysis.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
 
 @Data
 @AllArgsConstructor
@@ -15,21 +14,30 @@ import java.util.Map;
 @Getter
 @Setter
 @Document(collection = "image_analysis_results")
+// Each index ends with _id so keyset pagination (see AnalysisResultRepositoryCustom) never sorts in memory
+@CompoundIndexes({
+        @CompoundIndex(name = "case_timestamp", def = "{'caseId': 1, 'analysisTimestamp': -1, '_id': -1}"),
+        @CompoundIndex(name = "falsified_confidence", def = "{'isFalsified': 1, 'confidenceScore': -1, '_id': -1}"),
+        @CompoundIndex(name = "status_timestamp", def = "{'analysisStatus': 1, 'analysisTimestamp': -1, '_id': -1}"),
+        // Latest result per image, and per image + model version for retention compaction
+        @CompoundIndex(name = "image_version_timestamp", def = "{'imageId': 1, 'analysisVersion': 1, 'analysisTimestamp': -1}"),
+        @CompoundIndex(name = "image_timestamp", def = "{'imageId': 1, 'analysisTimestamp': -1}")
+})
 public class AnalysisResult {
 
+    // Superseded and aged results, moved there by AnalysisResultCompactionService; same _id as in the hot collection
+    public static final String ARCHIVE_COLLECTION = "image_analysis_results_archive";
 
     @Id
     private String id;
 
-    @Indexed
     private String imageId;
 
-    @Indexed
     private String caseId;
 
     private Instant analysisTimestamp;
 
-    private String analysisStatus; // "COMPLETED", "FAILED", "IN_PROGRESS"
+    private String analysisStatus; // "COMPLETED", "FAILED", "IN_PROGRESS", "RETRY_SCHEDULED", "SUPERSEDED"
 
     private Boolean isFalsified;
 
@@ -39,8 +47,13 @@ public class AnalysisResult {
 
     private String analysisVersion; // Version of the model used
 
+    private InferenceMode inferenceMode; // FP32 or QUANTIZED, as reported by the worker
+
     // Specific details about the falsification detected
-    private Map<String, Object> detectionDetails = new HashMap<>();
+    private DetectionDetails detectionDetails = new DetectionDetails();
+
+    // GridFS id of the localization heatmap PNG, if one has been generated
+    private String heatmapFileId;
 
     // Any error messages if analysis failed
     private String errorMessage;
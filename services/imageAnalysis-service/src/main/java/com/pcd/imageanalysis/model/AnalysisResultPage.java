@@ -0,0 +1,16 @@
+package com.pcd.imageanalysis.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// One page of a keyset-paginated listing; pass nextCursor back to continue, null when exhausted
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AnalysisResultPage<T> {
+    private List<T> items;
+    private String nextCursor;
+}
@@ -0,0 +1,30 @@
+package com.pcd.imageanalysis.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+// Listing view of an AnalysisResult, read with a projection so detectionDetails never leaves Mongo
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AnalysisResultSummary {
+
+    public static final List<String> FIELDS = List.of(
+            "imageId", "caseId", "analysisTimestamp", "analysisStatus", "isFalsified",
+            "confidenceScore", "analysisVersion", "inferenceMode", "heatmapFileId");
+
+    private String id;
+    private String imageId;
+    private String caseId;
+    private Instant analysisTimestamp;
+    private String analysisStatus;
+    private Boolean isFalsified;
+    private Double confidenceScore;
+    private String analysisVersion;
+    private InferenceMode inferenceMode;
+    private String heatmapFileId;
+}
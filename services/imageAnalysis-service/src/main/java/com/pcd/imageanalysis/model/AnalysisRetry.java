@@ -0,0 +1,59 @@
+package com.pcd.imageanalysis.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// Durable retry state for one failed analysis; removed again once a retry succeeds
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document(collection = "analysis_retries")
+@CompoundIndex(name = "status_next_attempt", def = "{'status': 1, 'nextAttemptAt': 1}")
+public class AnalysisRetry {
+
+    public enum Status {
+        SCHEDULED,
+        RUNNING,
+        DEAD_LETTER
+    }
+
+    public enum FailureKind {
+        TRANSIENT,
+        PERMANENT
+    }
+
+    @Id
+    private String id;
+
+    @Indexed(unique = true)
+    private String analysisId;
+
+    private String imageId;
+
+    private String caseId;
+
+    private boolean heatmapRequested;
+
+    private int attempts; // Failed attempts so far, including the original run
+
+    private Status status;
+
+    private FailureKind lastFailureKind;
+
+    private String lastError;
+
+    private Instant nextAttemptAt;
+
+    private Instant leaseUntil; // A RUNNING retry whose lease expired is picked up again (node died mid-run)
+
+    private Instant createdAt;
+
+    private Instant updatedAt;
+}
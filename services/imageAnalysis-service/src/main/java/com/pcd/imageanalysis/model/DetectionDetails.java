@@ -0,0 +1,159 @@
+package com.pcd.imageanalysis.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What an analysis found beyond the verdict itself. The verdict, score, model version and mode
+ * live on {@link AnalysisResult} only; this holds the engine's extras, the per-detector outputs
+ * and, for PDF evidence, the per-image findings.
+ * <p>
+ * Stored with short field names (documents are read back far more often than they are inspected
+ * by hand); the API serializes the Java names. {@code v} is the schema version, documents written
+ * before it existed are converted by {@link com.pcd.imageanalysis.services.DetectionDetailsMigration}.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DetectionDetails {
+
+    public static final int SCHEMA_VERSION = 1;
+
+    @Field("v")
+    private int schemaVersion = SCHEMA_VERSION;
+
+    // Raw model output before the sigmoid
+    @Field("lg")
+    private Double logit;
+
+    @Field("hm")
+    private Heatmap heatmap;
+
+    // Only set for PDF evidence
+    @Field("doc")
+    private DocumentScan document;
+
+    @Field("det")
+    private Map<String, DetectorOutput> detectors = new LinkedHashMap<>();
+
+    // Set when parts were dropped to stay under analysis.details.max-bytes
+    @Field("tr")
+    private Boolean truncated;
+
+    /**
+     * Picks the known fields out of an inference engine's {@code detectionDetails} map.
+     */
+    public static DetectionDetails fromInference(Object engineDetails) {
+        DetectionDetails details = new DetectionDetails();
+        if (engineDetails instanceof Map<?, ?> map) {
+            if (map.get("logit_value") instanceof Number logit) {
+                details.setLogit(logit.doubleValue());
+            }
+            if (map.get("heatmap") instanceof Map<?, ?> heatmap) {
+                details.setHeatmap(Heatmap.fromMap(heatmap));
+            }
+        }
+        return details;
+    }
+
+    public boolean hasDocument() {
+        return document != null;
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Heatmap {
+
+        @Field("m")
+        private String method;
+
+        @Field("w")
+        private Integer width;
+
+        @Field("h")
+        private Integer height;
+
+        public static Heatmap fromMap(Map<?, ?> map) {
+            return new Heatmap(
+                    map.get("method") != null ? map.get("method").toString() : null,
+                    map.get("width") instanceof Number w ? w.intValue() : null,
+                    map.get("height") instanceof Number h ? h.intValue() : null);
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class DocumentScan {
+
+        @Field("p")
+        private int pages;
+
+        @Field("a")
+        private int imagesAnalyzed;
+
+        @Field("f")
+        private int imagesFailed;
+
+        @Field("x")
+        private int imagesFalsified;
+
+        @Field("fs")
+        private List<ImageFinding> findings = new ArrayList<>();
+
+        // Findings left out to respect the size budget; the counts above still cover them
+        @Field("o")
+        private int findingsOmitted;
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class ImageFinding {
+
+        @Field("p")
+        private int page;
+
+        @Field("i")
+        private int imageIndex;
+
+        @Field("w")
+        private Integer width;
+
+        @Field("h")
+        private Integer height;
+
+        @Field("fz")
+        private Boolean isFalsified;
+
+        @Field("cs")
+        private Double confidenceScore;
+
+        @Field("mv")
+        private String modelVersion;
+
+        @Field("im")
+        private InferenceMode inferenceMode;
+
+        @Field("e")
+        private String error;
+
+        @Field("fk")
+        private AnalysisRetry.FailureKind failureKind;
+
+        @Field("det")
+        private Map<String, DetectorOutput> detectors = new LinkedHashMap<>();
+
+        public boolean hasError() {
+            return error != null;
+        }
+    }
+}
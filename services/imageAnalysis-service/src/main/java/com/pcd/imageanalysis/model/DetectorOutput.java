@@ -0,0 +1,124 @@
+package com.pcd.imageanalysis.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Output of one {@link com.pcd.imageanalysis.services.ImageDetector}: scalar metrics, short string
+ * attributes, and numeric arrays (feature vectors, block maps, ...) packed as little-endian float32
+ * binary rather than BSON arrays, which cost 9+ bytes per element and deserialize element by element.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DetectorOutput {
+
+    @Field("m")
+    private Map<String, Double> metrics = new LinkedHashMap<>();
+
+    @Field("a")
+    private Map<String, String> attributes = new LinkedHashMap<>();
+
+    @Field("b")
+    private Map<String, byte[]> arrays = new LinkedHashMap<>();
+
+    public DetectorOutput metric(String name, double value) {
+        metrics.put(name, value);
+        return this;
+    }
+
+    public DetectorOutput attribute(String name, String value) {
+        attributes.put(name, value);
+        return this;
+    }
+
+    public DetectorOutput array(String name, float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        arrays.put(name, buffer.array());
+        return this;
+    }
+
+    public float[] array(String name) {
+        byte[] packed = arrays.get(name);
+        if (packed == null) {
+            return null;
+        }
+        float[] values = new float[packed.length / Float.BYTES];
+        ByteBuffer.wrap(packed).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+        return values;
+    }
+
+    public boolean hasArrays() {
+        return arrays != null && !arrays.isEmpty();
+    }
+
+    /**
+     * Types a free-form detector map: numbers become metrics, numeric arrays and lists are packed,
+     * nested maps are flattened with {@code /}-joined keys and anything else is kept as a string.
+     */
+    public static DetectorOutput fromMap(Map<?, ?> values) {
+        DetectorOutput output = new DetectorOutput();
+        output.addAll("", values);
+        return output;
+    }
+
+    private void addAll(String prefix, Map<?, ?> values) {
+        for (Map.Entry<?, ?> entry : values.entrySet()) {
+            // Dots are not allowed in Mongo keys
+            String name = prefix + String.valueOf(entry.getKey()).replace('.', '_');
+            Object value = entry.getValue();
+            if (value == null) {
+                continue;
+            }
+            if (value instanceof Number number) {
+                metric(name, number.doubleValue());
+            } else if (value instanceof byte[] bytes) {
+                arrays.put(name, bytes);
+            } else if (value instanceof float[] floats) {
+                array(name, floats);
+            } else if (value instanceof double[] doubles) {
+                float[] floats = new float[doubles.length];
+                for (int i = 0; i < doubles.length; i++) {
+                    floats[i] = (float) doubles[i];
+                }
+                array(name, floats);
+            } else if (value instanceof int[] ints) {
+                float[] floats = new float[ints.length];
+                for (int i = 0; i < ints.length; i++) {
+                    floats[i] = ints[i];
+                }
+                array(name, floats);
+            } else if (value instanceof Collection<?> collection && isNumeric(collection)) {
+                float[] floats = new float[collection.size()];
+                Iterator<?> it = collection.iterator();
+                for (int i = 0; i < floats.length; i++) {
+                    floats[i] = ((Number) it.next()).floatValue();
+                }
+                array(name, floats);
+            } else if (value instanceof Map<?, ?> nested) {
+                addAll(name + "/", nested);
+            } else {
+                attribute(name, value.toString());
+            }
+        }
+    }
+
+    private static boolean isNumeric(Collection<?> collection) {
+        for (Object element : collection) {
+            if (!(element instanceof Number)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
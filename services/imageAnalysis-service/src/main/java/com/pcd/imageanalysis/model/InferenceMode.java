@@ -0,0 +1,14 @@
+package com.pcd.imageanalysis.model;
+
+public enum InferenceMode {
+    FP32,
+    QUANTIZED; // dynamic int8 quantization of Linear layers, applied when the worker loads the model
+
+    public String toScriptArgument() {
+        return name().toLowerCase();
+    }
+
+    public static InferenceMode fromScriptValue(Object value) {
+        return value != null && "quantized".equalsIgnoreCase(value.toString()) ? QUANTIZED : FP32;
+    }
+}
@@ -0,0 +1,25 @@
+package com.pcd.imageanalysis.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Everything a worker needs to rebuild and run one model
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ModelSpec {
+    private String architecture;
+    private int imgHeight;
+    private int imgWidth;
+    private int denseUnits;
+    private double dropout;
+    private String version;
+    private InferenceMode inferenceMode = InferenceMode.FP32;
+    private String weightsPath; // null means the engine's configured model file
+
+    public ModelSpec(String architecture, int imgHeight, int imgWidth, int denseUnits, double dropout, String version,
+                     InferenceMode inferenceMode) {
+        this(architecture, imgHeight, imgWidth, denseUnits, dropout, version, inferenceMode, null);
+    }
+}
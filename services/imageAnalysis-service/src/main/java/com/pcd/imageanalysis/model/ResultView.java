@@ -0,0 +1,16 @@
+package com.pcd.imageanalysis.model;
+
+public enum ResultView {
+    SUMMARY(AnalysisResultSummary.class),
+    FULL(AnalysisResult.class);
+
+    private final Class<?> type;
+
+    ResultView(Class<?> type) {
+        this.type = type;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+}
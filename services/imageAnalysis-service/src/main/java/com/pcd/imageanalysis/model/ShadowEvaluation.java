@@ -0,0 +1,50 @@
+package com.pcd.imageanalysis.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// Outcome of running a candidate model next to the primary one on the same image
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document(collection = "shadow_evaluations")
+@CompoundIndex(name = "candidate_timestamp", def = "{'candidateVersion': 1, 'timestamp': -1}")
+public class ShadowEvaluation {
+
+    @Id
+    private String id;
+
+    private String analysisId;
+
+    private String imageId;
+
+    private String caseId;
+
+    private String primaryVersion;
+
+    private String candidateVersion;
+
+    private Boolean primaryFalsified;
+
+    private Boolean candidateFalsified;
+
+    private Double primaryScore;
+
+    private Double candidateScore;
+
+    private Boolean agreement; // Same verdict; null when the candidate failed
+
+    private Long primaryLatencyMs;
+
+    private Long candidateLatencyMs;
+
+    private String errorMessage;
+
+    private Instant timestamp;
+}
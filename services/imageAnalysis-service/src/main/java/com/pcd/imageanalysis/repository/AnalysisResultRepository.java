@@ -8,17 +8,27 @@ import org.springframework.stereotype.Repository;
 import java.util.List;
 import java.util.Optional;
 
+// Listings go through the keyset-paginated queries in AnalysisResultRepositoryCustom
 @Repository
-public interface AnalysisResultRepository extends MongoRepository<AnalysisResult, String> {
+public interface AnalysisResultRepository extends MongoRepository<AnalysisResult, String>, AnalysisResultRepositoryCustom {
 
-    Optional<AnalysisResult> findByImageId(String imageId);
+    // An image accumulates one result per run; callers want the most recent, minus stale verdicts (SUPERSEDED)
+    Optional<AnalysisResult> findFirstByImageIdAndAnalysisStatusNotOrderByAnalysisTimestampDesc(String imageId, String excludedStatus);
 
+    List<AnalysisResult> findByImageIdOrderByAnalysisTimestampDesc(String imageId);
+
+    // The unbounded queries from before pagination, kept for existing callers; use the paged ones instead
+
+    @Deprecated
     List<AnalysisResult> findByCaseId(String caseId);
 
+    @Deprecated
     List<AnalysisResult> findByIsFalsified(Boolean isFalsified);
 
+    @Deprecated
     @Query("{'confidenceScore': {$gte: ?0}}")
     List<AnalysisResult> findByConfidenceScoreGreaterThan(Double threshold);
 
+    @Deprecated
     List<AnalysisResult> findByAnalysisStatus(String status);
-}
\ No newline at end of file
+}
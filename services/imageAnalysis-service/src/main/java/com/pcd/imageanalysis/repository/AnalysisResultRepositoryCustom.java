@@ -0,0 +1,30 @@
+package com.pcd.imageanalysis.repository;
+
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisResultPage;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Bounded result listings. {@code view} is either {@code AnalysisResult} or
+ * {@code AnalysisResultSummary}; the latter is read with a projection. Cursors are opaque
+ * tokens returned in {@link AnalysisResultPage#getNextCursor()}.
+ */
+public interface AnalysisResultRepositoryCustom {
+
+    // Newest first, backed by the caseId + analysisTimestamp index
+    <T> AnalysisResultPage<T> findPageByCaseId(String caseId, String cursor, int limit, Class<T> view);
+
+    // Highest confidence first, backed by the isFalsified + confidenceScore index
+    <T> AnalysisResultPage<T> findPageByIsFalsified(Boolean isFalsified, Double minConfidence, String cursor, int limit, Class<T> view);
+
+    // Newest first, backed by the analysisStatus + analysisTimestamp index
+    <T> AnalysisResultPage<T> findPageByAnalysisStatus(String status, String cursor, int limit, Class<T> view);
+
+    // Whole case in index order over a server-side cursor; the caller must close the stream
+    <T> Stream<T> streamByCaseId(String caseId, Class<T> view);
+
+    // Read-through into the retention archive, newest first
+    List<AnalysisResult> findArchivedByImageId(String imageId);
+}
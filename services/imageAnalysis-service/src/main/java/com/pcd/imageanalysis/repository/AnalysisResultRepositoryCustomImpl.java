@@ -0,0 +1,154 @@
+package com.pcd.imageanalysis.repository;
+
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisResultPage;
+import com.pcd.imageanalysis.model.AnalysisResultSummary;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+@Repository
+public class AnalysisResultRepositoryCustomImpl implements AnalysisResultRepositoryCustom {
+
+    private static final String TIMESTAMP = "analysisTimestamp";
+    private static final String CONFIDENCE = "confidenceScore";
+    private static final int STREAM_BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+
+    public AnalysisResultRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public <T> AnalysisResultPage<T> findPageByCaseId(String caseId, String cursor, int limit, Class<T> view) {
+        return page(Criteria.where("caseId").is(caseId), TIMESTAMP, AnalysisResultRepositoryCustomImpl::parseInstant,
+                cursor, limit, view);
+    }
+
+    @Override
+    public <T> AnalysisResultPage<T> findPageByIsFalsified(Boolean isFalsified, Double minConfidence, String cursor,
+                                                           int limit, Class<T> view) {
+        Criteria filter = Criteria.where("isFalsified").is(isFalsified);
+        // Keyset comparison needs a score on every row; failed analyses have none
+        filter = minConfidence != null ? filter.and(CONFIDENCE).gte(minConfidence) : filter.and(CONFIDENCE).ne(null);
+        return page(filter, CONFIDENCE, Double::valueOf, cursor, limit, view);
+    }
+
+    @Override
+    public <T> AnalysisResultPage<T> findPageByAnalysisStatus(String status, String cursor, int limit, Class<T> view) {
+        return page(Criteria.where("analysisStatus").is(status), TIMESTAMP, AnalysisResultRepositoryCustomImpl::parseInstant,
+                cursor, limit, view);
+    }
+
+    @Override
+    public <T> Stream<T> streamByCaseId(String caseId, Class<T> view) {
+        Query query = new Query(Criteria.where("caseId").is(caseId))
+                .with(Sort.by(Sort.Direction.DESC, TIMESTAMP, "_id"))
+                .cursorBatchSize(STREAM_BATCH_SIZE);
+        project(query, view);
+        return mongoTemplate.stream(query, view, collection());
+    }
+
+    @Override
+    public List<AnalysisResult> findArchivedByImageId(String imageId) {
+        Query query = new Query(Criteria.where("imageId").is(imageId))
+                .with(Sort.by(Sort.Direction.DESC, TIMESTAMP));
+        return mongoTemplate.find(query, AnalysisResult.class, AnalysisResult.ARCHIVE_COLLECTION);
+    }
+
+    private <T> AnalysisResultPage<T> page(Criteria filter, String sortField, Function<String, Object> parseSortValue,
+                                           String cursor, int limit, Class<T> view) {
+        Criteria criteria = filter;
+        if (cursor != null && !cursor.isBlank()) {
+            criteria = new Criteria().andOperator(filter, after(sortField, decodeCursor(cursor, parseSortValue)));
+        }
+        Query query = new Query(criteria)
+                .with(Sort.by(Sort.Direction.DESC, sortField, "_id"))
+                .limit(limit + 1);
+        project(query, view);
+
+        List<Document> documents = mongoTemplate.find(query, Document.class, collection());
+        String nextCursor = null;
+        if (documents.size() > limit) {
+            documents = documents.subList(0, limit);
+            Document last = documents.get(limit - 1);
+            nextCursor = encodeCursor(sortValue(last.get(sortField)), last.getObjectId("_id").toHexString());
+        }
+        List<T> items = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            items.add(mongoTemplate.getConverter().read(view, document));
+        }
+        return new AnalysisResultPage<>(items, nextCursor);
+    }
+
+    // Descending keyset: strictly after the last row of the previous page. Nulls sort last when descending
+    // and never match $lt, so they are reached explicitly
+    static Criteria after(String sortField, CursorPosition position) {
+        if (position.value() == null) {
+            return Criteria.where(sortField).is(null).and("_id").lt(position.id());
+        }
+        return new Criteria().orOperator(
+                Criteria.where(sortField).lt(position.value()),
+                Criteria.where(sortField).is(position.value()).and("_id").lt(position.id()),
+                Criteria.where(sortField).is(null));
+    }
+
+    private static void project(Query query, Class<?> view) {
+        if (view == AnalysisResultSummary.class) {
+            AnalysisResultSummary.FIELDS.forEach(query.fields()::include);
+        }
+    }
+
+    private String collection() {
+        return mongoTemplate.getCollectionName(AnalysisResult.class);
+    }
+
+    // Empty for a missing value, which decodes back to null
+    private static String sortValue(Object raw) {
+        if (raw == null) {
+            return "";
+        }
+        return raw instanceof Date date ? Long.toString(date.getTime()) : raw.toString();
+    }
+
+    private static Object parseInstant(String value) {
+        return Instant.ofEpochMilli(Long.parseLong(value));
+    }
+
+    static String encodeCursor(String sortValue, String id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((sortValue + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Every malformed cursor is an IllegalArgumentException, which the controllers answer with 400
+    static CursorPosition decodeCursor(String cursor, Function<String, Object> parseSortValue) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = decoded.split("\\|", 2);
+            if (parts.length != 2 || !ObjectId.isValid(parts[1])) {
+                throw new IllegalArgumentException("Malformed cursor");
+            }
+            Object value = parts[0].isEmpty() ? null : parseSortValue.apply(parts[0]);
+            return new CursorPosition(value, new ObjectId(parts[1]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid pagination cursor: " + cursor, e);
+        }
+    }
+
+    record CursorPosition(Object value, ObjectId id) {
+    }
+}
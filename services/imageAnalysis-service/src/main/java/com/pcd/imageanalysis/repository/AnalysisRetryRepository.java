@@ -0,0 +1,19 @@
+package com.pcd.imageanalysis.repository;
+
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface AnalysisRetryRepository extends MongoRepository<AnalysisRetry, String> {
+
+    Optional<AnalysisRetry> findByAnalysisId(String analysisId);
+
+    List<AnalysisRetry> findByStatusOrderByUpdatedAtDesc(AnalysisRetry.Status status, Pageable pageable);
+
+    void deleteByAnalysisId(String analysisId);
+}
@@ -0,0 +1,9 @@
+package com.pcd.imageanalysis.repository;
+
+import com.pcd.imageanalysis.model.ShadowEvaluation;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ShadowEvaluationRepository extends MongoRepository<ShadowEvaluation, String> {
+}
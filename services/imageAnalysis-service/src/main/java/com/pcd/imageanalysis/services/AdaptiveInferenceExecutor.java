@@ -0,0 +1,224 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.ModelSpec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs inference under a per-model deadline derived from observed latencies and, when enabled,
+ * hedges slow requests: once a request has been running longer than the model's hedge percentile
+ * and the engine has an idle worker, a duplicate is started and whichever finishes first wins.
+ * The loser is cancelled, which kills its worker process.
+ * <p>
+ * The deadline and the hedge delay run from the moment an engine worker starts on the request, the
+ * wait for a free worker is bounded by the engine itself; latencies are measured the same way.
+ */
+@Component
+public class AdaptiveInferenceExecutor {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveInferenceExecutor.class);
+
+    private final InferenceLatencyTracker latencyTracker;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService executor;
+
+    @Value("${analysis.inference.hedge.enabled:false}")
+    private boolean hedgingEnabled;
+
+    @Value("${analysis.inference.hedge.percentile:95}")
+    private double hedgePercentile;
+
+    @Autowired
+    public AdaptiveInferenceExecutor(InferenceLatencyTracker latencyTracker, MeterRegistry meterRegistry) {
+        this.latencyTracker = latencyTracker;
+        this.meterRegistry = meterRegistry;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "inference-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public static String modelKey(ModelSpec model) {
+        return model.getVersion() + "/" + model.getInferenceMode().name().toLowerCase();
+    }
+
+    public Map<String, Object> analyze(InferenceEngine engine, DecodedImageContext image, ModelSpec model,
+                                       HeatmapPolicy heatmapPolicy, Path heatmapOutput) throws IOException, InterruptedException {
+        String key = modelKey(model);
+        Duration deadline = latencyTracker.deadlineFor(key);
+
+        Attempt primary = submit(engine, image, model, heatmapPolicy, heatmapOutput, key, false);
+        Attempt hedge = null;
+        try {
+            long startNanos = primary.awaitStart();
+            Optional<Duration> hedgeAfter = hedgingEnabled ? latencyTracker.percentile(key, hedgePercentile) : Optional.empty();
+            CompletableFuture<Attempt> winner = primary.completion;
+            if (hedgeAfter.isPresent() && hedgeAfter.get().compareTo(deadline) < 0) {
+                try {
+                    long untilHedge = hedgeAfter.get().toNanos() - (System.nanoTime() - startNanos);
+                    return finish(primary.completion.get(Math.max(0, untilHedge), TimeUnit.NANOSECONDS), heatmapOutput);
+                } catch (TimeoutException slow) {
+                    if (engine.idleCapacity() > 0) {
+                        hedge = submit(engine, image, model, heatmapPolicy, heatmapOutput, key, true);
+                        counter("analysis.inference.hedge.issued", key).increment();
+                        log.info("Hedging inference for image {} on model {} after {} ms", image.getImageId(), key,
+                                hedgeAfter.get().toMillis());
+                        winner = firstSuccessful(primary, hedge);
+                    }
+                }
+            }
+
+            long remaining = deadline.toNanos() - (System.nanoTime() - startNanos);
+            Attempt done = winner.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            if (done.hedge) {
+                counter("analysis.inference.hedge.wins", key).increment();
+            }
+            return finish(done, heatmapOutput);
+        } catch (TimeoutException e) {
+            counter("analysis.inference.deadline.exceeded", key).increment();
+            log.error("Inference for image {} on model {} exceeded adaptive deadline of {} ms", image.getImageId(), key, deadline.toMillis());
+            throw new TransientAnalysisException("Inference exceeded deadline of " + deadline.toMillis() + " ms for model " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof InterruptedException interrupted) {
+                throw interrupted;
+            }
+            throw new IOException("Inference failed for model " + key + ": " + cause.getMessage(), cause);
+        } finally {
+            cancel(primary, key);
+            if (hedge != null) {
+                cancel(hedge, key);
+            }
+        }
+    }
+
+    // A no-op for an attempt that already finished
+    private void cancel(Attempt attempt, String key) {
+        Long started = attempt.started.getNow(null);
+        if (started != null && attempt.settle()) {
+            // Still running: it was cut off by the deadline or lost the hedge, and took at least this long
+            latencyTracker.recordCensored(key, Duration.ofNanos(System.nanoTime() - started));
+        }
+        attempt.cancel();
+    }
+
+    private Attempt submit(InferenceEngine engine, DecodedImageContext image, ModelSpec model,
+                           HeatmapPolicy heatmapPolicy, Path heatmapOutput, String key, boolean hedge) throws IOException {
+        // Each attempt writes its own heatmap so a cancelled loser can never clobber the winner's file
+        Path attemptHeatmap = heatmapOutput != null ? Files.createTempFile("heatmap_attempt_", ".png") : null;
+        Attempt attempt = new Attempt(hedge, attemptHeatmap);
+        attempt.task = executor.submit(() -> {
+            try {
+                attempt.result = engine.analyze(image, model, heatmapPolicy, attemptHeatmap,
+                        () -> attempt.started.complete(System.nanoTime()));
+                if (attempt.settle()) {
+                    latencyTracker.record(key, Duration.ofNanos(System.nanoTime() - attempt.started.join()));
+                }
+                attempt.completion.complete(attempt);
+            } catch (Throwable t) {
+                // Failures say nothing about latency; unless cancel() already counted it as cut off
+                attempt.settle();
+                attempt.completion.completeExceptionally(t);
+            }
+        });
+        return attempt;
+    }
+
+    private Map<String, Object> finish(Attempt done, Path heatmapOutput) throws IOException {
+        if (heatmapOutput != null && done.heatmap != null) {
+            Files.move(done.heatmap, heatmapOutput, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return done.result;
+    }
+
+    private static CompletableFuture<Attempt> firstSuccessful(Attempt a, Attempt b) {
+        CompletableFuture<Attempt> first = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (Attempt attempt : new Attempt[]{a, b}) {
+            attempt.completion.whenComplete((done, error) -> {
+                if (error == null) {
+                    first.complete(done);
+                } else if (failures.incrementAndGet() == 2) {
+                    first.completeExceptionally(error);
+                }
+            });
+        }
+        return first;
+    }
+
+    private Counter counter(String name, String key) {
+        return Counter.builder(name).tag("model", key).register(meterRegistry);
+    }
+
+    private static final class Attempt {
+        final boolean hedge;
+        final Path heatmap;
+        final CompletableFuture<Attempt> completion = new CompletableFuture<>();
+        // nanoTime at which an engine worker started on it
+        final CompletableFuture<Long> started = new CompletableFuture<>();
+        // Set once its latency has been recorded, or it failed, so nothing is counted twice
+        private final AtomicBoolean settled = new AtomicBoolean();
+        volatile Future<?> task;
+        volatile Map<String, Object> result;
+
+        Attempt(boolean hedge, Path heatmap) {
+            this.hedge = hedge;
+            this.heatmap = heatmap;
+        }
+
+        boolean settle() {
+            return settled.compareAndSet(false, true);
+        }
+
+        // Engines bound their own wait for a worker, failing the attempt when none frees up in time
+        long awaitStart() throws InterruptedException, ExecutionException {
+            CompletableFuture.anyOf(started, completion).get();
+            return started.isDone() ? started.join() : System.nanoTime();
+        }
+
+        void cancel() {
+            if (task != null) {
+                task.cancel(true);
+            }
+            if (heatmap != null) {
+                try {
+                    Files.deleteIfExists(heatmap);
+                } catch (IOException e) {
+                    log.warn("Could not delete temporary heatmap file: {}", heatmap, e);
+                }
+            }
+        }
+    }
+}
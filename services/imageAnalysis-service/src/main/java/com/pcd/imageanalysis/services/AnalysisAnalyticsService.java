@@ -0,0 +1,219 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.AnalysisResult;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Supervisor analytics over analysis results. Every figure is computed by an aggregation
+ * pipeline inside Mongo, so only the handful of aggregated rows ever reach the JVM. Results
+ * are kept for a short TTL because dashboards tend to re-request the same view.
+ * <p>
+ * Only the hot collection is aggregated: results moved to the archive by
+ * {@link AnalysisResultCompactionService} are not counted.
+ */
+@Service
+public class AnalysisAnalyticsService {
+    private static final Logger log = LoggerFactory.getLogger(AnalysisAnalyticsService.class);
+
+    private static final String OUT_OF_RANGE_BUCKET = "other";
+
+    private final MongoTemplate mongoTemplate;
+    private final Duration cacheTtl;
+    private final int maxCachedEntries;
+    private final Map<String, CachedResult> cache = new ConcurrentHashMap<>();
+
+    public record Filter(String caseId, String analysisVersion, Instant from, Instant to) {
+    }
+
+    public record ConfidenceBucket(double lowerBound, double upperBound, long count, long falsified) {
+    }
+
+    public record VersionRate(String analysisVersion, long total, long falsified, double falsificationRate,
+                              Double averageConfidence) {
+    }
+
+    public record DailyCount(String day, long total, long falsified, long failed) {
+    }
+
+    private record CachedResult(Instant expiresAt, Object value) {
+    }
+
+    @Autowired
+    public AnalysisAnalyticsService(MongoTemplate mongoTemplate,
+                                    @Value("${analysis.analytics.cache.ttl-seconds:60}") long cacheTtlSeconds,
+                                    @Value("${analysis.analytics.cache.max-entries:512}") int maxCachedEntries) {
+        this.mongoTemplate = mongoTemplate;
+        this.cacheTtl = Duration.ofSeconds(cacheTtlSeconds);
+        this.maxCachedEntries = maxCachedEntries;
+    }
+
+    /**
+     * Distribution of {@code confidenceScore} over {@code buckets} equal-width buckets in [0, 1],
+     * over completed analyses only. Empty buckets are included so the histogram always has the
+     * requested shape; a score outside [0, 1] is logged and left out.
+     */
+    public List<ConfidenceBucket> confidenceHistogram(Filter filter, int buckets) {
+        if (buckets < 1 || buckets > 100) {
+            throw new IllegalArgumentException("Bucket count must be between 1 and 100: " + buckets);
+        }
+        return cached("histogram:" + buckets + ":" + filter, () -> {
+            Double[] boundaries = new Double[buckets + 1];
+            for (int i = 0; i < buckets; i++) {
+                boundaries[i] = (double) i / buckets;
+            }
+            // Upper boundary is exclusive, nudge it so a score of exactly 1.0 still lands in the last bucket
+            boundaries[buckets] = Math.nextUp(1.0);
+
+            Aggregation aggregation = Aggregation.newAggregation(
+                    Aggregation.match(criteria(filter).and("analysisStatus").is("COMPLETED").and("confidenceScore").ne(null)),
+                    Aggregation.bucket("confidenceScore")
+                            .withBoundaries((Object[]) boundaries)
+                            // Without it $bucket fails the whole pipeline on a single out-of-range score
+                            .withDefaultBucket(OUT_OF_RANGE_BUCKET)
+                            .andOutputCount().as("count")
+                            .andOutput(falsifiedFlag()).sum().as("falsified")
+            );
+            Map<Double, Document> rows = new HashMap<>();
+            for (Document row : aggregate(aggregation)) {
+                if (row.get("_id") instanceof Number lowerBound) {
+                    rows.put(lowerBound.doubleValue(), row);
+                } else {
+                    log.warn("{} completed analyses have a confidence score outside [0, 1] ({})", longValue(row, "count"), filter);
+                }
+            }
+            List<ConfidenceBucket> histogram = new ArrayList<>(buckets);
+            for (int i = 0; i < buckets; i++) {
+                Document row = rows.get(boundaries[i]);
+                histogram.add(new ConfidenceBucket(boundaries[i], Math.min(1.0, boundaries[i + 1]),
+                        row != null ? longValue(row, "count") : 0, row != null ? longValue(row, "falsified") : 0));
+            }
+            return histogram;
+        });
+    }
+
+    /**
+     * Falsification rate and mean confidence per model version, over completed analyses only.
+     */
+    public List<VersionRate> ratesByVersion(Filter filter) {
+        return cached("versions:" + filter, () -> {
+            Aggregation aggregation = Aggregation.newAggregation(
+                    Aggregation.match(criteria(filter).and("analysisStatus").is("COMPLETED")),
+                    Aggregation.group("analysisVersion")
+                            .count().as("total")
+                            .sum(falsifiedFlag()).as("falsified")
+                            .avg("confidenceScore").as("averageConfidence"),
+                    Aggregation.sort(Sort.Direction.DESC, "total")
+            );
+            List<VersionRate> rates = new ArrayList<>();
+            for (Document row : aggregate(aggregation)) {
+                long total = longValue(row, "total");
+                long falsified = longValue(row, "falsified");
+                Number average = (Number) row.get("averageConfidence");
+                rates.add(new VersionRate(row.getString("_id"), total, falsified,
+                        total > 0 ? (double) falsified / total : 0.0, average != null ? average.doubleValue() : null));
+            }
+            return rates;
+        });
+    }
+
+    /**
+     * Analyses per UTC day with the number found falsified and the number that failed.
+     */
+    public List<DailyCount> dailyCounts(Filter filter) {
+        return cached("daily:" + filter, () -> {
+            Aggregation aggregation = Aggregation.newAggregation(
+                    Aggregation.match(criteria(filter).and("analysisTimestamp").ne(null)),
+                    Aggregation.project("isFalsified", "analysisStatus")
+                            .and(DateOperators.dateOf("analysisTimestamp").toString("%Y-%m-%d")).as("day"),
+                    Aggregation.group("day")
+                            .count().as("total")
+                            .sum(falsifiedFlag()).as("falsified")
+                            .sum(ConditionalOperators.when(ComparisonOperators.valueOf("analysisStatus").equalToValue("FAILED"))
+                                    .then(1).otherwise(0)).as("failed"),
+                    Aggregation.sort(Sort.Direction.ASC, "_id")
+            );
+            List<DailyCount> counts = new ArrayList<>();
+            for (Document row : aggregate(aggregation)) {
+                counts.add(new DailyCount(row.getString("_id"), longValue(row, "total"), longValue(row, "falsified"), longValue(row, "failed")));
+            }
+            return counts;
+        });
+    }
+
+    private static Criteria criteria(Filter filter) {
+        Criteria criteria = new Criteria();
+        if (filter.caseId() != null) {
+            criteria = criteria.and("caseId").is(filter.caseId());
+        }
+        if (filter.analysisVersion() != null) {
+            criteria = criteria.and("analysisVersion").is(filter.analysisVersion());
+        }
+        if (filter.from() != null || filter.to() != null) {
+            Criteria timestamp = criteria.and("analysisTimestamp");
+            if (filter.from() != null) {
+                timestamp = timestamp.gte(filter.from());
+            }
+            if (filter.to() != null) {
+                timestamp = timestamp.lt(filter.to());
+            }
+            criteria = timestamp;
+        }
+        return criteria;
+    }
+
+    private static AggregationExpression falsifiedFlag() {
+        return ConditionalOperators.when(ComparisonOperators.valueOf("isFalsified").equalToValue(true))
+                .then(1).otherwise(0);
+    }
+
+    private List<Document> aggregate(Aggregation aggregation) {
+        return mongoTemplate.aggregate(aggregation, mongoTemplate.getCollectionName(AnalysisResult.class), Document.class)
+                .getMappedResults();
+    }
+
+    private static long longValue(Document row, String field) {
+        Object value = row.get(field);
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cached(String key, Supplier<T> compute) {
+        Instant now = Instant.now();
+        CachedResult hit = cache.get(key);
+        if (hit != null && hit.expiresAt().isAfter(now)) {
+            return (T) hit.value();
+        }
+        T value = compute.get();
+        if (cache.size() >= maxCachedEntries) {
+            cache.values().removeIf(entry -> !entry.expiresAt().isAfter(now));
+            if (cache.size() >= maxCachedEntries) {
+                log.debug("Analytics cache full, clearing {} entries", cache.size());
+                cache.clear();
+            }
+        }
+        cache.put(key, new CachedResult(now.plus(cacheTtl), value));
+        return value;
+    }
+}
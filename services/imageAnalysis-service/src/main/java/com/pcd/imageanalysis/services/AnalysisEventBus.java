@@ -0,0 +1,212 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.AnalysisEvent;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process fan-out of analysis lifecycle events to SSE subscribers, per image and per case.
+ * <p>
+ * Publishing never blocks on clients: every subscriber has a small bounded buffer drained by a
+ * shared dispatcher pool, and when a slow client lets it fill up events are dropped according to
+ * {@code analysis.events.drop-policy}. Events are also handed to the broker relay, when enabled,
+ * so subscribers connected to any node see analyses running on every other node.
+ */
+@Component
+public class AnalysisEventBus {
+    private static final Logger log = LoggerFactory.getLogger(AnalysisEventBus.class);
+
+    public enum DropPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST
+    }
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<String, Set<Subscription>> imageSubscriptions = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscription>> caseSubscriptions = new ConcurrentHashMap<>();
+    private final ObjectProvider<KafkaAnalysisEventRelay> relay;
+    private final ExecutorService dispatcher;
+    private final Counter droppedEvents;
+
+    @Value("${analysis.events.buffer-size:32}")
+    private int bufferSize;
+
+    @Value("${analysis.events.drop-policy:DROP_OLDEST}")
+    private DropPolicy dropPolicy;
+
+    @Value("${analysis.events.emitter-timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    @Autowired
+    public AnalysisEventBus(ObjectProvider<KafkaAnalysisEventRelay> relay,
+                            MeterRegistry meterRegistry,
+                            @Value("${analysis.events.dispatcher-threads:4}") int dispatcherThreads) {
+        this.relay = relay;
+        this.droppedEvents = Counter.builder("analysis.events.dropped")
+                .description("Lifecycle events dropped because a subscriber buffer was full")
+                .register(meterRegistry);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.dispatcher = Executors.newFixedThreadPool(dispatcherThreads, r -> {
+            Thread thread = new Thread(r, "analysis-events-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void publish(AnalysisEvent.Type type, AnalysisResult result, String stage, String detail) {
+        publish(new AnalysisEvent(result.getImageId(), result.getCaseId(), result.getId(), type, stage, detail,
+                Instant.now(), nodeId));
+    }
+
+    public void publish(AnalysisEvent event) {
+        dispatchLocal(event);
+        KafkaAnalysisEventRelay broker = relay.getIfAvailable();
+        if (broker != null) {
+            broker.forward(event);
+        }
+    }
+
+    // Entry point for events that arrive from other nodes through the broker
+    public void dispatchLocal(AnalysisEvent event) {
+        deliver(imageSubscriptions.get(event.getImageId()), event);
+        if (event.getCaseId() != null) {
+            deliver(caseSubscriptions.get(event.getCaseId()), event);
+        }
+    }
+
+    /**
+     * Streams events for one image; the stream completes after the terminal event.
+     * {@code current} (if any) is sent first so late subscribers learn the present state without polling.
+     */
+    public SseEmitter subscribeToImage(String imageId, AnalysisEvent current) {
+        Subscription subscription = register(imageSubscriptions, imageId, true);
+        if (current != null) {
+            subscription.offer(current);
+        }
+        return subscription.emitter;
+    }
+
+    public SseEmitter subscribeToCase(String caseId) {
+        return register(caseSubscriptions, caseId, false).emitter;
+    }
+
+    private Subscription register(Map<String, Set<Subscription>> registry, String key, boolean completeOnTerminal) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        Subscription subscription = new Subscription(emitter, completeOnTerminal, () -> {
+            registry.computeIfPresent(key, (k, subs) -> {
+                subs.removeIf(s -> s.emitter == emitter);
+                return subs.isEmpty() ? null : subs;
+            });
+        });
+        registry.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(subscription);
+        emitter.onCompletion(subscription.unregister);
+        emitter.onTimeout(subscription.unregister);
+        emitter.onError(e -> subscription.unregister.run());
+        log.debug("New analysis event subscriber for {}", key);
+        return subscription;
+    }
+
+    private void deliver(Set<Subscription> subscriptions, AnalysisEvent event) {
+        if (subscriptions == null) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    private static boolean isTerminal(AnalysisEvent event) {
+        return event.getType() == AnalysisEvent.Type.COMPLETED || event.getType() == AnalysisEvent.Type.FAILED;
+    }
+
+    private final class Subscription {
+        final SseEmitter emitter;
+        final boolean completeOnTerminal;
+        final Runnable unregister;
+        final Deque<AnalysisEvent> buffer = new ArrayDeque<>();
+        final AtomicBoolean draining = new AtomicBoolean();
+
+        Subscription(SseEmitter emitter, boolean completeOnTerminal, Runnable unregister) {
+            this.emitter = emitter;
+            this.completeOnTerminal = completeOnTerminal;
+            this.unregister = unregister;
+        }
+
+        void offer(AnalysisEvent event) {
+            synchronized (buffer) {
+                if (buffer.size() >= bufferSize) {
+                    droppedEvents.increment();
+                    if (dropPolicy == DropPolicy.DROP_NEWEST) {
+                        return;
+                    }
+                    buffer.pollFirst();
+                }
+                buffer.addLast(event);
+            }
+            if (draining.compareAndSet(false, true)) {
+                dispatcher.execute(this::drain);
+            }
+        }
+
+        void drain() {
+            while (true) {
+                AnalysisEvent next;
+                synchronized (buffer) {
+                    next = buffer.pollFirst();
+                    if (next == null) {
+                        draining.set(false);
+                        return;
+                    }
+                }
+                try {
+                    emitter.send(SseEmitter.event()
+                            .name(next.getType().name())
+                            .data(next));
+                    if (completeOnTerminal && isTerminal(next)) {
+                        unregister.run();
+                        emitter.complete();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    log.debug("Dropping analysis event subscriber: {}", e.getMessage());
+                    unregister.run();
+                    synchronized (buffer) {
+                        buffer.clear();
+                        draining.set(false);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
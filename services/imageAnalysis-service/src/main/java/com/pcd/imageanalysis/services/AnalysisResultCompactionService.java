@@ -0,0 +1,316 @@
+package com.pcd.imageanalysis.services;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tiered retention for {@code image_analysis_results}. The hot collection keeps the latest
+ * completed result per image and model version; superseded results, and any finished result
+ * older than {@code analysis.retention.max-age-days}, move to a zstd-compressed archive
+ * collection that audits read through (see {@link ImageAnalysisService#getAnalysisHistory}).
+ * Nothing else reads the archive: case and verdict listings, exports and {@link AnalysisAnalyticsService}
+ * only cover hot results, so an archived result drops out of them.
+ * <p>
+ * Safe alongside live traffic: only COMPLETED, FAILED and SUPERSEDED results are candidates, results with
+ * retry state are left alone, each batch is copied before it is deleted, and the delete only
+ * matches documents whose status and timestamp are still those of the copy. A result that
+ * changed in between stays hot and its archived copy is removed again. Batches are paced by
+ * {@code analysis.retention.batch-pause-ms}.
+ * <p>
+ * Heatmaps are only served for an image's latest hot result, so the GridFS heatmap of a result
+ * that moved is deleted and its {@code heatmapFileId} unset in the archive.
+ */
+@Service
+public class AnalysisResultCompactionService {
+    private static final Logger log = LoggerFactory.getLogger(AnalysisResultCompactionService.class);
+    private static final List<String> FINISHED = List.of("COMPLETED", "FAILED", "SUPERSEDED");
+
+    public enum Reason {
+        SUPERSEDED,
+        AGED
+    }
+
+    public record CompactionReport(Instant startedAt, Instant finishedAt, long superseded, long aged, long skipped,
+                                   long reclaimedBytes, long hotDataBytesBefore, long hotDataBytesAfter,
+                                   long archiveStorageBytesAdded) {
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final HeatmapService heatmapService;
+    private final Codec<Document> documentCodec = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+    private final MeterRegistry meterRegistry;
+    private final Counter reclaimedBytes;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile CompactionReport lastReport;
+
+    @Value("${analysis.retention.max-age-days:365}")
+    private int maxAgeDays;
+
+    @Value("${analysis.retention.batch-size:500}")
+    private int batchSize;
+
+    @Value("${analysis.retention.batch-pause-ms:200}")
+    private long batchPauseMs;
+
+    @Value("${analysis.retention.max-documents-per-run:100000}")
+    private long maxDocumentsPerRun;
+
+    @Value("${analysis.retention.archive-compressor:zstd}")
+    private String archiveCompressor;
+
+    @Autowired
+    public AnalysisResultCompactionService(MongoTemplate mongoTemplate, HeatmapService heatmapService, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.heatmapService = heatmapService;
+        this.meterRegistry = meterRegistry;
+        this.reclaimedBytes = Counter.builder("analysis.retention.reclaimed.bytes")
+                .description("Encoded size of results moved out of the hot collection")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public Optional<CompactionReport> getLastReport() {
+        return Optional.ofNullable(lastReport);
+    }
+
+    /**
+     * Runs one compaction pass.
+     *
+     * @return the report, or empty if a pass is already running on this node
+     */
+    public Optional<CompactionReport> compact() throws InterruptedException {
+        if (!running.compareAndSet(false, true)) {
+            return Optional.empty();
+        }
+        try {
+            Instant startedAt = Instant.now();
+            ensureArchive();
+            String hot = hotCollection();
+            long hotBefore = collectionStat(hot, "size");
+            long archiveBefore = collectionStat(AnalysisResult.ARCHIVE_COLLECTION, "storageSize");
+
+            Pass pass = new Pass();
+            try (Stream<Document> groups = supersededGroups()) {
+                List<Object> batch = new ArrayList<>(batchSize);
+                for (Document group : (Iterable<Document>) groups::iterator) {
+                    List<?> ids = group.getList("ids", Object.class);
+                    // Sorted newest first; the head is the result that stays hot
+                    for (Object id : ids.subList(1, ids.size())) {
+                        batch.add(id);
+                        if (batch.size() == batchSize && !pass.move(batch, Reason.SUPERSEDED)) {
+                            break;
+                        }
+                    }
+                    if (pass.exhausted()) {
+                        break;
+                    }
+                }
+                if (!batch.isEmpty() && !pass.exhausted()) {
+                    pass.move(batch, Reason.SUPERSEDED);
+                }
+            }
+
+            Instant cutoff = Instant.now().minus(Duration.ofDays(maxAgeDays));
+            Object lastId = null;
+            while (!pass.exhausted()) {
+                // Keyset over _id, so results skipped by one batch are not selected again by the next
+                Criteria criteria = Criteria.where("analysisStatus").in(FINISHED).and("analysisTimestamp").lt(cutoff);
+                if (lastId != null) {
+                    criteria = criteria.and("_id").gt(lastId);
+                }
+                Query aged = new Query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")).limit(batchSize);
+                aged.fields().include("_id");
+                List<Object> batch = mongoTemplate.find(aged, Document.class, hot).stream()
+                        .map(document -> document.get("_id"))
+                        .collect(Collectors.toCollection(ArrayList::new));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                lastId = batch.get(batch.size() - 1);
+                if (!pass.move(batch, Reason.AGED)) {
+                    break;
+                }
+            }
+
+            CompactionReport report = new CompactionReport(startedAt, Instant.now(), pass.moved[Reason.SUPERSEDED.ordinal()],
+                    pass.moved[Reason.AGED.ordinal()], pass.skipped, pass.bytes, hotBefore, collectionStat(hot, "size"),
+                    Math.max(0, collectionStat(AnalysisResult.ARCHIVE_COLLECTION, "storageSize") - archiveBefore));
+            lastReport = report;
+            log.info("Result compaction archived {} superseded and {} aged result(s), skipped {}, reclaimed {} bytes "
+                            + "(hot data {} -> {} bytes, archive storage +{} bytes) in {} ms",
+                    report.superseded(), report.aged(), report.skipped(), report.reclaimedBytes(),
+                    report.hotDataBytesBefore(), report.hotDataBytesAfter(), report.archiveStorageBytesAdded(),
+                    Duration.between(startedAt, report.finishedAt()).toMillis());
+            return Optional.of(report);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    // Groups of completed results sharing an image and model version, newest first within each group
+    private Stream<Document> supersededGroups() {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("analysisStatus").is("COMPLETED")),
+                Aggregation.sort(Sort.by(Sort.Direction.ASC, "imageId", "analysisVersion")
+                        .and(Sort.by(Sort.Direction.DESC, "analysisTimestamp", "_id"))),
+                Aggregation.group("imageId", "analysisVersion").push("_id").as("ids").count().as("count"),
+                Aggregation.match(Criteria.where("count").gt(1))
+        ).withOptions(AggregationOptions.builder().allowDiskUse(true).cursorBatchSize(batchSize).build());
+        return mongoTemplate.aggregateStream(aggregation, hotCollection(), Document.class);
+    }
+
+    private final class Pass {
+        final long[] moved = new long[Reason.values().length];
+        long skipped;
+        long bytes;
+
+        boolean exhausted() {
+            return moved[0] + moved[1] >= maxDocumentsPerRun;
+        }
+
+        // Moves and clears the batch; false once the run's document cap is reached
+        boolean move(List<Object> ids, Reason reason) throws InterruptedException {
+            Set<String> withRetryState = new HashSet<>();
+            mongoTemplate.find(Query.query(Criteria.where("analysisId").in(ids.stream().map(Object::toString).toList())),
+                    AnalysisRetry.class).forEach(retry -> withRetryState.add(retry.getAnalysisId()));
+
+            List<Document> documents = mongoTemplate.find(Query.query(Criteria.where("_id").in(ids)
+                    .and("analysisStatus").in(FINISHED)), Document.class, hotCollection());
+            documents.removeIf(document -> withRetryState.contains(document.get("_id").toString()));
+            skipped += ids.size() - documents.size();
+            ids.clear();
+            if (documents.isEmpty()) {
+                return !exhausted();
+            }
+
+            BulkOperations archive = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, AnalysisResult.ARCHIVE_COLLECTION);
+            BulkOperations remove = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, hotCollection());
+            Date archivedAt = new Date();
+            long batchBytes = 0;
+            List<Object> batchIds = new ArrayList<>(documents.size());
+            for (Document document : documents) {
+                batchBytes += new RawBsonDocument(document, documentCodec).getByteBuffer().remaining();
+                Object id = document.get("_id");
+                batchIds.add(id);
+                Document copy = new Document(document).append("archivedAt", archivedAt).append("archiveReason", reason.name());
+                // Upsert, so a pass interrupted between copy and delete can simply run again
+                archive.replaceOne(Query.query(Criteria.where("_id").is(id)), copy, FindAndReplaceOptions.options().upsert());
+                remove.remove(Query.query(Criteria.where("_id").is(id)
+                        .and("analysisStatus").is(document.get("analysisStatus"))
+                        .and("analysisTimestamp").is(document.get("analysisTimestamp"))));
+            }
+            archive.execute();
+            BulkWriteResult removed = remove.execute();
+
+            int deleted = removed.getDeletedCount();
+            Set<Object> stillHot = Set.of();
+            if (deleted < documents.size()) {
+                // Changed while being copied (e.g. requeued); the hot document wins
+                stillHot = mongoTemplate.find(Query.query(Criteria.where("_id").in(batchIds)), Document.class,
+                        hotCollection()).stream().map(document -> document.get("_id")).collect(Collectors.toSet());
+                mongoTemplate.remove(Query.query(Criteria.where("_id").in(stillHot)), AnalysisResult.ARCHIVE_COLLECTION);
+                skipped += stillHot.size();
+                batchBytes = batchBytes * deleted / documents.size();
+            }
+            dropHeatmaps(documents, stillHot);
+            moved[reason.ordinal()] += deleted;
+            bytes += batchBytes;
+            reclaimedBytes.increment(batchBytes);
+            meterRegistry.counter("analysis.retention.archived", "reason", reason.name()).increment(deleted);
+
+            if (batchPauseMs > 0) {
+                Thread.sleep(batchPauseMs);
+            }
+            return !exhausted();
+        }
+    }
+
+    // Deleted first and unset after, so an interrupted pass leaves a dangling id rather than an unreferenced file
+    private void dropHeatmaps(List<Document> documents, Set<Object> stillHot) {
+        List<Object> ids = new ArrayList<>();
+        List<String> fileIds = new ArrayList<>();
+        for (Document document : documents) {
+            if (document.get("heatmapFileId") instanceof String fileId && !stillHot.contains(document.get("_id"))) {
+                ids.add(document.get("_id"));
+                fileIds.add(fileId);
+            }
+        }
+        if (fileIds.isEmpty()) {
+            return;
+        }
+        heatmapService.delete(fileIds);
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids)), new Update().unset("heatmapFileId"),
+                AnalysisResult.ARCHIVE_COLLECTION);
+    }
+
+    private void ensureArchive() {
+        if (mongoTemplate.collectionExists(AnalysisResult.ARCHIVE_COLLECTION)) {
+            return;
+        }
+        try {
+            // Archived results are rarely read, so trade CPU on those reads for a much smaller footprint
+            mongoTemplate.getDb().createCollection(AnalysisResult.ARCHIVE_COLLECTION, new CreateCollectionOptions()
+                    .storageEngineOptions(new Document("wiredTiger",
+                            new Document("configString", "block_compressor=" + archiveCompressor))));
+            log.info("Created archive collection {} with {} block compression", AnalysisResult.ARCHIVE_COLLECTION, archiveCompressor);
+        } catch (MongoCommandException e) {
+            // NamespaceExists: another node created it first
+            if (e.getErrorCode() != 48) {
+                throw e;
+            }
+        }
+        mongoTemplate.indexOps(AnalysisResult.ARCHIVE_COLLECTION)
+                .ensureIndex(new Index().on("imageId", Sort.Direction.ASC).on("analysisTimestamp", Sort.Direction.DESC)
+                        .named("image_timestamp"));
+    }
+
+    private long collectionStat(String collection, String field) {
+        try {
+            Document stats = mongoTemplate.getDb().runCommand(new Document("collStats", collection));
+            return stats.get(field) instanceof Number value ? value.longValue() : 0;
+        } catch (RuntimeException e) {
+            log.debug("Could not read collStats of {}: {}", collection, e.getMessage());
+            return 0;
+        }
+    }
+
+    private String hotCollection() {
+        return mongoTemplate.getCollectionName(AnalysisResult.class);
+    }
+}
@@ -0,0 +1,65 @@
+package com.pcd.imageanalysis.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs result compaction off-peak. Nodes may overlap: every step of a pass is idempotent, so the
+ * worst case is two nodes sharing the same batches.
+ * <p>
+ * A pass can take a long time, so it runs on a thread of its own rather than on the scheduler
+ * thread, where it would hold back the retry poll for the whole night.
+ */
+@Component
+@ConditionalOnProperty(name = "analysis.retention.enabled", havingValue = "true")
+public class AnalysisRetentionScheduler {
+    private static final Logger log = LoggerFactory.getLogger(AnalysisRetentionScheduler.class);
+
+    private final AnalysisResultCompactionService compactionService;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "analysis-retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public AnalysisRetentionScheduler(AnalysisResultCompactionService compactionService) {
+        this.compactionService = compactionService;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Interrupts the pause between batches; a pass stopped midway is safe to resume next time
+        executor.shutdownNow();
+    }
+
+    @Scheduled(cron = "${analysis.retention.cron:0 30 3 * * *}")
+    public void compact() {
+        try {
+            executor.execute(this::runPass);
+        } catch (RejectedExecutionException e) {
+            log.info("Skipping scheduled result compaction, shutting down");
+        }
+    }
+
+    private void runPass() {
+        try {
+            if (compactionService.compact().isEmpty()) {
+                log.info("Skipping scheduled result compaction, a pass is already running");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Scheduled result compaction failed", e);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drains due retries, at most {@code analysis.retry.concurrency} at a time, and only while this
+ * node has no fresh analysis running and the engine has an idle worker. Fresh requests therefore
+ * always win the race for capacity and a retry backlog drains at a steady, predictable pace instead
+ * of starving new work.
+ * <p>
+ * The poll only claims retries and hands them to its own workers, so a long backlog never holds the
+ * shared scheduler thread the other scheduled jobs run on.
+ */
+@Component
+@ConditionalOnProperty(name = "analysis.retry.enabled", havingValue = "true", matchIfMissing = true)
+public class AnalysisRetryScheduler {
+    private static final Logger log = LoggerFactory.getLogger(AnalysisRetryScheduler.class);
+
+    private final AnalysisRetryService retryService;
+    private final ImageAnalysisService analysisService;
+    private final InferenceEngine inferenceEngine;
+    private final ExecutorService workers;
+    private final Semaphore running;
+
+    @Autowired
+    public AnalysisRetryScheduler(AnalysisRetryService retryService, ImageAnalysisService analysisService,
+                                  InferenceEngine inferenceEngine,
+                                  @Value("${analysis.retry.concurrency:1}") int concurrency) {
+        this.retryService = retryService;
+        this.analysisService = analysisService;
+        this.inferenceEngine = inferenceEngine;
+        int threads = Math.max(1, concurrency);
+        this.running = new Semaphore(threads);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "analysis-retry-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // A retry cut short keeps its lease and is claimed again once that expires
+        workers.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${analysis.retry.poll-interval-ms:10000}")
+    public void runDueRetries() {
+        while (hasSpareCapacity() && running.tryAcquire()) {
+            Optional<AnalysisRetry> claimed;
+            try {
+                claimed = retryService.claimNextDue();
+            } catch (RuntimeException e) {
+                running.release();
+                log.error("Could not claim due retries", e);
+                return;
+            }
+            if (claimed.isEmpty()) {
+                running.release();
+                return;
+            }
+            AnalysisRetry retry = claimed.get();
+            try {
+                workers.execute(() -> {
+                    try {
+                        analysisService.retryAnalysis(retry);
+                    } catch (Exception e) {
+                        // runAnalysis records its own failures; this only guards the worker
+                        log.error("Unexpected error retrying analysis {}", retry.getAnalysisId(), e);
+                    } finally {
+                        running.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.release();
+                log.warn("Retry of analysis {} not started, shutting down; it is claimed again after its lease",
+                        retry.getAnalysisId());
+                return;
+            }
+        }
+    }
+
+    private boolean hasSpareCapacity() {
+        return analysisService.getFreshAnalysesInFlight() == 0 && inferenceEngine.idleCapacity() > 0;
+    }
+}
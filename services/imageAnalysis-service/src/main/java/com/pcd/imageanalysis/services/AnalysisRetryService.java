@@ -0,0 +1,177 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.client.ImageServiceUnavailableException;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.repository.AnalysisRetryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Durable retry bookkeeping for failed analyses. Failures are classified as transient (timeouts,
+ * image-management unavailable, no free worker) or permanent (missing image, undecodable input,
+ * model errors); transient ones are rescheduled with jittered exponential backoff until the attempt
+ * cap, everything else ends up in the dead-letter view for a human to look at.
+ */
+@Service
+public class AnalysisRetryService {
+    private static final Logger log = LoggerFactory.getLogger(AnalysisRetryService.class);
+
+    private final AnalysisRetryRepository retryRepository;
+    private final MongoTemplate mongoTemplate;
+    private final Counter scheduledRetries;
+    private final Counter deadLettered;
+
+    @Value("${analysis.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${analysis.retry.initial-delay-seconds:30}")
+    private long initialDelaySeconds;
+
+    @Value("${analysis.retry.max-delay-seconds:1800}")
+    private long maxDelaySeconds;
+
+    @Value("${analysis.retry.lease-seconds:600}")
+    private long leaseSeconds;
+
+    @Autowired
+    public AnalysisRetryService(AnalysisRetryRepository retryRepository, MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+        this.retryRepository = retryRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.scheduledRetries = Counter.builder("analysis.retry.scheduled")
+                .description("Failed analyses rescheduled for another attempt")
+                .register(meterRegistry);
+        this.deadLettered = Counter.builder("analysis.retry.dead.lettered")
+                .description("Failed analyses given up on")
+                .register(meterRegistry);
+    }
+
+    public static AnalysisRetry.FailureKind classify(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TransientAnalysisException
+                    || t instanceof ImageServiceUnavailableException
+                    || t instanceof ResourceAccessException
+                    || t instanceof HttpServerErrorException
+                    || t instanceof SocketTimeoutException
+                    || t instanceof ConnectException
+                    || t instanceof TimeoutException
+                    || t instanceof InterruptedException) {
+                return AnalysisRetry.FailureKind.TRANSIENT;
+            }
+        }
+        return AnalysisRetry.FailureKind.PERMANENT;
+    }
+
+    /**
+     * Records a failed attempt of {@code result}'s analysis.
+     *
+     * @return the retry state, with status SCHEDULED if another attempt will be made
+     */
+    public AnalysisRetry recordFailure(AnalysisResult result, Throwable error, boolean heatmapRequested) {
+        Instant now = Instant.now();
+        AnalysisRetry retry = retryRepository.findByAnalysisId(result.getId()).orElseGet(() -> {
+            AnalysisRetry created = new AnalysisRetry();
+            created.setAnalysisId(result.getId());
+            created.setImageId(result.getImageId());
+            created.setCreatedAt(now);
+            return created;
+        });
+        AnalysisRetry.FailureKind kind = classify(error);
+        retry.setCaseId(result.getCaseId());
+        retry.setHeatmapRequested(heatmapRequested);
+        retry.setAttempts(retry.getAttempts() + 1);
+        retry.setLastFailureKind(kind);
+        retry.setLastError(error.getMessage());
+        retry.setLeaseUntil(null);
+        retry.setUpdatedAt(now);
+
+        if (kind == AnalysisRetry.FailureKind.TRANSIENT && retry.getAttempts() < maxAttempts) {
+            Duration delay = backoff(retry.getAttempts());
+            retry.setStatus(AnalysisRetry.Status.SCHEDULED);
+            retry.setNextAttemptAt(now.plus(delay));
+            scheduledRetries.increment();
+            log.info("Scheduling retry {} of {} for image ID: {} in {} s ({})",
+                    retry.getAttempts(), maxAttempts - 1, result.getImageId(), delay.toSeconds(), error.getMessage());
+        } else {
+            retry.setStatus(AnalysisRetry.Status.DEAD_LETTER);
+            retry.setNextAttemptAt(null);
+            deadLettered.increment();
+            log.warn("Giving up on analysis of image ID: {} after {} attempt(s), {} failure: {}",
+                    result.getImageId(), retry.getAttempts(), kind, error.getMessage());
+        }
+        return retryRepository.save(retry);
+    }
+
+    public void recordSuccess(String analysisId) {
+        retryRepository.deleteByAnalysisId(analysisId);
+    }
+
+    /**
+     * Atomically claims the most overdue retry, so concurrent nodes never run the same one.
+     */
+    public Optional<AnalysisRetry> claimNextDue() {
+        Instant now = Instant.now();
+        Query query = new Query(new Criteria().orOperator(
+                Criteria.where("status").is(AnalysisRetry.Status.SCHEDULED).and("nextAttemptAt").lte(now),
+                Criteria.where("status").is(AnalysisRetry.Status.RUNNING).and("leaseUntil").lt(now)))
+                .with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"));
+        Update update = new Update()
+                .set("status", AnalysisRetry.Status.RUNNING)
+                .set("leaseUntil", now.plusSeconds(leaseSeconds))
+                .set("updatedAt", now);
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), AnalysisRetry.class));
+    }
+
+    public List<AnalysisRetry> getDeadLetters(int limit) {
+        return retryRepository.findByStatusOrderByUpdatedAtDesc(AnalysisRetry.Status.DEAD_LETTER, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Puts a dead-lettered analysis back in the queue with a fresh attempt budget.
+     */
+    public Optional<AnalysisRetry> requeue(String retryId) {
+        return retryRepository.findById(retryId)
+                .filter(retry -> retry.getStatus() == AnalysisRetry.Status.DEAD_LETTER)
+                .map(retry -> {
+                    Instant now = Instant.now();
+                    retry.setStatus(AnalysisRetry.Status.SCHEDULED);
+                    retry.setAttempts(0);
+                    retry.setNextAttemptAt(now);
+                    retry.setUpdatedAt(now);
+                    log.info("Requeued dead-lettered analysis {} for image ID: {}", retry.getAnalysisId(), retry.getImageId());
+                    return retryRepository.save(retry);
+                });
+    }
+
+    // Equal jitter: half the exponential delay is fixed, the other half random, so retries of a burst spread out
+    Duration backoff(int failedAttempts) {
+        long exponential = initialDelaySeconds * (1L << Math.min(failedAttempts - 1, 20));
+        long capped = Math.max(1, Math.min(maxDelaySeconds, exponential)) * 1000;
+        long half = capped / 2;
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(half + 1));
+    }
+}
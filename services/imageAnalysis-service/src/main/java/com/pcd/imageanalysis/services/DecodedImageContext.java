@@ -0,0 +1,296 @@
+package com.pcd.imageanalysis.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Analysis-scoped holder for the decoded pixels of one image.
+ * <p>
+ * The file is decoded at most once, on first access, into a packed RGB {@code int[]}
+ * (0xRRGGBB per pixel). Grayscale and downscaled variants are derived lazily from that
+ * raster and cached for the lifetime of the context. Detectors only ever get read-only
+ * buffers, and {@link #close()} drops every plane so memory is released as soon as the
+ * analysis ends rather than whenever the GC gets to it.
+ */
+public final class DecodedImageContext implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DecodedImageContext.class);
+
+    private final String imageId;
+    private final Path source;
+
+    private int width;
+    private int height;
+    private int[] rgb;
+    private byte[] gray;
+    private final Map<ScaleKey, Scaled> scaledCache = new HashMap<>();
+
+    private long retainedBytes;
+    private long peakBytes;
+    private boolean closed;
+
+    public record Scaled(int width, int height, IntBuffer rgb) {
+    }
+
+    public enum Resampling {
+        // Box filter, best for heavy downscaling
+        AREA,
+        // Half-pixel-centre bilinear, matches cv2.INTER_LINEAR used by the Python preprocessing
+        BILINEAR
+    }
+
+    private record ScaleKey(int width, int height, Resampling resampling) {
+    }
+
+    private DecodedImageContext(String imageId, Path source) {
+        this.imageId = imageId;
+        this.source = source;
+    }
+
+    public static DecodedImageContext open(String imageId, Path source) {
+        return new DecodedImageContext(imageId, source);
+    }
+
+    public String getImageId() {
+        return imageId;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public synchronized int width() throws IOException {
+        ensureDecoded();
+        return width;
+    }
+
+    public synchronized int height() throws IOException {
+        ensureDecoded();
+        return height;
+    }
+
+    /**
+     * Packed RGB pixels in row-major order. The buffer is read-only and shared by all detectors.
+     */
+    public synchronized IntBuffer rgb() throws IOException {
+        ensureDecoded();
+        return IntBuffer.wrap(rgb).asReadOnlyBuffer();
+    }
+
+    /**
+     * 8-bit luma plane (BT.601 weights), derived from the RGB raster on first use.
+     */
+    public synchronized ByteBuffer grayscale() throws IOException {
+        ensureDecoded();
+        if (gray == null) {
+            byte[] plane = new byte[rgb.length];
+            for (int i = 0; i < rgb.length; i++) {
+                int p = rgb[i];
+                int r = (p >> 16) & 0xFF;
+                int g = (p >> 8) & 0xFF;
+                int b = p & 0xFF;
+                plane[i] = (byte) ((r * 299 + g * 587 + b * 114 + 500) / 1000);
+            }
+            gray = plane;
+            track(plane.length);
+        }
+        return ByteBuffer.wrap(gray).asReadOnlyBuffer();
+    }
+
+    /**
+     * Box-filtered RGB variant at the requested size. Variants are cached per size, so several
+     * detectors asking for e.g. 224x224 share one copy.
+     */
+    public Scaled scaled(int targetWidth, int targetHeight) throws IOException {
+        return scaled(targetWidth, targetHeight, Resampling.AREA);
+    }
+
+    public synchronized Scaled scaled(int targetWidth, int targetHeight, Resampling resampling) throws IOException {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            throw new IllegalArgumentException("Target size must be positive: " + targetWidth + "x" + targetHeight);
+        }
+        ensureDecoded();
+        ScaleKey key = new ScaleKey(targetWidth, targetHeight, resampling);
+        Scaled cached = scaledCache.get(key);
+        if (cached == null) {
+            int[] pixels;
+            if (targetWidth == width && targetHeight == height) {
+                pixels = rgb;
+            } else if (resampling == Resampling.BILINEAR) {
+                pixels = bilinear(rgb, width, height, targetWidth, targetHeight);
+            } else {
+                pixels = downscale(rgb, width, height, targetWidth, targetHeight);
+            }
+            if (pixels != rgb) {
+                track(4L * pixels.length);
+            }
+            cached = new Scaled(targetWidth, targetHeight, IntBuffer.wrap(pixels));
+            scaledCache.put(key, cached);
+        }
+        return new Scaled(cached.width(), cached.height(), cached.rgb().duplicate().asReadOnlyBuffer());
+    }
+
+    /**
+     * Highest number of bytes held by decoded planes at any point, including the transient
+     * decoder buffer. Zero when nothing ever asked for pixels.
+     */
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    public synchronized boolean isDecoded() {
+        return rgb != null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        rgb = null;
+        gray = null;
+        scaledCache.clear();
+        retainedBytes = 0;
+        log.debug("Released decoded raster for image ID: {} (peak {} bytes)", imageId, peakBytes);
+    }
+
+    private void ensureDecoded() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Decoded image context already released for image ID: " + imageId);
+        }
+        if (rgb != null) {
+            return;
+        }
+        BufferedImage decoded = decode();
+        int w = decoded.getWidth();
+        int h = decoded.getHeight();
+        DataBuffer buffer = decoded.getRaster().getDataBuffer();
+        long decoderBytes = (long) buffer.getSize() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+
+        int[] packed;
+        if (decoded.getType() == BufferedImage.TYPE_INT_RGB && buffer instanceof DataBufferInt intBuffer
+                && intBuffer.getNumBanks() == 1 && intBuffer.getData().length == w * h) {
+            // Decoder already produced packed RGB, adopt its array without copying
+            packed = intBuffer.getData();
+            track(decoderBytes);
+        } else {
+            track(decoderBytes);
+            packed = decoded.getRGB(0, 0, w, h, null, 0, w);
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] &= 0xFFFFFF;
+            }
+            track(4L * packed.length);
+            retainedBytes -= decoderBytes;
+        }
+        width = w;
+        height = h;
+        rgb = packed;
+        log.debug("Decoded image ID: {} to {}x{} packed RGB raster", imageId, w, h);
+    }
+
+    private BufferedImage decode() throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) {
+                throw new IOException("Cannot open image stream for: " + source);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader available for: " + source);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                // Ask the reader to decode straight into packed RGB when it can, avoiding a second copy
+                Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                while (types.hasNext()) {
+                    ImageTypeSpecifier type = types.next();
+                    if (type.getBufferedImageType() == BufferedImage.TYPE_INT_RGB) {
+                        param.setDestinationType(type);
+                        break;
+                    }
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private void track(long bytes) {
+        retainedBytes += bytes;
+        peakBytes = Math.max(peakBytes, retainedBytes);
+    }
+
+    private static int[] downscale(int[] src, int srcW, int srcH, int dstW, int dstH) {
+        int[] dst = new int[dstW * dstH];
+        for (int dy = 0; dy < dstH; dy++) {
+            int y0 = (int) ((long) dy * srcH / dstH);
+            int y1 = Math.max(y0 + 1, (int) ((long) (dy + 1) * srcH / dstH));
+            for (int dx = 0; dx < dstW; dx++) {
+                int x0 = (int) ((long) dx * srcW / dstW);
+                int x1 = Math.max(x0 + 1, (int) ((long) (dx + 1) * srcW / dstW));
+                long r = 0, g = 0, b = 0;
+                for (int y = y0; y < y1; y++) {
+                    int row = y * srcW;
+                    for (int x = x0; x < x1; x++) {
+                        int p = src[row + x];
+                        r += (p >> 16) & 0xFF;
+                        g += (p >> 8) & 0xFF;
+                        b += p & 0xFF;
+                    }
+                }
+                long n = (long) (y1 - y0) * (x1 - x0);
+                dst[dy * dstW + dx] = (int) (((r / n) << 16) | ((g / n) << 8) | (b / n));
+            }
+        }
+        return dst;
+    }
+
+    private static int[] bilinear(int[] src, int srcW, int srcH, int dstW, int dstH) {
+        int[] dst = new int[dstW * dstH];
+        double scaleX = (double) srcW / dstW;
+        double scaleY = (double) srcH / dstH;
+        for (int dy = 0; dy < dstH; dy++) {
+            double sy = Math.max(0.0, (dy + 0.5) * scaleY - 0.5);
+            int y0 = Math.min((int) sy, srcH - 1);
+            int y1 = Math.min(y0 + 1, srcH - 1);
+            double fy = sy - y0;
+            for (int dx = 0; dx < dstW; dx++) {
+                double sx = Math.max(0.0, (dx + 0.5) * scaleX - 0.5);
+                int x0 = Math.min((int) sx, srcW - 1);
+                int x1 = Math.min(x0 + 1, srcW - 1);
+                double fx = sx - x0;
+                int p00 = src[y0 * srcW + x0];
+                int p01 = src[y0 * srcW + x1];
+                int p10 = src[y1 * srcW + x0];
+                int p11 = src[y1 * srcW + x1];
+                int packed = 0;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    double top = ((p00 >> shift) & 0xFF) * (1 - fx) + ((p01 >> shift) & 0xFF) * fx;
+                    double bottom = ((p10 >> shift) & 0xFF) * (1 - fx) + ((p11 >> shift) & 0xFF) * fx;
+                    int value = (int) Math.round(top * (1 - fy) + bottom * fy);
+                    packed |= Math.min(255, Math.max(0, value)) << shift;
+                }
+                dst[dy * dstW + dx] = packed;
+            }
+        }
+        return dst;
+    }
+}
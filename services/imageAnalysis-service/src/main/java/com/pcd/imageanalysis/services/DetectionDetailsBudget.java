@@ -0,0 +1,121 @@
+package com.pcd.imageanalysis.services;
+
+import com.mongodb.MongoClientSettings;
+import com.pcd.imageanalysis.model.DetectionDetails;
+import com.pcd.imageanalysis.model.DetectorOutput;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps the encoded {@link DetectionDetails} of one result under {@code analysis.details.max-bytes}.
+ * <p>
+ * When over budget, parts are dropped from least to most useful: binary detector arrays first, then
+ * the findings of PDF images that were neither flagged nor failed, then further findings from the end
+ * of the document, and finally the detector outputs themselves. The details are marked truncated and
+ * the verdict, counts and score on the result are never touched.
+ */
+@Component
+public class DetectionDetailsBudget {
+    private static final Logger log = LoggerFactory.getLogger(DetectionDetailsBudget.class);
+
+    private final MongoConverter mongoConverter;
+    private final Codec<Document> documentCodec = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+    private final Counter truncations;
+
+    @Value("${analysis.details.max-bytes:65536}")
+    private int maxBytes;
+
+    @Autowired
+    public DetectionDetailsBudget(MongoConverter mongoConverter, MeterRegistry meterRegistry) {
+        this.mongoConverter = mongoConverter;
+        this.truncations = Counter.builder("analysis.details.truncated")
+                .description("Detection details trimmed to fit the document size budget")
+                .register(meterRegistry);
+    }
+
+    public int encodedSize(DetectionDetails details) {
+        Document document = new Document();
+        mongoConverter.write(details, document);
+        return new RawBsonDocument(document, documentCodec).getByteBuffer().remaining();
+    }
+
+    public DetectionDetails enforce(String imageId, DetectionDetails details) {
+        int size = encodedSize(details);
+        if (size <= maxBytes) {
+            return details;
+        }
+        int originalSize = size;
+        details.setTruncated(true);
+        truncations.increment();
+
+        dropArrays(details.getDetectors().values());
+        if (details.hasDocument()) {
+            details.getDocument().getFindings().forEach(finding -> dropArrays(finding.getDetectors().values()));
+        }
+        size = encodedSize(details);
+
+        if (size > maxBytes && details.hasDocument()) {
+            DetectionDetails.DocumentScan scan = details.getDocument();
+            List<DetectionDetails.ImageFinding> findings = scan.getFindings();
+            int total = findings.size();
+            findings.removeIf(finding -> !finding.hasError() && !Boolean.TRUE.equals(finding.getIsFalsified()));
+            size = encodedSize(details);
+            if (size > maxBytes) {
+                keepLargestPrefixWithinBudget(details, findings);
+                size = encodedSize(details);
+            }
+            scan.setFindingsOmitted(scan.getFindingsOmitted() + total - findings.size());
+        }
+
+        if (size > maxBytes) {
+            details.getDetectors().clear();
+            if (details.hasDocument()) {
+                details.getDocument().getFindings().forEach(finding -> finding.getDetectors().clear());
+            }
+            size = encodedSize(details);
+        }
+        log.warn("Detection details for image ID: {} were {} bytes, over the {} byte budget; trimmed to {} bytes",
+                imageId, originalSize, maxBytes, size);
+        return details;
+    }
+
+    private static void dropArrays(Collection<DetectorOutput> outputs) {
+        for (DetectorOutput output : outputs) {
+            if (output.hasArrays()) {
+                output.getArrays().clear();
+            }
+        }
+    }
+
+    // Findings are in page order, so this keeps the beginning of the document; binary search over the count
+    private void keepLargestPrefixWithinBudget(DetectionDetails details, List<DetectionDetails.ImageFinding> findings) {
+        List<DetectionDetails.ImageFinding> all = new ArrayList<>(findings);
+        int low = 0;
+        int high = all.size();
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            findings.clear();
+            findings.addAll(all.subList(0, mid));
+            if (encodedSize(details) <= maxBytes) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        findings.clear();
+        findings.addAll(all.subList(0, low));
+    }
+}
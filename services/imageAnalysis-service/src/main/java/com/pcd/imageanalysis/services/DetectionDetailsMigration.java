@@ -0,0 +1,191 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.model.DetectionDetails;
+import com.pcd.imageanalysis.model.DetectorOutput;
+import com.pcd.imageanalysis.model.InferenceMode;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites {@code detectionDetails} of results stored before the typed schema into the compact
+ * form: the duplicated verdict fields are dropped, the engine's extras, detector outputs and PDF
+ * findings are mapped onto {@link DetectionDetails} and numeric arrays are packed as binary.
+ * <p>
+ * Runs in the background at startup in batches, paging by {@code _id}. Only documents without a
+ * schema version are selected and updated, so it is idempotent, several nodes starting at once
+ * simply share the work and details rewritten by a concurrent retry are never overwritten.
+ * <p>
+ * The archive is converted too, after the hot collection: compaction copies documents as they
+ * are, so results archived before this ran still hold the legacy form, and a document compacted
+ * while the hot pass was running is picked up by the archive pass.
+ */
+@Component
+@ConditionalOnProperty(name = "analysis.details.migration.enabled", havingValue = "true", matchIfMissing = true)
+public class DetectionDetailsMigration implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(DetectionDetailsMigration.class);
+
+    // Keys the old format copied from the top level of the engine result
+    private static final Set<String> VERDICT_KEYS = Set.of("isFalsified", "confidenceScore", "modelVersion",
+            "inferenceMode", "detectionDetails", "error");
+
+    private final MongoTemplate mongoTemplate;
+    private final DetectionDetailsBudget budget;
+
+    @Value("${analysis.details.migration.batch-size:500}")
+    private int batchSize;
+
+    @Autowired
+    public DetectionDetailsMigration(MongoTemplate mongoTemplate, DetectionDetailsBudget budget) {
+        this.mongoTemplate = mongoTemplate;
+        this.budget = budget;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread thread = new Thread(this::migrate, "detection-details-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void migrate() {
+        if (migrate(mongoTemplate.getCollectionName(AnalysisResult.class))) {
+            migrate(AnalysisResult.ARCHIVE_COLLECTION);
+        }
+    }
+
+    // False if the pass stopped on an error
+    private boolean migrate(String collection) {
+        long migrated = 0;
+        Object lastId = null;
+        try {
+            while (true) {
+                // Walks the _id index once rather than rescanning the collection for every batch
+                Criteria legacy = Criteria.where("detectionDetails").exists(true).ne(null)
+                        .and("detectionDetails.v").exists(false);
+                if (lastId != null) {
+                    legacy = legacy.and("_id").gt(lastId);
+                }
+                Query query = new Query(legacy).with(Sort.by(Sort.Direction.ASC, "_id")).limit(batchSize);
+                query.fields().include("imageId", "detectionDetails");
+                List<Document> batch = mongoTemplate.find(query, Document.class, collection);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+                for (Document stored : batch) {
+                    // A retry may have written new-format details since the read; those are left alone
+                    bulk.updateOne(Query.query(Criteria.where("_id").is(stored.get("_id")).and("detectionDetails.v").exists(false)),
+                            Update.update("detectionDetails", convert(stored)));
+                }
+                migrated += bulk.execute().getModifiedCount();
+                lastId = batch.get(batch.size() - 1).get("_id");
+                log.info("Migrated detection details of {} analysis result(s) in {} so far", migrated, collection);
+            }
+        } catch (RuntimeException e) {
+            log.error("Detection details migration of {} stopped after {} result(s); it resumes on next startup",
+                    collection, migrated, e);
+            return false;
+        }
+        if (migrated > 0) {
+            log.info("Detection details migration of {} finished, {} result(s) converted", collection, migrated);
+        }
+        return true;
+    }
+
+    private Document convert(Document stored) {
+        String imageId = stored.getString("imageId");
+        DetectionDetails details;
+        try {
+            details = stored.get("detectionDetails") instanceof Map<?, ?> legacy ? fromLegacy(legacy) : new DetectionDetails();
+            details = budget.enforce(imageId, details);
+        } catch (RuntimeException e) {
+            // Still stamp a version so a document we cannot read does not come back every batch
+            log.warn("Could not convert detection details of image ID: {}, dropping them: {}", imageId, e.getMessage());
+            details = new DetectionDetails();
+            details.setTruncated(true);
+        }
+        Document converted = new Document();
+        mongoTemplate.getConverter().write(details, converted);
+        converted.remove("_class");
+        return converted;
+    }
+
+    static DetectionDetails fromLegacy(Map<?, ?> legacy) {
+        if ("pdf".equals(legacy.get("documentType"))) {
+            DetectionDetails details = new DetectionDetails();
+            DetectionDetails.DocumentScan scan = new DetectionDetails.DocumentScan();
+            scan.setPages(intValue(legacy.get("pages")));
+            scan.setImagesAnalyzed(intValue(legacy.get("imagesAnalyzed")));
+            scan.setImagesFailed(intValue(legacy.get("imagesFailed")));
+            scan.setImagesFalsified(intValue(legacy.get("imagesFalsified")));
+            if (legacy.get("findings") instanceof List<?> findings) {
+                for (Object finding : findings) {
+                    if (finding instanceof Map<?, ?> map) {
+                        scan.getFindings().add(findingFromLegacy(map));
+                    }
+                }
+            }
+            details.setDocument(scan);
+            return details;
+        }
+        DetectionDetails details = DetectionDetails.fromInference(legacy.get("detectionDetails"));
+        if (details.getLogit() == null && legacy.get("logit_value") instanceof Number logit) {
+            details.setLogit(logit.doubleValue());
+        }
+        addDetectors(legacy, details.getDetectors());
+        return details;
+    }
+
+    private static DetectionDetails.ImageFinding findingFromLegacy(Map<?, ?> map) {
+        DetectionDetails.ImageFinding finding = new DetectionDetails.ImageFinding();
+        finding.setPage(intValue(map.get("page")));
+        finding.setImageIndex(intValue(map.get("imageIndex")));
+        finding.setWidth(map.get("width") instanceof Number w ? w.intValue() : null);
+        finding.setHeight(map.get("height") instanceof Number h ? h.intValue() : null);
+        if (map.get("error") != null) {
+            finding.setError(map.get("error").toString());
+            finding.setFailureKind("TRANSIENT".equals(map.get("failureKind"))
+                    ? AnalysisRetry.FailureKind.TRANSIENT : AnalysisRetry.FailureKind.PERMANENT);
+        } else {
+            finding.setIsFalsified(Boolean.TRUE.equals(map.get("isFalsified")));
+            finding.setConfidenceScore(map.get("confidenceScore") instanceof Number s ? s.doubleValue() : null);
+            finding.setModelVersion(map.get("modelVersion") != null ? map.get("modelVersion").toString() : null);
+            finding.setInferenceMode(InferenceMode.fromScriptValue(map.get("inferenceMode")));
+        }
+        addDetectors(map, finding.getDetectors());
+        return finding;
+    }
+
+    // Detector outputs were stored as nested maps under the detector name
+    private static void addDetectors(Map<?, ?> legacy, Map<String, DetectorOutput> detectors) {
+        for (Map.Entry<?, ?> entry : legacy.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            if (!VERDICT_KEYS.contains(key) && entry.getValue() instanceof Map<?, ?> output) {
+                detectors.put(key, DetectorOutput.fromMap(output));
+            }
+        }
+    }
+
+    private static int intValue(Object value) {
+        return value instanceof Number number ? number.intValue() : 0;
+    }
+}
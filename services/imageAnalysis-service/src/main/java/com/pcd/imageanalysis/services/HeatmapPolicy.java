@@ -0,0 +1,14 @@
+package com.pcd.imageanalysis.services;
+
+/**
+ * When the model should spend an extra backward pass on a localization heatmap.
+ */
+public enum HeatmapPolicy {
+    NEVER,
+    POSITIVE,
+    ALWAYS;
+
+    public String toScriptArgument() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,99 @@
+package com.pcd.imageanalysis.services;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Stores localization heatmaps in GridFS next to the analysis results and keeps recently
+ * viewed PNGs in a small LRU cache, so re-opening a heatmap does not hit Mongo again.
+ */
+@Service
+public class HeatmapService {
+    private static final Logger log = LoggerFactory.getLogger(HeatmapService.class);
+    private static final String CONTENT_TYPE = "image/png";
+
+    private final GridFsTemplate gridFsTemplate;
+    private final Map<String, byte[]> cache;
+
+    public record Heatmap(String fileId, byte[] png) {
+    }
+
+    @Autowired
+    public HeatmapService(GridFsTemplate gridFsTemplate,
+                          @Value("${analysis.heatmap.cache.max-entries:256}") int maxCachedEntries) {
+        this.gridFsTemplate = gridFsTemplate;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxCachedEntries;
+            }
+        });
+    }
+
+    public String store(Path pngFile, String imageId, String analysisId) throws IOException {
+        byte[] png = Files.readAllBytes(pngFile);
+        Document metadata = new Document("imageId", imageId)
+                .append("analysisId", analysisId)
+                .append("createdAt", Instant.now().toString());
+        ObjectId fileId = gridFsTemplate.store(
+                new ByteArrayInputStream(png),
+                "heatmap_" + imageId + ".png",
+                CONTENT_TYPE,
+                metadata
+        );
+        String id = fileId.toString();
+        cache.put(id, png);
+        log.info("Stored heatmap for image ID: {} ({} bytes) as GridFS file {}", imageId, png.length, id);
+        return id;
+    }
+
+    // Removes heatmaps no result refers to any more; ids of files already gone are ignored
+    public void delete(Collection<String> fileIds) {
+        List<ObjectId> ids = fileIds.stream().filter(ObjectId::isValid).map(ObjectId::new).toList();
+        if (ids.isEmpty()) {
+            return;
+        }
+        fileIds.forEach(cache::remove);
+        gridFsTemplate.delete(new Query(Criteria.where("_id").in(ids)));
+        log.debug("Deleted {} heatmap GridFS file(s)", ids.size());
+    }
+
+    public Optional<Heatmap> load(String fileId) throws IOException {
+        byte[] cached = cache.get(fileId);
+        if (cached != null) {
+            return Optional.of(new Heatmap(fileId, cached));
+        }
+        GridFSFile file = gridFsTemplate.findOne(new Query(Criteria.where("_id").is(new ObjectId(fileId))));
+        if (file == null) {
+            log.warn("Heatmap GridFS file {} not found", fileId);
+            return Optional.empty();
+        }
+        try (InputStream in = gridFsTemplate.getResource(file).getInputStream()) {
+            byte[] png = in.readAllBytes();
+            cache.put(fileId, png);
+            return Optional.of(new Heatmap(fileId, png));
+        }
+    }
+}
@@ -2,11 +2,23 @@ package com.pcd.imageanalysis.services;
 
 
 import com.pcd.imageanalysis.client.ImageServiceClient;
+import com.pcd.imageanalysis.client.ImageServiceClient.StatusUpdateOutcome;
+import com.pcd.imageanalysis.client.ImageServiceUnavailableException;
+import com.pcd.imageanalysis.model.AnalysisEvent;
 import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisResultPage;
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.model.DetectionDetails;
 import com.pcd.imageanalysis.model.Image;
+import com.pcd.imageanalysis.model.InferenceMode;
+import com.pcd.imageanalysis.model.ModelSpec;
+import com.pcd.imageanalysis.model.ResultView;
 import com.pcd.imageanalysis.repository.AnalysisResultRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -15,17 +27,34 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 @Service
 public class ImageAnalysisService {
     private static final Logger log = LoggerFactory.getLogger(ImageAnalysisService.class);
 
     private final ImageServiceClient imageServiceClient;
-    private final PyTorchModelService modelService;
+    private final InferenceEngine inferenceEngine;
+    private final AdaptiveInferenceExecutor inferenceExecutor;
     private final AnalysisResultRepository resultRepository;
+    private final HeatmapService heatmapService;
+    private final PdfEvidenceAnalyzer pdfEvidenceAnalyzer;
+    private final ShadowEvaluationService shadowEvaluationService;
+    private final AnalysisEventBus eventBus;
+    private final AnalysisRetryService retryService;
+    private final DetectionDetailsBudget detailsBudget;
+    private final List<ImageDetector> detectors;
+    private final DistributionSummary rasterPeakBytes;
+    private final AtomicInteger freshAnalysesInFlight = new AtomicInteger();
+    private final Map<String, CompletableFuture<Optional<HeatmapService.Heatmap>>> heatmapGenerations = new ConcurrentHashMap<>();
 
     @Value("${analysis.service.user-id:ANALYSIS_SERVICE}")
     private String serviceUserId;
@@ -33,6 +62,15 @@ public class ImageAnalysisService {
     @Value("${analysis.service.user-role:SYSTEM}")
     private String serviceUserRole;
 
+    @Value("${analysis.results.page.default-size:50}")
+    private int defaultPageSize;
+
+    @Value("${analysis.results.page.max-size:500}")
+    private int maxPageSize;
+
+    @Value("${analysis.heatmap.policy:POSITIVE}")
+    private HeatmapPolicy heatmapPolicy;
+
     // --- Placeholder values - Configure or determine these dynamically ---
     // These should ideally not be hardcoded like this in a real application.
     @Value("${analysis.model.default.arch:MobileNetV3_Large}")
@@ -47,21 +85,48 @@ public class ImageAnalysisService {
     private double defaultModelDropout;
     @Value("${analysis.model.default.version:1.0.0-mobilenetv3l-dense768}")
     private String defaultModelVersion;
+    @Value("${analysis.model.default.inference-mode:FP32}")
+    private InferenceMode defaultModelInferenceMode;
     // --- End Placeholder values ---
 
 
     @Autowired
     public ImageAnalysisService(
             ImageServiceClient imageServiceClient,
-            PyTorchModelService modelService,
-            AnalysisResultRepository resultRepository
+            InferenceEngine inferenceEngine,
+            AdaptiveInferenceExecutor inferenceExecutor,
+            AnalysisResultRepository resultRepository,
+            HeatmapService heatmapService,
+            PdfEvidenceAnalyzer pdfEvidenceAnalyzer,
+            ShadowEvaluationService shadowEvaluationService,
+            AnalysisEventBus eventBus,
+            AnalysisRetryService retryService,
+            DetectionDetailsBudget detailsBudget,
+            ObjectProvider<ImageDetector> detectors,
+            MeterRegistry meterRegistry
     ) {
         this.imageServiceClient = imageServiceClient;
-        this.modelService = modelService;
+        this.inferenceEngine = inferenceEngine;
+        this.inferenceExecutor = inferenceExecutor;
         this.resultRepository = resultRepository;
+        this.heatmapService = heatmapService;
+        this.pdfEvidenceAnalyzer = pdfEvidenceAnalyzer;
+        this.shadowEvaluationService = shadowEvaluationService;
+        this.eventBus = eventBus;
+        this.retryService = retryService;
+        this.detailsBudget = detailsBudget;
+        this.detectors = detectors.orderedStream().toList();
+        this.rasterPeakBytes = DistributionSummary.builder("analysis.raster.peak.bytes")
+                .description("Peak memory held by decoded image planes, per analysis that decoded any")
+                .baseUnit("bytes")
+                .register(meterRegistry);
     }
 
     public Optional<AnalysisResult> analyzeImage(String imageId) {
+        return analyzeImage(imageId, false);
+    }
+
+    public Optional<AnalysisResult> analyzeImage(String imageId, boolean heatmapRequested) {
         log.info("Starting analysis for image ID: {}", imageId);
 
         AnalysisResult result = new AnalysisResult();
@@ -70,126 +135,429 @@ public class ImageAnalysisService {
         result.setAnalysisStatus("IN_PROGRESS");
         result.setAnalysisType("AUTOMATIC");
 
+        // Looked up before QUEUED so subscribers to the image's case see the whole lifecycle
+        Image image = null;
+        try {
+            image = imageServiceClient.getImageMetadata(imageId).orElse(null);
+        } catch (ImageServiceUnavailableException e) {
+            log.debug("Image metadata for ID: {} not available yet, looking it up again when the analysis runs", imageId);
+        }
+        if (image != null) {
+            result.setCaseId(image.getCaseId());
+        }
+
         result = resultRepository.save(result);
+        eventBus.publish(AnalysisEvent.Type.QUEUED, result, null, null);
 
+        freshAnalysesInFlight.incrementAndGet();
+        try {
+            return Optional.of(runAnalysis(result, image, heatmapRequested, false));
+        } finally {
+            freshAnalysesInFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Runs a claimed retry again on its original result document, so the image keeps a single result.
+     */
+    public Optional<AnalysisResult> retryAnalysis(AnalysisRetry retry) {
+        Optional<AnalysisResult> existing = resultRepository.findById(retry.getAnalysisId());
+        if (existing.isEmpty()) {
+            log.warn("Analysis {} scheduled for retry no longer exists, dropping the retry", retry.getAnalysisId());
+            retryService.recordSuccess(retry.getAnalysisId());
+            return Optional.empty();
+        }
+        AnalysisResult result = existing.get();
+        log.info("Retrying analysis for image ID: {} (attempt {})", result.getImageId(), retry.getAttempts() + 1);
+        result.setAnalysisTimestamp(Instant.now());
+        result.setAnalysisStatus("IN_PROGRESS");
+        result.setErrorMessage(null);
+        result = resultRepository.save(result);
+        eventBus.publish(AnalysisEvent.Type.QUEUED, result, null, "retry");
+        return Optional.of(runAnalysis(result, null, retry.isHeatmapRequested(), true));
+    }
+
+    // Fresh (non-retry) analyses currently running on this node; retries wait until this is zero
+    public int getFreshAnalysesInFlight() {
+        return freshAnalysesInFlight.get();
+    }
+
+    // knownImage: metadata the caller already fetched, or null to fetch it here
+    private AnalysisResult runAnalysis(AnalysisResult result, Image knownImage, boolean heatmapRequested, boolean retrying) {
+        String imageId = result.getImageId();
         Path tempImagePath = null;
+        Path tempHeatmapPath = null;
+        DecodedImageContext imageContext = null;
         try {
-            Optional<Image> imageOpt = imageServiceClient.getImageMetadata(imageId);
+            Optional<Image> imageOpt = knownImage != null ? Optional.of(knownImage) : imageServiceClient.getImageMetadata(imageId);
             if (imageOpt.isEmpty()) {
                 throw new IllegalArgumentException("Image metadata not found with ID: " + imageId);
             }
             Image image = imageOpt.get();
             result.setCaseId(image.getCaseId());
 
-            boolean statusUpdated = imageServiceClient.updateImageAnalysisStatus(imageId, "ANALYZING", serviceUserId, serviceUserRole);
-            if (!statusUpdated) {
+            StatusUpdateOutcome started = imageServiceClient.updateImageAnalysisStatus(
+                    imageId, null, "ANALYZING", serviceUserId, serviceUserRole);
+            if (started == StatusUpdateOutcome.REJECTED) {
+                // 409: the image cannot be analyzed in its current state (e.g. DELETED); another attempt will not change that
+                log.warn("Image ID: {} refused the move to ANALYZING. Aborting analysis.", imageId);
+                throw new IllegalStateException("Image status conflict, cannot start analysis for ID: " + imageId);
+            }
+            if (started != StatusUpdateOutcome.UPDATED) {
                 log.warn("Failed to update image status to ANALYZING for image ID: {}. Aborting analysis.", imageId);
-                throw new IOException("Failed to update image status before analysis for ID: " + imageId);
+                throw new TransientAnalysisException("Failed to update image status before analysis for ID: " + imageId);
             }
+            eventBus.publish(AnalysisEvent.Type.STARTED, result, null, null);
+
+            tempImagePath = downloadToTempFile(imageId, image.getOriginalFilename(), "Automated falsification analysis");
+            eventBus.publish(AnalysisEvent.Type.STAGE_COMPLETED, result, "download", null);
 
-            String safeFilename = image.getOriginalFilename() != null ? image.getOriginalFilename().replaceAll("[^a-zA-Z0-9.\\-]", "_") : "image";
-            tempImagePath = Files.createTempFile("analysis_", "_" + safeFilename);
-            log.debug("Created temporary image file: {}", tempImagePath);
+            if (PdfEvidenceAnalyzer.isPdf(image.getContentType(), tempImagePath)) {
+                // Exhibit documents: every embedded image goes through the pipeline, verdict is rolled up
+                analyzeDocument(result, tempImagePath);
+            } else {
+                // Every stage of this analysis shares one lazily decoded raster of the downloaded file
+                imageContext = DecodedImageContext.open(imageId, tempImagePath);
 
-            boolean downloadSuccess = imageServiceClient.downloadImageToFile(
-                    imageId, serviceUserId, serviceUserRole, "Automated falsification analysis", tempImagePath
-            );
+                // --- Use configured/default hyperparameters ---
+                // TODO: Implement logic to select appropriate model/params based on imageId, case, etc.
+                ModelSpec model = defaultModelSpec();
+                // --- End hyperparameter selection ---
 
-            if (!downloadSuccess) {
-                log.error("Failed to download image data directly to file for ID: {}", imageId);
-                throw new IOException("Failed to download image data for ID: " + imageId);
-            }
+                HeatmapPolicy policy = heatmapRequested ? HeatmapPolicy.ALWAYS : heatmapPolicy;
+                if (policy != HeatmapPolicy.NEVER && inferenceEngine.supportsHeatmaps()) {
+                    tempHeatmapPath = Files.createTempFile("heatmap_", ".png");
+                }
 
-            if (Files.size(tempImagePath) == 0) {
-                log.error("Downloaded image file is empty for ID: {}", imageId);
-                throw new IOException("Downloaded image file is empty for ID: " + imageId);
-            }
+                log.debug("Starting {} model analysis for image ID: {} using temp file: {}", inferenceEngine.getName(), imageId, tempImagePath);
+                long inferenceStart = System.nanoTime();
+                Map<String, Object> analysisResults = inferenceExecutor.analyze(
+                        inferenceEngine,
+                        imageContext,
+                        model,
+                        policy,
+                        tempHeatmapPath
+                );
+                long inferenceMillis = (System.nanoTime() - inferenceStart) / 1_000_000;
+                log.info("Model analysis completed for image ID: {}", imageId);
+                eventBus.publish(AnalysisEvent.Type.STAGE_COMPLETED, result, "inference", inferenceEngine.getName());
+
+
+                Object falsifiedObj = analysisResults.get("isFalsified");
+                if (falsifiedObj instanceof Boolean) {
+                    result.setIsFalsified((Boolean) falsifiedObj);
+                } else {
+                    log.warn("Analysis result for image {} missing or has incorrect type for 'isFalsified'", imageId);
+                    result.setIsFalsified(false);
+                }
 
-            // --- Use configured/default hyperparameters ---
-            // TODO: Implement logic to select appropriate model/params based on imageId, case, etc.
-            String modelArchitecture = defaultModelArchitecture;
-            int modelImgHeight = defaultModelImgHeight;
-            int modelImgWidth = defaultModelImgWidth;
-            int modelDenseUnits = defaultModelDenseUnits;
-            double modelDropout = defaultModelDropout;
-            String modelVersionToLog = defaultModelVersion;
-            // --- End hyperparameter selection ---
-
-            log.debug("Starting model analysis for image ID: {} using temp file: {}", imageId, tempImagePath);
-            Map<String, Object> analysisResults = modelService.analyzeImage(
-                    tempImagePath,
-                    modelArchitecture,
-                    modelImgHeight,
-                    modelImgWidth,
-                    modelDenseUnits,
-                    modelDropout,
-                    modelVersionToLog // Pass the determined version
-            );
-            log.info("Model analysis completed for image ID: {}", imageId);
-
-
-            Object falsifiedObj = analysisResults.get("isFalsified");
-            if (falsifiedObj instanceof Boolean) {
-                result.setIsFalsified((Boolean) falsifiedObj);
-            } else {
-                log.warn("Analysis result for image {} missing or has incorrect type for 'isFalsified'", imageId);
-                result.setIsFalsified(false);
-            }
+                Object scoreObj = analysisResults.get("confidenceScore");
+                if (scoreObj instanceof Number) {
+                    result.setConfidenceScore(((Number) scoreObj).doubleValue());
+                } else {
+                    log.warn("Analysis result for image {} missing or has incorrect type for 'confidenceScore'", imageId);
+                    result.setConfidenceScore(null);
+                }
 
-            Object scoreObj = analysisResults.get("confidenceScore");
-            if (scoreObj instanceof Number) {
-                result.setConfidenceScore(((Number) scoreObj).doubleValue());
-            } else {
-                log.warn("Analysis result for image {} missing or has incorrect type for 'confidenceScore'", imageId);
-                result.setConfidenceScore(null);
-            }
+                result.setAnalysisStatus("COMPLETED");
+                // Use the modelVersion returned by the python script if available, otherwise fallback
+                result.setAnalysisVersion(analysisResults.getOrDefault("modelVersion", model.getVersion()).toString());
+                // The worker reports the mode it actually ran, which may differ from the requested one (e.g. on GPU)
+                result.setInferenceMode(InferenceMode.fromScriptValue(analysisResults.get("inferenceMode")));
+                // Off the request path; sampled and throttled inside the shadow service
+                shadowEvaluationService.maybeEvaluate(result, tempImagePath, inferenceMillis);
+
+                // The verdict fields above are not repeated in the details, only what the engine adds to them
+                DetectionDetails details = DetectionDetails.fromInference(analysisResults.get("detectionDetails"));
+                for (ImageDetector detector : detectors) {
+                    log.debug("Running detector {} for image ID: {}", detector.getName(), imageId);
+                    details.getDetectors().put(detector.getName(), detector.detect(imageContext));
+                    eventBus.publish(AnalysisEvent.Type.STAGE_COMPLETED, result, detector.getName(), null);
+                }
 
-            result.setAnalysisStatus("COMPLETED");
-            // Use the modelVersion returned by the python script if available, otherwise fallback
-            result.setAnalysisVersion(analysisResults.getOrDefault("modelVersion", modelVersionToLog).toString());
+                result.setDetectionDetails(detailsBudget.enforce(imageId, details));
 
-            result.setDetectionDetails(analysisResults);
+                if (tempHeatmapPath != null && Files.size(tempHeatmapPath) > 0) {
+                    result.setHeatmapFileId(heatmapService.store(tempHeatmapPath, imageId, result.getId()));
+                }
+            }
 
             String finalStatus = Boolean.TRUE.equals(result.getIsFalsified()) ? "FALSIFIED" : "AUTHENTIC";
             log.info("Updating final image status to {} for image ID: {}", finalStatus, imageId);
-            imageServiceClient.updateImageAnalysisStatus(imageId, finalStatus, serviceUserId, serviceUserRole);
+            // Only while this run still owns the image; a requeue or another worker's verdict since then wins
+            StatusUpdateOutcome applied = imageServiceClient.updateImageAnalysisStatus(
+                    imageId, "ANALYZING", finalStatus, serviceUserId, serviceUserRole);
+            if (applied == StatusUpdateOutcome.REJECTED) {
+                log.warn("Image ID: {} left ANALYZING while analysis {} ran; keeping its verdict as superseded", imageId, result.getId());
+                result.setAnalysisStatus("SUPERSEDED");
+                result.setErrorMessage("Image status changed during the analysis; this verdict was not applied to the image");
+            } else if (applied == StatusUpdateOutcome.FAILED) {
+                log.warn("Could not set image ID: {} to {}; the result is stored but the image stays ANALYZING", imageId, finalStatus);
+            }
 
         } catch (Exception e) {
             log.error("Error analyzing image ID: {}", imageId, e);
-            result.setAnalysisStatus("FAILED");
             result.setErrorMessage(e.getMessage());
+            boolean willRetry = scheduleRetry(result, e, heatmapRequested);
+            result.setAnalysisStatus(willRetry ? "RETRY_SCHEDULED" : "FAILED");
+            String imageStatus = willRetry ? "ANALYSIS_RETRY_SCHEDULED" : "ANALYSIS_FAILED";
 
             try {
-                log.info("Attempting to update image status to ANALYSIS_FAILED for image ID: {}", imageId);
-                imageServiceClient.updateImageAnalysisStatus(imageId, "ANALYSIS_FAILED", serviceUserId, serviceUserRole);
+                log.info("Attempting to update image status to {} for image ID: {}", imageStatus, imageId);
+                imageServiceClient.updateImageAnalysisStatus(imageId, imageStatus, serviceUserId, serviceUserRole);
             } catch (Exception updateEx) {
-                log.error("Failed to update image status to ANALYSIS_FAILED for image ID: {} after analysis error.", imageId, updateEx);
+                log.error("Failed to update image status to {} for image ID: {} after analysis error.", imageStatus, imageId, updateEx);
             }
         } finally {
-            if (tempImagePath != null) {
-                try {
-                    boolean deleted = Files.deleteIfExists(tempImagePath);
-                    log.debug("Temporary image file {} deleted: {}", tempImagePath, deleted);
-                } catch (IOException e) {
-                    log.warn("Could not delete temporary image file: {}", tempImagePath, e);
+            if (imageContext != null) {
+                imageContext.close();
+                long peak = imageContext.getPeakBytes();
+                // Zero unless a detector asked for pixels; the Python engine reads the file itself
+                if (peak > 0) {
+                    rasterPeakBytes.record(peak);
+                    log.debug("Peak decoded raster memory for image ID: {}: {} bytes", imageId, peak);
                 }
             }
+            deleteTempFile(tempImagePath);
+            deleteTempFile(tempHeatmapPath);
         }
 
         AnalysisResult finalResult = resultRepository.save(result);
         log.info("Analysis completed for image ID: {} with status: {}", imageId, finalResult.getAnalysisStatus());
+        boolean superseded = "SUPERSEDED".equals(finalResult.getAnalysisStatus());
+        if (retrying && ("COMPLETED".equals(finalResult.getAnalysisStatus()) || superseded)) {
+            retryService.recordSuccess(finalResult.getId());
+        }
+        // The run whose verdict the image carries has already announced the outcome
+        if (!superseded) {
+            eventBus.publish(outcomeEvent(finalResult));
+        }
 
-        return Optional.of(finalResult);
+        return finalResult;
+    }
+
+    private void analyzeDocument(AnalysisResult result, Path pdf) throws IOException, InterruptedException {
+        ModelSpec model = defaultModelSpec();
+        log.info("Analyzing embedded images of PDF evidence for image ID: {}", result.getImageId());
+        PdfEvidenceAnalyzer.DocumentVerdict verdict = pdfEvidenceAnalyzer.analyze(result.getImageId(), pdf, model,
+                (page, pages) -> eventBus.publish(AnalysisEvent.Type.STAGE_COMPLETED, result, "page", page + "/" + pages));
+        log.info("PDF evidence {}: {} pages, {} images analyzed, {} falsified, {} failed", result.getImageId(),
+                verdict.pages(), verdict.imagesAnalyzed(), verdict.imagesFalsified(), verdict.imagesFailed());
+
+        result.setIsFalsified(verdict.isFalsified());
+        // The document is as suspicious as its most suspicious image
+        result.setConfidenceScore(verdict.maxConfidenceScore());
+        result.setAnalysisStatus("COMPLETED");
+        result.setAnalysisVersion(verdict.modelVersion());
+        result.setInferenceMode(verdict.inferenceMode());
+        result.setDetectionDetails(detailsBudget.enforce(result.getImageId(), verdict.toDetails()));
+    }
 
+    private boolean scheduleRetry(AnalysisResult result, Exception error, boolean heatmapRequested) {
+        try {
+            AnalysisRetry retry = retryService.recordFailure(result, error, heatmapRequested);
+            return retry.getStatus() == AnalysisRetry.Status.SCHEDULED;
+        } catch (Exception retryEx) {
+            log.error("Could not record retry state for image ID: {}", result.getImageId(), retryEx);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the heatmap for the image's analysis, generating it on first request when the
+     * original run did not produce one. Concurrent viewers share a single generation.
+     */
+    public Optional<HeatmapService.Heatmap> getHeatmap(String imageId) throws IOException {
+        Optional<AnalysisResult> resultOpt = getAnalysisResult(imageId);
+        if (resultOpt.isEmpty()) {
+            return Optional.empty();
+        }
+        AnalysisResult result = resultOpt.get();
+        if (result.getHeatmapFileId() != null) {
+            return heatmapService.load(result.getHeatmapFileId());
+        }
+        if (!"COMPLETED".equals(result.getAnalysisStatus())) {
+            return Optional.empty();
+        }
+
+        CompletableFuture<Optional<HeatmapService.Heatmap>> generation = new CompletableFuture<>();
+        CompletableFuture<Optional<HeatmapService.Heatmap>> existing = heatmapGenerations.putIfAbsent(imageId, generation);
+        if (existing != null) {
+            return existing.join();
+        }
+        try {
+            Optional<HeatmapService.Heatmap> heatmap = generateHeatmap(result);
+            generation.complete(heatmap);
+            return heatmap;
+        } catch (IOException | RuntimeException e) {
+            generation.completeExceptionally(e);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            generation.completeExceptionally(e);
+            throw new IOException("Interrupted while generating heatmap for image ID: " + imageId, e);
+        } finally {
+            heatmapGenerations.remove(imageId, generation);
+        }
+    }
+
+    private Optional<HeatmapService.Heatmap> generateHeatmap(AnalysisResult result) throws IOException, InterruptedException {
+        String imageId = result.getImageId();
+        if (result.getDetectionDetails() != null && result.getDetectionDetails().hasDocument()) {
+            log.debug("Image ID: {} is a PDF document, heatmaps are only produced for raster images", imageId);
+            return Optional.empty();
+        }
+        if (!inferenceEngine.supportsHeatmaps()) {
+            log.debug("Inference engine {} cannot generate heatmaps, none available for image ID: {}", inferenceEngine.getName(), imageId);
+            return Optional.empty();
+        }
+        log.info("Generating heatmap on demand for image ID: {}", imageId);
+        Path tempImagePath = null;
+        Path tempHeatmapPath = null;
+        try {
+            tempImagePath = downloadToTempFile(imageId, null, "Heatmap generation");
+            tempHeatmapPath = Files.createTempFile("heatmap_", ".png");
+            try (DecodedImageContext imageContext = DecodedImageContext.open(imageId, tempImagePath)) {
+                inferenceEngine.analyze(imageContext, defaultModelSpec(), HeatmapPolicy.ALWAYS, tempHeatmapPath);
+            }
+            if (Files.size(tempHeatmapPath) == 0) {
+                log.warn("Model did not produce a heatmap for image ID: {}", imageId);
+                return Optional.empty();
+            }
+            String fileId = heatmapService.store(tempHeatmapPath, imageId, result.getId());
+            result.setHeatmapFileId(fileId);
+            resultRepository.save(result);
+            return heatmapService.load(fileId);
+        } finally {
+            deleteTempFile(tempImagePath);
+            deleteTempFile(tempHeatmapPath);
+        }
+    }
+
+    public ModelSpec defaultModelSpec() {
+        return new ModelSpec(
+                defaultModelArchitecture,
+                defaultModelImgHeight,
+                defaultModelImgWidth,
+                defaultModelDenseUnits,
+                defaultModelDropout,
+                defaultModelVersion,
+                defaultModelInferenceMode
+        );
+    }
+
+    private Path downloadToTempFile(String imageId, String originalFilename, String reason) throws IOException {
+        String safeFilename = originalFilename != null ? originalFilename.replaceAll("[^a-zA-Z0-9.\\-]", "_") : "image";
+        Path tempImagePath = Files.createTempFile("analysis_", "_" + safeFilename);
+        log.debug("Created temporary image file: {}", tempImagePath);
+
+        boolean downloadSuccess = imageServiceClient.downloadImageToFile(
+                imageId, serviceUserId, serviceUserRole, reason, tempImagePath
+        );
+
+        if (!downloadSuccess) {
+            log.error("Failed to download image data directly to file for ID: {}", imageId);
+            deleteTempFile(tempImagePath);
+            throw new TransientAnalysisException("Failed to download image data for ID: " + imageId);
+        }
+
+        if (Files.size(tempImagePath) == 0) {
+            log.error("Downloaded image file is empty for ID: {}", imageId);
+            deleteTempFile(tempImagePath);
+            throw new IOException("Downloaded image file is empty for ID: " + imageId);
+        }
+        return tempImagePath;
+    }
+
+    private void deleteTempFile(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            boolean deleted = Files.deleteIfExists(path);
+            log.debug("Temporary file {} deleted: {}", path, deleted);
+        } catch (IOException e) {
+            log.warn("Could not delete temporary file: {}", path, e);
+        }
     }
 
     public Optional<AnalysisResult> getAnalysisResult(String imageId) {
         log.debug("Fetching analysis result for image ID: {}", imageId);
-        return resultRepository.findByImageId(imageId);
+        Optional<AnalysisResult> hot = resultRepository.findFirstByImageIdAndAnalysisStatusNotOrderByAnalysisTimestampDesc(imageId, "SUPERSEDED");
+        if (hot.isPresent()) {
+            return hot;
+        }
+        // Only aged results of an image are archived without a newer one staying hot
+        return resultRepository.findArchivedByImageId(imageId).stream().findFirst();
+    }
+
+    /**
+     * Every result recorded for the image, newest first, including those moved to the retention archive.
+     */
+    public List<AnalysisResult> getAnalysisHistory(String imageId) {
+        List<AnalysisResult> history = new ArrayList<>(resultRepository.findByImageIdOrderByAnalysisTimestampDesc(imageId));
+        history.addAll(resultRepository.findArchivedByImageId(imageId));
+        history.sort(Comparator.comparing(AnalysisResult::getAnalysisTimestamp, Comparator.nullsLast(Comparator.reverseOrder())));
+        return history;
+    }
+
+    /**
+     * The latest known state of the image's analysis as an event, so a new subscriber gets it
+     * from a single read instead of polling.
+     */
+    public Optional<AnalysisEvent> getCurrentAnalysisEvent(String imageId) {
+        return getAnalysisResult(imageId).map(result -> switch (String.valueOf(result.getAnalysisStatus())) {
+            case "COMPLETED", "FAILED", "RETRY_SCHEDULED" -> outcomeEvent(result);
+            default -> new AnalysisEvent(result.getImageId(), result.getCaseId(), result.getId(),
+                    AnalysisEvent.Type.STARTED, null, null, result.getAnalysisTimestamp(), eventBus.getNodeId());
+        });
+    }
+
+    private AnalysisEvent outcomeEvent(AnalysisResult result) {
+        AnalysisEvent.Type type = switch (String.valueOf(result.getAnalysisStatus())) {
+            case "FAILED" -> AnalysisEvent.Type.FAILED;
+            case "RETRY_SCHEDULED" -> AnalysisEvent.Type.RETRY_SCHEDULED;
+            default -> AnalysisEvent.Type.COMPLETED;
+        };
+        String detail = type != AnalysisEvent.Type.COMPLETED ? result.getErrorMessage()
+                : Boolean.TRUE.equals(result.getIsFalsified()) ? "FALSIFIED" : "AUTHENTIC";
+        return new AnalysisEvent(result.getImageId(), result.getCaseId(), result.getId(), type, null, detail,
+                Instant.now(), eventBus.getNodeId());
     }
 
+    // Every result of the case, unpaginated; only for the deprecated list endpoint
     public List<AnalysisResult> getAnalysisResultsByCase(String caseId) {
         log.debug("Fetching analysis results for case ID: {}", caseId);
         return resultRepository.findByCaseId(caseId);
     }
+
+    public AnalysisResultPage<?> getAnalysisResultsByCase(String caseId, String cursor, Integer limit, ResultView view) {
+        log.debug("Fetching analysis results for case ID: {} (cursor: {}, view: {})", caseId, cursor, view);
+        return resultRepository.findPageByCaseId(caseId, cursor, pageSize(limit), view.getType());
+    }
+
+    public AnalysisResultPage<?> getAnalysisResultsByVerdict(Boolean isFalsified, Double minConfidence, String cursor,
+                                                             Integer limit, ResultView view) {
+        return resultRepository.findPageByIsFalsified(isFalsified, minConfidence, cursor, pageSize(limit), view.getType());
+    }
+
+    public AnalysisResultPage<?> getAnalysisResultsByStatus(String status, String cursor, Integer limit, ResultView view) {
+        return resultRepository.findPageByAnalysisStatus(status, cursor, pageSize(limit), view.getType());
+    }
+
+    // Caller must close the stream; it holds an open Mongo cursor
+    public Stream<?> streamAnalysisResultsByCase(String caseId, ResultView view) {
+        log.debug("Streaming analysis results for case ID: {} (view: {})", caseId, view);
+        return resultRepository.streamByCaseId(caseId, view.getType());
+    }
+
+    private int pageSize(Integer requested) {
+        if (requested == null) {
+            return defaultPageSize;
+        }
+        if (requested <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + requested);
+        }
+        return Math.min(requested, maxPageSize);
+    }
 }
\ No newline at end of file
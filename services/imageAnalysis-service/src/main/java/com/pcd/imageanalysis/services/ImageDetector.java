@@ -0,0 +1,15 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.DetectorOutput;
+
+/**
+ * A JVM-side detector run as part of an analysis (ELA, noise, copy-move, ...).
+ * Detectors share one {@link DecodedImageContext} per analysis and must treat its buffers as read-only.
+ * Numeric maps and feature vectors belong in {@link DetectorOutput#array}, which stores them as binary.
+ */
+public interface ImageDetector {
+
+    String getName();
+
+    DetectorOutput detect(DecodedImageContext context) throws Exception;
+}
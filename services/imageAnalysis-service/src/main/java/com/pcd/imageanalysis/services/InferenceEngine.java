@@ -0,0 +1,58 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.ModelSpec;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the falsification classifier on one or more images.
+ * <p>
+ * Implementations return the same result map regardless of how inference happens:
+ * {@code isFalsified}, {@code confidenceScore}, {@code modelVersion}, {@code inferenceMode}
+ * and a {@code detectionDetails} map. The active engine is chosen with {@code analysis.inference.engine}.
+ */
+public interface InferenceEngine {
+
+    String getName();
+
+    boolean supportsHeatmaps();
+
+    // Whether ModelSpec.getWeightsPath() is honoured; an engine without it always runs its own configured model
+    default boolean supportsModelWeights() {
+        return false;
+    }
+
+    // Number of workers that could start a request right now without queueing
+    int idleCapacity();
+
+    Map<String, Object> analyze(DecodedImageContext image, ModelSpec model, HeatmapPolicy heatmapPolicy, Path heatmapOutput)
+            throws IOException, InterruptedException;
+
+    /**
+     * As {@link #analyze(DecodedImageContext, ModelSpec, HeatmapPolicy, Path)}, calling {@code onStart} once a
+     * worker has been taken and inference proper begins, so callers can time it without the wait for a worker.
+     */
+    default Map<String, Object> analyze(DecodedImageContext image, ModelSpec model, HeatmapPolicy heatmapPolicy,
+                                        Path heatmapOutput, Runnable onStart) throws IOException, InterruptedException {
+        onStart.run();
+        return analyze(image, model, heatmapPolicy, heatmapOutput);
+    }
+
+    default Map<String, Object> analyze(DecodedImageContext image, ModelSpec model) throws IOException, InterruptedException {
+        return analyze(image, model, HeatmapPolicy.NEVER, null);
+    }
+
+    // Engines without native batching simply run the images one after another
+    default List<Map<String, Object>> analyzeBatch(List<DecodedImageContext> images, ModelSpec model)
+            throws IOException, InterruptedException {
+        List<Map<String, Object>> results = new ArrayList<>(images.size());
+        for (DecodedImageContext image : images) {
+            results.add(analyze(image, model));
+        }
+        return results;
+    }
+}
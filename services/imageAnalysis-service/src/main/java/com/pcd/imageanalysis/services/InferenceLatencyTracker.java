@@ -0,0 +1,128 @@
+package com.pcd.imageanalysis.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a sliding window of recent inference latencies per model and derives deadlines from them,
+ * so a sub-second model does not inherit the worst case of the slowest one.
+ * <p>
+ * Attempts cut off by the deadline or cancelled as hedge losers enter the window as censored
+ * samples: the time they had run, a lower bound of their latency. Leaving them out would let the
+ * percentile see only the fast runs, and the deadline could then only shrink.
+ */
+@Component
+public class InferenceLatencyTracker {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final int windowSize;
+    private final int minSamples;
+    private final double deadlinePercentile;
+    private final double deadlineMultiplier;
+    private final Duration floor;
+    private final Duration ceiling;
+
+    @Autowired
+    public InferenceLatencyTracker(
+            MeterRegistry meterRegistry,
+            @Value("${analysis.inference.timeout.window-size:512}") int windowSize,
+            @Value("${analysis.inference.timeout.min-samples:20}") int minSamples,
+            @Value("${analysis.inference.timeout.percentile:99}") double deadlinePercentile,
+            @Value("${analysis.inference.timeout.multiplier:3.0}") double deadlineMultiplier,
+            @Value("${analysis.inference.timeout.floor-seconds:5}") long floorSeconds,
+            @Value("${analysis.inference.timeout.ceiling-seconds:${python.timeout:60}}") long ceilingSeconds,
+            @Value("${python.timeout:60}") long hardLimitSeconds) {
+        this.meterRegistry = meterRegistry;
+        this.windowSize = windowSize;
+        this.minSamples = minSamples;
+        this.deadlinePercentile = deadlinePercentile;
+        this.deadlineMultiplier = deadlineMultiplier;
+        this.floor = Duration.ofSeconds(floorSeconds);
+        // The Python engine kills its process at python.timeout whatever the deadline, so a higher ceiling would never apply
+        this.ceiling = Duration.ofSeconds(Math.max(floorSeconds, Math.min(ceilingSeconds, hardLimitSeconds)));
+    }
+
+    public void record(String modelKey, Duration latency) {
+        windows.computeIfAbsent(modelKey, k -> new LatencyWindow(windowSize)).add(latency.toNanos());
+        timers.computeIfAbsent(modelKey, k -> Timer.builder("analysis.inference.latency")
+                        .description("Successful inference latency per model")
+                        .tag("model", k)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(latency.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time an attempt had been running when it was cut off or cancelled; its latency was at least this.
+     */
+    public void recordCensored(String modelKey, Duration elapsed) {
+        windows.computeIfAbsent(modelKey, k -> new LatencyWindow(windowSize)).add(elapsed.toNanos());
+        Counter.builder("analysis.inference.latency.censored")
+                .description("Inference attempts cut off before finishing, counted as lower-bound latency samples")
+                .tag("model", modelKey)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Observed latency percentile, or empty until the model has enough samples to be meaningful.
+     */
+    public Optional<Duration> percentile(String modelKey, double percentile) {
+        LatencyWindow window = windows.get(modelKey);
+        if (window == null) {
+            return Optional.empty();
+        }
+        long[] samples = window.snapshot();
+        if (samples.length < minSamples) {
+            return Optional.empty();
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+        return Optional.of(Duration.ofNanos(samples[Math.max(0, Math.min(samples.length - 1, index))]));
+    }
+
+    /**
+     * {@code multiplier x p<percentile>} clamped to [floor, ceiling]; the ceiling until enough samples exist.
+     */
+    public Duration deadlineFor(String modelKey) {
+        return percentile(modelKey, deadlinePercentile)
+                .map(p -> Duration.ofNanos((long) (p.toNanos() * deadlineMultiplier)))
+                .map(d -> d.compareTo(floor) < 0 ? floor : d)
+                .map(d -> d.compareTo(ceiling) > 0 ? ceiling : d)
+                .orElse(ceiling);
+    }
+
+    private static final class LatencyWindow {
+        private final long[] samples;
+        private int next;
+        private int count;
+
+        LatencyWindow(int size) {
+            this.samples = new long[Math.max(1, size)];
+        }
+
+        synchronized void add(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        synchronized long[] snapshot() {
+            return Arrays.copyOf(samples, count);
+        }
+    }
+}
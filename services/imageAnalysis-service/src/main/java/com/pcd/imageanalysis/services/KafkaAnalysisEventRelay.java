@@ -0,0 +1,71 @@
+package com.pcd.imageanalysis.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pcd.imageanalysis.model.AnalysisEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shares lifecycle events between analysis nodes. Every node publishes its own events to the topic
+ * and consumes it with a group of its own, so each node sees every event; events that originated
+ * locally were already dispatched and are skipped on the way back.
+ */
+@Component
+@ConditionalOnProperty(name = "analysis.events.broker.enabled", havingValue = "true")
+public class KafkaAnalysisEventRelay {
+    private static final Logger log = LoggerFactory.getLogger(KafkaAnalysisEventRelay.class);
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ObjectMapper objectMapper;
+    private final AnalysisEventBus eventBus;
+
+    @Value("${analysis.events.broker.topic:analysis-events}")
+    private String topic;
+
+    @Autowired
+    public KafkaAnalysisEventRelay(KafkaTemplate<String, String> kafkaTemplate, ObjectMapper objectMapper,
+                                   AnalysisEventBus eventBus) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.objectMapper = objectMapper;
+        this.eventBus = eventBus;
+    }
+
+    public void forward(AnalysisEvent event) {
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            log.warn("Could not serialize analysis event for image {}: {}", event.getImageId(), e.getMessage());
+            return;
+        }
+        // Keyed by image so all events for one analysis stay ordered within a partition
+        kafkaTemplate.send(topic, event.getImageId(), payload).whenComplete((sent, error) -> {
+            if (error != null) {
+                log.warn("Could not relay analysis event for image {}: {}", event.getImageId(), error.getMessage());
+            }
+        });
+    }
+
+    @KafkaListener(
+            topics = "${analysis.events.broker.topic:analysis-events}",
+            groupId = "analysis-events-#{T(java.util.UUID).randomUUID().toString()}",
+            properties = {"auto.offset.reset=latest"})
+    public void onEvent(String payload) {
+        try {
+            AnalysisEvent event = objectMapper.readValue(payload, AnalysisEvent.class);
+            if (eventBus.getNodeId().equals(event.getOriginNode())) {
+                return;
+            }
+            eventBus.dispatchLocal(event);
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring malformed analysis event: {}", e.getMessage());
+        }
+    }
+}
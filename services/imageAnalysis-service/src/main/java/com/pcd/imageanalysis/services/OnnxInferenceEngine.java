@@ -0,0 +1,220 @@
+package com.pcd.imageanalysis.services;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import com.pcd.imageanalysis.config.InferenceThreadBudget;
+import com.pcd.imageanalysis.model.ModelSpec;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-JVM inference with ONNX Runtime on CPU.
+ * <p>
+ * The exported model (see {@code python/export_onnx.py}) is loaded into a single session at
+ * startup and shared by all requests. Preprocessing mirrors the Python path: bilinear resize of
+ * the shared {@link DecodedImageContext} raster followed by ImageNet normalisation, written into
+ * a direct buffer that ONNX Runtime reads without copying. Buffers are only taken while holding an
+ * inference slot, so there are never more of them than slots, however many threads call in.
+ */
+@Service
+@ConditionalOnProperty(name = "analysis.inference.engine", havingValue = "onnx")
+public class OnnxInferenceEngine implements InferenceEngine {
+    private static final Logger log = LoggerFactory.getLogger(OnnxInferenceEngine.class);
+
+    private static final float[] IMAGENET_MEAN = {0.485f, 0.456f, 0.406f};
+    private static final float[] IMAGENET_STD = {0.229f, 0.224f, 0.225f};
+
+    private final Resource modelResource;
+    private final InferenceThreadBudget threadBudget;
+    private final Semaphore workerPermits;
+    // At most one per worker permit: a buffer is only taken out while its caller holds a permit
+    private final Queue<FloatBuffer> freeInputBuffers = new ConcurrentLinkedQueue<>();
+
+    @Value("${model.onnx.max-batch:8}")
+    private int maxBatch;
+
+    @Value("${python.timeout:60}")
+    private int inferenceTimeout;
+
+    private OrtEnvironment environment;
+    private OrtSession session;
+    private String inputName;
+
+    @Autowired
+    public OnnxInferenceEngine(
+            @Value("${model.onnx.path:classpath:models/falsification_detector.onnx}") Resource modelResource,
+            InferenceThreadBudget threadBudget) {
+        this.modelResource = modelResource;
+        this.threadBudget = threadBudget;
+        this.workerPermits = new Semaphore(threadBudget.getWorkers(), true);
+    }
+
+    @PostConstruct
+    public void init() throws IOException, OrtException {
+        byte[] modelBytes;
+        try (InputStream in = modelResource.getInputStream()) {
+            modelBytes = in.readAllBytes();
+        }
+        environment = OrtEnvironment.getEnvironment();
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+            options.setIntraOpNumThreads(threadBudget.getIntraOpThreads());
+            options.setInterOpNumThreads(threadBudget.getInterOpThreads());
+            session = environment.createSession(modelBytes, options);
+        }
+        inputName = session.getInputNames().iterator().next();
+        log.info("ONNX Runtime session loaded from {} (input '{}', {} concurrent runs x {} threads)",
+                modelResource.getDescription(), inputName, threadBudget.getWorkers(), threadBudget.getIntraOpThreads());
+    }
+
+    @PreDestroy
+    public void close() throws OrtException {
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "onnx";
+    }
+
+    @Override
+    public boolean supportsHeatmaps() {
+        return false;
+    }
+
+    @Override
+    public int idleCapacity() {
+        return workerPermits.availablePermits();
+    }
+
+    @Override
+    public Map<String, Object> analyze(DecodedImageContext image, ModelSpec model, HeatmapPolicy heatmapPolicy, Path heatmapOutput)
+            throws IOException, InterruptedException {
+        return analyze(image, model, heatmapPolicy, heatmapOutput, () -> {});
+    }
+
+    @Override
+    public Map<String, Object> analyze(DecodedImageContext image, ModelSpec model, HeatmapPolicy heatmapPolicy, Path heatmapOutput,
+                                       Runnable onStart) throws IOException, InterruptedException {
+        if (heatmapPolicy == HeatmapPolicy.ALWAYS) {
+            log.debug("Heatmap requested for image {} but the ONNX engine cannot produce one", image.getImageId());
+        }
+        return runBatch(List.of(image), model, onStart).get(0);
+    }
+
+    @Override
+    public List<Map<String, Object>> analyzeBatch(List<DecodedImageContext> images, ModelSpec model)
+            throws IOException, InterruptedException {
+        List<Map<String, Object>> results = new ArrayList<>(images.size());
+        for (int from = 0; from < images.size(); from += maxBatch) {
+            List<DecodedImageContext> batch = images.subList(from, Math.min(images.size(), from + maxBatch));
+            results.addAll(runBatch(batch, model, () -> {}));
+        }
+        return results;
+    }
+
+    private List<Map<String, Object>> runBatch(List<DecodedImageContext> batch, ModelSpec model, Runnable onStart)
+            throws IOException, InterruptedException {
+        int height = model.getImgHeight();
+        int width = model.getImgWidth();
+        int planeSize = height * width;
+        // Resized outside the slot; the variants are cached on each context
+        List<IntBuffer> pixels = new ArrayList<>(batch.size());
+        for (DecodedImageContext image : batch) {
+            pixels.add(image.scaled(width, height, DecodedImageContext.Resampling.BILINEAR).rgb());
+        }
+
+        if (!workerPermits.tryAcquire(inferenceTimeout, TimeUnit.SECONDS)) {
+            throw new TransientAnalysisException("No inference slot became available within " + inferenceTimeout + " seconds");
+        }
+        FloatBuffer input = null;
+        float[][] logits;
+        try {
+            onStart.run();
+            input = takeInputBuffer(batch.size() * 3 * planeSize);
+            for (IntBuffer rgb : pixels) {
+                writeNormalized(rgb, input, planeSize);
+            }
+            input.flip();
+            long[] shape = {batch.size(), 3, height, width};
+            try (OnnxTensor tensor = OnnxTensor.createTensor(environment, input, shape);
+                 OrtSession.Result output = session.run(Map.of(inputName, tensor))) {
+                logits = (float[][]) output.get(0).getValue();
+            } catch (OrtException e) {
+                throw new IOException("ONNX Runtime inference failed: " + e.getMessage(), e);
+            }
+        } finally {
+            if (input != null) {
+                freeInputBuffers.offer(input);
+            }
+            workerPermits.release();
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            double logit = logits[i][0];
+            double probability = 1.0 / (1.0 + Math.exp(-logit));
+            Map<String, Object> details = new HashMap<>();
+            details.put("logit_value", logit);
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("isFalsified", probability > 0.5);
+            result.put("confidenceScore", probability);
+            result.put("detectionDetails", details);
+            result.put("modelVersion", model.getVersion());
+            result.put("inferenceMode", "fp32");
+            results.add(result);
+            log.info("ONNX inference for image {}: Falsified={}, Score={}", batch.get(i).getImageId(), probability > 0.5, probability);
+        }
+        return results;
+    }
+
+    // Direct so ONNX Runtime can wrap it instead of copying; one too small for this batch is replaced
+    private FloatBuffer takeInputBuffer(int capacity) {
+        FloatBuffer buffer = freeInputBuffers.poll();
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    // NCHW layout: all red values, then green, then blue
+    private static void writeNormalized(IntBuffer rgb, FloatBuffer out, int planeSize) {
+        int base = out.position();
+        for (int i = 0; i < planeSize; i++) {
+            int p = rgb.get(i);
+            out.put(base + i, (((p >> 16) & 0xFF) / 255f - IMAGENET_MEAN[0]) / IMAGENET_STD[0]);
+            out.put(base + planeSize + i, (((p >> 8) & 0xFF) / 255f - IMAGENET_MEAN[1]) / IMAGENET_STD[1]);
+            out.put(base + 2 * planeSize + i, ((p & 0xFF) / 255f - IMAGENET_MEAN[2]) / IMAGENET_STD[2]);
+        }
+        out.position(base + 3 * planeSize);
+    }
+}
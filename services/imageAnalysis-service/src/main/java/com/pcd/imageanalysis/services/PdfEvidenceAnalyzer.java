@@ -0,0 +1,307 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.model.DetectionDetails;
+import com.pcd.imageanalysis.model.InferenceMode;
+import com.pcd.imageanalysis.model.ModelSpec;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Analyzes the raster images embedded in a PDF exhibit and rolls them up into one verdict.
+ * <p>
+ * The document is opened with a temp-file-only stream cache and walked one page at a time, so
+ * only the page being extracted plus at most {@code analysis.pdf.max-parallel-images} decoded
+ * images are ever in memory, however long the exhibit. Each image is written to its own temp
+ * file and run through the normal inference pipeline and detectors on a small worker pool.
+ */
+@Component
+public class PdfEvidenceAnalyzer {
+    private static final Logger log = LoggerFactory.getLogger(PdfEvidenceAnalyzer.class);
+    private static final byte[] PDF_MAGIC = {'%', 'P', 'D', 'F', '-'};
+
+    private final InferenceEngine inferenceEngine;
+    private final AdaptiveInferenceExecutor inferenceExecutor;
+    private final List<ImageDetector> detectors;
+    private final ExecutorService workers;
+    private final int maxParallelImages;
+
+    @Value("${analysis.pdf.max-pages:1000}")
+    private int maxPages;
+
+    @Value("${analysis.pdf.min-image-side:64}")
+    private int minImageSide;
+
+    @Value("${analysis.pdf.max-image-pixels:16000000}")
+    private long maxImagePixels;
+
+    public record DocumentVerdict(int pages, int imagesAnalyzed, int imagesFailed, int imagesFalsified,
+                                  Double maxConfidenceScore, String modelVersion, InferenceMode inferenceMode,
+                                  List<DetectionDetails.ImageFinding> findings) {
+
+        public boolean isFalsified() {
+            return imagesFalsified > 0;
+        }
+
+        public DetectionDetails toDetails() {
+            DetectionDetails details = new DetectionDetails();
+            details.setDocument(new DetectionDetails.DocumentScan(pages, imagesAnalyzed, imagesFailed, imagesFalsified,
+                    new ArrayList<>(findings), 0));
+            return details;
+        }
+    }
+
+    @Autowired
+    public PdfEvidenceAnalyzer(InferenceEngine inferenceEngine,
+                               AdaptiveInferenceExecutor inferenceExecutor,
+                               ObjectProvider<ImageDetector> detectors,
+                               @Value("${analysis.pdf.max-parallel-images:2}") int maxParallelImages) {
+        this.inferenceEngine = inferenceEngine;
+        this.inferenceExecutor = inferenceExecutor;
+        this.detectors = detectors.orderedStream().toList();
+        this.maxParallelImages = Math.max(1, maxParallelImages);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.maxParallelImages, r -> {
+            Thread thread = new Thread(r, "pdf-image-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    public static boolean isPdf(String contentType, Path file) throws IOException {
+        if ("application/pdf".equalsIgnoreCase(contentType)) {
+            return true;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] header = in.readNBytes(PDF_MAGIC.length);
+            return Arrays.equals(header, PDF_MAGIC);
+        }
+    }
+
+    /**
+     * @param onPageDone called with (pages extracted so far, total pages) after each page is handed off
+     */
+    public DocumentVerdict analyze(String documentId, Path pdf, ModelSpec model, BiConsumer<Integer, Integer> onPageDone)
+            throws IOException, InterruptedException {
+        Semaphore inFlight = new Semaphore(maxParallelImages);
+        List<Future<DetectionDetails.ImageFinding>> pending = new ArrayList<>();
+        int pageCount;
+        try (PDDocument document = Loader.loadPDF(pdf.toFile(), IOUtils.createTempFileOnlyStreamCache())) {
+            // Without a cache PDFBox drops page resources once a page has been processed
+            document.setResourceCache(null);
+            pageCount = Math.min(document.getNumberOfPages(), maxPages);
+            if (document.getNumberOfPages() > maxPages) {
+                log.warn("PDF {} has {} pages, only the first {} are analyzed", documentId, document.getNumberOfPages(), maxPages);
+            }
+            int pageNumber = 0;
+            for (PDPage page : document.getPages()) {
+                if (++pageNumber > pageCount) {
+                    break;
+                }
+                int imageIndex = 0;
+                for (PDImageXObject image : embeddedImages(page.getResources(), new HashSet<>())) {
+                    if (image.getWidth() < minImageSide || image.getHeight() < minImageSide) {
+                        continue; // Logos, bullets and other decorations
+                    }
+                    // Blocks extraction while the workers are saturated, which is what bounds memory
+                    inFlight.acquire();
+                    Path extracted;
+                    try {
+                        extracted = extract(image);
+                    } catch (IOException | RuntimeException e) {
+                        inFlight.release();
+                        log.warn("Could not extract image {} on page {} of PDF {}: {}", imageIndex, pageNumber, documentId, e.getMessage());
+                        pending.add(CompletableFuture.completedFuture(failure(pageNumber, imageIndex, e)));
+                        imageIndex++;
+                        continue;
+                    }
+                    int pageNo = pageNumber;
+                    int index = imageIndex++;
+                    pending.add(workers.submit(() -> {
+                        try {
+                            return analyzeExtracted(documentId, pageNo, index, extracted, model);
+                        } finally {
+                            Files.deleteIfExists(extracted);
+                            inFlight.release();
+                        }
+                    }));
+                }
+                onPageDone.accept(pageNumber, pageCount);
+            }
+        } catch (InterruptedException e) {
+            pending.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return rollUp(pageCount, collect(pending), model);
+    }
+
+    // Images drawn directly on the page plus those nested in form XObjects, each visited once
+    private List<PDImageXObject> embeddedImages(PDResources resources, Set<COSBase> visited) throws IOException {
+        // Keyed on the underlying dictionary, so a form that (maliciously) contains itself is not revisited
+        if (resources == null || !visited.add(resources.getCOSObject())) {
+            return Collections.emptyList();
+        }
+        List<PDImageXObject> images = new ArrayList<>();
+        for (COSName name : resources.getXObjectNames()) {
+            PDXObject xObject = resources.getXObject(name);
+            if (xObject instanceof PDImageXObject image) {
+                images.add(image);
+            } else if (xObject instanceof PDFormXObject form) {
+                images.addAll(embeddedImages(form.getResources(), visited));
+            }
+        }
+        return images;
+    }
+
+    private Path extract(PDImageXObject image) throws IOException {
+        long pixels = (long) image.getWidth() * image.getHeight();
+        // Subsample huge scans while decoding so a 600 dpi page never materialises at full size
+        int subsampling = pixels > maxImagePixels ? (int) Math.ceil(Math.sqrt((double) pixels / maxImagePixels)) : 1;
+        BufferedImage decoded = image.getImage(null, subsampling);
+        Path file = Files.createTempFile("pdf_image_", ".png");
+        try {
+            if (!ImageIO.write(decoded, "png", file.toFile())) {
+                throw new IOException("No PNG writer for extracted image");
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return file;
+    }
+
+    private DetectionDetails.ImageFinding analyzeExtracted(String documentId, int page, int index, Path file, ModelSpec model) {
+        String imageId = documentId + "#p" + page + "i" + index;
+        try (DecodedImageContext context = DecodedImageContext.open(imageId, file)) {
+            Map<String, Object> inference = inferenceExecutor.analyze(inferenceEngine, context, model, HeatmapPolicy.NEVER, null);
+            DetectionDetails.ImageFinding finding = new DetectionDetails.ImageFinding();
+            finding.setPage(page);
+            finding.setImageIndex(index);
+            finding.setWidth(context.width());
+            finding.setHeight(context.height());
+            finding.setIsFalsified(Boolean.TRUE.equals(inference.get("isFalsified")));
+            if (inference.get("confidenceScore") instanceof Number score) {
+                finding.setConfidenceScore(score.doubleValue());
+            }
+            if (inference.get("modelVersion") != null) {
+                finding.setModelVersion(inference.get("modelVersion").toString());
+            }
+            finding.setInferenceMode(InferenceMode.fromScriptValue(inference.get("inferenceMode")));
+            // Detector output is only kept for flagged images, so a 500-page exhibit stays a small document
+            if (finding.getIsFalsified()) {
+                for (ImageDetector detector : detectors) {
+                    finding.getDetectors().put(detector.getName(), detector.detect(context));
+                }
+            }
+            return finding;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.warn("Analysis of image {} failed: {}", imageId, e.getMessage());
+            return failure(page, index, e);
+        }
+    }
+
+    private static DetectionDetails.ImageFinding failure(int page, int index, Exception e) {
+        DetectionDetails.ImageFinding finding = new DetectionDetails.ImageFinding();
+        finding.setPage(page);
+        finding.setImageIndex(index);
+        finding.setError(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        finding.setFailureKind(AnalysisRetryService.classify(e));
+        return finding;
+    }
+
+    private static List<DetectionDetails.ImageFinding> collect(List<Future<DetectionDetails.ImageFinding>> pending)
+            throws IOException, InterruptedException {
+        List<DetectionDetails.ImageFinding> findings = new ArrayList<>(pending.size());
+        for (Future<DetectionDetails.ImageFinding> future : pending) {
+            try {
+                findings.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IOException("PDF image analysis failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return findings;
+    }
+
+    private DocumentVerdict rollUp(int pages, List<DetectionDetails.ImageFinding> findings, ModelSpec model) throws IOException {
+        int failed = 0;
+        int falsified = 0;
+        boolean transientFailure = false;
+        Double maxScore = null;
+        String version = model.getVersion();
+        InferenceMode mode = null;
+        for (DetectionDetails.ImageFinding finding : findings) {
+            if (finding.hasError()) {
+                failed++;
+                transientFailure |= finding.getFailureKind() == AnalysisRetry.FailureKind.TRANSIENT;
+                continue;
+            }
+            if (Boolean.TRUE.equals(finding.getIsFalsified())) {
+                falsified++;
+            }
+            if (finding.getConfidenceScore() != null) {
+                maxScore = maxScore == null ? finding.getConfidenceScore() : Math.max(maxScore, finding.getConfidenceScore());
+            }
+            if (finding.getModelVersion() != null) {
+                version = finding.getModelVersion();
+            }
+            mode = mode != null ? mode : finding.getInferenceMode();
+        }
+        if (findings.isEmpty()) {
+            // Not a clean verdict: nothing in the document was looked at. Permanent, as a retry would find the same
+            throw new IOException("No analyzable images: none of the " + pages + " pages embeds an image of at least "
+                    + minImageSide + " px per side");
+        }
+        int analyzed = findings.size() - failed;
+        if (analyzed == 0) {
+            String message = "None of the " + failed + " embedded images could be analyzed";
+            // Lets the retry logic tell an overloaded engine apart from a broken document
+            throw transientFailure ? new TransientAnalysisException(message) : new IOException(message);
+        }
+        return new DocumentVerdict(pages, analyzed, failed, falsified, maxScore, version, mode, findings);
+    }
+}
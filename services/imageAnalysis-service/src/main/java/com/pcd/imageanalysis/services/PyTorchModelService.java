@@ -2,12 +2,15 @@ package com.pcd.imageanalysis.services;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pcd.imageanalysis.config.InferenceThreadBudget;
+import com.pcd.imageanalysis.model.ModelSpec;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
@@ -19,16 +22,23 @@ import java.nio.file.Path;
 import java.util.ArrayList; // Import ArrayList
 import java.util.List; // Import List
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Service
-public class PyTorchModelService {
+@ConditionalOnProperty(name = "analysis.inference.engine", havingValue = "python", matchIfMissing = true)
+public class PyTorchModelService implements InferenceEngine {
     private static final Logger log = LoggerFactory.getLogger(PyTorchModelService.class);
 
     // Keep existing fields...
     private final String modelPath;
     private final String pythonScriptPath;
     private final ObjectMapper objectMapper;
+    private final InferenceThreadBudget threadBudget;
+    // One token per worker slot; a slot index also selects the cores a pinned worker runs on
+    private final BlockingQueue<Integer> freeWorkerSlots;
 
     @Value("${python.executable:python}")
     private String pythonExecutable;
@@ -44,10 +54,20 @@ public class PyTorchModelService {
     public PyTorchModelService(
             @Qualifier("modelPath") String modelPath,
             @Qualifier("pythonScriptPath") String pythonScriptPath,
-            ObjectMapper objectMapper) {
+            ObjectMapper objectMapper,
+            InferenceThreadBudget threadBudget) {
         this.modelPath = modelPath;
         this.pythonScriptPath = pythonScriptPath;
         this.objectMapper = objectMapper;
+        this.threadBudget = threadBudget;
+        this.freeWorkerSlots = new ArrayBlockingQueue<>(threadBudget.getWorkers());
+        for (int slot = 0; slot < threadBudget.getWorkers(); slot++) {
+            freeWorkerSlots.add(slot);
+        }
+    }
+
+    public InferenceThreadBudget getThreadBudget() {
+        return threadBudget;
     }
 
     @PostConstruct
@@ -74,58 +94,120 @@ public class PyTorchModelService {
         }
     }
 
-    // **** MODIFIED Method Signature ****
-    // Accept the necessary hyperparameters as arguments
+    @Override
+    public String getName() {
+        return "python";
+    }
+
+    @Override
+    public boolean supportsHeatmaps() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsModelWeights() {
+        return true;
+    }
+
+    @Override
+    public int idleCapacity() {
+        return freeWorkerSlots.size();
+    }
+
+    // The script decodes the file itself, so only the source path of the context is used
+    @Override
+    public Map<String, Object> analyze(DecodedImageContext image, ModelSpec model, HeatmapPolicy heatmapPolicy, Path heatmapOutput)
+            throws IOException, InterruptedException {
+        return analyzeImage(image.getSource(), model, heatmapPolicy, heatmapOutput, () -> {});
+    }
+
+    @Override
+    public Map<String, Object> analyze(DecodedImageContext image, ModelSpec model, HeatmapPolicy heatmapPolicy, Path heatmapOutput,
+                                       Runnable onStart) throws IOException, InterruptedException {
+        return analyzeImage(image.getSource(), model, heatmapPolicy, heatmapOutput, onStart);
+    }
+
+    public Map<String, Object> analyzeImage(Path imagePath, ModelSpec model) throws IOException, InterruptedException {
+        return analyzeImage(imagePath, model, HeatmapPolicy.NEVER, null, () -> {});
+    }
+
+    // Optionally asks the script to write a Grad-CAM PNG to heatmapOutput; onStart runs once a worker slot is taken.
+    // python.timeout bounds both the wait for a slot and the process itself, and is also the ceiling of the
+    // adaptive deadline, which runs from the same point and so normally fires first
     public Map<String, Object> analyzeImage(
             Path imagePath,
-            String arch,
-            int imgHeight,
-            int imgWidth,
-            int denseUnits,
-            double dropout,
-            String modelVersion // Pass model version explicitly if needed
+            ModelSpec model,
+            HeatmapPolicy heatmapPolicy,
+            Path heatmapOutput,
+            Runnable onStart
     ) throws IOException, InterruptedException {
 
         File tempOutput = null;
+        File scriptLog = null;
+        Integer workerSlot = freeWorkerSlots.poll(pythonTimeout, TimeUnit.SECONDS);
+        if (workerSlot == null) {
+            throw new TransientAnalysisException("No inference worker became available within " + pythonTimeout + " seconds");
+        }
         try {
+            onStart.run();
             tempOutput = File.createTempFile("analysis_result_", ".json");
 
             // **** Build the command list dynamically ****
             List<String> command = new ArrayList<>();
+            List<Integer> pinnedCores = threadBudget.coresForWorker(workerSlot);
+            if (!pinnedCores.isEmpty()) {
+                command.add("taskset");
+                command.add("-c");
+                command.add(pinnedCores.stream().map(String::valueOf).collect(Collectors.joining(",")));
+            }
             command.add(pythonExecutable);
             command.add(pythonScriptPath);
-            command.add("--model"); command.add(modelPath); // Assuming modelPath is still relevant, or adjust
+            command.add("--model"); command.add(model.getWeightsPath() != null ? model.getWeightsPath() : modelPath);
             command.add("--image"); command.add(imagePath.toString());
             command.add("--output"); command.add(tempOutput.getAbsolutePath());
-            command.add("--arch"); command.add(arch);
-            command.add("--img-height"); command.add(String.valueOf(imgHeight));
-            command.add("--img-width"); command.add(String.valueOf(imgWidth));
-            command.add("--dense-units"); command.add(String.valueOf(denseUnits));
-            command.add("--dropout"); command.add(String.valueOf(dropout));
+            command.add("--arch"); command.add(model.getArchitecture());
+            command.add("--img-height"); command.add(String.valueOf(model.getImgHeight()));
+            command.add("--img-width"); command.add(String.valueOf(model.getImgWidth()));
+            command.add("--dense-units"); command.add(String.valueOf(model.getDenseUnits()));
+            command.add("--dropout"); command.add(String.valueOf(model.getDropout()));
+            command.add("--inference-mode"); command.add(model.getInferenceMode().toScriptArgument());
+            command.add("--torch-threads"); command.add(String.valueOf(threadBudget.getIntraOpThreads()));
+            command.add("--torch-interop-threads"); command.add(String.valueOf(threadBudget.getInterOpThreads()));
+            if (heatmapOutput != null && heatmapPolicy != HeatmapPolicy.NEVER) {
+                command.add("--heatmap-output"); command.add(heatmapOutput.toString());
+                command.add("--heatmap-policy"); command.add(heatmapPolicy.toScriptArgument());
+            }
 
             log.debug("Executing Python command: {}", String.join(" ", command));
 
             // **** Use the List<String> with ProcessBuilder ****
             ProcessBuilder processBuilder = new ProcessBuilder(command);
+            // OpenMP/MKL size their pools before torch.set_num_threads runs, so cap them up front too
+            String intraOpThreads = String.valueOf(threadBudget.getIntraOpThreads());
+            processBuilder.environment().put("OMP_NUM_THREADS", intraOpThreads);
+            processBuilder.environment().put("MKL_NUM_THREADS", intraOpThreads);
 
+            // Script output goes to a file rather than a pipe, so waiting on the process is bounded by the
+            // timeout (a blocking readLine was not) and a cancelled caller can kill it right away
+            scriptLog = File.createTempFile("analysis_script_", ".log");
             processBuilder.redirectErrorStream(true);
+            processBuilder.redirectOutput(scriptLog);
             Process process = processBuilder.start();
 
-            // --- Rest of the method remains the same ---
-            StringBuilder outputLog = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    outputLog.append(line).append("\n");
-                    log.debug("Python script output: {}", line);
-                }
+            boolean completed;
+            try {
+                completed = process.waitFor(pythonTimeout, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                log.info("Python process for image {} cancelled", imagePath);
+                throw e;
             }
-
-            boolean completed = process.waitFor(pythonTimeout, TimeUnit.SECONDS);
+            String outputLog = Files.readString(scriptLog.toPath());
+            log.debug("Python script output:\n{}", outputLog);
             if (!completed) {
                 process.destroyForcibly();
                 log.error("Python process timed out after {} seconds for image {}", pythonTimeout, imagePath);
-                throw new IOException("Python process timed out after " + pythonTimeout + " seconds");
+                throw new TransientAnalysisException("Python process timed out after " + pythonTimeout + " seconds");
             }
 
             int exitCode = process.exitValue();
@@ -154,7 +236,7 @@ public class PyTorchModelService {
             }
 
             // Add model version explicitly passed or retrieved
-            result.putIfAbsent("modelVersion", modelVersion);
+            result.putIfAbsent("modelVersion", model.getVersion());
 
             if (!result.containsKey("isFalsified") || !result.containsKey("confidenceScore")) {
                 log.warn("Parsed JSON result is missing expected keys ('isFalsified', 'confidenceScore'). Result: {}", result);
@@ -170,6 +252,10 @@ public class PyTorchModelService {
             log.error("Error executing or processing Python script for image {}: {}", imagePath, e.getMessage(), e);
             throw e;
         } finally {
+            freeWorkerSlots.add(workerSlot);
+            if (scriptLog != null && !scriptLog.delete()) {
+                log.warn("Could not delete temporary script log: {}", scriptLog.getAbsolutePath());
+            }
             if (tempOutput != null && !tempOutput.delete()) {
                 log.warn("Could not delete temporary output file: {}", tempOutput.getAbsolutePath());
             }
@@ -0,0 +1,292 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.config.InferenceThreadBudget;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.InferenceMode;
+import com.pcd.imageanalysis.model.ModelSpec;
+import com.pcd.imageanalysis.model.ShadowEvaluation;
+import com.pcd.imageanalysis.repository.ShadowEvaluationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shadow evaluation of a candidate model on live traffic.
+ * <p>
+ * A sampled share of analyses is re-run on the candidate after the primary verdict is known, on a
+ * separate pool so the request never waits for it. Shadow runs hold at most
+ * {@code floor(workers x max-capacity-share)} workers at once and only start when the engine has an
+ * idle worker; anything beyond that is skipped rather than queued. Each run is stored in
+ * {@code shadow_evaluations} with both scores, both latencies and whether the verdicts agree.
+ * <p>
+ * Needs candidate weights and an engine that can load them (the python engine); otherwise shadow
+ * mode stays off rather than compare the primary model with itself.
+ */
+@Service
+public class ShadowEvaluationService {
+    private static final Logger log = LoggerFactory.getLogger(ShadowEvaluationService.class);
+
+    private final InferenceEngine inferenceEngine;
+    private final ShadowEvaluationRepository evaluationRepository;
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+    private final InferenceThreadBudget threadBudget;
+
+    private Semaphore shadowPermits;
+    private ExecutorService executor;
+    private ModelSpec candidateModel;
+
+    @Value("${analysis.shadow.enabled:false}")
+    private boolean enabled;
+
+    @Value("${analysis.shadow.sample-rate:0.1}")
+    private double sampleRate;
+
+    @Value("${analysis.shadow.max-capacity-share:0.25}")
+    private double maxCapacityShare;
+
+    @Value("${analysis.shadow.model.arch:MobileNetV3_Large}")
+    private String candidateArchitecture;
+    @Value("${analysis.shadow.model.height:224}")
+    private int candidateImgHeight;
+    @Value("${analysis.shadow.model.width:224}")
+    private int candidateImgWidth;
+    @Value("${analysis.shadow.model.dense:768}")
+    private int candidateDenseUnits;
+    @Value("${analysis.shadow.model.dropout:0.45}")
+    private double candidateDropout;
+    @Value("${analysis.shadow.model.version:candidate}")
+    private String candidateVersion;
+    @Value("${analysis.shadow.model.inference-mode:FP32}")
+    private InferenceMode candidateInferenceMode;
+    @Value("${analysis.shadow.model.weights:}")
+    private Resource candidateWeights;
+
+    @Value("${temp.dir:${java.io.tmpdir}}")
+    private String tempDir;
+
+    @Autowired
+    public ShadowEvaluationService(InferenceEngine inferenceEngine,
+                                   ShadowEvaluationRepository evaluationRepository,
+                                   MongoTemplate mongoTemplate,
+                                   MeterRegistry meterRegistry,
+                                   InferenceThreadBudget threadBudget) {
+        this.inferenceEngine = inferenceEngine;
+        this.evaluationRepository = evaluationRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+        this.threadBudget = threadBudget;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        // Otherwise the "candidate" would be the primary model under another label, and every comparison meaningless
+        if (!inferenceEngine.supportsModelWeights()) {
+            log.error("Shadow evaluation disabled: the {} engine cannot load candidate weights and would shadow with its own model",
+                    inferenceEngine.getName());
+            enabled = false;
+            return;
+        }
+        if (candidateWeights == null || !candidateWeights.exists()) {
+            log.error("Shadow evaluation disabled: no candidate weights found at analysis.shadow.model.weights");
+            enabled = false;
+            return;
+        }
+        int maxShadowWorkers = (int) Math.floor(threadBudget.getWorkers() * maxCapacityShare);
+        if (maxShadowWorkers < 1) {
+            log.warn("Shadow evaluation enabled but {} x {} workers rounds down to zero, no shadow runs will happen",
+                    maxCapacityShare, threadBudget.getWorkers());
+        }
+        shadowPermits = new Semaphore(maxShadowWorkers);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, maxShadowWorkers), r -> {
+            Thread thread = new Thread(r, "shadow-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Path weightsCopy = Path.of(tempDir, "shadow_" + candidateVersion.replaceAll("[^a-zA-Z0-9.\\-]", "_") + ".pth");
+        try (InputStream in = candidateWeights.getInputStream()) {
+            Files.copy(in, weightsCopy, StandardCopyOption.REPLACE_EXISTING);
+        }
+        candidateModel = new ModelSpec(candidateArchitecture, candidateImgHeight, candidateImgWidth, candidateDenseUnits,
+                candidateDropout, candidateVersion, candidateInferenceMode, weightsCopy.toString());
+        log.info("Shadow evaluation of model {} on {}% of analyses, at most {} concurrent worker(s)",
+                candidateVersion, sampleRate * 100, maxShadowWorkers);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Possibly schedules a shadow run for a completed primary analysis. Returns immediately; the image
+     * is copied (or hard-linked) first because the caller deletes its temp file when it returns.
+     */
+    public void maybeEvaluate(AnalysisResult primary, Path imageFile, long primaryLatencyMs) {
+        if (!enabled || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        if (inferenceEngine.idleCapacity() <= 0 || !shadowPermits.tryAcquire()) {
+            skipped("throttled");
+            return;
+        }
+        Path shadowCopy;
+        try {
+            shadowCopy = snapshot(imageFile);
+        } catch (IOException e) {
+            shadowPermits.release();
+            log.warn("Could not copy image {} for shadow evaluation: {}", primary.getImageId(), e.getMessage());
+            skipped("io");
+            return;
+        }
+        ShadowEvaluation evaluation = new ShadowEvaluation();
+        evaluation.setAnalysisId(primary.getId());
+        evaluation.setImageId(primary.getImageId());
+        evaluation.setCaseId(primary.getCaseId());
+        evaluation.setPrimaryVersion(primary.getAnalysisVersion());
+        evaluation.setPrimaryFalsified(primary.getIsFalsified());
+        evaluation.setPrimaryScore(primary.getConfidenceScore());
+        evaluation.setPrimaryLatencyMs(primaryLatencyMs);
+        evaluation.setCandidateVersion(candidateModel.getVersion());
+        try {
+            executor.execute(() -> run(evaluation, shadowCopy));
+        } catch (RejectedExecutionException e) {
+            shadowPermits.release();
+            deleteQuietly(shadowCopy);
+            skipped("rejected");
+        }
+    }
+
+    /**
+     * Agreement rate, mean absolute score difference and mean latencies for one candidate version.
+     */
+    public Optional<Map<String, Object>> summarize(String version) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("candidateVersion").is(version)),
+                Aggregation.group("candidateVersion")
+                        .count().as("evaluations")
+                        .sum(ConditionalOperators.when(ComparisonOperators.valueOf("agreement").equalToValue(true))
+                                .then(1).otherwise(0)).as("agreements")
+                        .sum(ConditionalOperators.when(ComparisonOperators.valueOf("agreement").equalToValue(false))
+                                .then(1).otherwise(0)).as("disagreements")
+                        .avg("primaryLatencyMs").as("meanPrimaryLatencyMs")
+                        .avg("candidateLatencyMs").as("meanCandidateLatencyMs")
+                        .avg(ArithmeticOperators.valueOf(ArithmeticOperators.valueOf("candidateScore").subtract("primaryScore")).abs())
+                                .as("meanAbsoluteScoreDelta")
+        );
+        Document row = mongoTemplate.aggregate(aggregation, mongoTemplate.getCollectionName(ShadowEvaluation.class), Document.class)
+                .getUniqueMappedResult();
+        if (row == null) {
+            return Optional.empty();
+        }
+        row.put("candidateVersion", row.remove("_id"));
+        // Runs where the candidate failed have no agreement value and are left out of the rate
+        long agreements = ((Number) row.get("agreements")).longValue();
+        long compared = agreements + ((Number) row.get("disagreements")).longValue();
+        row.put("agreementRate", compared > 0 ? (double) agreements / compared : null);
+        return Optional.of(row);
+    }
+
+    private void run(ShadowEvaluation evaluation, Path image) {
+        long start = System.nanoTime();
+        try (DecodedImageContext context = DecodedImageContext.open(evaluation.getImageId(), image)) {
+            Map<String, Object> result = inferenceEngine.analyze(context, candidateModel);
+            long latencyNanos = System.nanoTime() - start;
+            Timer.builder("analysis.shadow.latency")
+                    .tag("model", candidateModel.getVersion())
+                    .register(meterRegistry)
+                    .record(latencyNanos, TimeUnit.NANOSECONDS);
+            evaluation.setCandidateLatencyMs(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+            evaluation.setCandidateFalsified(result.get("isFalsified") instanceof Boolean b ? b : null);
+            evaluation.setCandidateScore(result.get("confidenceScore") instanceof Number n ? n.doubleValue() : null);
+            if (evaluation.getCandidateFalsified() != null && evaluation.getPrimaryFalsified() != null) {
+                boolean agree = evaluation.getCandidateFalsified().equals(evaluation.getPrimaryFalsified());
+                evaluation.setAgreement(agree);
+                Counter.builder("analysis.shadow.verdicts")
+                        .tag("model", candidateModel.getVersion())
+                        .tag("agreement", String.valueOf(agree))
+                        .register(meterRegistry)
+                        .increment();
+            }
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.warn("Shadow evaluation of image {} on model {} failed: {}", evaluation.getImageId(),
+                    candidateModel.getVersion(), e.getMessage());
+            evaluation.setErrorMessage(e.getMessage());
+        } finally {
+            shadowPermits.release();
+            deleteQuietly(image);
+        }
+        evaluation.setTimestamp(Instant.now());
+        try {
+            evaluationRepository.save(evaluation);
+        } catch (Exception e) {
+            log.warn("Could not store shadow evaluation for image {}: {}", evaluation.getImageId(), e.getMessage());
+        }
+    }
+
+    private Path snapshot(Path imageFile) throws IOException {
+        Path copy = Files.createTempFile("shadow_", "_" + imageFile.getFileName());
+        Files.delete(copy);
+        try {
+            return Files.createLink(copy, imageFile);
+        } catch (IOException | UnsupportedOperationException e) {
+            return Files.copy(imageFile, copy);
+        }
+    }
+
+    private void skipped(String reason) {
+        Counter.builder("analysis.shadow.skipped")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete shadow temp file: {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.pcd.imageanalysis.services;
+
+import java.io.IOException;
+
+// A failure worth retrying: the same analysis is expected to succeed once the dependency recovers
+public class TransientAnalysisException extends IOException {
+
+    public TransientAnalysisException(String message) {
+        super(message);
+    }
+}
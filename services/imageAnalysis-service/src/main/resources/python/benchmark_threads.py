@@ -0,0 +1,160 @@
+"""
+Sweeps inference worker x torch thread layouts and reports throughput and latency.
+
+By default (--mode process) every image is analyzed the way imageAnalysis-service does it: a fresh
+detect_falsification.py process per request, which loads the model each time, with up to `workers`
+of them running at once and the same thread flags and OMP/MKL variables the service passes. These
+are the numbers to size python.workers and python.torch-threads with.
+
+--mode warm keeps one process per worker that loads the model once and reuses it. It EXCLUDES model
+loading and process start-up, so it only shows the inference part of the cost and overstates what
+the service achieves.
+
+Example:
+    python benchmark_threads.py --model falsification_detector.pth --arch MobileNetV3_Large \\
+        --img-height 224 --img-width 224 --dense-units 768 --dropout 0.45 \\
+        --images ./samples --workers 1,2,4 --threads 1,2,4
+"""
+import argparse
+import itertools
+import logging
+import multiprocessing as mp
+import os
+import statistics
+import subprocess
+import sys
+import tempfile
+import time
+from concurrent.futures import ThreadPoolExecutor
+from pathlib import Path
+
+IMAGE_SUFFIXES = {'.jpg', '.jpeg', '.png', '.bmp', '.tif', '.tiff', '.webp'}
+
+_worker_state = {}
+
+
+def parse_args():
+    parser = argparse.ArgumentParser(description='Benchmark worker x thread layouts for falsification inference')
+    parser.add_argument('--model', required=True, type=Path)
+    parser.add_argument('--arch', required=True, type=str)
+    parser.add_argument('--img-height', required=True, type=int)
+    parser.add_argument('--img-width', required=True, type=int)
+    parser.add_argument('--dense-units', required=True, type=int)
+    parser.add_argument('--dropout', required=True, type=float)
+    parser.add_argument('--images', required=True, type=Path, help='Directory of sample images')
+    parser.add_argument('--workers', default='1,2,4', help='Comma separated worker counts to try')
+    parser.add_argument('--threads', default='1,2,4', help='Comma separated intra-op thread counts to try')
+    parser.add_argument('--limit', type=int, default=200, help='Images processed per layout')
+    parser.add_argument('--warmup', type=int, default=2, help='Warm-up inferences per worker before timing (warm mode)')
+    parser.add_argument('--mode', choices=['process', 'warm'], default='process',
+                        help='process: a new process per image, as the service runs it; '
+                             'warm: model loaded once per worker, model loading excluded')
+    parser.add_argument('--python', default=sys.executable, help='Python interpreter for process mode')
+    return parser.parse_args()
+
+
+def _init_worker(args, threads):
+    os.environ['OMP_NUM_THREADS'] = str(threads)
+    os.environ['MKL_NUM_THREADS'] = str(threads)
+    import detect_falsification as df
+    df.configure_threads(threads, 1)
+    logging.getLogger().setLevel(logging.WARNING)
+    model, device = df.load_model(args.model, args.arch, args.dense_units, args.dropout)
+    _worker_state.update(model=model, device=device, df=df, args=args)
+    for sample in args.sample_images[:args.warmup]:
+        _infer(sample)
+
+
+def _infer(image_path):
+    df = _worker_state['df']
+    args = _worker_state['args']
+    tensor = df.preprocess_image(image_path, args.img_height, args.img_width)
+    df.detect_falsification(_worker_state['model'], tensor, _worker_state['device'])
+    return 1
+
+
+def run_warm_layout(args, workers, threads, images):
+    ctx = mp.get_context('spawn')
+    with ctx.Pool(processes=workers, initializer=_init_worker, initargs=(args, threads)) as pool:
+        # Make sure every worker finished loading before the clock starts
+        pool.map(_noop, range(workers))
+        start = time.perf_counter()
+        latencies = list(pool.imap_unordered(_timed_infer, images, chunksize=1))
+        elapsed = time.perf_counter() - start
+    return len(latencies) / elapsed if elapsed > 0 else 0.0, latencies
+
+
+def _timed_infer(image_path):
+    started = time.perf_counter()
+    _infer(image_path)
+    return time.perf_counter() - started
+
+
+def run_process_layout(args, workers, threads, images):
+    script = Path(__file__).resolve().parent / 'detect_falsification.py'
+    env = dict(os.environ, OMP_NUM_THREADS=str(threads), MKL_NUM_THREADS=str(threads))
+
+    def analyze(index_and_image):
+        index, image = index_and_image
+        with tempfile.TemporaryDirectory() as tmp:
+            command = [args.python, str(script),
+                       '--model', str(args.model), '--image', str(image), '--output', str(Path(tmp) / f'{index}.json'),
+                       '--arch', args.arch, '--img-height', str(args.img_height), '--img-width', str(args.img_width),
+                       '--dense-units', str(args.dense_units), '--dropout', str(args.dropout),
+                       '--torch-threads', str(threads), '--torch-interop-threads', '1']
+            started = time.perf_counter()
+            completed = subprocess.run(command, env=env, stdout=subprocess.DEVNULL, stderr=subprocess.PIPE, text=True)
+            latency = time.perf_counter() - started
+        if completed.returncode != 0:
+            raise RuntimeError(f"detect_falsification.py failed on {image}: {completed.stderr[-500:]}")
+        return latency
+
+    with ThreadPoolExecutor(max_workers=workers) as pool:
+        start = time.perf_counter()
+        latencies = list(pool.map(analyze, enumerate(images)))
+        elapsed = time.perf_counter() - start
+    return len(latencies) / elapsed if elapsed > 0 else 0.0, latencies
+
+
+def _noop(_):
+    return None
+
+
+def main():
+    args = parse_args()
+    logging.basicConfig(level=logging.INFO, format='%(message)s', stream=sys.stdout, force=True)
+    sys.path.insert(0, str(Path(__file__).resolve().parent))
+
+    images = sorted(p for p in args.images.rglob('*') if p.suffix.lower() in IMAGE_SUFFIXES)
+    if not images:
+        logging.error(f"No images found under {args.images}")
+        return 1
+    images = list(itertools.islice(itertools.cycle(images), args.limit))
+    args.sample_images = images
+
+    cores = os.cpu_count() or 1
+    worker_counts = [int(v) for v in args.workers.split(',') if v.strip()]
+    thread_counts = [int(v) for v in args.threads.split(',') if v.strip()]
+
+    run_layout = run_process_layout if args.mode == 'process' else run_warm_layout
+    logging.info(f"{cores} cores available, {len(images)} images per layout, mode={args.mode}")
+    if args.mode == 'warm':
+        logging.info("warm mode excludes process start-up and model loading, which the service pays on every request")
+    logging.info(f"{'workers':>8} {'threads':>8} {'total':>6} {'images/s':>10} {'p50 ms':>8} {'p95 ms':>8}")
+    results = []
+    for workers, threads in itertools.product(worker_counts, thread_counts):
+        throughput, latencies = run_layout(args, workers, threads, images)
+        results.append((throughput, workers, threads))
+        p50 = statistics.median(latencies) * 1000
+        p95 = sorted(latencies)[max(0, int(round(0.95 * len(latencies))) - 1)] * 1000
+        oversubscribed = ' (oversubscribed)' if workers * threads > cores else ''
+        logging.info(f"{workers:>8} {threads:>8} {workers * threads:>6} {throughput:>10.2f} {p50:>8.0f} {p95:>8.0f}"
+                     f"{oversubscribed}")
+
+    best = max(results)
+    logging.info(f"Best layout: python.workers={best[1]} python.torch-threads={best[2]} ({best[0]:.2f} images/s)")
+    return 0
+
+
+if __name__ == '__main__':
+    sys.exit(main())
@@ -0,0 +1,118 @@
+"""
+Compares fp32 and dynamic int8 quantized inference on a local image directory.
+
+Reports verdict agreement, score drift and per-image latency for both modes so we can decide per
+architecture whether analysis.model.<name>.inference-mode should be QUANTIZED. If images sit in
+sub-directories named after their label (authentic/real/original vs falsified/fake/tampered),
+accuracy is reported for both modes as well.
+
+Example:
+    python compare_quantization.py --model falsification_detector.pth --arch MobileNetV3_Large \\
+        --img-height 224 --img-width 224 --dense-units 768 --dropout 0.45 --images ./eval
+"""
+import argparse
+import logging
+import statistics
+import sys
+import time
+from pathlib import Path
+
+import torch
+
+import detect_falsification as df
+
+IMAGE_SUFFIXES = {'.jpg', '.jpeg', '.png', '.bmp', '.tif', '.tiff', '.webp'}
+AUTHENTIC_LABELS = {'authentic', 'real', 'original', 'pristine'}
+FALSIFIED_LABELS = {'falsified', 'fake', 'tampered', 'manipulated', 'forged'}
+
+
+def parse_args():
+    parser = argparse.ArgumentParser(description='fp32 vs dynamic int8 accuracy/latency comparison')
+    parser.add_argument('--model', required=True, type=Path)
+    parser.add_argument('--arch', required=True, type=str)
+    parser.add_argument('--img-height', required=True, type=int)
+    parser.add_argument('--img-width', required=True, type=int)
+    parser.add_argument('--dense-units', required=True, type=int)
+    parser.add_argument('--dropout', required=True, type=float)
+    parser.add_argument('--images', required=True, type=Path)
+    parser.add_argument('--torch-threads', type=int, default=None)
+    parser.add_argument('--limit', type=int, default=None, help='Only evaluate the first N images')
+    return parser.parse_args()
+
+
+def label_for(path):
+    for part in reversed(path.parent.parts):
+        name = part.lower()
+        if name in AUTHENTIC_LABELS:
+            return False
+        if name in FALSIFIED_LABELS:
+            return True
+    return None
+
+
+def percentile(values, pct):
+    ordered = sorted(values)
+    index = min(len(ordered) - 1, max(0, int(round(pct / 100.0 * (len(ordered) - 1)))))
+    return ordered[index]
+
+
+def timed_score(model, tensor, device):
+    start = time.perf_counter()
+    with torch.no_grad():
+        probability = torch.sigmoid(model(tensor.to(device))).item()
+    return probability, (time.perf_counter() - start) * 1000.0
+
+
+def main():
+    args = parse_args()
+    df.configure_threads(args.torch_threads, 1)
+    logging.getLogger().setLevel(logging.WARNING)
+
+    images = sorted(p for p in args.images.rglob('*') if p.suffix.lower() in IMAGE_SUFFIXES)
+    if args.limit:
+        images = images[:args.limit]
+    if not images:
+        print(f"No images found under {args.images}")
+        return 1
+
+    fp32_model, device = df.load_model(args.model, args.arch, args.dense_units, args.dropout)
+    quantized_model, mode = df.quantize_model(fp32_model, device)
+    if mode != 'quantized':
+        print("Quantization is not available on this device; nothing to compare")
+        return 1
+
+    fp32_latency, int8_latency, drift = [], [], []
+    agree = 0
+    labelled = fp32_correct = int8_correct = 0
+    for path in images:
+        tensor = df.preprocess_image(path, args.img_height, args.img_width)
+        fp32_score, fp32_ms = timed_score(fp32_model, tensor, device)
+        int8_score, int8_ms = timed_score(quantized_model, tensor, device)
+        fp32_latency.append(fp32_ms)
+        int8_latency.append(int8_ms)
+        drift.append(abs(fp32_score - int8_score))
+        if (fp32_score > 0.5) == (int8_score > 0.5):
+            agree += 1
+        label = label_for(path)
+        if label is not None:
+            labelled += 1
+            fp32_correct += int((fp32_score > 0.5) == label)
+            int8_correct += int((int8_score > 0.5) == label)
+
+    n = len(images)
+    print(f"Architecture:        {args.arch}")
+    print(f"Images:              {n}")
+    print(f"Verdict agreement:   {agree / n:.4f}")
+    print(f"Score drift mean:    {statistics.mean(drift):.5f}  max: {max(drift):.5f}")
+    for name, latency in (("fp32", fp32_latency), ("quantized", int8_latency)):
+        print(f"{name:<10} latency ms  p50: {percentile(latency, 50):8.2f}  p95: {percentile(latency, 95):8.2f}"
+              f"  mean: {statistics.mean(latency):8.2f}")
+    print(f"Speedup (mean):      {statistics.mean(fp32_latency) / statistics.mean(int8_latency):.2f}x")
+    if labelled:
+        print(f"Accuracy fp32:       {fp32_correct / labelled:.4f} ({labelled} labelled images)")
+        print(f"Accuracy quantized:  {int8_correct / labelled:.4f}")
+    return 0
+
+
+if __name__ == '__main__':
+    sys.exit(main())
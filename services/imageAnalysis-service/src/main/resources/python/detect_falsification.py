@@ -2,8 +2,11 @@ import argparse
 import json
 import torch
 import torch.nn as nn
+import torch.nn.functional as F
 import numpy as np
+import os
 import sys
+import time
 from pathlib import Path
 from PIL import Image, UnidentifiedImageError
 import logging
@@ -105,9 +108,73 @@ def parse_args():
     parser.add_argument('--img-width', required=True, type=int, help='Image width the model expects')
     parser.add_argument('--dense-units', required=True, type=int, help='Number of dense units in the classifier head')
     parser.add_argument('--dropout', required=True, type=float, help='Dropout rate used in the classifier head')
+    parser.add_argument('--heatmap-output', type=Path, default=None,
+                        help='Path to write a grayscale PNG localization heatmap (Grad-CAM)')
+    parser.add_argument('--heatmap-policy', choices=['never', 'positive', 'always'], default='never',
+                        help='When to generate the heatmap: never, only for falsified verdicts, or always')
+    parser.add_argument('--heatmap-max-side', type=int, default=256,
+                        help='Longest side in pixels of the generated heatmap PNG')
+    parser.add_argument('--inference-mode', choices=['fp32', 'quantized'], default='fp32',
+                        help='fp32, or quantized for dynamic int8 quantization of Linear layers (CPU only)')
+    parser.add_argument('--torch-threads', type=int, default=None,
+                        help='torch intra-op thread count (defaults to torch\'s own choice)')
+    parser.add_argument('--torch-interop-threads', type=int, default=None,
+                        help='torch inter-op thread count (defaults to torch\'s own choice)')
     return parser.parse_args()
 
 
+def configure_threads(intra_op_threads, inter_op_threads):
+    # Must run before the first parallel torch op, inter-op threads cannot be changed afterwards
+    if intra_op_threads:
+        torch.set_num_threads(intra_op_threads)
+    if inter_op_threads:
+        torch.set_num_interop_threads(inter_op_threads)
+    logging.info(f"torch threads: intra-op={torch.get_num_threads()}, inter-op={torch.get_num_interop_threads()}")
+
+
+def quantize_model(model, device):
+    # Dynamic int8 only has CPU kernels; on GPU keep running the fp32 weights
+    if device.type != 'cpu':
+        logging.warning(f"Quantized inference requested on {device}; falling back to fp32")
+        return model, 'fp32'
+    # Covers the classifier head plus the Linear layers of transformer/ConvNeXt backbones,
+    # convolutions have no dynamic quantized kernel and stay fp32
+    quantized = torch.ao.quantization.quantize_dynamic(model, {nn.Linear}, dtype=torch.qint8)
+    quantized.eval()
+    logging.info("Applied dynamic int8 quantization to Linear layers")
+    return quantized, 'quantized'
+
+
+def load_quantized_model(model_path, arch, dense_units, dropout):
+    # Every analysis runs in a fresh process, so quantizing after loading would redo the work on each request.
+    # The quantized module is saved next to the weights the first time and loaded ready-made afterwards;
+    # the weights file is copied anew on service start, which makes an older cache stale.
+    cache_path = model_path.with_name(f"{model_path.stem}.{arch}.int8.pt")
+    if cache_path.is_file() and cache_path.stat().st_mtime >= model_path.stat().st_mtime:
+        started = time.perf_counter()
+        try:
+            # Our own artifact, a whole pickled module rather than a state_dict
+            model = torch.load(cache_path, map_location='cpu', weights_only=False)
+            model.eval()
+            logging.info(f"Loaded int8 model from {cache_path} in {(time.perf_counter() - started) * 1000:.0f} ms")
+            return model
+        except Exception as e:
+            logging.warning(f"Could not load int8 model from {cache_path}, quantizing again: {str(e)}")
+
+    fp32_model, device = load_model(model_path, arch, dense_units, dropout)
+    started = time.perf_counter()
+    model, _ = quantize_model(fp32_model, device)
+    logging.info(f"Quantized in {(time.perf_counter() - started) * 1000:.0f} ms, caching it in {cache_path}")
+    try:
+        # Concurrent workers may race here; each writes its own file and the rename is atomic
+        partial = cache_path.with_name(f"{cache_path.name}.{os.getpid()}.tmp")
+        torch.save(model, partial)
+        os.replace(partial, cache_path)
+    except OSError as e:
+        logging.warning(f"Could not cache the int8 model at {cache_path}: {str(e)}")
+    return model
+
+
 def load_model(model_path, arch, dense_units, dropout):
     logging.info(f"Attempting to load model state_dict from: {model_path}")
     logging.info(f"Reconstructing architecture: {arch} (Dense: {dense_units}, Dropout: {dropout})")
@@ -199,9 +266,88 @@ def detect_falsification(model, img_tensor, device):
         raise
 
 
+def _features_and_logit(model, img_tensor):
+    if model.model_name == "ViT_Base":
+        features = model.base_model(img_tensor).last_hidden_state
+        pooled = features[:, 0]
+    else:
+        features = model.base_model.forward_features(img_tensor)
+        pooled = model.base_model.forward_head(features, pre_logits=True)
+    return features, model.classifier(pooled)
+
+
+def _cam_target_layer(model):
+    # Transformers pool the class token, so the last block's output patch tokens get no gradient. The input
+    # to the last block's attention still feeds the class token, so Grad-CAM hooks there instead.
+    base_model = model.base_model
+    if model.model_name == "ViT_Base":
+        return base_model.encoder.layer[-1].layernorm_before
+    blocks = getattr(base_model, 'blocks', None)
+    if blocks is not None and len(blocks) > 0 and hasattr(blocks[-1], 'norm1'):
+        return blocks[-1].norm1
+    # CNNs: the feature map from forward_features
+    return None
+
+
+def _as_spatial(features, base_model):
+    if features.dim() == 4:
+        return features
+    if features.dim() == 3:
+        # Transformer tokens: drop class/distillation tokens and fold the patch grid back into (B, C, H, W)
+        prefix = getattr(base_model, 'num_prefix_tokens', 1)
+        patches = features[:, prefix:, :]
+        side = int(round(patches.shape[1] ** 0.5))
+        if side * side != patches.shape[1]:
+            return None
+        return patches.reshape(patches.shape[0], side, side, patches.shape[2]).permute(0, 3, 1, 2)
+    return None
+
+
+def generate_heatmap(model, img_tensor, device, output_path, original_size, max_side):
+    logging.debug(f"Generating Grad-CAM heatmap to {output_path}")
+    img_tensor = img_tensor.to(device)
+    target_layer = _cam_target_layer(model)
+    captured = {}
+    with torch.enable_grad():
+        hook = None
+        if target_layer is not None:
+            hook = target_layer.register_forward_hook(lambda module, inputs, output: captured.update(activations=output))
+        try:
+            features, logit = _features_and_logit(model, img_tensor)
+        finally:
+            if hook is not None:
+                hook.remove()
+        # The gradient is taken on a tensor of the forward graph; reshaping comes after, for both alike
+        activations = captured.get('activations', features)
+        gradients = torch.autograd.grad(logit.sum(), activations)[0]
+
+    spatial = _as_spatial(activations.detach(), model.base_model)
+    gradients = _as_spatial(gradients, model.base_model)
+    if spatial is None or gradients is None:
+        logging.warning(f"Grad-CAM not supported for feature shape {tuple(activations.shape)}; skipping heatmap")
+        return None
+
+    weights = gradients.mean(dim=(2, 3), keepdim=True)
+    cam = F.relu((weights * spatial).sum(dim=1, keepdim=True)).detach()
+    cam = cam - cam.min()
+    if cam.max() > 0:
+        cam = cam / cam.max()
+
+    orig_w, orig_h = original_size
+    scale = min(1.0, max_side / float(max(orig_w, orig_h)))
+    out_w, out_h = max(1, int(round(orig_w * scale))), max(1, int(round(orig_h * scale)))
+    cam = F.interpolate(cam, size=(out_h, out_w), mode='bilinear', align_corners=False)[0, 0]
+
+    heatmap = (cam.cpu().numpy() * 255.0).clip(0, 255).astype(np.uint8)
+    Image.fromarray(heatmap, mode='L').save(output_path, format='PNG', optimize=True)
+    logging.info(f"Heatmap written ({out_w}x{out_h}) to {output_path}")
+    return {"method": "grad-cam", "width": out_w, "height": out_h}
+
+
 def main():
     args = parse_args()
     output_path = args.output
+    configure_threads(args.torch_threads, args.torch_interop_threads)
 
     try:
         if not args.model.is_file():
@@ -212,9 +358,38 @@ def main():
         output_path.parent.mkdir(parents=True, exist_ok=True)
         logging.info(f"Output will be saved to: {output_path}")
 
-        model, device = load_model(args.model, args.arch, args.dense_units, args.dropout)
+        device = torch.device('cuda' if torch.cuda.is_available() else 'cpu')
+        if args.inference_mode == 'quantized' and device.type == 'cpu':
+            model = load_quantized_model(args.model, args.arch, args.dense_units, args.dropout)
+            fp32_model = None
+            inference_mode = 'quantized'
+        else:
+            if args.inference_mode == 'quantized':
+                logging.warning(f"Quantized inference requested on {device}; falling back to fp32")
+            model, device = load_model(args.model, args.arch, args.dense_units, args.dropout)
+            fp32_model = model
+            inference_mode = 'fp32'
         img_tensor = preprocess_image(args.image, args.img_height, args.img_width)
         result = detect_falsification(model, img_tensor, device)
+        result["inferenceMode"] = inference_mode
+
+        wants_heatmap = args.heatmap_output is not None and (
+                args.heatmap_policy == 'always' or (args.heatmap_policy == 'positive' and result["isFalsified"]))
+        if wants_heatmap:
+            with Image.open(args.image) as original:
+                original_size = original.size
+            if fp32_model is None:
+                # Grad-CAM needs autograd through the head, which quantized Linear layers do not provide
+                fp32_model, device = load_model(args.model, args.arch, args.dense_units, args.dropout)
+            try:
+                heatmap_info = generate_heatmap(fp32_model, img_tensor, device, args.heatmap_output, original_size,
+                                                args.heatmap_max_side)
+            except Exception as e:
+                # The heatmap is only an aid to the examiner; losing it must not lose the verdict
+                logging.warning(f"Grad-CAM failed, reporting the verdict without a heatmap: {str(e)}", exc_info=True)
+                heatmap_info = None
+            if heatmap_info is not None:
+                result["detectionDetails"]["heatmap"] = heatmap_info
 
         with open(output_path, 'w') as f:
             json.dump(result, f, indent=2)
@@ -0,0 +1,56 @@
+"""
+Exports a trained falsification model to ONNX for the in-JVM inference engine.
+
+The exported graph takes a float32 NCHW tensor named 'input' (ImageNet-normalised RGB) with a
+dynamic batch dimension and returns the raw logit as 'logit'. Point model.onnx.path at the
+result and set analysis.inference.engine=onnx.
+
+Example:
+    python export_onnx.py --model falsification_detector.pth --arch MobileNetV3_Large \\
+        --img-height 224 --img-width 224 --dense-units 768 --dropout 0.45 \\
+        --output falsification_detector.onnx
+"""
+import argparse
+import logging
+import sys
+from pathlib import Path
+
+import torch
+
+import detect_falsification as df
+
+
+def parse_args():
+    parser = argparse.ArgumentParser(description='Export the falsification model to ONNX')
+    parser.add_argument('--model', required=True, type=Path)
+    parser.add_argument('--arch', required=True, type=str)
+    parser.add_argument('--img-height', required=True, type=int)
+    parser.add_argument('--img-width', required=True, type=int)
+    parser.add_argument('--dense-units', required=True, type=int)
+    parser.add_argument('--dropout', required=True, type=float)
+    parser.add_argument('--output', required=True, type=Path)
+    parser.add_argument('--opset', type=int, default=17)
+    return parser.parse_args()
+
+
+def main():
+    args = parse_args()
+    model, _ = df.load_model(args.model, args.arch, args.dense_units, args.dropout)
+    model = model.to('cpu').eval()
+    dummy = torch.zeros(1, 3, args.img_height, args.img_width)
+    torch.onnx.export(
+        model,
+        dummy,
+        str(args.output),
+        input_names=['input'],
+        output_names=['logit'],
+        dynamic_axes={'input': {0: 'batch'}, 'logit': {0: 'batch'}},
+        opset_version=args.opset,
+        do_constant_folding=True,
+    )
+    logging.info(f"Exported {args.arch} to {args.output}")
+    return 0
+
+
+if __name__ == '__main__':
+    sys.exit(main())
@@ -0,0 +1,35 @@
+package com.pcd.imageanalysis.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class InferenceThreadBudgetTest {
+
+    @Test
+    void parsesKernelCpuLists() {
+        assertEquals(List.of(0, 1, 2, 3, 8, 10, 11), InferenceThreadBudget.parseCpuList("0-3,8,10-11\n"));
+        assertEquals(List.of(5), InferenceThreadBudget.parseCpuList(" 5 "));
+    }
+
+    @Test
+    void pinsWorkersOnlyToAllowedCpus() {
+        InferenceThreadBudget budget = InferenceThreadBudget.compute(
+                List.of(8, 9, 10, 11, 12, 13, 14, 15), "2", "4", 1, true);
+
+        assertEquals(8, budget.getAvailableCores());
+        assertEquals(List.of(8, 9, 10, 11), budget.coresForWorker(0));
+        assertEquals(List.of(12, 13, 14, 15), budget.coresForWorker(1));
+    }
+
+    @Test
+    void doesNotPinWhenWorkersOversubscribeTheAllowedCpus() {
+        InferenceThreadBudget budget = InferenceThreadBudget.compute(List.of(2, 3), "2", "2", 1, true);
+
+        assertFalse(budget.isPinned());
+        assertEquals(List.of(), budget.coresForWorker(1));
+    }
+}
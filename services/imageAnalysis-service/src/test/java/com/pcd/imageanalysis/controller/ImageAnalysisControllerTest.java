@@ -0,0 +1,38 @@
+package com.pcd.imageanalysis.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pcd.imageanalysis.model.ResultView;
+import com.pcd.imageanalysis.services.AnalysisEventBus;
+import com.pcd.imageanalysis.services.ImageAnalysisService;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ImageAnalysisControllerTest {
+
+    private final ImageAnalysisService analysisService = mock(ImageAnalysisService.class);
+    private final MockMvc mockMvc = MockMvcBuilders
+            .standaloneSetup(new ImageAnalysisController(analysisService, mock(AnalysisEventBus.class), new ObjectMapper()))
+            .build();
+
+    @Test
+    void malformedCursorIsABadRequest() throws Exception {
+        // What the repository throws for a cursor it cannot decode
+        when(analysisService.getAnalysisResultsByCase(eq("case-1"), eq("garbage"), any(), any(ResultView.class)))
+                .thenThrow(new IllegalArgumentException("Invalid pagination cursor: garbage"));
+        when(analysisService.getAnalysisResultsByVerdict(eq(true), any(), eq("garbage"), any(), any(ResultView.class)))
+                .thenThrow(new IllegalArgumentException("Invalid pagination cursor: garbage"));
+
+        mockMvc.perform(get("/api/v1/analysis/case/case-1/results").param("cursor", "garbage"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/v1/analysis/results/verdict").param("falsified", "true").param("cursor", "garbage"))
+                .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,56 @@
+package com.pcd.imageanalysis.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DetectorOutputTest {
+
+    @Test
+    void arraysArePackedAsLittleEndianFloat32() {
+        DetectorOutput output = new DetectorOutput().array("blocks", new float[]{1.0f, -2.5f});
+
+        // 0x3F800000 and 0xC0200000, low byte first
+        assertArrayEquals(new byte[]{0, 0, (byte) 0x80, 0x3F, 0, 0, 0x20, (byte) 0xC0}, output.getArrays().get("blocks"));
+        assertArrayEquals(new float[]{1.0f, -2.5f}, output.array("blocks"));
+        assertNull(output.array("missing"));
+    }
+
+    @Test
+    void fromMapTypesEachValue() {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("q.75", 0.5);
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("mean", 3);
+        values.put("list", List.of(1, 2.5));
+        values.put("doubles", new double[]{0.25, 4});
+        values.put("ints", new int[]{7});
+        values.put("stats", nested);
+        values.put("label", "jpeg");
+        values.put("skipped", null);
+
+        DetectorOutput output = DetectorOutput.fromMap(values);
+
+        assertEquals(Map.of("mean", 3.0, "stats/q_75", 0.5), output.getMetrics());
+        assertEquals(Map.of("label", "jpeg"), output.getAttributes());
+        assertArrayEquals(new float[]{1f, 2.5f}, output.array("list"));
+        assertArrayEquals(new float[]{0.25f, 4f}, output.array("doubles"));
+        assertArrayEquals(new float[]{7f}, output.array("ints"));
+        assertFalse(output.getArrays().containsKey("skipped"));
+    }
+
+    @Test
+    void mixedListIsKeptAsAnAttribute() {
+        DetectorOutput output = DetectorOutput.fromMap(Map.of("tags", List.of(1, "two")));
+
+        assertEquals("[1, two]", output.getAttributes().get("tags"));
+        assertFalse(output.hasArrays());
+    }
+}
@@ -0,0 +1,158 @@
+package com.pcd.imageanalysis.repository;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisResultPage;
+import com.pcd.imageanalysis.model.AnalysisResultSummary;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AnalysisResultRepositoryCustomImplTest {
+
+    private static final String DATABASE = "analysis_result_paging_test";
+    private static final Instant T0 = Instant.parse("2026-01-01T00:00:00Z");
+
+    // In-process server: the keyset criteria are what is under test, and no mongod has to be downloaded
+    private static MongoServer server;
+    private static MongoClient client;
+
+    private MongoTemplate mongoTemplate;
+    private AnalysisResultRepositoryCustomImpl repository;
+
+    @BeforeAll
+    static void startMongo() {
+        server = new MongoServer(new MemoryBackend());
+        client = MongoClients.create(server.bindAndGetConnectionString());
+    }
+
+    @AfterAll
+    static void stopMongo() {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        mongoTemplate.getDb().drop();
+        repository = new AnalysisResultRepositoryCustomImpl(mongoTemplate);
+    }
+
+    @Test
+    void cursorRoundTripsTheSortValueAndId() {
+        String id = new ObjectId().toHexString();
+
+        var position = AnalysisResultRepositoryCustomImpl.decodeCursor(
+                AnalysisResultRepositoryCustomImpl.encodeCursor("0.875", id), Double::valueOf);
+        assertEquals(0.875, position.value());
+        assertEquals(id, position.id().toHexString());
+
+        var missing = AnalysisResultRepositoryCustomImpl.decodeCursor(
+                AnalysisResultRepositoryCustomImpl.encodeCursor("", id), Double::valueOf);
+        assertNull(missing.value());
+    }
+
+    @Test
+    void malformedCursorsAreIllegalArguments() {
+        String id = new ObjectId().toHexString();
+        // The controllers turn IllegalArgumentException into 400
+        for (String cursor : List.of(
+                "not base64!",
+                AnalysisResultRepositoryCustomImpl.encodeCursor("0.5", "not-an-object-id"),
+                AnalysisResultRepositoryCustomImpl.encodeCursor("high", id),
+                Base64.getUrlEncoder().encodeToString("no separator".getBytes()))) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> repository.findPageByIsFalsified(true, null, cursor, 10, AnalysisResultSummary.class), cursor);
+        }
+        assertThrows(IllegalArgumentException.class, () -> repository.findPageByCaseId("case-1",
+                AnalysisResultRepositoryCustomImpl.encodeCursor("yesterday", id), 10, AnalysisResultSummary.class));
+    }
+
+    @Test
+    void equalTimestampsArePagedByIdWithoutGapsOrRepeats() {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            expected.add(0, insert("case-1", T0, null).getId());
+        }
+        insert("case-2", T0, null);
+
+        assertEquals(expected, pageAllByCase("case-1", 2));
+    }
+
+    @Test
+    void resultsWithoutTimestampComeLastAndArePagedToo() {
+        String newest = insert("case-1", T0.plusSeconds(60), null).getId();
+        String oldest = insert("case-1", T0, null).getId();
+        String firstUndated = insert("case-1", null, null).getId();
+        String secondUndated = insert("case-1", null, null).getId();
+
+        // A page boundary between dated and undated rows, and one inside the undated rows
+        assertEquals(List.of(newest, oldest, secondUndated, firstUndated), pageAllByCase("case-1", 1));
+        assertEquals(List.of(newest, oldest, secondUndated, firstUndated), pageAllByCase("case-1", 3));
+    }
+
+    @Test
+    void verdictPagesTieOnConfidenceAndSkipUnscoredResults() {
+        String high = insert("case-1", T0, 0.9).getId();
+        String tieA = insert("case-1", T0, 0.7).getId();
+        String tieB = insert("case-1", T0, 0.7).getId();
+        insert("case-1", T0, 0.2);
+        insert("case-1", T0, null);
+
+        List<String> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            AnalysisResultPage<AnalysisResultSummary> page =
+                    repository.findPageByIsFalsified(true, 0.5, cursor, 1, AnalysisResultSummary.class);
+            page.getItems().forEach(item -> ids.add(item.getId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(List.of(high, tieB, tieA), ids);
+    }
+
+    private List<String> pageAllByCase(String caseId, int limit) {
+        List<String> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            AnalysisResultPage<AnalysisResultSummary> page =
+                    repository.findPageByCaseId(caseId, cursor, limit, AnalysisResultSummary.class);
+            page.getItems().forEach(item -> ids.add(item.getId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return ids;
+    }
+
+    // ObjectIds are created in increasing order, so later inserts sort first on ties
+    private AnalysisResult insert(String caseId, Instant timestamp, Double confidence) {
+        AnalysisResult result = new AnalysisResult();
+        result.setId(new ObjectId().toHexString());
+        result.setImageId("img-" + result.getId());
+        result.setCaseId(caseId);
+        result.setAnalysisTimestamp(timestamp);
+        result.setAnalysisStatus("COMPLETED");
+        result.setIsFalsified(true);
+        result.setConfidenceScore(confidence);
+        return mongoTemplate.insert(result);
+    }
+}
@@ -0,0 +1,220 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.InferenceMode;
+import com.pcd.imageanalysis.model.ModelSpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveInferenceExecutorTest {
+
+    private static final ModelSpec MODEL = new ModelSpec("MobileNetV3_Large", 224, 224, 768, 0.45, "v1", InferenceMode.FP32);
+    private static final String KEY = AdaptiveInferenceExecutor.modelKey(MODEL);
+    private static final Duration P95 = Duration.ofMillis(100);
+    // Never decoded: the fake engine does not look at pixels
+    private static final DecodedImageContext IMAGE = DecodedImageContext.open("img-1", Path.of("img-1.png"));
+
+    private SimpleMeterRegistry registry;
+    private InferenceLatencyTracker tracker;
+    private AdaptiveInferenceExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        // Deadline: 3 x p99 clamped to [1 s, 2 s]
+        tracker = new InferenceLatencyTracker(registry, 64, 20, 99, 3.0, 1, 2, 60);
+        for (int i = 0; i < 20; i++) {
+            tracker.record(KEY, P95);
+        }
+        executor = new AdaptiveInferenceExecutor(tracker, registry);
+        ReflectionTestUtils.setField(executor, "hedgingEnabled", true);
+        ReflectionTestUtils.setField(executor, "hedgePercentile", 95.0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void fastPrimaryIsNotHedged() throws Exception {
+        FakeEngine engine = new FakeEngine(Call.returns("primary"));
+
+        assertEquals("primary", executor.analyze(engine, IMAGE, MODEL, HeatmapPolicy.NEVER, null).get("by"));
+
+        assertEquals(1, engine.starts.size());
+        assertEquals(0, count("analysis.inference.hedge.issued"));
+    }
+
+    @Test
+    void hedgeStartsAfterThePercentileAndTheFirstResultWins() throws Exception {
+        Call primary = Call.blocks("primary");
+        FakeEngine engine = new FakeEngine(primary, Call.returns("hedge"));
+
+        Map<String, Object> result = executor.analyze(engine, IMAGE, MODEL, HeatmapPolicy.NEVER, null);
+
+        assertEquals("hedge", result.get("by"));
+        assertEquals(2, engine.starts.size());
+        long hedgeDelay = engine.starts.get(1) - engine.starts.get(0);
+        assertTrue(hedgeDelay >= P95.toNanos(), "hedged after " + Duration.ofNanos(hedgeDelay).toMillis() + " ms");
+        // The loser is cancelled, which interrupts its worker
+        assertTrue(primary.interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, count("analysis.inference.hedge.issued"));
+        assertEquals(1, count("analysis.inference.hedge.wins"));
+    }
+
+    @Test
+    void primaryFinishingFirstCancelsTheHedge() throws Exception {
+        Call primary = Call.blocks("primary");
+        Call hedge = Call.blocks("hedge");
+        FakeEngine engine = new FakeEngine(primary, hedge);
+        // Let the primary finish once the hedge is running
+        engine.onStart = index -> {
+            if (index == 1) {
+                primary.release.countDown();
+            }
+        };
+
+        assertEquals("primary", executor.analyze(engine, IMAGE, MODEL, HeatmapPolicy.NEVER, null).get("by"));
+
+        assertTrue(hedge.interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(0, count("analysis.inference.hedge.wins"));
+    }
+
+    @Test
+    void hedgeResultIsUsedWhenThePrimaryFails() throws Exception {
+        Call primary = Call.blocks("primary");
+        primary.failWith = new IOException("worker crashed");
+        FakeEngine engine = new FakeEngine(primary, Call.blocks("hedge"));
+        engine.onStart = index -> {
+            if (index == 1) {
+                // Primary fails while the hedge is still running; the hedge then finishes
+                primary.release.countDown();
+                engine.calls.get(1).release.countDown();
+            }
+        };
+
+        assertEquals("hedge", executor.analyze(engine, IMAGE, MODEL, HeatmapPolicy.NEVER, null).get("by"));
+    }
+
+    @Test
+    void primaryErrorWithoutHedgeIsRethrown() {
+        ReflectionTestUtils.setField(executor, "hedgingEnabled", false);
+        Call primary = Call.returns("primary");
+        primary.failWith = new IOException("worker crashed");
+        FakeEngine engine = new FakeEngine(primary);
+
+        IOException error = assertThrows(IOException.class, () -> executor.analyze(engine, IMAGE, MODEL, HeatmapPolicy.NEVER, null));
+        assertEquals("worker crashed", error.getMessage());
+    }
+
+    @Test
+    void attemptPastTheDeadlineIsTransientAndCountedAsCensored() {
+        ReflectionTestUtils.setField(executor, "hedgingEnabled", false);
+        Call primary = Call.blocks("primary");
+        FakeEngine engine = new FakeEngine(primary);
+
+        assertThrows(TransientAnalysisException.class, () -> executor.analyze(engine, IMAGE, MODEL, HeatmapPolicy.NEVER, null));
+
+        assertEquals(1, count("analysis.inference.deadline.exceeded"));
+        assertEquals(1, registry.get("analysis.inference.latency.censored").counter().count());
+    }
+
+    private double count(String name) {
+        var counter = registry.find(name).tag("model", KEY).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private static final class Call {
+        final String by;
+        final CountDownLatch release;
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        volatile Exception failWith;
+
+        private Call(String by, boolean blocks) {
+            this.by = by;
+            this.release = new CountDownLatch(blocks ? 1 : 0);
+        }
+
+        static Call returns(String by) {
+            return new Call(by, false);
+        }
+
+        // Runs until released or interrupted
+        static Call blocks(String by) {
+            return new Call(by, true);
+        }
+    }
+
+    private static final class FakeEngine implements InferenceEngine {
+        final List<Call> calls;
+        final List<Long> starts = new CopyOnWriteArrayList<>();
+        volatile IntConsumer onStart = index -> {};
+
+        FakeEngine(Call... calls) {
+            this.calls = List.of(calls);
+        }
+
+        @Override
+        public String getName() {
+            return "fake";
+        }
+
+        @Override
+        public boolean supportsHeatmaps() {
+            return false;
+        }
+
+        @Override
+        public int idleCapacity() {
+            return 1;
+        }
+
+        @Override
+        public Map<String, Object> analyze(DecodedImageContext image, ModelSpec model, HeatmapPolicy heatmapPolicy, Path heatmapOutput)
+                throws IOException, InterruptedException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, Object> analyze(DecodedImageContext image, ModelSpec model, HeatmapPolicy heatmapPolicy, Path heatmapOutput,
+                                           Runnable started) throws IOException, InterruptedException {
+            Call call;
+            int index;
+            synchronized (this) {
+                index = starts.size();
+                call = calls.get(index);
+                // Taken before started.run(), so it is never later than the executor's own start time
+                starts.add(System.nanoTime());
+                started.run();
+            }
+            onStart.accept(index);
+            try {
+                call.release.await();
+            } catch (InterruptedException e) {
+                call.interrupted.countDown();
+                throw e;
+            }
+            if (call.failWith instanceof IOException io) {
+                throw io;
+            }
+            return Map.of("by", call.by);
+        }
+    }
+}
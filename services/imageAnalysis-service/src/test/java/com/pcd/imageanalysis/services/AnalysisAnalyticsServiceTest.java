@@ -0,0 +1,89 @@
+package com.pcd.imageanalysis.services;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AnalysisAnalyticsServiceTest {
+
+    private static final String DATABASE = "analysis_analytics_test";
+    private static final AnalysisAnalyticsService.Filter ALL = new AnalysisAnalyticsService.Filter(null, null, null, null);
+
+    private static MongoServer server;
+    private static MongoClient client;
+
+    private MongoTemplate mongoTemplate;
+    private AnalysisAnalyticsService service;
+
+    @BeforeAll
+    static void startMongo() {
+        server = new MongoServer(new MemoryBackend());
+        client = MongoClients.create(server.bindAndGetConnectionString());
+    }
+
+    @AfterAll
+    static void stopMongo() {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        mongoTemplate.getDb().drop();
+        // No caching: each test aggregates what it inserted
+        service = new AnalysisAnalyticsService(mongoTemplate, 0, 16);
+    }
+
+    @Test
+    void histogramCountsCompletedAnalysesOnly() {
+        insert("COMPLETED", 0.1, false);
+        insert("COMPLETED", 0.9, true);
+        insert("COMPLETED", 1.0, true);
+        insert("SUPERSEDED", 0.9, true);
+        insert("FAILED", 0.3, false);
+
+        List<AnalysisAnalyticsService.ConfidenceBucket> histogram = service.confidenceHistogram(ALL, 2);
+
+        assertEquals(List.of(
+                new AnalysisAnalyticsService.ConfidenceBucket(0.0, 0.5, 1, 0),
+                new AnalysisAnalyticsService.ConfidenceBucket(0.5, 1.0, 2, 2)), histogram);
+    }
+
+    @Test
+    void scoresOutsideTheUnitIntervalDoNotFailTheHistogram() {
+        insert("COMPLETED", 0.2, false);
+        insert("COMPLETED", 1.7, true);
+        insert("COMPLETED", -0.1, false);
+
+        List<AnalysisAnalyticsService.ConfidenceBucket> histogram = service.confidenceHistogram(ALL, 4);
+
+        assertEquals(4, histogram.size());
+        assertEquals(1, histogram.stream().mapToLong(AnalysisAnalyticsService.ConfidenceBucket::count).sum());
+        assertEquals(1, histogram.get(0).count());
+    }
+
+    private void insert(String status, double confidence, boolean falsified) {
+        AnalysisResult result = new AnalysisResult();
+        result.setImageId("img");
+        result.setAnalysisStatus(status);
+        result.setConfidenceScore(confidence);
+        result.setIsFalsified(falsified);
+        mongoTemplate.insert(result);
+    }
+}
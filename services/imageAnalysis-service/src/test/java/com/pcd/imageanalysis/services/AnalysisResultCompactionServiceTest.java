@@ -0,0 +1,192 @@
+package com.pcd.imageanalysis.services;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnalysisResultCompactionServiceTest {
+
+    private static final String DATABASE = "analysis_compaction_test";
+    private static final Instant NOW = Instant.now();
+
+    private static MongoServer server;
+    private static MongoClient client;
+
+    @TempDir
+    Path dir;
+
+    private MongoTemplate mongoTemplate;
+    private HeatmapService heatmapService;
+    // Separate cache, so loads in the tests read GridFS rather than what the service under test stored
+    private HeatmapService heatmapReader;
+    private AnalysisResultCompactionService service;
+
+    @BeforeAll
+    static void startMongo() {
+        server = new MongoServer(new MemoryBackend());
+        client = MongoClients.create(server.bindAndGetConnectionString());
+    }
+
+    @AfterAll
+    static void stopMongo() {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        mongoTemplate.getDb().drop();
+        GridFsTemplate gridFsTemplate = new GridFsTemplate(new SimpleMongoClientDatabaseFactory(client, DATABASE),
+                mongoTemplate.getConverter());
+        heatmapService = new HeatmapService(gridFsTemplate, 16);
+        heatmapReader = new HeatmapService(gridFsTemplate, 16);
+        service = new AnalysisResultCompactionService(mongoTemplate, heatmapService, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "maxAgeDays", 365);
+        ReflectionTestUtils.setField(service, "batchSize", 2);
+        ReflectionTestUtils.setField(service, "batchPauseMs", 0L);
+        ReflectionTestUtils.setField(service, "maxDocumentsPerRun", 1000L);
+        ReflectionTestUtils.setField(service, "archiveCompressor", "zstd");
+    }
+
+    @Test
+    void onlyOlderCompletedResultsOfTheSameImageAndVersionAreSuperseded() throws InterruptedException {
+        String oldest = insert("img-a", "v1", "COMPLETED", NOW.minusSeconds(300));
+        String older = insert("img-a", "v1", "COMPLETED", NOW.minusSeconds(200));
+        String latest = insert("img-a", "v1", "COMPLETED", NOW.minusSeconds(100));
+        String otherVersion = insert("img-a", "v2", "COMPLETED", NOW.minusSeconds(400));
+        String running = insert("img-a", "v1", "IN_PROGRESS", NOW.minusSeconds(500));
+        String failed = insert("img-b", "v1", "FAILED", NOW.minusSeconds(300));
+        String onlyOne = insert("img-b", "v1", "COMPLETED", NOW.minusSeconds(200));
+
+        AnalysisResultCompactionService.CompactionReport report = service.compact().orElseThrow();
+
+        assertEquals(2, report.superseded());
+        assertEquals(0, report.aged());
+        assertEquals(Set.of(latest, otherVersion, running, failed, onlyOne), ids(hotCollection()));
+        assertEquals(Set.of(oldest, older), ids(AnalysisResult.ARCHIVE_COLLECTION));
+        Document archived = mongoTemplate.findById(oldest, Document.class, AnalysisResult.ARCHIVE_COLLECTION);
+        assertEquals("SUPERSEDED", archived.getString("archiveReason"));
+        assertNotNull(archived.get("archivedAt"));
+    }
+
+    @Test
+    void finishedResultsPastTheMaximumAgeAreArchived() throws InterruptedException {
+        Instant old = NOW.minus(Duration.ofDays(400));
+        String agedFailure = insert("img-a", "v1", "FAILED", old);
+        String agedRunning = insert("img-b", "v1", "IN_PROGRESS", old);
+
+        AnalysisResultCompactionService.CompactionReport report = service.compact().orElseThrow();
+
+        assertEquals(1, report.aged());
+        assertEquals(Set.of(agedRunning), ids(hotCollection()));
+        assertEquals("AGED", mongoTemplate.findById(agedFailure, Document.class, AnalysisResult.ARCHIVE_COLLECTION)
+                .getString("archiveReason"));
+    }
+
+    @Test
+    void resultsWithRetryStateStayHot() throws InterruptedException {
+        String superseded = insert("img-a", "v1", "COMPLETED", NOW.minusSeconds(200));
+        insert("img-a", "v1", "COMPLETED", NOW.minusSeconds(100));
+        AnalysisRetry retry = new AnalysisRetry();
+        retry.setAnalysisId(superseded);
+        retry.setStatus(AnalysisRetry.Status.SCHEDULED);
+        mongoTemplate.insert(retry);
+
+        AnalysisResultCompactionService.CompactionReport report = service.compact().orElseThrow();
+
+        assertEquals(0, report.superseded());
+        assertEquals(1, report.skipped());
+        assertTrue(ids(hotCollection()).contains(superseded));
+    }
+
+    @Test
+    void copyLeftByAnInterruptedPassIsReplaced() throws InterruptedException {
+        String superseded = insert("img-a", "v1", "COMPLETED", NOW.minusSeconds(200));
+        insert("img-a", "v1", "COMPLETED", NOW.minusSeconds(100));
+        mongoTemplate.insert(new Document("_id", new ObjectId(superseded)).append("imageId", "stale"),
+                AnalysisResult.ARCHIVE_COLLECTION);
+
+        assertEquals(1, service.compact().orElseThrow().superseded());
+
+        assertEquals("img-a", mongoTemplate.findById(superseded, Document.class, AnalysisResult.ARCHIVE_COLLECTION)
+                .getString("imageId"));
+    }
+
+    @Test
+    void heatmapsOfArchivedResultsAreDeleted() throws IOException, InterruptedException {
+        String superseded = insert("img-a", "v1", "COMPLETED", NOW.minusSeconds(200));
+        String latest = insert("img-a", "v1", "COMPLETED", NOW.minusSeconds(100));
+        String archivedHeatmap = attachHeatmap(superseded);
+        String keptHeatmap = attachHeatmap(latest);
+
+        service.compact().orElseThrow();
+
+        assertTrue(heatmapReader.load(archivedHeatmap).isEmpty());
+        assertFalse(mongoTemplate.findById(superseded, Document.class, AnalysisResult.ARCHIVE_COLLECTION)
+                .containsKey("heatmapFileId"));
+        assertTrue(heatmapReader.load(keptHeatmap).isPresent());
+        assertEquals(keptHeatmap, mongoTemplate.findById(latest, AnalysisResult.class).getHeatmapFileId());
+    }
+
+    private String attachHeatmap(String analysisId) throws IOException {
+        Path png = Files.write(dir.resolve(analysisId + ".png"), new byte[]{(byte) 0x89, 'P', 'N', 'G'});
+        String fileId = heatmapService.store(png, "img-a", analysisId);
+        AnalysisResult result = mongoTemplate.findById(analysisId, AnalysisResult.class);
+        result.setHeatmapFileId(fileId);
+        mongoTemplate.save(result);
+        return fileId;
+    }
+
+    private String insert(String imageId, String version, String status, Instant timestamp) {
+        AnalysisResult result = new AnalysisResult();
+        result.setId(new ObjectId().toHexString());
+        result.setImageId(imageId);
+        result.setAnalysisVersion(version);
+        result.setAnalysisStatus(status);
+        result.setAnalysisTimestamp(timestamp);
+        return mongoTemplate.insert(result).getId();
+    }
+
+    private Set<String> ids(String collection) {
+        return mongoTemplate.findAll(Document.class, collection).stream()
+                .map(document -> document.get("_id").toString())
+                .collect(Collectors.toSet());
+    }
+
+    private String hotCollection() {
+        return mongoTemplate.getCollectionName(AnalysisResult.class);
+    }
+}
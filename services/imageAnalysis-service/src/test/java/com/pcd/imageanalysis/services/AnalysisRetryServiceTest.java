@@ -0,0 +1,194 @@
+package com.pcd.imageanalysis.services;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.pcd.imageanalysis.client.ImageServiceUnavailableException;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.repository.AnalysisRetryRepository;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnalysisRetryServiceTest {
+
+    private static final String DATABASE = "analysis_retry_test";
+
+    private static MongoServer server;
+    private static MongoClient client;
+
+    private MongoTemplate mongoTemplate;
+    private AnalysisRetryRepository retryRepository;
+    private AnalysisRetryService service;
+
+    @BeforeAll
+    static void startMongo() {
+        server = new MongoServer(new MemoryBackend());
+        client = MongoClients.create(server.bindAndGetConnectionString());
+    }
+
+    @AfterAll
+    static void stopMongo() {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        mongoTemplate.getDb().drop();
+        retryRepository = new MongoRepositoryFactory(mongoTemplate).getRepository(AnalysisRetryRepository.class);
+        service = new AnalysisRetryService(retryRepository, mongoTemplate, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        ReflectionTestUtils.setField(service, "initialDelaySeconds", 30L);
+        ReflectionTestUtils.setField(service, "maxDelaySeconds", 300L);
+        ReflectionTestUtils.setField(service, "leaseSeconds", 600L);
+    }
+
+    @Test
+    void classifiesDependencyFailuresAsTransientAndTheRestAsPermanent() {
+        List<Throwable> transients = List.of(
+                new TransientAnalysisException("no free worker"),
+                new ImageServiceUnavailableException("down", null),
+                new ResourceAccessException("connection refused"),
+                HttpServerErrorException.create(HttpStatus.BAD_GATEWAY, "Bad Gateway", null, null, null),
+                new SocketTimeoutException(),
+                new ConnectException(),
+                new TimeoutException(),
+                new InterruptedException(),
+                // Found anywhere in the cause chain
+                new RuntimeException("wrapped", new IOException("read failed", new SocketTimeoutException())));
+        for (Throwable error : transients) {
+            assertEquals(AnalysisRetry.FailureKind.TRANSIENT, AnalysisRetryService.classify(error), error.toString());
+        }
+
+        List<Throwable> permanents = List.of(
+                new IllegalArgumentException("Image metadata not found"),
+                new IllegalStateException("Image status conflict"),
+                new IOException("Unsupported image format"),
+                HttpClientErrorException.create(HttpStatus.CONFLICT, "Conflict", null, null, null),
+                new RuntimeException("model error"));
+        for (Throwable error : permanents) {
+            assertEquals(AnalysisRetry.FailureKind.PERMANENT, AnalysisRetryService.classify(error), error.toString());
+        }
+    }
+
+    @Test
+    void backoffGrowsWithEachAttemptUntilTheCap() {
+        long previousCeiling = 0;
+        for (int attempt = 1; attempt <= 40; attempt++) {
+            long ceiling = Math.min(300, 30L << Math.min(attempt - 1, 20)) * 1000;
+            for (int sample = 0; sample < 20; sample++) {
+                long delay = service.backoff(attempt).toMillis();
+                // Equal jitter: never below half the exponential delay, never above it
+                assertTrue(delay >= ceiling / 2 && delay <= ceiling, "attempt " + attempt + ": " + delay + " ms");
+            }
+            assertTrue(ceiling >= previousCeiling);
+            previousCeiling = ceiling;
+        }
+        assertEquals(300_000, previousCeiling);
+    }
+
+    @Test
+    void transientFailuresAreRescheduledUntilMaxAttemptsThenDeadLettered() {
+        AnalysisResult result = result("analysis-1");
+        IOException error = new TransientAnalysisException("no free worker");
+
+        AnalysisRetry first = service.recordFailure(result, error, true);
+        assertEquals(AnalysisRetry.Status.SCHEDULED, first.getStatus());
+        assertEquals(1, first.getAttempts());
+        assertTrue(first.getNextAttemptAt().isAfter(Instant.now().plusSeconds(14)));
+
+        assertEquals(AnalysisRetry.Status.SCHEDULED, service.recordFailure(result, error, true).getStatus());
+
+        AnalysisRetry third = service.recordFailure(result, error, true);
+        assertEquals(AnalysisRetry.Status.DEAD_LETTER, third.getStatus());
+        assertEquals(3, third.getAttempts());
+        assertNull(third.getNextAttemptAt());
+        assertTrue(third.isHeatmapRequested());
+        // Still one document per analysis
+        assertEquals(1, retryRepository.count());
+    }
+
+    @Test
+    void permanentFailureIsDeadLetteredOnTheFirstAttempt() {
+        AnalysisRetry retry = service.recordFailure(result("analysis-1"), new IllegalArgumentException("not found"), false);
+
+        assertEquals(AnalysisRetry.Status.DEAD_LETTER, retry.getStatus());
+        assertEquals(AnalysisRetry.FailureKind.PERMANENT, retry.getLastFailureKind());
+    }
+
+    @Test
+    void claimTakesADueRetryOnceAndReclaimsItWhenTheLeaseExpires() {
+        AnalysisRetry due = service.recordFailure(result("analysis-1"), new TransientAnalysisException("busy"), false);
+        service.recordFailure(result("analysis-2"), new TransientAnalysisException("busy"), false);
+        setNextAttempt(due.getId(), Instant.now().minusSeconds(1));
+
+        Optional<AnalysisRetry> claimed = service.claimNextDue();
+        assertEquals(due.getId(), claimed.orElseThrow().getId());
+        assertEquals(AnalysisRetry.Status.RUNNING, claimed.get().getStatus());
+        // Leased, and the other retry is not due yet
+        assertTrue(service.claimNextDue().isEmpty());
+
+        // The node holding the lease died
+        AnalysisRetry running = retryRepository.findById(due.getId()).orElseThrow();
+        running.setLeaseUntil(Instant.now().minusSeconds(1));
+        retryRepository.save(running);
+        assertEquals(due.getId(), service.claimNextDue().orElseThrow().getId());
+    }
+
+    @Test
+    void requeueGivesADeadLetterAFreshBudgetAndIgnoresOtherStates() {
+        AnalysisRetry dead = service.recordFailure(result("analysis-1"), new IllegalArgumentException("not found"), false);
+        AnalysisRetry scheduled = service.recordFailure(result("analysis-2"), new TransientAnalysisException("busy"), false);
+
+        AnalysisRetry requeued = service.requeue(dead.getId()).orElseThrow();
+        assertEquals(AnalysisRetry.Status.SCHEDULED, requeued.getStatus());
+        assertEquals(0, requeued.getAttempts());
+        assertEquals(dead.getId(), service.claimNextDue().orElseThrow().getId());
+
+        assertTrue(service.requeue(scheduled.getId()).isEmpty());
+        assertTrue(service.requeue("missing").isEmpty());
+    }
+
+    private void setNextAttempt(String retryId, Instant nextAttemptAt) {
+        AnalysisRetry retry = retryRepository.findById(retryId).orElseThrow();
+        retry.setNextAttemptAt(nextAttemptAt);
+        retryRepository.save(retry);
+    }
+
+    private static AnalysisResult result(String analysisId) {
+        AnalysisResult result = new AnalysisResult();
+        result.setId(analysisId);
+        result.setImageId("img-" + analysisId);
+        result.setCaseId("case-1");
+        return result;
+    }
+}
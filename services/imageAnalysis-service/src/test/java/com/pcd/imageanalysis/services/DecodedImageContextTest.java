@@ -0,0 +1,113 @@
+package com.pcd.imageanalysis.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecodedImageContextTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void decodesOnlyWhenPixelsAreAskedFor() throws IOException {
+        try (DecodedImageContext context = DecodedImageContext.open("img", png(4, 2, 0x102030))) {
+            assertFalse(context.isDecoded());
+            assertEquals(0, context.getPeakBytes());
+
+            assertEquals(4, context.width());
+            assertEquals(2, context.height());
+            assertTrue(context.isDecoded());
+            assertTrue(context.getPeakBytes() >= 4L * 4 * 2);
+        }
+    }
+
+    @Test
+    void exposesPackedRgbAndLumaAsReadOnlyBuffers() throws IOException {
+        try (DecodedImageContext context = DecodedImageContext.open("img", png(2, 2, 0xFF0000))) {
+            IntBuffer rgb = context.rgb();
+            assertEquals(0xFF0000, rgb.get(0));
+            assertThrows(ReadOnlyBufferException.class, () -> rgb.put(0, 0));
+
+            ByteBuffer gray = context.grayscale();
+            // BT.601: 255 * 0.299, rounded
+            assertEquals(76, gray.get(0) & 0xFF);
+            assertThrows(ReadOnlyBufferException.class, () -> gray.put(0, (byte) 0));
+        }
+    }
+
+    @Test
+    void downscaleAveragesEachBoxAndIsCachedPerSize() throws IOException {
+        BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+        // Left half black, right half white
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 4; x++) {
+                image.setRGB(x, y, x < 2 ? 0x000000 : 0xFFFFFF);
+            }
+        }
+        try (DecodedImageContext context = DecodedImageContext.open("img", write(image))) {
+            DecodedImageContext.Scaled scaled = context.scaled(2, 1);
+            assertEquals(0x000000, scaled.rgb().get(0));
+            assertEquals(0xFFFFFF, scaled.rgb().get(1));
+
+            DecodedImageContext.Scaled single = context.scaled(1, 1);
+            assertEquals(0x7F7F7F, single.rgb().get(0));
+
+            long peak = context.getPeakBytes();
+            context.scaled(2, 1);
+            context.scaled(1, 1);
+            assertEquals(peak, context.getPeakBytes());
+        }
+    }
+
+    @Test
+    void bilinearKeepsAUniformImageUniform() throws IOException {
+        try (DecodedImageContext context = DecodedImageContext.open("img", png(8, 8, 0x336699))) {
+            DecodedImageContext.Scaled scaled = context.scaled(3, 5, DecodedImageContext.Resampling.BILINEAR);
+            assertEquals(15, scaled.rgb().remaining());
+            for (int i = 0; i < 15; i++) {
+                assertEquals(0x336699, scaled.rgb().get(i));
+            }
+        }
+    }
+
+    @Test
+    void rejectsAccessAfterCloseButKeepsThePeak() throws IOException {
+        DecodedImageContext context = DecodedImageContext.open("img", png(2, 2, 0x000000));
+        context.rgb();
+        long peak = context.getPeakBytes();
+        context.close();
+
+        assertThrows(IllegalStateException.class, context::rgb);
+        assertFalse(context.isDecoded());
+        assertEquals(peak, context.getPeakBytes());
+    }
+
+    private Path png(int width, int height, int rgb) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return write(image);
+    }
+
+    private Path write(BufferedImage image) throws IOException {
+        Path file = dir.resolve("image-" + System.nanoTime() + ".png");
+        ImageIO.write(image, "png", file.toFile());
+        return file;
+    }
+}
@@ -0,0 +1,153 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.model.DetectionDetails;
+import com.pcd.imageanalysis.model.DetectorOutput;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DetectionDetailsBudgetTest {
+
+    private SimpleMeterRegistry registry;
+    private DetectionDetailsBudget budget;
+
+    @BeforeEach
+    void setUp() {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+        registry = new SimpleMeterRegistry();
+        budget = new DetectionDetailsBudget(converter, registry);
+    }
+
+    @Test
+    void detailsWithinTheBudgetAreLeftAlone() {
+        DetectionDetails details = imageDetails(100);
+        budget(budget.encodedSize(details));
+
+        assertSame(details, budget.enforce("img", details));
+        assertNull(details.getTruncated());
+        assertTrue(details.getDetectors().get("ela").hasArrays());
+        assertEquals(0, registry.get("analysis.details.truncated").counter().count());
+    }
+
+    @Test
+    void binaryArraysAreDroppedFirst() {
+        DetectionDetails details = imageDetails(10_000);
+        DetectionDetails withoutArrays = imageDetails(0);
+        withoutArrays.setTruncated(true);
+        budget(budget.encodedSize(withoutArrays));
+
+        budget.enforce("img", details);
+
+        assertEquals(Boolean.TRUE, details.getTruncated());
+        DetectorOutput ela = details.getDetectors().get("ela");
+        assertFalse(ela.hasArrays());
+        assertEquals(1.5, ela.getMetrics().get("mean"));
+        assertEquals(1, registry.get("analysis.details.truncated").counter().count());
+    }
+
+    @Test
+    void cleanPdfFindingsGoBeforeFlaggedAndFailedOnes() {
+        DetectionDetails details = documentDetails(50);
+        List<DetectionDetails.ImageFinding> findings = details.getDocument().getFindings();
+        findings.get(3).setIsFalsified(true);
+        findings.get(7).setIsFalsified(null);
+        findings.get(7).setError("decode failed");
+        findings.get(7).setFailureKind(AnalysisRetry.FailureKind.PERMANENT);
+
+        DetectionDetails kept = documentDetails(0);
+        kept.setTruncated(true);
+        kept.getDocument().getFindings().addAll(List.of(findings.get(3), findings.get(7)));
+        budget(budget.encodedSize(kept));
+
+        budget.enforce("doc", details);
+
+        DetectionDetails.DocumentScan scan = details.getDocument();
+        assertEquals(List.of(3, 7), scan.getFindings().stream().map(DetectionDetails.ImageFinding::getImageIndex).toList());
+        assertEquals(48, scan.getFindingsOmitted());
+        // Counts describe the whole document whatever was trimmed
+        assertEquals(50, scan.getImagesAnalyzed());
+    }
+
+    @Test
+    void flaggedFindingsAreCutFromTheEndOfTheDocument() {
+        DetectionDetails details = documentDetails(40);
+        details.getDocument().getFindings().forEach(finding -> finding.setIsFalsified(true));
+
+        DetectionDetails firstTen = documentDetails(10);
+        firstTen.setTruncated(true);
+        firstTen.getDocument().getFindings().forEach(finding -> finding.setIsFalsified(true));
+        budget(budget.encodedSize(firstTen));
+
+        budget.enforce("doc", details);
+
+        List<DetectionDetails.ImageFinding> findings = details.getDocument().getFindings();
+        assertEquals(10, findings.size());
+        assertEquals(0, findings.get(0).getImageIndex());
+        assertEquals(9, findings.get(9).getImageIndex());
+        assertEquals(30, details.getDocument().getFindingsOmitted());
+        // Kept findings still carry their detector output
+        assertFalse(findings.get(0).getDetectors().isEmpty());
+    }
+
+    @Test
+    void detectorOutputsAreDroppedLast() {
+        DetectionDetails details = imageDetails(0);
+        for (int i = 0; i < 200; i++) {
+            details.getDetectors().get("ela").attribute("note" + i, "x".repeat(50));
+        }
+        details.setLogit(2.5);
+        budget(200);
+
+        budget.enforce("img", details);
+
+        assertTrue(details.getDetectors().isEmpty());
+        assertEquals(2.5, details.getLogit());
+        assertTrue(budget.encodedSize(details) <= 200);
+    }
+
+    private void budget(int maxBytes) {
+        ReflectionTestUtils.setField(budget, "maxBytes", maxBytes);
+    }
+
+    private static DetectionDetails imageDetails(int arrayLength) {
+        DetectionDetails details = new DetectionDetails();
+        DetectorOutput ela = new DetectorOutput().metric("mean", 1.5);
+        if (arrayLength > 0) {
+            ela.array("blocks", new float[arrayLength]);
+        }
+        details.getDetectors().put("ela", ela);
+        return details;
+    }
+
+    private static DetectionDetails documentDetails(int findingCount) {
+        DetectionDetails.DocumentScan scan = new DetectionDetails.DocumentScan();
+        scan.setPages(findingCount);
+        scan.setImagesAnalyzed(findingCount);
+        for (int i = 0; i < findingCount; i++) {
+            DetectionDetails.ImageFinding finding = new DetectionDetails.ImageFinding();
+            finding.setPage(i + 1);
+            finding.setImageIndex(i);
+            finding.setIsFalsified(false);
+            finding.setConfidenceScore(0.1);
+            finding.getDetectors().put("ela", new DetectorOutput().metric("mean", i));
+            scan.getFindings().add(finding);
+        }
+        DetectionDetails details = new DetectionDetails();
+        details.setDocument(scan);
+        return details;
+    }
+}
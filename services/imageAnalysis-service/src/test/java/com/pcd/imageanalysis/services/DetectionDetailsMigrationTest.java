@@ -0,0 +1,131 @@
+package com.pcd.imageanalysis.services;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.model.DetectionDetails;
+import com.pcd.imageanalysis.model.DetectorOutput;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DetectionDetailsMigrationTest {
+
+    private static final String DATABASE = "detection_details_migration_test";
+    private static final String HOT = "image_analysis_results";
+
+    private static MongoServer server;
+    private static MongoClient client;
+
+    private MongoTemplate mongoTemplate;
+    private DetectionDetailsMigration migration;
+
+    @BeforeAll
+    static void startMongo() {
+        server = new MongoServer(new MemoryBackend());
+        client = MongoClients.create(server.bindAndGetConnectionString());
+    }
+
+    @AfterAll
+    static void stopMongo() {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        mongoTemplate.getDb().drop();
+        DetectionDetailsBudget budget = new DetectionDetailsBudget(mongoTemplate.getConverter(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(budget, "maxBytes", 65536);
+        migration = new DetectionDetailsMigration(mongoTemplate, budget);
+        // One document per batch, so paging by _id is exercised
+        ReflectionTestUtils.setField(migration, "batchSize", 1);
+    }
+
+    @Test
+    void legacyImageDetailsAreConvertedInBothCollections() {
+        Document legacy = new Document("isFalsified", true)
+                .append("confidenceScore", 0.9)
+                .append("detectionDetails", new Document("logit_value", 2.1).append("heatmap",
+                        new Document("method", "grad-cam").append("width", 64).append("height", 40)))
+                .append("ela", new Document("mean", 3.2).append("blocks", List.of(1.0, 2.5)));
+        mongoTemplate.insert(new Document("_id", "hot-1").append("imageId", "img-1").append("detectionDetails", legacy), HOT);
+        mongoTemplate.insert(new Document("_id", "archived-1").append("imageId", "img-1").append("detectionDetails", legacy),
+                AnalysisResult.ARCHIVE_COLLECTION);
+
+        migration.migrate();
+
+        for (String collection : List.of(HOT, AnalysisResult.ARCHIVE_COLLECTION)) {
+            Document stored = mongoTemplate.findAll(Document.class, collection).get(0).get("detectionDetails", Document.class);
+            assertEquals(DetectionDetails.SCHEMA_VERSION, stored.getInteger("v"), collection);
+            // The verdict lives on the result only
+            assertFalse(stored.containsKey("isFalsified"), collection);
+            Document ela = stored.get("det", Document.class).get("ela", Document.class);
+            assertInstanceOf(Binary.class, ela.get("b", Document.class).get("blocks"), collection);
+
+            DetectionDetails details = mongoTemplate.findAll(AnalysisResult.class, collection).get(0).getDetectionDetails();
+            assertEquals(2.1, details.getLogit());
+            assertEquals(new DetectionDetails.Heatmap("grad-cam", 64, 40), details.getHeatmap());
+            DetectorOutput output = details.getDetectors().get("ela");
+            assertEquals(3.2, output.getMetrics().get("mean"));
+            assertArrayEquals(new float[]{1.0f, 2.5f}, output.array("blocks"));
+        }
+    }
+
+    @Test
+    void legacyPdfDetailsKeepTheirFindings() {
+        Document legacy = new Document("documentType", "pdf")
+                .append("pages", 3).append("imagesAnalyzed", 1).append("imagesFailed", 1).append("imagesFalsified", 1)
+                .append("findings", List.of(
+                        new Document("page", 1).append("imageIndex", 0).append("isFalsified", true)
+                                .append("confidenceScore", 0.8).append("modelVersion", "v1"),
+                        new Document("page", 2).append("imageIndex", 0).append("error", "timeout")
+                                .append("failureKind", "TRANSIENT")));
+        mongoTemplate.insert(new Document("_id", "doc-1").append("imageId", "doc").append("detectionDetails", legacy), HOT);
+
+        migration.migrate();
+
+        DetectionDetails.DocumentScan scan = mongoTemplate.findAll(AnalysisResult.class, HOT).get(0).getDetectionDetails().getDocument();
+        assertEquals(3, scan.getPages());
+        assertEquals(1, scan.getImagesFailed());
+        assertEquals(2, scan.getFindings().size());
+        assertEquals(0.8, scan.getFindings().get(0).getConfidenceScore());
+        assertEquals("timeout", scan.getFindings().get(1).getError());
+        assertEquals(AnalysisRetry.FailureKind.TRANSIENT, scan.getFindings().get(1).getFailureKind());
+    }
+
+    @Test
+    void versionedAndMissingDetailsAreLeftAlone() {
+        Document current = new Document("v", 1).append("lg", 5.0).append("extra", "kept");
+        mongoTemplate.insert(new Document("_id", "new-1").append("imageId", "img-2").append("detectionDetails", current), HOT);
+        mongoTemplate.insert(new Document("_id", "none-1").append("imageId", "img-3"), HOT);
+
+        migration.migrate();
+        migration.migrate();
+
+        assertEquals(current, mongoTemplate.findById("new-1", Document.class, HOT).get("detectionDetails"));
+        assertNull(mongoTemplate.findById("none-1", Document.class, HOT).get("detectionDetails"));
+    }
+}
@@ -0,0 +1,118 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.client.ImageServiceClient;
+import com.pcd.imageanalysis.client.ImageServiceClient.StatusUpdateOutcome;
+import com.pcd.imageanalysis.client.ImageServiceUnavailableException;
+import com.pcd.imageanalysis.model.AnalysisEvent;
+import com.pcd.imageanalysis.model.AnalysisResult;
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.model.Image;
+import com.pcd.imageanalysis.repository.AnalysisResultRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageAnalysisServiceTest {
+
+    private final ImageServiceClient imageServiceClient = mock(ImageServiceClient.class);
+    private final AnalysisResultRepository resultRepository = mock(AnalysisResultRepository.class);
+    private final AnalysisEventBus eventBus = mock(AnalysisEventBus.class);
+    private final AnalysisRetryService retryService = mock(AnalysisRetryService.class);
+    // Case ID of each event at the moment it was published
+    private final List<String> publishedCaseIds = new ArrayList<>();
+    private final List<AnalysisEvent.Type> publishedTypes = new ArrayList<>();
+
+    private ImageAnalysisService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ObjectProvider<ImageDetector> detectors = mock(ObjectProvider.class);
+        when(detectors.orderedStream()).thenReturn(Stream.empty());
+        service = new ImageAnalysisService(imageServiceClient, mock(InferenceEngine.class), mock(AdaptiveInferenceExecutor.class),
+                resultRepository, mock(HeatmapService.class), mock(PdfEvidenceAnalyzer.class), mock(ShadowEvaluationService.class),
+                eventBus, retryService, mock(DetectionDetailsBudget.class), detectors, new SimpleMeterRegistry());
+
+        when(resultRepository.save(any())).thenAnswer(returnsFirstArg());
+        doAnswer(invocation -> {
+            publishedTypes.add(invocation.getArgument(0));
+            publishedCaseIds.add(invocation.<AnalysisResult>getArgument(1).getCaseId());
+            return null;
+        }).when(eventBus).publish(any(AnalysisEvent.Type.class), any(), any(), any());
+
+        AnalysisRetry deadLetter = new AnalysisRetry();
+        deadLetter.setStatus(AnalysisRetry.Status.DEAD_LETTER);
+        when(retryService.recordFailure(any(), any(), anyBoolean())).thenReturn(deadLetter);
+    }
+
+    @Test
+    void queuedEventCarriesTheCaseOfTheImage() {
+        Image image = new Image();
+        image.setId("img-1");
+        image.setCaseId("case-1");
+        when(imageServiceClient.getImageMetadata("img-1")).thenReturn(Optional.of(image));
+
+        service.analyzeImage("img-1");
+
+        assertEquals(AnalysisEvent.Type.QUEUED, publishedTypes.get(0));
+        assertEquals("case-1", publishedCaseIds.get(0));
+        // The metadata fetched for the event is reused by the run
+        verify(imageServiceClient, times(1)).getImageMetadata("img-1");
+    }
+
+    @Test
+    void conflictOnTheInitialTransitionIsAPermanentFailure() {
+        when(imageServiceClient.getImageMetadata("img-1")).thenReturn(Optional.of(new Image()));
+        // 409 from image-management, e.g. the image was deleted
+        when(imageServiceClient.updateImageAnalysisStatus(eq("img-1"), isNull(), eq("ANALYZING"), any(), any()))
+                .thenReturn(StatusUpdateOutcome.REJECTED);
+
+        assertEquals(AnalysisRetry.FailureKind.PERMANENT, recordedFailureKind());
+    }
+
+    @Test
+    void unreachableManagementOnTheInitialTransitionIsTransient() {
+        when(imageServiceClient.getImageMetadata("img-1")).thenReturn(Optional.of(new Image()));
+        when(imageServiceClient.updateImageAnalysisStatus(eq("img-1"), isNull(), eq("ANALYZING"), any(), any()))
+                .thenReturn(StatusUpdateOutcome.FAILED);
+
+        assertEquals(AnalysisRetry.FailureKind.TRANSIENT, recordedFailureKind());
+    }
+
+    @Test
+    void unavailableMetadataStillQueuesAndIsLookedUpAgainByTheRun() {
+        when(imageServiceClient.getImageMetadata("img-1")).thenThrow(new ImageServiceUnavailableException("down", null));
+
+        AnalysisResult result = service.analyzeImage("img-1").orElseThrow();
+
+        assertEquals(AnalysisEvent.Type.QUEUED, publishedTypes.get(0));
+        verify(imageServiceClient, times(2)).getImageMetadata("img-1");
+        verify(retryService).recordFailure(eq(result), any(ImageServiceUnavailableException.class), eq(false));
+    }
+
+    private AnalysisRetry.FailureKind recordedFailureKind() {
+        service.analyzeImage("img-1");
+        ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+        verify(retryService).recordFailure(any(), error.capture(), eq(false));
+        return AnalysisRetryService.classify(error.getValue());
+    }
+}
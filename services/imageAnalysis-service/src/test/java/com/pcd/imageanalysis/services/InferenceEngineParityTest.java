@@ -0,0 +1,79 @@
+package com.pcd.imageanalysis.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pcd.imageanalysis.config.InferenceThreadBudget;
+import com.pcd.imageanalysis.model.InferenceMode;
+import com.pcd.imageanalysis.model.ModelSpec;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that the Python and ONNX Runtime engines agree on scores for the same images.
+ * <p>
+ * Needs a trained model and its ONNX export, so it only runs when PARITY_MODEL_PTH,
+ * PARITY_MODEL_ONNX and PARITY_IMAGES (a directory of sample images) are set.
+ */
+class InferenceEngineParityTest {
+
+    private static final double MAX_SCORE_DIFFERENCE = 0.02;
+
+    @Test
+    void pythonAndOnnxEnginesAgreeOnScores() throws Exception {
+        String pth = System.getenv("PARITY_MODEL_PTH");
+        String onnx = System.getenv("PARITY_MODEL_ONNX");
+        String images = System.getenv("PARITY_IMAGES");
+        assumeTrue(pth != null && onnx != null && images != null, "Parity model/images not configured");
+
+        InferenceThreadBudget budget = InferenceThreadBudget.compute(
+                Runtime.getRuntime().availableProcessors(), "1", "auto", 1, false);
+        ModelSpec model = new ModelSpec("MobileNetV3_Large", 224, 224, 768, 0.45, "parity", InferenceMode.FP32);
+
+        PyTorchModelService python = new PyTorchModelService(
+                pth, Path.of("src/main/resources/python/detect_falsification.py").toAbsolutePath().toString(),
+                new ObjectMapper(), budget);
+        ReflectionTestUtils.setField(python, "pythonExecutable",
+                System.getenv().getOrDefault("PYTHON_EXECUTABLE", "python"));
+        ReflectionTestUtils.setField(python, "pythonTimeout", 120);
+
+        OnnxInferenceEngine onnxEngine = new OnnxInferenceEngine(new FileSystemResource(onnx), budget);
+        ReflectionTestUtils.setField(onnxEngine, "maxBatch", 8);
+        ReflectionTestUtils.setField(onnxEngine, "inferenceTimeout", 120);
+        onnxEngine.init();
+
+        List<Path> samples;
+        try (Stream<Path> files = Files.list(Path.of(images))) {
+            samples = files.filter(Files::isRegularFile).limit(20).toList();
+        }
+        assumeTrue(!samples.isEmpty(), "No sample images in " + images);
+
+        try {
+            for (Path sample : samples) {
+                try (DecodedImageContext image = DecodedImageContext.open(sample.getFileName().toString(), sample)) {
+                    Map<String, Object> expected = python.analyze(image, model);
+                    Map<String, Object> actual = onnxEngine.analyze(image, model);
+
+                    double expectedScore = ((Number) expected.get("confidenceScore")).doubleValue();
+                    double actualScore = ((Number) actual.get("confidenceScore")).doubleValue();
+                    assertTrue(Math.abs(expectedScore - actualScore) <= MAX_SCORE_DIFFERENCE,
+                            sample + ": python=" + expectedScore + " onnx=" + actualScore);
+                    if (Math.abs(expectedScore - 0.5) > MAX_SCORE_DIFFERENCE) {
+                        assertEquals(expected.get("isFalsified"), actual.get("isFalsified"), sample.toString());
+                    }
+                }
+            }
+        } finally {
+            onnxEngine.close();
+        }
+    }
+}
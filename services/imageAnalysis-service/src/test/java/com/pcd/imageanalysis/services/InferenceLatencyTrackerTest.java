@@ -0,0 +1,78 @@
+package com.pcd.imageanalysis.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InferenceLatencyTrackerTest {
+
+    // Window of 10, percentiles from 5 samples on, deadline 2 x p90 clamped to [1 s, 10 s]
+    private final InferenceLatencyTracker tracker =
+            new InferenceLatencyTracker(new SimpleMeterRegistry(), 10, 5, 90, 2.0, 1, 10, 60);
+
+    @Test
+    void noPercentileUntilEnoughSamples() {
+        record("m", 4, 500);
+
+        assertEquals(Optional.empty(), tracker.percentile("m", 50));
+        assertEquals(Optional.empty(), tracker.percentile("other", 50));
+    }
+
+    @Test
+    void percentileIsTheNearestRankOfTheWindow() {
+        for (int ms = 100; ms <= 1000; ms += 100) {
+            tracker.record("m", Duration.ofMillis(ms));
+        }
+
+        assertEquals(Duration.ofMillis(500), tracker.percentile("m", 50).orElseThrow());
+        assertEquals(Duration.ofMillis(900), tracker.percentile("m", 90).orElseThrow());
+        assertEquals(Duration.ofMillis(1000), tracker.percentile("m", 100).orElseThrow());
+    }
+
+    @Test
+    void oldSamplesSlideOutOfTheWindow() {
+        record("m", 10, 4000);
+        record("m", 10, 200);
+
+        assertEquals(Duration.ofMillis(200), tracker.percentile("m", 100).orElseThrow());
+    }
+
+    @Test
+    void deadlineIsTheCeilingUntilEnoughSamplesAndClampedAfter() {
+        assertEquals(Duration.ofSeconds(10), tracker.deadlineFor("m"));
+
+        record("m", 10, 100);
+        assertEquals(Duration.ofSeconds(1), tracker.deadlineFor("m"));
+
+        record("m", 10, 2000);
+        assertEquals(Duration.ofSeconds(4), tracker.deadlineFor("m"));
+
+        record("m", 10, 9000);
+        assertEquals(Duration.ofSeconds(10), tracker.deadlineFor("m"));
+    }
+
+    @Test
+    void censoredSamplesCountTowardsThePercentile() {
+        record("m", 9, 100);
+        tracker.recordCensored("m", Duration.ofMillis(3000));
+
+        assertEquals(Duration.ofMillis(3000), tracker.percentile("m", 100).orElseThrow());
+    }
+
+    @Test
+    void ceilingNeverExceedsTheHardLimit() {
+        InferenceLatencyTracker capped = new InferenceLatencyTracker(new SimpleMeterRegistry(), 10, 5, 90, 2.0, 1, 120, 30);
+
+        assertEquals(Duration.ofSeconds(30), capped.deadlineFor("m"));
+    }
+
+    private void record(String key, int times, long millis) {
+        for (int i = 0; i < times; i++) {
+            tracker.record(key, Duration.ofMillis(millis));
+        }
+    }
+}
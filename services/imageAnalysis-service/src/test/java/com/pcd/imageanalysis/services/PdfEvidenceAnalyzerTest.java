@@ -0,0 +1,114 @@
+package com.pcd.imageanalysis.services;
+
+import com.pcd.imageanalysis.model.AnalysisRetry;
+import com.pcd.imageanalysis.model.InferenceMode;
+import com.pcd.imageanalysis.model.ModelSpec;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class PdfEvidenceAnalyzerTest {
+
+    private static final ModelSpec MODEL = new ModelSpec("MobileNetV3_Large", 224, 224, 768, 0.45, "v1", InferenceMode.FP32);
+
+    @TempDir
+    Path dir;
+
+    private final InferenceEngine engine = mock(InferenceEngine.class);
+    private final AdaptiveInferenceExecutor executor = mock(AdaptiveInferenceExecutor.class);
+    private PdfEvidenceAnalyzer analyzer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ObjectProvider<ImageDetector> detectors = mock(ObjectProvider.class);
+        when(detectors.orderedStream()).thenReturn(Stream.empty());
+        analyzer = new PdfEvidenceAnalyzer(engine, executor, detectors, 1);
+        ReflectionTestUtils.setField(analyzer, "maxPages", 1000);
+        ReflectionTestUtils.setField(analyzer, "minImageSide", 64);
+        ReflectionTestUtils.setField(analyzer, "maxImagePixels", 16_000_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        analyzer.shutdown();
+    }
+
+    @Test
+    void documentWithoutImagesIsAPermanentFailureNotAnAuthenticVerdict() throws IOException {
+        Path pdf = pdf(null);
+
+        IOException error = assertThrows(IOException.class, () -> analyzer.analyze("doc-1", pdf, MODEL, (page, pages) -> { }));
+
+        assertTrue(error.getMessage().startsWith("No analyzable images"), error.getMessage());
+        assertEquals(AnalysisRetry.FailureKind.PERMANENT, AnalysisRetryService.classify(error));
+        verifyNoInteractions(executor);
+    }
+
+    @Test
+    void documentWithOnlyDecorationsBelowTheMinimumSideIsAPermanentFailure() throws IOException {
+        Path pdf = pdf(new BufferedImage(32, 200, BufferedImage.TYPE_INT_RGB));
+
+        IOException error = assertThrows(IOException.class, () -> analyzer.analyze("doc-1", pdf, MODEL, (page, pages) -> { }));
+
+        assertEquals(AnalysisRetry.FailureKind.PERMANENT, AnalysisRetryService.classify(error));
+        verifyNoInteractions(executor);
+    }
+
+    @Test
+    void analyzedImagesAreRolledUp() throws Exception {
+        when(executor.analyze(eq(engine), any(), eq(MODEL), eq(HeatmapPolicy.NEVER), any()))
+                .thenReturn(Map.of("isFalsified", false, "confidenceScore", 0.25, "modelVersion", "v2"));
+        Path pdf = pdf(new BufferedImage(80, 80, BufferedImage.TYPE_INT_RGB));
+
+        PdfEvidenceAnalyzer.DocumentVerdict verdict = analyzer.analyze("doc-1", pdf, MODEL, (page, pages) -> { });
+
+        assertEquals(1, verdict.pages());
+        assertEquals(1, verdict.imagesAnalyzed());
+        assertEquals(0, verdict.imagesFailed());
+        assertFalse(verdict.isFalsified());
+        assertEquals(0.25, verdict.maxConfidenceScore());
+        assertEquals("v2", verdict.modelVersion());
+    }
+
+    // One page, with the image drawn on it when one is given
+    private Path pdf(BufferedImage image) throws IOException {
+        Path file = dir.resolve("doc-" + System.nanoTime() + ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            if (image != null) {
+                PDImageXObject xObject = LosslessFactory.createFromImage(document, image);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.drawImage(xObject, 10, 10);
+                }
+            }
+            document.save(file.toFile());
+        }
+        return file;
+    }
+}
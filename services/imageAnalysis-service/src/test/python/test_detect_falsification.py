@@ -0,0 +1,88 @@
+"""
+Grad-CAM through the transformer backbones of detect_falsification.py.
+
+Needs torch, timm and the other imports of the script; skipped otherwise. Run from the service directory:
+    python -m unittest discover -s src/test/python
+"""
+import json
+import sys
+import tempfile
+import unittest
+from pathlib import Path
+
+sys.path.insert(0, str(Path(__file__).resolve().parents[2] / 'main' / 'resources' / 'python'))
+
+try:
+    import torch
+    from PIL import Image
+    import detect_falsification as df
+except ImportError as e:  # pragma: no cover - depends on the environment
+    df = None
+    MISSING = str(e)
+else:
+    MISSING = None
+
+
+@unittest.skipIf(df is None, f"detect_falsification dependencies missing: {MISSING}")
+class TransformerGradCamTest(unittest.TestCase):
+
+    def setUp(self):
+        torch.manual_seed(0)
+        self.out_dir = tempfile.TemporaryDirectory()
+
+    def tearDown(self):
+        self.out_dir.cleanup()
+
+    def _heatmap(self, arch):
+        # Random weights: only the shape of the computation matters, and nothing is downloaded
+        model = df.CustomModel(model_name=arch, dense_units=8, dropout=0.1, pretrained=False)
+        model.eval()
+        output = Path(self.out_dir.name) / f"{arch}.png"
+        info = df.generate_heatmap(model, torch.randn(1, 3, 224, 224), torch.device('cpu'), output, (320, 200), 64)
+        return info, output
+
+    def test_class_token_pooled_deit_gets_a_heatmap(self):
+        info, output = self._heatmap("DeiT_Base")
+
+        self.assertEqual({"method": "grad-cam", "width": 64, "height": 40}, info)
+        with Image.open(output) as png:
+            self.assertEqual((64, 40), png.size)
+            # Patch tokens got a gradient: the map is not flat
+            self.assertGreater(png.getextrema()[1], 0)
+
+    def test_mean_pooled_beit_gets_a_heatmap(self):
+        info, output = self._heatmap("BEiT_Base")
+
+        self.assertEqual("grad-cam", info["method"])
+        self.assertTrue(output.is_file())
+
+    def test_failed_heatmap_keeps_the_verdict(self):
+        model_path = Path(self.out_dir.name) / "model.pth"
+        image_path = Path(self.out_dir.name) / "image.png"
+        result_path = Path(self.out_dir.name) / "result.json"
+        model = df.CustomModel(model_name="DeiT_Base", dense_units=8, dropout=0.1, pretrained=False)
+        torch.save(model.state_dict(), model_path)
+        Image.new('RGB', (64, 48), (120, 60, 30)).save(image_path)
+
+        def broken(*args, **kwargs):
+            raise RuntimeError("grad-cam blew up")
+
+        original, original_argv = df.generate_heatmap, sys.argv
+        df.generate_heatmap = broken
+        sys.argv = ['detect_falsification.py', '--model', str(model_path), '--image', str(image_path),
+                    '--output', str(result_path), '--arch', 'DeiT_Base', '--img-height', '224', '--img-width', '224',
+                    '--dense-units', '8', '--dropout', '0.1', '--heatmap-output', str(Path(self.out_dir.name) / 'h.png'),
+                    '--heatmap-policy', 'always']
+        try:
+            self.assertEqual(0, df.main())
+        finally:
+            df.generate_heatmap, sys.argv = original, original_argv
+
+        with open(result_path) as f:
+            result = json.load(f)
+        self.assertIn("isFalsified", result)
+        self.assertNotIn("heatmap", result["detectionDetails"])
+
+
+if __name__ == '__main__':
+    unittest.main()
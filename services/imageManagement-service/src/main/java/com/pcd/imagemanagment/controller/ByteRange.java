@@ -0,0 +1,122 @@
+package com.pcd.imagemanagment.controller;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of a download, {@code start} and {@code end} inclusive as in HTTP.
+ */
+public record ByteRange(long start, long end) {
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    public String contentRange(long totalLength) {
+        return "bytes " + start + "-" + end + "/" + totalLength;
+    }
+
+    /**
+     * Thrown when a valid Range header does not overlap the file at all (416).
+     */
+    public static class NotSatisfiableException extends RuntimeException {
+        public NotSatisfiableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Parses a {@code Range} header against a file of {@code totalLength} bytes. Ranges past the end
+     * are clipped, unsatisfiable ones dropped, and overlapping or adjacent ones coalesced in ascending order.
+     * <p>
+     * An empty list means the whole file is served: no header, another unit, a malformed header or
+     * more than {@code maxRanges} ranges, all of which HTTP allows a server to ignore.
+     *
+     * @throws NotSatisfiableException if the header is valid but none of its ranges overlaps the file
+     */
+    public static List<ByteRange> parse(String header, long totalLength, int maxRanges) {
+        if (header == null) {
+            return List.of();
+        }
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return List.of();
+        }
+        List<ByteRange> satisfiable = new ArrayList<>();
+        int specs = 0;
+        for (String raw : value.substring(6).split(",")) {
+            String spec = raw.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            if (++specs > maxRanges) {
+                return List.of();
+            }
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return List.of();
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the final N bytes
+                long suffix = digits(last);
+                if (suffix < 0) {
+                    return List.of();
+                }
+                if (suffix > 0 && totalLength > 0) {
+                    satisfiable.add(new ByteRange(Math.max(0, totalLength - suffix), totalLength - 1));
+                }
+                continue;
+            }
+            long start = digits(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : digits(last);
+            if (start < 0 || end < 0 || end < start) {
+                return List.of();
+            }
+            if (start < totalLength) {
+                satisfiable.add(new ByteRange(start, Math.min(end, totalLength - 1)));
+            }
+        }
+        if (specs == 0) {
+            return List.of();
+        }
+        if (satisfiable.isEmpty()) {
+            throw new NotSatisfiableException("No range of '" + header + "' overlaps " + totalLength + " bytes");
+        }
+        return coalesce(satisfiable);
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() == 1) {
+            return ranges;
+        }
+        ranges.sort(Comparator.comparingLong(ByteRange::start));
+        List<ByteRange> merged = new ArrayList<>();
+        ByteRange current = ranges.get(0);
+        for (ByteRange next : ranges.subList(1, ranges.size())) {
+            if (next.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    // Non-negative decimal, or -1 for anything else (signs, blanks, overflow)
+    private static long digits(String s) {
+        if (s.isEmpty() || s.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(s);
+    }
+}
@@ -1,11 +1,18 @@
 package com.pcd.imagemanagment.controller;
 
+import com.pcd.imagemanagment.model.BulkUploadResult;
+import com.pcd.imagemanagment.model.CustodyTrailPage;
 import com.pcd.imagemanagment.model.Image;
+import com.pcd.imagemanagment.model.StatusUpdate;
+import com.pcd.imagemanagment.model.StatusUpdateResult;
 import com.pcd.imagemanagment.repository.ImageRepository;
+import com.pcd.imagemanagment.service.BulkUploadService;
+import com.pcd.imagemanagment.service.CustodyTrailService;
 import com.pcd.imagemanagment.service.ImageStorageService;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -18,6 +25,7 @@ import org.springframework.web.server.ResponseStatusException;
 import jakarta.servlet.http.HttpServletRequest;
 
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
 
@@ -28,8 +36,22 @@ public class ImageController {
 
     private final ImageStorageService imageStorageService;
     private final ImageRepository imageRepository;
+    private final CustodyTrailService custodyTrailService;
+    private final BulkUploadService bulkUploadService;
     private static final Logger log = LoggerFactory.getLogger(ImageController.class);
 
+    // More ranges than this in one request are answered with the whole file
+    @Value("${image.download.max-ranges:16}")
+    private int maxRanges;
+
+    // Sent with the content-hash ETag; private because downloads are case evidence and must stay out of shared caches
+    @Value("${image.download.cache-control:private, max-age=31536000, immutable}")
+    private String cacheControl;
+
+    // Items accepted by one bulk analysis status update
+    @Value("${image.analysis-status.bulk-max-items:500}")
+    private int maxBulkStatusUpdates;
+
     // --- Get Client IP (Helper) ---
     private String getClientIp(HttpServletRequest request) {
         String remoteAddr = "";
@@ -73,6 +95,50 @@ public class ImageController {
         }
     }
 
+    // --- Bulk Upload Endpoints ---
+    // Many files, or ZIP archives of them, in one multipart request; one result per file, in request order.
+    // The whole request is bounded by spring.servlet.multipart.max-request-size, send large archives to the raw endpoint below
+    @PostMapping(value = "/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<List<BulkUploadResult>> uploadImages(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam("caseId") String caseId,
+            @RequestParam(value = "userId", defaultValue = "SYSTEM_UPLOAD") String userId,
+            @RequestParam(value = "userRole", defaultValue = "UPLOADER") String userRole,
+            HttpServletRequest request) {
+
+        log.info("API: Received bulk upload of {} part(s) for case ID: {} by User ID: {}", files.size(), caseId, userId);
+        try {
+            return ResponseEntity.ok(bulkUploadService.ingestParts(files, caseId, userId, userRole, getClientIp(request)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Bulk upload interrupted", e);
+        } catch (Exception e) {
+            log.error("API: Bulk upload failed for case ID: {}", caseId, e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Bulk upload failed", e);
+        }
+    }
+
+    // A ZIP archive as the raw request body, read entry by entry as it arrives (no multipart size limits apply)
+    @PostMapping(value = "/bulk", consumes = {"application/zip", "application/x-zip-compressed"})
+    public ResponseEntity<List<BulkUploadResult>> uploadArchive(
+            @RequestParam("caseId") String caseId,
+            @RequestParam(value = "filename", defaultValue = "upload.zip") String filename,
+            @RequestParam(value = "userId", defaultValue = "SYSTEM_UPLOAD") String userId,
+            @RequestParam(value = "userRole", defaultValue = "UPLOADER") String userRole,
+            HttpServletRequest request) {
+
+        log.info("API: Received archive upload {} for case ID: {} by User ID: {}", filename, caseId, userId);
+        try (InputStream body = request.getInputStream()) {
+            return ResponseEntity.ok(bulkUploadService.ingestArchive(filename, body, caseId, userId, userRole, getClientIp(request)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Bulk upload interrupted", e);
+        } catch (Exception e) {
+            log.error("API: Archive upload failed for case ID: {}", caseId, e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Bulk upload failed", e);
+        }
+    }
+
     // --- Download Endpoint ---
     @GetMapping("/{id}/download")
     public ResponseEntity<InputStreamResource> downloadImage(
@@ -84,6 +150,19 @@ public class ImageController {
             HttpServletRequest request) {
 
         try {
+            // Content never changes after upload: a matching validator is answered from the hash alone
+            String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+            if (ifNoneMatch != null) {
+                Optional<String> etag = imageStorageService.currentETag(id);
+                if (etag.isPresent() && etagMatches(ifNoneMatch, etag.get())) {
+                    imageStorageService.recordCachedAccess(id, userId, userRole, reason, getClientIp(request));
+                    HttpHeaders headers = new HttpHeaders();
+                    headers.setETag(etag.get());
+                    headers.setCacheControl(cacheControl);
+                    return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+                }
+            }
+
             Optional<ImageStorageService.ImageDownload> downloadDataOpt = imageStorageService.retrieveImage(
                     id,
                     userId,
@@ -99,14 +178,47 @@ public class ImageController {
             ImageStorageService.ImageDownload downloadData = downloadDataOpt.get();
 
             HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType(downloadData.contentType));
-            headers.setContentLength(downloadData.length);
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            if (downloadData.sha256 != null) {
+                // The content hash is a strong validator, so clients can resume with If-Range and revalidate with If-None-Match
+                headers.setETag(ImageStorageService.etagOf(downloadData.sha256));
+                headers.setCacheControl(cacheControl);
+            }
             // Suggest download with original filename
             headers.setContentDispositionFormData("attachment", downloadData.filename);
 
-            log.info("API: Image ID: {} downloaded by User ID: {}", id, userId);
-            return new ResponseEntity<>(new InputStreamResource(downloadData.inputStream), headers, HttpStatus.OK);
+            List<ByteRange> ranges;
+            try {
+                ranges = requestedRanges(request, headers.getETag(), downloadData.length);
+            } catch (ByteRange.NotSatisfiableException e) {
+                log.warn("API: Unsatisfiable range for image ID: {}. {}", id, e.getMessage());
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + downloadData.length);
+                return new ResponseEntity<>(headers, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            }
+
+            if (ranges.isEmpty()) {
+                headers.setContentType(MediaType.parseMediaType(downloadData.contentType));
+                headers.setContentLength(downloadData.length);
+                log.info("API: Image ID: {} downloaded by User ID: {}", id, userId);
+                return new ResponseEntity<>(new InputStreamResource(downloadData.openStream()), headers, HttpStatus.OK);
+            }
+            if (ranges.size() == 1) {
+                ByteRange range = ranges.get(0);
+                headers.setContentType(MediaType.parseMediaType(downloadData.contentType));
+                headers.setContentLength(range.length());
+                headers.set(HttpHeaders.CONTENT_RANGE, range.contentRange(downloadData.length));
+                log.info("API: Image ID: {} bytes {}-{} downloaded by User ID: {}", id, range.start(), range.end(), userId);
+                return new ResponseEntity<>(new InputStreamResource(downloadData.open(range.start(), range.length())),
+                        headers, HttpStatus.PARTIAL_CONTENT);
+            }
+            MultipartByteRanges body = new MultipartByteRanges(ranges, downloadData.contentType, downloadData.length, downloadData::open);
+            headers.setContentType(body.mediaType());
+            headers.setContentLength(body.contentLength());
+            log.info("API: Image ID: {} {} ranges downloaded by User ID: {}", id, ranges.size(), userId);
+            return new ResponseEntity<>(new InputStreamResource(body.stream()), headers, HttpStatus.PARTIAL_CONTENT);
 
+        } catch (ResponseStatusException e) {
+            throw e;
         } catch (IllegalStateException e) {
             // Handle cases like file missing from GridFS after metadata found
             log.error("API: Critical error downloading image ID: {}. {}", id, e.getMessage());
@@ -117,6 +229,32 @@ public class ImageController {
         }
     }
 
+    // If-None-Match uses weak comparison: W/ prefixes are ignored, * matches any current representation
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Ranges to serve, empty for the whole file; a Range guarded by a stale If-Range is ignored
+    private List<ByteRange> requestedRanges(HttpServletRequest request, String etag, long length) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return List.of();
+        }
+        return ByteRange.parse(request.getHeader(HttpHeaders.RANGE), length, maxRanges);
+    }
+
     // --- Get Metadata Endpoint ---
     @GetMapping("/{id}")
     public ResponseEntity<Image> getImageMetadata(@PathVariable String id) {
@@ -125,6 +263,22 @@ public class ImageController {
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Image metadata not found for ID: " + id));
     }
 
+    // --- Custody Trail (paginated, oldest first) ---
+    @GetMapping("/{id}/custody")
+    public ResponseEntity<CustodyTrailPage> getCustodyTrail(
+            @PathVariable String id,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "50") int size) {
+        if (!imageRepository.existsById(id)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Image not found with ID: " + id);
+        }
+        try {
+            return ResponseEntity.ok(custodyTrailService.getTrail(id, page, size));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
     // --- List Images by Case ID (Example Query) ---
     @GetMapping("/case/{caseId}")
     public ResponseEntity<List<Image>> getImagesByCase(@PathVariable String caseId) {
@@ -167,6 +321,8 @@ public class ImageController {
     public ResponseEntity<Void> updateAnalysisStatus(
             @PathVariable String id,
             @RequestParam("status") String status,
+            // Applied only while the image is still in this status; 409 otherwise
+            @RequestParam(value = "expectedStatus", required = false) String expectedStatus,
             // These should ideally identify the calling service or system user
             @RequestParam(value = "userId", defaultValue = "SYSTEM_UPDATE") String userId,
             @RequestParam(value = "userRole", defaultValue = "SERVICE") String userRole,
@@ -174,29 +330,58 @@ public class ImageController {
 
         log.info("API: Received request to update analysis status for image ID: {} to status: {} by User ID: {}", id, status, userId);
 
+        StatusUpdateResult result;
         try {
-            boolean updated = imageStorageService.updateImageAnalysisStatus(
+            result = imageStorageService.updateImageAnalysisStatus(
                     id,
+                    expectedStatus,
                     status,
                     userId,
                     userRole,
                     getClientIp(request) // Pass client IP for auditing
             );
+        } catch (Exception e) {
+            log.error("API: Failed to update analysis status for image ID: {}", id, e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to update analysis status", e);
+        }
 
-            if (updated) {
+        switch (result.outcome()) {
+            case UPDATED -> {
                 log.info("API: Successfully updated analysis status for image ID: {} to {}", id, status);
                 return ResponseEntity.ok().build(); // 200 OK is suitable for successful update
-            } else {
-                // If service returns false, it means the image was not found
-                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Image not found with ID: " + id);
             }
-        } catch (IllegalArgumentException e) {
-            log.warn("API: Invalid status update request for image ID: {}. Error: {}", id, e.getMessage());
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage()); // 400 for bad input status
+            case NOT_FOUND -> throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Image not found with ID: " + id);
+            case ILLEGAL_TRANSITION -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Illegal analysis status transition " + (expectedStatus != null ? "from " + expectedStatus + " " : "") + "to " + status);
+            case DELETED -> throw new ResponseStatusException(HttpStatus.CONFLICT, "Image ID: " + id + " is deleted, its status cannot change");
+            default -> throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Image ID: " + id + " is in status " + result.currentStatus() + ", cannot move to " + status);
         }
-        catch (Exception e) {
-            log.error("API: Failed to update analysis status for image ID: {}", id, e);
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to update analysis status", e);
+    }
+
+    // --- Bulk Analysis Status Endpoint ---
+    // One result per item, in request order; rejected items do not fail the request
+    @PutMapping("/analysis-status")
+    public ResponseEntity<List<StatusUpdateResult>> updateAnalysisStatuses(
+            @RequestBody List<StatusUpdate> updates,
+            @RequestParam(value = "userId", defaultValue = "SYSTEM_UPDATE") String userId,
+            @RequestParam(value = "userRole", defaultValue = "SERVICE") String userRole,
+            HttpServletRequest request) {
+
+        if (updates.isEmpty() || updates.size() > maxBulkStatusUpdates) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "A bulk status update takes 1 to " + maxBulkStatusUpdates + " items, got " + updates.size());
+        }
+        if (updates.stream().anyMatch(update -> update.imageId() == null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Every item needs an imageId");
+        }
+        log.info("API: Received bulk analysis status update of {} image(s) by User ID: {}", updates.size(), userId);
+
+        try {
+            return ResponseEntity.ok(imageStorageService.updateImageAnalysisStatuses(updates, userId, userRole, getClientIp(request)));
+        } catch (Exception e) {
+            log.error("API: Failed bulk analysis status update of {} image(s)", updates.size(), e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to update analysis statuses", e);
         }
     }
 }
\ No newline at end of file
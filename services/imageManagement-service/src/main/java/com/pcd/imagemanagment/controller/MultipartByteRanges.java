@@ -0,0 +1,89 @@
+package com.pcd.imagemanagment.controller;
+
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * A {@code multipart/byteranges} body for a multi-range response. Parts are streamed in order and
+ * each range is only opened once the part before it has been written.
+ */
+public class MultipartByteRanges {
+
+    @FunctionalInterface
+    public interface RangeOpener {
+        InputStream open(long offset, long count);
+    }
+
+    private final List<ByteRange> ranges;
+    private final String contentType;
+    private final long totalLength;
+    private final RangeOpener opener;
+    private final String boundary = UUID.randomUUID().toString().replace("-", "");
+
+    public MultipartByteRanges(List<ByteRange> ranges, String contentType, long totalLength, RangeOpener opener) {
+        this.ranges = ranges;
+        this.contentType = contentType;
+        this.totalLength = totalLength;
+        this.opener = opener;
+    }
+
+    public MediaType mediaType() {
+        return MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary);
+    }
+
+    public long contentLength() {
+        long length = trailer().length;
+        for (int i = 0; i < ranges.size(); i++) {
+            length += partHeader(i).length + ranges.get(i).length();
+        }
+        return length;
+    }
+
+    public InputStream stream() {
+        // Header, data, header, data, ..., trailer
+        Enumeration<InputStream> parts = new Enumeration<>() {
+            private int next;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next <= 2 * ranges.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                int part = next++;
+                if (part == 2 * ranges.size()) {
+                    return new ByteArrayInputStream(trailer());
+                }
+                if (part % 2 == 0) {
+                    return new ByteArrayInputStream(partHeader(part / 2));
+                }
+                ByteRange range = ranges.get(part / 2);
+                return opener.open(range.start(), range.length());
+            }
+        };
+        return new SequenceInputStream(parts);
+    }
+
+    private byte[] partHeader(int index) {
+        return ((index == 0 ? "" : "\r\n") + "--" + boundary + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Range: " + ranges.get(index).contentRange(totalLength) + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private byte[] trailer() {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,127 @@
+package com.pcd.imagemanagment.controller;
+
+import com.pcd.imagemanagment.model.ResumableUploadStatus;
+import com.pcd.imagemanagment.service.ResumableUploadService;
+import com.pcd.imagemanagment.service.ResumableUploadService.UploadConflictException;
+import com.pcd.imagemanagment.service.ResumableUploadService.UploadNotFoundException;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * Resumable uploads for large evidence files:
+ * <ol>
+ *     <li>{@code POST /api/v1/images/uploads} with the file's name and length opens a session;</li>
+ *     <li>{@code PUT /api/v1/images/uploads/{id}?offset=N} sends raw bytes from offset N, any number of
+ *     whole chunks ({@code chunkSize} in the session) at a time, the last one may be shorter;</li>
+ *     <li>{@code POST /api/v1/images/uploads/{id}/complete} turns it into an image, whose ID is the upload ID.</li>
+ * </ol>
+ * After a failure, {@code GET /api/v1/images/uploads/{id}} gives the offset to resume from. A PUT at
+ * the wrong offset is answered 409 with the same status body. A complete that fails or times out can
+ * be repeated; it answers 409 while another attempt still holds the upload.
+ */
+@RestController
+@RequestMapping("/api/v1/images/uploads")
+@RequiredArgsConstructor
+public class ResumableUploadController {
+
+    private static final Logger log = LoggerFactory.getLogger(ResumableUploadController.class);
+
+    private final ResumableUploadService uploadService;
+
+    // --- Get Client IP (Helper) ---
+    private String getClientIp(HttpServletRequest request) {
+        String remoteAddr = request.getHeader("X-FORWARDED-FOR");
+        if (remoteAddr == null || remoteAddr.isEmpty()) {
+            remoteAddr = request.getRemoteAddr();
+        }
+        return remoteAddr;
+    }
+
+    @PostMapping
+    public ResponseEntity<ResumableUploadStatus> createUpload(
+            @RequestParam("caseId") String caseId,
+            @RequestParam("filename") String filename,
+            @RequestParam("length") long length,
+            @RequestParam(value = "contentType", required = false) String contentType,
+            @RequestParam(value = "userId", defaultValue = "SYSTEM_UPLOAD") String userId,
+            @RequestParam(value = "userRole", defaultValue = "UPLOADER") String userRole) {
+        try {
+            ResumableUploadStatus created = uploadService.create(caseId, filename, contentType, length, userId, userRole);
+            return ResponseEntity.created(URI.create("/api/v1/images/uploads/" + created.uploadId())).body(created);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<ResumableUploadStatus> getUpload(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(uploadService.status(uploadId));
+        } catch (UploadNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    @PutMapping("/{uploadId}")
+    public ResponseEntity<ResumableUploadStatus> appendChunk(
+            @PathVariable String uploadId,
+            @RequestParam("offset") long offset,
+            HttpServletRequest request) {
+        try (InputStream body = request.getInputStream()) {
+            return ResponseEntity.ok(uploadService.append(uploadId, offset, body));
+        } catch (UploadConflictException e) {
+            log.info("API: Rejected chunk for upload {} at offset {}: {}", uploadId, offset, e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getCurrent());
+        } catch (UploadNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            log.error("API: Failed to write chunk for upload {} at offset {}", uploadId, offset, e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to write chunk", e);
+        }
+    }
+
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<String> completeUpload(
+            @PathVariable String uploadId,
+            // Optional end-to-end check against the hash of the bytes received
+            @RequestParam(value = "sha256", required = false) String sha256,
+            HttpServletRequest request) {
+        try {
+            String imageId = uploadService.complete(uploadId, sha256, getClientIp(request));
+            log.info("API: Resumable upload {} stored as image ID: {}", uploadId, imageId);
+            return ResponseEntity.status(HttpStatus.CREATED).body(imageId);
+        } catch (UploadConflictException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        } catch (UploadNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            log.error("API: Failed to complete upload {}", uploadId, e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to complete upload", e);
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(@PathVariable String uploadId) {
+        try {
+            uploadService.abort(uploadId);
+            return ResponseEntity.noContent().build();
+        } catch (UploadConflictException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        } catch (UploadNotFoundException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+}
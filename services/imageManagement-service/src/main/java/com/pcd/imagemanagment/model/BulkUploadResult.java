@@ -0,0 +1,15 @@
+package com.pcd.imagemanagment.model;
+
+/**
+ * Outcome of one file of a bulk upload: the ID of the stored image, or why it was not stored.
+ */
+public record BulkUploadResult(String filename, String imageId, String error) {
+
+    public static BulkUploadResult stored(String filename, String imageId) {
+        return new BulkUploadResult(filename, imageId, null);
+    }
+
+    public static BulkUploadResult failed(String filename, String error) {
+        return new BulkUploadResult(filename, null, error);
+    }
+}
@@ -3,13 +3,26 @@ package com.pcd.imagemanagment.model;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
+/**
+ * One entry of an image's chain of custody. Stored append-only in its own collection: events are
+ * inserted once and never updated, so concurrent accesses cannot overwrite each other.
+ */
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
+@Document(collection = "custody_events")
+// _id breaks ties between events with the same timestamp, so pages of a trail neither repeat nor skip any
+@CompoundIndex(name = "image_timestamp_id", def = "{'imageId': 1, 'timestamp': 1, '_id': 1}")
 public class CustodyEvent {
+    @Id
+    private String id;
+    private String imageId;
     private String eventType;
     private String userId;
     private String userRole;
@@ -17,4 +30,7 @@ public class CustodyEvent {
     private String details;
     private String ipAddress;
 
+    public CustodyEvent(String imageId, String eventType, String userId, String userRole, String details, String ipAddress) {
+        this(null, imageId, eventType, userId, userRole, Instant.now(), details, ipAddress);
+    }
 }
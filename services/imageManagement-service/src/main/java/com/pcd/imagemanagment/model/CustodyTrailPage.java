@@ -0,0 +1,9 @@
+package com.pcd.imagemanagment.model;
+
+import java.util.List;
+
+/**
+ * One page of an image's custody trail, oldest event first.
+ */
+public record CustodyTrailPage(String imageId, int page, int size, boolean hasNext, List<CustodyEvent> events) {
+}
@@ -7,8 +7,6 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.List;
 
 @Data
 @AllArgsConstructor
@@ -36,13 +34,14 @@ public class Image {
 
     private String sha256Hash;
 
+    @Indexed
     private String gridFsFileId;
 
+    // True once the GridFS file is shared through an ImageBlob reference rather than owned by this image
+    private boolean blobReferenced;
 
-    private ImageMetadata metadata;
 
-    // Chain of custody events
-    private List<CustodyEvent> custodyTrail = new ArrayList<>();
+    private ImageMetadata metadata;
 
     // Analysis status tracking
     private String analysisStatus;
@@ -0,0 +1,37 @@
+package com.pcd.imagemanagment.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One stored copy of an upload's bytes, keyed by their SHA-256. Every {@link Image} with
+ * {@code blobReferenced} set holds one reference; the GridFS file is removed when the count reaches zero.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document(collection = "image_blobs")
+public class ImageBlob {
+    // Hex SHA-256 of the content; the unique _id is what makes concurrent claims race-safe
+    @Id
+    private String sha256;
+
+    @Indexed
+    private String gridFsFileId;
+
+    private long refCount;
+
+    // Resumable uploads holding a reference that no image carries yet; each one is also counted in refCount
+    private List<String> claims;
+
+    private long length;
+
+    private Instant createdAt;
+}
@@ -0,0 +1,16 @@
+package com.pcd.imagemanagment.model;
+
+import java.time.Instant;
+
+/**
+ * What a client needs to continue a resumable upload: the next PUT starts at {@code offset}.
+ * {@code imageId} is set once the upload has been completed.
+ */
+public record ResumableUploadStatus(String uploadId, String filename, long length, long offset, int chunkSize,
+                                    Instant expiresAt, String sha256, String imageId) {
+
+    public static ResumableUploadStatus of(UploadSession session) {
+        return new ResumableUploadStatus(session.getId(), session.getFilename(), session.getLength(), session.getOffset(),
+                session.getChunkSize(), session.getExpiresAt(), session.getSha256(), session.getImageId());
+    }
+}
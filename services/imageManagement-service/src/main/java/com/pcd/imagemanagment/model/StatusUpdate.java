@@ -0,0 +1,8 @@
+package com.pcd.imagemanagment.model;
+
+/**
+ * One item of a bulk analysis status update. {@code expectedStatus} is optional; when given, the
+ * update only applies while the image is still in that status.
+ */
+public record StatusUpdate(String imageId, String expectedStatus, String status) {
+}
@@ -0,0 +1,22 @@
+package com.pcd.imagemanagment.model;
+
+/**
+ * Outcome of an analysis status update. {@code previousStatus} is set when the update was applied,
+ * {@code currentStatus} when it was rejected because the image is in another status.
+ */
+public record StatusUpdateResult(String imageId, Outcome outcome, String previousStatus, String currentStatus) {
+
+    public enum Outcome {
+        UPDATED,
+        NOT_FOUND,
+        // Not a status that can be set, or not reachable from the expected status
+        ILLEGAL_TRANSITION,
+        // The image is no longer in the expected (or any allowed previous) status
+        CONFLICT,
+        DELETED
+    }
+
+    public boolean isUpdated() {
+        return outcome == Outcome.UPDATED;
+    }
+}
@@ -0,0 +1,62 @@
+package com.pcd.imagemanagment.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A resumable upload in progress. Its bytes go straight into the GridFS chunks of {@code fileId};
+ * the GridFS file itself only appears when the upload is completed.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document(collection = "upload_sessions")
+public class UploadSession {
+
+    public enum Status {
+        OPEN,
+        COMPLETING,
+        COMPLETED
+    }
+
+    @Id
+    private String id;
+
+    private String caseId;
+    private String filename;
+    private String contentType;
+    private String uploaderId;
+    private String uploaderRole;
+
+    // Declared size of the whole file
+    private long length;
+    // Bytes received and committed so far
+    private long offset;
+    private int chunkSize;
+    private ObjectId fileId;
+
+    // SHA-256 chaining state after offset bytes; replaced by sha256 once the last byte is in
+    private int[] hashState;
+    private String sha256;
+
+    private Status status;
+    // Always the session ID, so a client that lost the answer of complete still knows its image
+    private String imageId;
+
+    // Single writer at a time: whoever holds the lease may append, or complete; a lapsed lease can be taken over
+    private String writeLease;
+    private Instant writeLeaseUntil;
+
+    private Instant createdAt;
+
+    // Pushed back by every append; the sweeper discards sessions past it
+    @Indexed
+    private Instant expiresAt;
+}
@@ -0,0 +1,22 @@
+package com.pcd.imagemanagment.repository;
+
+import com.pcd.imagemanagment.model.CustodyEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.repository.Repository;
+
+import java.util.List;
+
+/**
+ * Append-only access to the custody trail: only insert and reads are exposed, no save or delete.
+ */
+public interface CustodyEventRepository extends Repository<CustodyEvent, String> {
+
+    CustodyEvent insert(CustodyEvent event);
+
+    List<CustodyEvent> insert(Iterable<CustodyEvent> events);
+
+    // Slice rather than Page: no count over the whole trail for every page. Ordered by ID within a
+    // timestamp, as migrated and batched events can share one
+    Slice<CustodyEvent> findByImageIdOrderByTimestampAscIdAsc(String imageId, Pageable pageable);
+}
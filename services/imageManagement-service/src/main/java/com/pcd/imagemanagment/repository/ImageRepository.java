@@ -8,10 +8,20 @@ import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ImageRepository extends MongoRepository<Image, String> {
 
+    // Just what a conditional download needs; the projection keeps the lookup to the _id index and two fields
+    interface ContentValidator {
+        String getSha256Hash();
+
+        String getAnalysisStatus();
+    }
+
+    Optional<ContentValidator> findContentValidatorById(String id);
+
     List<Image> findByCaseId(String caseId);
 
     List<Image> findByUploaderId(String uploaderId);
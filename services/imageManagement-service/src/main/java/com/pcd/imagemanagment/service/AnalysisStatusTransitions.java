@@ -0,0 +1,44 @@
+package com.pcd.imagemanagment.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which analysis status an image may move to from which. A status update is applied only while the
+ * stored status is one of the allowed predecessors, so a late write from a stale worker (say a
+ * failure report after another worker already stored a verdict) is rejected instead of clobbering it.
+ * <p>
+ * {@code DELETED} is not reachable from here; only the delete endpoint sets it and nothing leaves it.
+ */
+public final class AnalysisStatusTransitions {
+
+    private static final Map<String, List<String>> PREDECESSORS = Map.of(
+            // Requeued by an operator, e.g. after a worker died mid-analysis
+            "PENDING", List.of("ANALYZING", "ANALYSIS_FAILED", "ANALYSIS_RETRY_SCHEDULED"),
+            // Analysis and re-analysis can start from anything but a deleted image
+            "ANALYZING", List.of("PENDING", "ANALYZING", "ANALYSIS_RETRY_SCHEDULED", "ANALYSIS_FAILED", "AUTHENTIC", "FALSIFIED"),
+            "AUTHENTIC", List.of("ANALYZING"),
+            "FALSIFIED", List.of("ANALYZING"),
+            // Failures may come before ANALYZING was set, but never overwrite a verdict
+            "ANALYSIS_FAILED", List.of("PENDING", "ANALYZING", "ANALYSIS_RETRY_SCHEDULED", "ANALYSIS_FAILED"),
+            "ANALYSIS_RETRY_SCHEDULED", List.of("PENDING", "ANALYZING", "ANALYSIS_RETRY_SCHEDULED", "ANALYSIS_FAILED")
+    );
+
+    private AnalysisStatusTransitions() {
+    }
+
+    public static boolean isSettable(String status) {
+        return status != null && PREDECESSORS.containsKey(status);
+    }
+
+    /**
+     * Statuses an image may be in when it moves to {@code status}; empty for a status that cannot be set.
+     */
+    public static List<String> predecessorsOf(String status) {
+        return status == null ? List.of() : PREDECESSORS.getOrDefault(status, List.of());
+    }
+
+    public static boolean isAllowed(String from, String to) {
+        return from != null && predecessorsOf(to).contains(from);
+    }
+}
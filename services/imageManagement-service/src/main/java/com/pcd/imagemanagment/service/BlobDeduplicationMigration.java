@@ -0,0 +1,124 @@
+package com.pcd.imagemanagment.service;
+
+import com.pcd.imagemanagment.model.Image;
+import com.pcd.imagemanagment.model.ImageBlob;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Moves images stored before deduplication onto {@link ImageBlob} references: each image takes a
+ * reference on the blob for its hash, the first one seen per hash donating its file as the content,
+ * and the others are repointed at that file and their own copy deleted.
+ * <p>
+ * Runs in the background at startup in batches over the image {@code _id}. Images already holding a
+ * reference are not selected, so it is idempotent and resumes where it stopped. The reference is taken
+ * before the image is marked, so a crash in between leaves a blob counted once too often (never
+ * collected) rather than collected while still in use.
+ */
+@Component
+@ConditionalOnProperty(name = "image.blobs.migration.enabled", havingValue = "true", matchIfMissing = true)
+public class BlobDeduplicationMigration implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(BlobDeduplicationMigration.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final ImageBlobStore blobStore;
+
+    @Value("${image.blobs.migration.batch-size:500}")
+    private int batchSize;
+
+    @Autowired
+    public BlobDeduplicationMigration(MongoTemplate mongoTemplate, ImageBlobStore blobStore) {
+        this.mongoTemplate = mongoTemplate;
+        this.blobStore = blobStore;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread thread = new Thread(this::migrate, "blob-deduplication-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void migrate() {
+        String collection = mongoTemplate.getCollectionName(Image.class);
+        ObjectId lastId = null;
+        long referenced = 0;
+        long duplicates = 0;
+        try {
+            while (true) {
+                // Deleted images already lost their file; images without a hash cannot be keyed
+                Criteria criteria = Criteria.where("blobReferenced").ne(true)
+                        .and("analysisStatus").ne("DELETED")
+                        .and("sha256Hash").exists(true).ne(null)
+                        .and("gridFsFileId").exists(true).ne(null);
+                if (lastId != null) {
+                    criteria = criteria.and("_id").gt(lastId);
+                }
+                Query query = new Query(criteria).with(Sort.by("_id")).limit(batchSize);
+                query.fields().include("sha256Hash", "gridFsFileId", "fileSize");
+                List<Document> batch = mongoTemplate.find(query, Document.class, collection);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (Document image : batch) {
+                    // Keyset on _id: an image that fails is skipped this run instead of being selected forever
+                    lastId = image.getObjectId("_id");
+                    try {
+                        if (migrate(image, collection)) {
+                            duplicates++;
+                        }
+                        referenced++;
+                    } catch (RuntimeException e) {
+                        log.warn("Could not move image ID: {} onto a blob reference: {}", lastId, e.getMessage());
+                    }
+                }
+                log.info("Moved {} image(s) onto blob references so far, {} duplicate file(s) removed", referenced, duplicates);
+            }
+        } catch (RuntimeException e) {
+            log.error("Blob deduplication stopped after {} image(s); it resumes on next startup", referenced, e);
+            return;
+        }
+        if (referenced > 0) {
+            log.info("Blob deduplication finished, {} image(s) referenced, {} duplicate file(s) removed", referenced, duplicates);
+        }
+    }
+
+    // True if the image's own file turned out to be a duplicate and was removed
+    private boolean migrate(Document image, String collection) {
+        ObjectId imageId = image.getObjectId("_id");
+        String ownFileId = image.getString("gridFsFileId");
+        Number fileSize = image.get("fileSize", Number.class);
+        String blobFileId = blobStore.reference(image.getString("sha256Hash"), ownFileId, fileSize != null ? fileSize.longValue() : 0);
+
+        // Guarded on the file ID so a concurrent change to the image is not overwritten
+        Query own = Query.query(Criteria.where("_id").is(imageId).and("gridFsFileId").is(ownFileId));
+        mongoTemplate.updateFirst(own, new Update().set("gridFsFileId", blobFileId).set("blobReferenced", true), collection);
+        if (blobFileId.equals(ownFileId)) {
+            return false;
+        }
+        // Legacy files belong to one image, but check before dropping anything evidence may still point at
+        boolean stillUsed = mongoTemplate.exists(Query.query(Criteria.where("gridFsFileId").is(ownFileId)), collection)
+                || blobStore.isBlobFile(ownFileId);
+        if (stillUsed) {
+            log.warn("GridFS file ID: {} of image ID: {} is a duplicate but still referenced, keeping it", ownFileId, imageId);
+            return false;
+        }
+        blobStore.deleteFile(ownFileId);
+        return true;
+    }
+}
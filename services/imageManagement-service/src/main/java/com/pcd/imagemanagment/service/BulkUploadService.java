@@ -0,0 +1,340 @@
+package com.pcd.imagemanagment.service;
+
+import com.pcd.imagemanagment.model.BulkUploadResult;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Bulk uploads: many multipart files, or ZIP archives of them, each ingested through the normal
+ * storage pipeline on a fixed pool of workers.
+ * <p>
+ * Archives are read entry by entry as they stream in, nothing is extracted to disk. An entry is held
+ * in memory only from the moment it is read until a worker has stored it. Across all requests, at
+ * most {@code max-in-flight} files are waiting or being stored, and the archive entries among them
+ * hold at most {@code max-in-flight-bytes}, a quarter of the heap by default; an entry is not read
+ * until {@code max-entry-bytes} of that budget are free, and what it turns out not to need is given
+ * back once it is read. Memory is thus bounded by the byte budget whatever the archive size or the
+ * number of cores. Inflating an archive is sequential, the hashing, parsing and GridFS writes after
+ * it run in parallel.
+ * <p>
+ * Multipart parts are not held here: the servlet container has already buffered them, so they only
+ * count towards {@code max-in-flight}. The multipart {@code /bulk} request as a whole is still subject
+ * to the servlet's multipart size limits ({@code spring.servlet.multipart.max-request-size} and
+ * {@code max-file-size}); only an archive sent as a raw {@code application/zip} body avoids them.
+ */
+@Service
+public class BulkUploadService {
+    private static final Logger log = LoggerFactory.getLogger(BulkUploadService.class);
+
+    // Same wording as the single-file upload's 400
+    static final String EMPTY_FILE = "File cannot be empty";
+
+    /**
+     * Stores one file and returns its image ID; the storage pipeline in production.
+     */
+    @FunctionalInterface
+    interface Ingester {
+        String ingest(String filename, String contentType, long size, ImageStorageService.UploadContent content,
+                      String custodyDetails) throws Exception;
+    }
+
+    private final ImageStorageService imageStorageService;
+
+    // Worker threads; 0 for one per core
+    @Value("${image.bulk-upload.parallelism:0}")
+    private int parallelism;
+
+    // Files read but not yet stored, over all bulk requests; 0 for twice the parallelism
+    @Value("${image.bulk-upload.max-in-flight:0}")
+    private int maxInFlight;
+
+    // Bytes of archive entries read but not yet stored, over all bulk requests; 0 for a quarter of the maximum heap
+    @Value("${image.bulk-upload.max-in-flight-bytes:0}")
+    private long maxInFlightBytes;
+
+    @Value("${image.bulk-upload.max-entry-bytes:52428800}")
+    private long maxEntryBytes;
+
+    @Value("${image.bulk-upload.max-files:5000}")
+    private int maxFiles;
+
+    private ExecutorService workers;
+    private Semaphore inFlight;
+    // One permit per KiB, so budgets beyond 2 GiB fit in a semaphore
+    private Semaphore inFlightKib;
+
+    @Autowired
+    public BulkUploadService(ImageStorageService imageStorageService) {
+        this.imageStorageService = imageStorageService;
+    }
+
+    // For tests, which construct the service without property injection
+    BulkUploadService configure(int parallelism, int maxInFlight, long maxInFlightBytes, long maxEntryBytes, int maxFiles) {
+        this.parallelism = parallelism;
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.maxFiles = maxFiles;
+        return this;
+    }
+
+    @PostConstruct
+    public void start() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        int permits = maxInFlight > 0 ? maxInFlight : 2 * threads;
+        long budget = maxInFlightBytes > 0 ? maxInFlightBytes : Runtime.getRuntime().maxMemory() / 4;
+        if (maxEntryBytes > budget) {
+            // An entry that could never get its share of the budget would block the archive for good
+            log.warn("Bulk upload max-entry-bytes {} exceeds the in-flight budget of {} bytes, lowering it to the budget",
+                    maxEntryBytes, budget);
+            maxEntryBytes = budget;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "bulk-ingest-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Fair, so one large archive does not starve the other bulk requests
+        inFlight = new Semaphore(permits, true);
+        inFlightKib = new Semaphore(toKib(budget), true);
+        log.info("Bulk uploads on {} worker(s), at most {} file(s) and {} bytes of archive entries in flight, entries of up to {} bytes",
+                threads, permits, budget, maxEntryBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Bulk upload workers still busy at shutdown");
+        }
+    }
+
+    public List<BulkUploadResult> ingestParts(List<MultipartFile> parts, String caseId, String uploaderId,
+                                              String uploaderRole, String ipAddress) throws InterruptedException {
+        return ingestParts(parts, storing(caseId, uploaderId, uploaderRole, ipAddress));
+    }
+
+    public List<BulkUploadResult> ingestArchive(String archiveName, InputStream archive, String caseId, String uploaderId,
+                                                String uploaderRole, String ipAddress) throws InterruptedException {
+        return ingestArchive(archiveName, archive, storing(caseId, uploaderId, uploaderRole, ipAddress));
+    }
+
+    List<BulkUploadResult> ingestParts(List<MultipartFile> parts, Ingester ingester) throws InterruptedException {
+        Batch batch = new Batch(ingester);
+        for (MultipartFile part : parts) {
+            String name = part.getOriginalFilename();
+            if (part.isEmpty()) {
+                batch.fail(name, EMPTY_FILE);
+                continue;
+            }
+            if (!isArchive(name, part.getContentType())) {
+                batch.add(name, part.getContentType(), part.getSize(), part::getInputStream, "Bulk upload via API");
+                continue;
+            }
+            try (InputStream archive = part.getInputStream()) {
+                batch.addArchive(name, archive);
+            } catch (IOException e) {
+                batch.fail(name, "Archive could not be read: " + e.getMessage());
+            }
+        }
+        return batch.results();
+    }
+
+    List<BulkUploadResult> ingestArchive(String archiveName, InputStream archive, Ingester ingester) throws InterruptedException {
+        Batch batch = new Batch(ingester);
+        batch.addArchive(archiveName, archive);
+        return batch.results();
+    }
+
+    private Ingester storing(String caseId, String uploaderId, String uploaderRole, String ipAddress) {
+        return (filename, contentType, size, content, custodyDetails) -> imageStorageService.storeImage(
+                filename, contentType, size, content, caseId, uploaderId, uploaderRole, ipAddress, custodyDetails);
+    }
+
+    static boolean isArchive(String filename, String contentType) {
+        return "application/zip".equals(contentType) || "application/x-zip-compressed".equals(contentType)
+                || (filename != null && filename.toLowerCase(Locale.ROOT).endsWith(".zip"));
+    }
+
+    // Folder entries and the resource forks and .DS_Store files archivers on macOS add
+    private static boolean isSkipped(ZipEntry entry) {
+        String name = entry.getName();
+        String baseName = name.substring(name.lastIndexOf('/') + 1);
+        return entry.isDirectory() || name.startsWith("__MACOSX/") || baseName.startsWith(".");
+    }
+
+    private static int toKib(long bytes) {
+        return (int) Math.min((bytes + 1023) / 1024, Integer.MAX_VALUE);
+    }
+
+    private static String describe(Throwable error) {
+        return error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+    }
+
+    /**
+     * The files of one request; results come back in the order the files were added.
+     */
+    private class Batch {
+        private final Ingester ingester;
+        private final List<CompletableFuture<BulkUploadResult>> results = new ArrayList<>();
+
+        Batch(Ingester ingester) {
+            this.ingester = ingester;
+        }
+
+        void add(String filename, String contentType, long size, ImageStorageService.UploadContent content,
+                 String custodyDetails) throws InterruptedException {
+            if (results.size() >= maxFiles) {
+                fail(filename, "More than " + maxFiles + " files in one bulk upload");
+                return;
+            }
+            inFlight.acquire();
+            submit(filename, contentType, size, content, custodyDetails, 0);
+        }
+
+        void addArchive(String archiveName, InputStream archive) throws InterruptedException {
+            int entries = 0;
+            try {
+                // Not closed here: the caller owns the underlying stream
+                ZipInputStream zip = new ZipInputStream(archive);
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (isSkipped(entry)) {
+                        continue;
+                    }
+                    if (results.size() >= maxFiles) {
+                        // One result for the rest rather than one per remaining entry
+                        fail(archiveName, "More than " + maxFiles + " files in one bulk upload, the rest of the archive was not read");
+                        return;
+                    }
+                    entries++;
+                    String name = entry.getName();
+                    if (entry.getSize() > maxEntryBytes) {
+                        fail(name, "Larger than " + maxEntryBytes + " bytes");
+                        continue;
+                    }
+                    // The permits cover the entry's bytes from here until it is stored. The declared size may be
+                    // missing or wrong, so the largest allowed entry is reserved and the rest given back once read
+                    int reservedKib = toKib(maxEntryBytes);
+                    inFlight.acquire();
+                    try {
+                        inFlightKib.acquire(reservedKib);
+                    } catch (InterruptedException e) {
+                        inFlight.release();
+                        throw e;
+                    }
+                    byte[] data;
+                    try {
+                        // One byte over the limit tells a too large entry apart
+                        data = zip.readNBytes((int) Math.min(maxEntryBytes + 1, Integer.MAX_VALUE - 8));
+                    } catch (IOException | RuntimeException e) {
+                        release(reservedKib);
+                        throw e;
+                    }
+                    if (data.length > maxEntryBytes) {
+                        release(reservedKib);
+                        fail(name, "Larger than " + maxEntryBytes + " bytes");
+                        continue;
+                    }
+                    if (data.length == 0) {
+                        release(reservedKib);
+                        fail(name, EMPTY_FILE);
+                        continue;
+                    }
+                    int heldKib = toKib(data.length);
+                    inFlightKib.release(reservedKib - heldKib);
+                    String contentType = MediaTypeFactory.getMediaType(name)
+                            .map(MediaType::toString)
+                            .orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+                    submit(name, contentType, data.length, () -> new ByteArrayInputStream(data),
+                            "Bulk upload via API from archive " + archiveName, heldKib);
+                }
+            } catch (ZipException e) {
+                fail(archiveName, "Archive is corrupt after " + entries + " file(s): " + e.getMessage());
+                return;
+            } catch (IOException e) {
+                fail(archiveName, "Archive could not be read after " + entries + " file(s): " + e.getMessage());
+                return;
+            }
+            if (entries == 0) {
+                // ZipInputStream reports anything that is not a ZIP as an empty archive
+                fail(archiveName, "No files found in archive");
+            }
+        }
+
+        void fail(String filename, String error) {
+            log.warn("Bulk upload of {} rejected: {}", filename, error);
+            results.add(CompletableFuture.completedFuture(BulkUploadResult.failed(filename, error)));
+        }
+
+        private void release(int heldKib) {
+            inFlightKib.release(heldKib);
+            inFlight.release();
+        }
+
+        // Caller holds a file permit and heldKib byte permits, released once the file is stored or has failed
+        private void submit(String filename, String contentType, long size, ImageStorageService.UploadContent content,
+                            String custodyDetails, int heldKib) {
+            CompletableFuture<BulkUploadResult> result;
+            try {
+                result = CompletableFuture.supplyAsync(
+                        () -> ingest(filename, contentType, size, content, custodyDetails), workers);
+            } catch (RejectedExecutionException e) {
+                release(heldKib);
+                fail(filename, "Service is shutting down");
+                return;
+            }
+            results.add(result.handle((stored, error) -> {
+                release(heldKib);
+                if (error == null) {
+                    return stored;
+                }
+                // An Error thrown by the worker; the other files are stored, so only this one is reported as failed
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                log.error("Bulk upload of {} failed", filename, cause);
+                return BulkUploadResult.failed(filename, describe(cause));
+            }));
+        }
+
+        private BulkUploadResult ingest(String filename, String contentType, long size, ImageStorageService.UploadContent content,
+                                        String custodyDetails) {
+            try {
+                return BulkUploadResult.stored(filename, ingester.ingest(filename, contentType, size, content, custodyDetails));
+            } catch (Exception e) {
+                log.error("Bulk upload of {} failed", filename, e);
+                return BulkUploadResult.failed(filename, describe(e));
+            }
+        }
+
+        List<BulkUploadResult> results() {
+            return results.stream().map(CompletableFuture::join).toList();
+        }
+    }
+}
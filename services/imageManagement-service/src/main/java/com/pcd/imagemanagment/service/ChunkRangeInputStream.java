@@ -0,0 +1,107 @@
+package com.pcd.imagemanagment.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Reads {@code count} bytes starting at {@code offset} from a file stored as fixed-size chunks,
+ * fetching only the chunks that overlap the range. Nothing is fetched until the first read, so
+ * opening a stream is free.
+ */
+public class ChunkRangeInputStream extends InputStream {
+
+    /**
+     * Chunks {@code first..last} (inclusive) of the file in ascending order. The iterator is closed
+     * with the stream if it is {@link Closeable}, e.g. a database cursor.
+     */
+    @FunctionalInterface
+    public interface ChunkSource {
+        Iterator<Chunk> chunks(int first, int last);
+    }
+
+    public record Chunk(int n, byte[] data) {
+    }
+
+    private final ChunkSource source;
+    private final int chunkSize;
+    private final long end;
+    private long position;
+
+    private Iterator<Chunk> chunks;
+    private int expectedChunk;
+    private byte[] current;
+    private int offsetInChunk;
+
+    public ChunkRangeInputStream(ChunkSource source, int chunkSize, long offset, long count) {
+        if (chunkSize <= 0 || offset < 0 || count < 0) {
+            throw new IllegalArgumentException("Invalid chunk range: size " + chunkSize + ", offset " + offset + ", count " + count);
+        }
+        this.source = source;
+        this.chunkSize = chunkSize;
+        this.position = offset;
+        this.end = offset + count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position >= end) {
+            return -1;
+        }
+        if (current == null || offsetInChunk >= current.length) {
+            nextChunk();
+        }
+        int n = (int) Math.min(Math.min(length, current.length - offsetInChunk), end - position);
+        System.arraycopy(current, offsetInChunk, buffer, offset, n);
+        offsetInChunk += n;
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : (int) Math.min(current.length - offsetInChunk, end - position);
+    }
+
+    private void nextChunk() throws IOException {
+        if (chunks == null) {
+            // Seek: start at the chunk holding the first byte instead of reading up to it
+            expectedChunk = (int) (position / chunkSize);
+            chunks = source.chunks(expectedChunk, (int) ((end - 1) / chunkSize));
+            offsetInChunk = (int) (position % chunkSize);
+        } else {
+            offsetInChunk = 0;
+        }
+        if (!chunks.hasNext()) {
+            throw new IOException("Chunk " + expectedChunk + " is missing");
+        }
+        Chunk chunk = chunks.next();
+        if (chunk.n() != expectedChunk) {
+            throw new IOException("Expected chunk " + expectedChunk + " but got " + chunk.n());
+        }
+        // Every chunk but the last is full size; a short one means the file is truncated
+        if (chunk.data().length <= offsetInChunk || (chunk.data().length < chunkSize && (long) expectedChunk * chunkSize + chunk.data().length < end)) {
+            throw new IOException("Chunk " + expectedChunk + " is truncated (" + chunk.data().length + " bytes)");
+        }
+        current = chunk.data();
+        expectedChunk++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (chunks instanceof Closeable closeable) {
+            closeable.close();
+        }
+        position = end;
+    }
+}
@@ -0,0 +1,319 @@
+package com.pcd.imagemanagment.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pcd.imagemanagment.model.CustodyEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer for custody events on the download path.
+ * <p>
+ * Events are queued in memory (bounded) and a background thread bulk-inserts them once
+ * {@code batch-size} events are waiting or {@code flush-interval-ms} after the first one arrived,
+ * so a download no longer waits for its audit write. Delivery is at least once: events get their ID
+ * when queued, a batch that cannot be inserted is appended to a local spill file (synced to disk)
+ * and replayed after the next successful flush or on startup, and re-inserted events are dropped as
+ * duplicates of their ID. A full queue also spills rather than dropping the event. On shutdown the
+ * queue is drained before the Mongo client closes.
+ */
+@Component
+public class CustodyEventBuffer {
+    private static final Logger log = LoggerFactory.getLogger(CustodyEventBuffer.class);
+
+    // Server code for a duplicate key, i.e. an event already stored by an earlier attempt
+    private static final int DUPLICATE_KEY = 11000;
+    private static final String SPILL_FILE = "custody-events.spill.jsonl";
+    // The spill file as taken over by a replay, so new spills go to a fresh file meanwhile
+    private static final String REPLAY_FILE = "custody-events.replay.jsonl";
+
+    /**
+     * Where batches go; must treat events whose ID is already stored as delivered.
+     */
+    @FunctionalInterface
+    interface Sink {
+        void insertAll(List<CustodyEvent> events);
+    }
+
+    private final Sink sink;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    // Guards appends to the spill file; held only for file operations, never around database writes
+    private final Object spillLock = new Object();
+    // One replay at a time: the flusher, startup and shutdown can all start one
+    private final Object replayLock = new Object();
+
+    @Value("${image.custody.buffer.capacity:10000}")
+    private int capacity;
+
+    @Value("${image.custody.buffer.batch-size:500}")
+    private int batchSize;
+
+    @Value("${image.custody.buffer.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${image.custody.buffer.spill-dir:custody-spill}")
+    private Path spillDir;
+
+    private BlockingQueue<CustodyEvent> queue;
+    private Thread flusher;
+    private volatile boolean running;
+    private Timer flushTimer;
+    private Counter spilledCounter;
+
+    @Autowired
+    public CustodyEventBuffer(MongoTemplate mongoTemplate, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this(events -> insertIgnoringDuplicates(mongoTemplate, events), objectMapper, meterRegistry);
+    }
+
+    CustodyEventBuffer(Sink sink, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.sink = sink;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    // For tests, which construct the buffer without property injection
+    CustodyEventBuffer configure(int capacity, int batchSize, long flushIntervalMs, Path spillDir) {
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.spillDir = spillDir;
+        return this;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(spillDir);
+        queue = new ArrayBlockingQueue<>(capacity);
+        Gauge.builder("custody.buffer.depth", queue, BlockingQueue::size)
+                .description("Custody events waiting to be written")
+                .register(meterRegistry);
+        flushTimer = Timer.builder("custody.buffer.flush.latency")
+                .description("Time to bulk-insert one batch of custody events")
+                .register(meterRegistry);
+        spilledCounter = meterRegistry.counter("custody.buffer.spilled");
+
+        // Events left over from a run that could not reach the database
+        replaySpill();
+
+        running = true;
+        flusher = new Thread(this::runFlusher, "custody-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Buffering custody events: capacity {}, batches of {} or every {} ms, spill file in {}",
+                capacity, batchSize, flushIntervalMs, spillDir.toAbsolutePath());
+    }
+
+    /**
+     * Queues an event and returns immediately. It is assigned its ID here, which is what makes
+     * replays after a failed or interrupted flush idempotent.
+     */
+    public void enqueue(CustodyEvent event) {
+        if (event.getId() == null) {
+            event.setId(new ObjectId().toHexString());
+        }
+        if (running && queue.offer(event)) {
+            // Shutdown may have drained the queue just before the offer; then the event is ours to keep
+            if (!running && queue.remove(event)) {
+                spill(List.of(event));
+            }
+            return;
+        }
+        // Full or shutting down: the event still has to be kept, the local disk is the fallback
+        log.warn("Custody event buffer unavailable, spilling {} event for image ID: {}", event.getEventType(), event.getImageId());
+        spill(List.of(event));
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    private void runFlusher() {
+        List<CustodyEvent> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                CustodyEvent first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Size trigger, or the interval since the first event of the batch
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    CustodyEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Shutdown woke us from the wait; the flag is not restored so the final insert below can still run
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    private void flush(List<CustodyEvent> batch) {
+        long start = System.nanoTime();
+        try {
+            sink.insertAll(batch);
+        } catch (RuntimeException e) {
+            log.error("Could not write {} custody event(s), spilling them to disk until the database is back: {}",
+                    batch.size(), e.getMessage());
+            spill(batch);
+            return;
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        // The database is reachable again, so this is the moment to catch up
+        replaySpill();
+    }
+
+    private void spill(List<CustodyEvent> events) {
+        synchronized (spillLock) {
+            // DSYNC: the events are only as durable as this write
+            try (BufferedWriter writer = Files.newBufferedWriter(spillDir.resolve(SPILL_FILE), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC)) {
+                for (CustodyEvent event : events) {
+                    writer.write(objectMapper.writeValueAsString(event));
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                // Nowhere left to put them; make the loss loud rather than silent
+                log.error("LOST {} custody event(s): spill file could not be written", events.size(), e);
+                meterRegistry.counter("custody.buffer.lost").increment(events.size());
+                return;
+            }
+            spilledCounter.increment(events.size());
+        }
+    }
+
+    private void replaySpill() {
+        synchronized (replayLock) {
+            Path replay = spillDir.resolve(REPLAY_FILE);
+            // Left over from a replay that failed; its events are older than anything spilled since
+            if (Files.exists(replay) && !replay(replay)) {
+                return;
+            }
+            if (takeSpillFile(replay)) {
+                replay(replay);
+            }
+        }
+    }
+
+    // Renames the spill file for replay; enqueue only waits for the rename, not for the inserts
+    private boolean takeSpillFile(Path replay) {
+        synchronized (spillLock) {
+            Path file = spillDir.resolve(SPILL_FILE);
+            if (!Files.exists(file)) {
+                return false;
+            }
+            try {
+                Files.move(file, replay, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (IOException e) {
+                log.warn("Could not take spill file {} for replay: {}", file, e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    private boolean replay(Path file) {
+        long replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<CustodyEvent> batch = new ArrayList<>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                batch.add(objectMapper.readValue(line, CustodyEvent.class));
+                if (batch.size() == batchSize) {
+                    sink.insertAll(batch);
+                    replayed += batch.size();
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                sink.insertAll(batch);
+                replayed += batch.size();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The whole file stays; events already inserted are skipped as duplicates next time
+            log.warn("Replay of spilled custody events stopped after {}: {}", replayed, e.getMessage());
+            return false;
+        }
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            // Replayed again next time, which the duplicate check makes harmless
+            log.warn("Could not remove replayed spill file {}: {}", file, e.getMessage());
+        }
+        log.info("Replayed {} spilled custody event(s)", replayed);
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (flusher != null) {
+            // Ends a wait for a batch to fill; the events already taken are flushed by the thread itself
+            flusher.interrupt();
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        List<CustodyEvent> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += batchSize) {
+            flush(remaining.subList(from, Math.min(remaining.size(), from + batchSize)));
+        }
+        if (!remaining.isEmpty()) {
+            log.info("Drained {} custody event(s) on shutdown", remaining.size());
+        }
+    }
+
+    static void insertIgnoringDuplicates(MongoTemplate mongoTemplate, List<CustodyEvent> events) {
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CustodyEvent.class).insert(events).execute();
+        } catch (BulkOperationException e) {
+            boolean onlyDuplicates = e.getErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY);
+            if (!onlyDuplicates) {
+                throw e;
+            }
+        }
+    }
+}
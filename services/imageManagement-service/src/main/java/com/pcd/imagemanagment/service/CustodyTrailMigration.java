@@ -0,0 +1,129 @@
+package com.pcd.imagemanagment.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.InsertManyOptions;
+import com.pcd.imagemanagment.model.CustodyEvent;
+import com.pcd.imagemanagment.model.Image;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves custody trails embedded in image records into the {@code custody_events} collection and
+ * removes the embedded arrays.
+ * <p>
+ * Runs in the background at startup in batches. Migrated events get a deterministic ID (image ID
+ * and position in the old array), so a batch interrupted between the insert and the unset is
+ * simply re-inserted on the next run, with the duplicates rejected by the unique {@code _id}.
+ */
+@Component
+@ConditionalOnProperty(name = "image.custody.migration.enabled", havingValue = "true", matchIfMissing = true)
+public class CustodyTrailMigration implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(CustodyTrailMigration.class);
+
+    // Server code for a duplicate key, i.e. an event already moved by an earlier run
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${image.custody.migration.batch-size:200}")
+    private int batchSize;
+
+    @Autowired
+    public CustodyTrailMigration(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread thread = new Thread(this::migrate, "custody-trail-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void migrate() {
+        String images = mongoTemplate.getCollectionName(Image.class);
+        String events = mongoTemplate.getCollectionName(CustodyEvent.class);
+        long migratedImages = 0;
+        long migratedEvents = 0;
+        Object lastId = null;
+        try {
+            while (true) {
+                // Paged by _id, so each batch continues along the index instead of scanning from the start again
+                Criteria criteria = Criteria.where("custodyTrail").exists(true);
+                if (lastId != null) {
+                    criteria = criteria.and("_id").gt(lastId);
+                }
+                Query query = new Query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")).limit(batchSize);
+                query.fields().include("custodyTrail");
+                List<Document> batch = mongoTemplate.find(query, Document.class, images);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                List<Document> moved = new ArrayList<>();
+                for (Document image : batch) {
+                    moved.addAll(toEvents(image));
+                }
+                insertIgnoringDuplicates(moved, events);
+                List<Object> ids = batch.stream().map(image -> image.get("_id")).toList();
+                lastId = ids.get(ids.size() - 1);
+                mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids)), new Update().unset("custodyTrail"), images);
+                migratedImages += batch.size();
+                migratedEvents += moved.size();
+                log.info("Moved {} custody event(s) of {} image(s) out of the image records so far", migratedEvents, migratedImages);
+            }
+        } catch (RuntimeException e) {
+            log.error("Custody trail migration stopped after {} image(s); it resumes on next startup", migratedImages, e);
+            return;
+        }
+        if (migratedImages > 0) {
+            log.info("Custody trail migration finished, {} event(s) of {} image(s) moved", migratedEvents, migratedImages);
+        }
+    }
+
+    private static List<Document> toEvents(Document image) {
+        String imageId = image.get("_id").toString();
+        List<Document> events = new ArrayList<>();
+        if (!(image.get("custodyTrail") instanceof List<?> trail)) {
+            return events;
+        }
+        for (int i = 0; i < trail.size(); i++) {
+            if (trail.get(i) instanceof Document embedded) {
+                Document event = new Document("_id", imageId + "-" + i).append("imageId", imageId);
+                for (String field : List.of("eventType", "userId", "userRole", "timestamp", "details", "ipAddress")) {
+                    event.append(field, embedded.get(field));
+                }
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private void insertIgnoringDuplicates(List<Document> events, String collection) {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            mongoTemplate.getCollection(collection).insertMany(events, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            boolean onlyDuplicates = e.getWriteErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY);
+            if (!onlyDuplicates) {
+                throw e;
+            }
+        }
+    }
+}
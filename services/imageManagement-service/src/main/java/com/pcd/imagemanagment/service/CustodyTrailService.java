@@ -0,0 +1,64 @@
+package com.pcd.imagemanagment.service;
+
+import com.pcd.imagemanagment.model.CustodyEvent;
+import com.pcd.imagemanagment.model.CustodyTrailPage;
+import com.pcd.imagemanagment.repository.CustodyEventRepository;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Chain of custody of images: each event is a single insert into {@code custody_events}, and the
+ * trail is read back page by page in time order.
+ */
+@Service
+@RequiredArgsConstructor
+public class CustodyTrailService {
+
+    private static final Logger log = LoggerFactory.getLogger(CustodyTrailService.class);
+
+    private final CustodyEventRepository custodyEventRepository;
+    private final CustodyEventBuffer eventBuffer;
+
+    @Value("${image.custody.max-page-size:500}")
+    private int maxPageSize;
+
+    public CustodyEvent record(String imageId, String eventType, String userId, String userRole, String details, String ipAddress) {
+        CustodyEvent event = custodyEventRepository.insert(
+                new CustodyEvent(imageId, eventType, userId, userRole, details, ipAddress));
+        log.debug("Recorded {} custody event for image ID: {}", eventType, imageId);
+        return event;
+    }
+
+    // Events of a bulk operation in one insert rather than one round trip each
+    public void recordAll(List<CustodyEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        custodyEventRepository.insert(events);
+        log.debug("Recorded {} custody events", events.size());
+    }
+
+    /**
+     * Queues an ACCESS event for a write-behind bulk insert; downloads do not wait for their audit
+     * write. The event may show up in the trail a flush interval later.
+     */
+    public void recordAccess(String imageId, String userId, String userRole, String details, String ipAddress) {
+        eventBuffer.enqueue(new CustodyEvent(imageId, "ACCESS", userId, userRole, details, ipAddress));
+    }
+
+    public CustodyTrailPage getTrail(String imageId, int page, int size) {
+        if (page < 0 || size < 1) {
+            throw new IllegalArgumentException("Page must be >= 0 and size >= 1");
+        }
+        Slice<CustodyEvent> slice = custodyEventRepository.findByImageIdOrderByTimestampAscIdAsc(
+                imageId, PageRequest.of(page, Math.min(size, maxPageSize)));
+        return new CustodyTrailPage(imageId, page, slice.getSize(), slice.hasNext(), slice.getContent());
+    }
+}
@@ -0,0 +1,39 @@
+package com.pcd.imagemanagment.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+
+/**
+ * Opens byte ranges of GridFS files by querying the chunks collection for the chunk numbers the
+ * range covers, using the {@code files_id, n} index GridFS maintains. A range near the end of a
+ * large file costs the same as one at the start.
+ */
+@Component
+public class GridFsRangeReader {
+
+    private final MongoCollection<Document> chunks;
+
+    // Same bucket GridFsTemplate stores uploads in
+    public GridFsRangeReader(MongoTemplate mongoTemplate,
+                             @Value("${spring.data.mongodb.gridfs.bucket:fs}") String bucket) {
+        this.chunks = mongoTemplate.getCollection(bucket + ".chunks");
+    }
+
+    public InputStream open(GridFSFile file, long offset, long count) {
+        ChunkRangeInputStream.ChunkSource source = (first, last) -> chunks
+                .find(Filters.and(Filters.eq("files_id", file.getId()), Filters.gte("n", first), Filters.lte("n", last)))
+                .sort(Sorts.ascending("n"))
+                .map(doc -> new ChunkRangeInputStream.Chunk(doc.getInteger("n"), doc.get("data", Binary.class).getData()))
+                .iterator();
+        return new ChunkRangeInputStream(source, file.getChunkSize(), offset, count);
+    }
+}
@@ -0,0 +1,212 @@
+package com.pcd.imagemanagment.service;
+
+import com.mongodb.client.result.DeleteResult;
+import com.pcd.imagemanagment.model.ImageBlob;
+import lombok.RequiredArgsConstructor;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Content-addressed, reference-counted storage of upload bytes in GridFS.
+ * <p>
+ * The hash is only known once an upload has streamed into GridFS, so every upload is written and
+ * then claimed: an upsert on {@link ImageBlob} keyed by the hash either registers the new file or
+ * adds a reference to the copy already stored, in which case the new file is dropped again. The
+ * claim is a single atomic findAndModify on the unique {@code _id}, so concurrent identical
+ * uploads end up sharing one file whichever order they land in. Resumable uploads claim under their
+ * session ID, so a completion that is retried after a failure holds one reference, not two.
+ */
+@Service
+@RequiredArgsConstructor
+public class ImageBlobStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageBlobStore.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final GridFsTemplate gridFsTemplate;
+
+    /**
+     * Takes a reference on the blob for {@code sha256}, registering {@code storedFileId} as its
+     * content if there is none yet, and deletes {@code storedFileId} if an identical copy already existed.
+     *
+     * @return the GridFS file ID the image should point at
+     */
+    public String claim(String sha256, ObjectId storedFileId, long length) {
+        String blobFileId = reference(sha256, storedFileId.toString(), length);
+        if (!blobFileId.equals(storedFileId.toString())) {
+            log.info("Upload with SHA-256 {} is already stored as GridFS ID: {}, dropping duplicate {}", sha256, blobFileId, storedFileId);
+            deleteFile(storedFileId.toString());
+        }
+        return blobFileId;
+    }
+
+    /**
+     * As {@link #claim(String, ObjectId, long)}, but holds at most one reference per {@code claimId}
+     * until it is settled or released, so a caller retrying after a failure does not take a second one.
+     */
+    public String claim(String sha256, ObjectId storedFileId, long length, String claimId) {
+        String blobFileId = referenceOnce(sha256, storedFileId.toString(), length, claimId);
+        if (!blobFileId.equals(storedFileId.toString())) {
+            log.info("Upload with SHA-256 {} is already stored as GridFS ID: {}, dropping duplicate {}", sha256, blobFileId, storedFileId);
+            deleteFile(storedFileId.toString());
+        }
+        return blobFileId;
+    }
+
+    private String referenceOnce(String sha256, String fileId, long length, String claimId) {
+        Query query = Query.query(Criteria.where("_id").is(sha256).and("claims").ne(claimId));
+        Update update = referenceUpdate(fileId, length).addToSet("claims", claimId);
+        FindAndModifyOptions options = FindAndModifyOptions.options().upsert(true).returnNew(true);
+        ImageBlob blob;
+        try {
+            blob = mongoTemplate.findAndModify(query, update, options, ImageBlob.class);
+        } catch (DuplicateKeyException e) {
+            // Either the claim is already held, so the query skipped the blob and tried to insert it, or an upsert race as in reference()
+            Optional<String> held = claimedFile(sha256, claimId);
+            if (held.isPresent()) {
+                return held.get();
+            }
+            blob = mongoTemplate.findAndModify(query, update, options, ImageBlob.class);
+        }
+        return blob.getGridFsFileId();
+    }
+
+    /**
+     * The GridFS file of the blob if {@code claimId} holds an unsettled claim on it.
+     */
+    public Optional<String> claimedFile(String sha256, String claimId) {
+        return Optional.ofNullable(mongoTemplate.findOne(
+                        Query.query(Criteria.where("_id").is(sha256).and("claims").is(claimId)), ImageBlob.class))
+                .map(ImageBlob::getGridFsFileId);
+    }
+
+    /**
+     * Hands the reference of a claim over to the image that now points at the blob.
+     */
+    public void settleClaim(String sha256, String claimId) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(sha256)), new Update().pull("claims", claimId), ImageBlob.class);
+    }
+
+    /**
+     * Gives back the reference of a claim no image took over, collecting the blob if that was the last one.
+     *
+     * @return false if {@code claimId} held no claim on the blob
+     */
+    public boolean releaseClaim(String sha256, String claimId) {
+        ImageBlob blob = mongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(sha256).and("claims").is(claimId)),
+                new Update().inc("refCount", -1).pull("claims", claimId),
+                FindAndModifyOptions.options().returnNew(true), ImageBlob.class);
+        if (blob == null) {
+            return false;
+        }
+        collectIfUnreferenced(blob);
+        return true;
+    }
+
+    /**
+     * Adds one reference to the blob for {@code sha256}, creating it with {@code fileId} as content when absent.
+     * Never deletes anything; the caller decides what to do with {@code fileId} if another copy won.
+     *
+     * @return the GridFS file ID of the blob
+     */
+    public String reference(String sha256, String fileId, long length) {
+        Query query = Query.query(Criteria.where("_id").is(sha256));
+        Update update = referenceUpdate(fileId, length);
+        FindAndModifyOptions options = FindAndModifyOptions.options().upsert(true).returnNew(true);
+        ImageBlob blob;
+        try {
+            blob = mongoTemplate.findAndModify(query, update, options, ImageBlob.class);
+        } catch (DuplicateKeyException e) {
+            // Two upserts raced on the same hash and the other one inserted first; this time the update matches
+            blob = mongoTemplate.findAndModify(query, update, options, ImageBlob.class);
+        }
+        return blob.getGridFsFileId();
+    }
+
+    /**
+     * Drops one reference and removes the blob and its GridFS file once nothing references it.
+     *
+     * @return true if the GridFS file was deleted
+     */
+    public boolean release(String sha256, String fileId) {
+        Query query = Query.query(Criteria.where("_id").is(sha256).and("gridFsFileId").is(fileId));
+        ImageBlob blob = mongoTemplate.findAndModify(query, new Update().inc("refCount", -1),
+                FindAndModifyOptions.options().returnNew(true), ImageBlob.class);
+        if (blob == null) {
+            log.warn("No blob reference for SHA-256 {} and GridFS ID: {}, nothing released", sha256, fileId);
+            return false;
+        }
+        return collectIfUnreferenced(blob);
+    }
+
+    private static Update referenceUpdate(String fileId, long length) {
+        return new Update()
+                .inc("refCount", 1)
+                .setOnInsert("gridFsFileId", fileId)
+                .setOnInsert("length", length)
+                .setOnInsert("createdAt", Instant.now());
+    }
+
+    // Removes the blob and its file if the reference just dropped was the last one
+    private boolean collectIfUnreferenced(ImageBlob blob) {
+        if (blob.getRefCount() > 0) {
+            log.debug("Blob {} still referenced by {} image(s)", blob.getSha256(), blob.getRefCount());
+            return false;
+        }
+        String fileId = blob.getGridFsFileId();
+        // Only collect while still unreferenced: a concurrent claim may have taken it back from zero
+        DeleteResult removed = mongoTemplate.remove(
+                Query.query(Criteria.where("_id").is(blob.getSha256()).and("gridFsFileId").is(fileId).and("refCount").lte(0)),
+                ImageBlob.class);
+        if (removed.getDeletedCount() == 0) {
+            return false;
+        }
+        deleteFile(fileId);
+        log.info("Collected unreferenced blob {} (GridFS ID: {})", blob.getSha256(), fileId);
+        return true;
+    }
+
+    /**
+     * Deletes a freshly stored file whose claim failed, unless the claim did register it as the
+     * content of a blob before failing.
+     */
+    public void discardUnclaimed(ObjectId storedFileId) {
+        String fileId = storedFileId.toString();
+        try {
+            if (isBlobFile(fileId)) {
+                log.warn("GridFS file ID: {} became blob content despite the failed claim, keeping it", fileId);
+                return;
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not check GridFS file ID: {} after a failed claim, leaving it in place", fileId, e);
+            return;
+        }
+        deleteFile(fileId);
+    }
+
+    // True if some blob uses this GridFS file as its content
+    public boolean isBlobFile(String fileId) {
+        return mongoTemplate.exists(Query.query(Criteria.where("gridFsFileId").is(fileId)), ImageBlob.class);
+    }
+
+    public void deleteFile(String fileId) {
+        try {
+            gridFsTemplate.delete(new Query(Criteria.where("_id").is(new ObjectId(fileId))));
+        } catch (Exception e) {
+            // An orphaned file wastes space but breaks nothing, so this does not fail the caller
+            log.error("Failed to delete GridFS file ID: {}. Error: {}", fileId, e.getMessage(), e);
+        }
+    }
+}
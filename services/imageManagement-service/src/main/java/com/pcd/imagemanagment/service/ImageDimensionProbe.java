@@ -0,0 +1,205 @@
+package com.pcd.imagemanagment.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Optional;
+
+/**
+ * Reads image dimensions from the format header without decoding any pixels.
+ * <p>
+ * JPEG (SOF marker), PNG (IHDR), GIF, BMP, WebP (VP8, VP8L, VP8X) and TIFF (first IFD) are parsed
+ * directly from the upload header buffer, which takes microseconds and no allocation beyond the
+ * result. Other formats go through an ImageIO reader's {@code getWidth/getHeight}, which still only
+ * reads the header. Empty means the caller has to fall back to a full decode.
+ */
+@Component
+public class ImageDimensionProbe {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageDimensionProbe.class);
+
+    public Optional<Dimension> probe(byte[] header) {
+        Dimension parsed = null;
+        try {
+            parsed = parse(header);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // A declared offset beyond the captured header; let the ImageIO reader have a go
+        }
+        if (parsed != null && parsed.width > 0 && parsed.height > 0) {
+            return Optional.of(parsed);
+        }
+        return probeWithReader(header);
+    }
+
+    private static Dimension parse(byte[] b) {
+        if (startsWith(b, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A) && startsWith(b, 12, 'I', 'H', 'D', 'R')) {
+            return new Dimension(int32BE(b, 16), int32BE(b, 20));
+        }
+        if (startsWith(b, 0, 0xFF, 0xD8)) {
+            return jpeg(b);
+        }
+        if (startsWith(b, 0, 'G', 'I', 'F', '8') && b.length >= 10) {
+            return new Dimension(uint16LE(b, 6), uint16LE(b, 8));
+        }
+        if (startsWith(b, 0, 'B', 'M') && b.length >= 26) {
+            int dibSize = int32LE(b, 14);
+            if (dibSize == 12) { // BITMAPCOREHEADER
+                return new Dimension(uint16LE(b, 18), uint16LE(b, 20));
+            }
+            // Negative height means a top-down bitmap
+            return new Dimension(int32LE(b, 18), Math.abs(int32LE(b, 22)));
+        }
+        if (startsWith(b, 0, 'R', 'I', 'F', 'F') && startsWith(b, 8, 'W', 'E', 'B', 'P')) {
+            return webp(b);
+        }
+        if (startsWith(b, 0, 'I', 'I', 0x2A, 0x00)) {
+            return tiff(b, true);
+        }
+        if (startsWith(b, 0, 'M', 'M', 0x00, 0x2A)) {
+            return tiff(b, false);
+        }
+        return null;
+    }
+
+    // Walks the marker segments up to the first start-of-frame
+    private static Dimension jpeg(byte[] b) {
+        int pos = 2;
+        while (pos + 3 < b.length) {
+            if ((b[pos] & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = b[pos + 1] & 0xFF;
+            if (marker == 0xFF) { // Fill byte
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) { // Segments without a length
+                pos += 2;
+                continue;
+            }
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                // Length (2), precision (1), height (2), width (2)
+                return new Dimension(uint16BE(b, pos + 7), uint16BE(b, pos + 5));
+            }
+            if (marker == 0xDA || marker == 0xD9) { // Scan data or end of image before any frame header
+                return null;
+            }
+            pos += 2 + uint16BE(b, pos + 2);
+        }
+        return null;
+    }
+
+    private static Dimension webp(byte[] b) {
+        if (startsWith(b, 12, 'V', 'P', '8', ' ')) {
+            // Lossy: 3-byte frame tag, start code 9D 01 2A, then 14-bit width and height
+            if (!startsWith(b, 23, 0x9D, 0x01, 0x2A)) {
+                return null;
+            }
+            return new Dimension(uint16LE(b, 26) & 0x3FFF, uint16LE(b, 28) & 0x3FFF);
+        }
+        if (startsWith(b, 12, 'V', 'P', '8', 'L')) {
+            // Lossless: signature 0x2F, then width-1 and height-1 as two 14-bit fields
+            if ((b[20] & 0xFF) != 0x2F) {
+                return null;
+            }
+            int bits = int32LE(b, 21);
+            return new Dimension((bits & 0x3FFF) + 1, ((bits >>> 14) & 0x3FFF) + 1);
+        }
+        if (startsWith(b, 12, 'V', 'P', '8', 'X')) {
+            // Extended: 24-bit canvas width-1 and height-1
+            return new Dimension(uint24LE(b, 24) + 1, uint24LE(b, 27) + 1);
+        }
+        return null;
+    }
+
+    // ImageWidth (256) and ImageLength (257) from the first IFD
+    private static Dimension tiff(byte[] b, boolean littleEndian) {
+        int ifd = littleEndian ? int32LE(b, 4) : int32BE(b, 4);
+        int entries = littleEndian ? uint16LE(b, ifd) : uint16BE(b, ifd);
+        int width = -1;
+        int height = -1;
+        for (int i = 0; i < entries && (width < 0 || height < 0); i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = littleEndian ? uint16LE(b, entry) : uint16BE(b, entry);
+            if (tag != 256 && tag != 257) {
+                continue;
+            }
+            int type = littleEndian ? uint16LE(b, entry + 2) : uint16BE(b, entry + 2);
+            int value;
+            if (type == 3) { // SHORT, left-aligned in the value field
+                value = littleEndian ? uint16LE(b, entry + 8) : uint16BE(b, entry + 8);
+            } else if (type == 4) { // LONG
+                value = littleEndian ? int32LE(b, entry + 8) : int32BE(b, entry + 8);
+            } else {
+                return null;
+            }
+            if (tag == 256) {
+                width = value;
+            } else {
+                height = value;
+            }
+        }
+        return width > 0 && height > 0 ? new Dimension(width, height) : null;
+    }
+
+    private static Optional<Dimension> probeWithReader(byte[] header) {
+        // Memory cache: the default ImageIO stream would spool the buffer to a temp file
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(header))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return Optional.empty();
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return Optional.of(new Dimension(reader.getWidth(0), reader.getHeight(0)));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("ImageIO could not read dimensions from the header: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static boolean startsWith(byte[] b, int offset, int... expected) {
+        if (b.length < offset + expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if ((b[offset + i] & 0xFF) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int uint16BE(byte[] b, int i) {
+        return (b[i] & 0xFF) << 8 | (b[i + 1] & 0xFF);
+    }
+
+    private static int uint16LE(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8;
+    }
+
+    private static int uint24LE(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16;
+    }
+
+    private static int int32BE(byte[] b, int i) {
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | (b[i + 3] & 0xFF);
+    }
+
+    private static int int32LE(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+}
@@ -2,32 +2,40 @@ package com.pcd.imagemanagment.service;
 
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.model.GridFSFile;
-import com.pcd.imagemanagment.model.CustodyEvent;
 import com.pcd.imagemanagment.repository.ImageRepository;
+import com.pcd.imagemanagment.model.CustodyEvent;
 import com.pcd.imagemanagment.model.Image;
+import com.pcd.imagemanagment.model.StatusUpdate;
+import com.pcd.imagemanagment.model.StatusUpdateResult;
 import lombok.RequiredArgsConstructor;
-// Corrected import
-import java.security.MessageDigest;
 // Added import
 import java.security.NoSuchAlgorithmException;
 
 import org.bson.types.ObjectId;
 import org.slf4j.Logger; // Added for logging
 import org.slf4j.LoggerFactory; // Added for logging
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional; // Added for optional handling
+import java.util.function.Supplier;
 
 @Service
 @RequiredArgsConstructor
@@ -40,118 +48,214 @@ public class ImageStorageService {
     private final GridFSBucket gridFSBucket;
     private final ImageRepository imageRepository;
     private final MetadataExtractionService metadataService; // Assumes this service exists
+    private final ImageDimensionProbe dimensionProbe;
+    private final ImageBlobStore blobStore;
+    private final GridFsRangeReader rangeReader;
+    private final MongoTemplate mongoTemplate;
+    private final CustodyTrailService custodyTrail;
+
+    // Bytes kept from the start of each upload for dimension and EXIF parsing; EXIF lives in the first 64 KiB of a JPEG
+    @Value("${image.upload.header-buffer-bytes:262144}")
+    private int headerBufferBytes;
+
+    // Full decode when the header cannot be probed; allocates the whole raster, so it can be switched off
+    @Value("${image.upload.full-decode-fallback:true}")
+    private boolean fullDecodeFallback;
+
+    /**
+     * Content of an upload that can be opened more than once: the full-decode fallback for dimensions
+     * reads it a second time.
+     */
+    @FunctionalInterface
+    public interface UploadContent {
+        InputStream open() throws IOException;
+    }
 
     public String storeImage(MultipartFile file, String caseId, String uploaderId, String uploaderRole, String ipAddress) throws IOException, NoSuchAlgorithmException {
+        return storeImage(file.getOriginalFilename(), file.getContentType(), file.getSize(), file::getInputStream,
+                caseId, uploaderId, uploaderRole, ipAddress, "Initial upload via API");
+    }
+
+    // Ingestion pipeline shared by single uploads and the entries of a bulk upload
+    public String storeImage(String filename, String contentType, long size, UploadContent content, String caseId,
+                             String uploaderId, String uploaderRole, String ipAddress, String custodyDetails) throws IOException, NoSuchAlgorithmException {
+
+        Image imageDoc = newImageRecord(filename, contentType, size, caseId, uploaderId, uploaderRole);
+
+        // Single pass: GridFS consumes the upload while the tee hashes it and keeps the header
+        ObjectId fileId;
+        UploadTeeInputStream upload;
+        try (InputStream source = content.open()) {
+            upload = new UploadTeeInputStream(source, headerBufferBytes);
+            fileId = gridFsTemplate.store(
+                    upload,
+                    filename,
+                    contentType,
+                    // Content only: the file may end up shared by images of other cases, per-upload details live on Image
+                    Map.of("_contentType", contentType)
+            );
+        } catch (NoSuchAlgorithmException e) {
+            log.error("SHA-256 Algorithm not found!", e);
+            throw e;
+        } catch (IOException e) {
+            log.error("Error storing file in GridFS: {}", filename, e);
+            throw e; // This is likely a critical error
+        }
+        // Dimensions and metadata come from the captured header, the upload is not read again
+        return registerStoredFile(imageDoc, fileId, upload.sha256Hex(), upload.getBytesRead(), upload.header(),
+                () -> decodeDimensions(filename, content), ipAddress, custodyDetails);
+    }
+
+    /**
+     * Registers a file a resumable upload has written to GridFS chunk by chunk, and already claimed, as
+     * the image {@code imageId}. Only the header chunks are read back, for dimensions and metadata; a
+     * full decode would read the whole file, so formats the header probe does not know get no
+     * dimensions. Storing the same {@code imageId} again is a no-op, so an interrupted completion can
+     * simply be repeated.
+     */
+    public String storeUploadedFile(String imageId, String filename, String contentType, String gridFsFileId, long length, String sha256,
+                                    String caseId, String uploaderId, String uploaderRole, String ipAddress, String custodyDetails) throws IOException {
+        Image imageDoc = newImageRecord(filename, contentType, length, caseId, uploaderId, uploaderRole);
+        imageDoc.setId(imageId);
+        GridFSFile file = gridFsTemplate.findOne(Query.query(Criteria.where("_id").is(new ObjectId(gridFsFileId))));
+        byte[] header;
+        try (InputStream in = rangeReader.open(file, 0, Math.min(headerBufferBytes, length))) {
+            header = in.readAllBytes();
+        }
+        describeContent(imageDoc, sha256, length, header, Optional::empty);
+        imageDoc.setGridFsFileId(gridFsFileId);
+        imageDoc.setBlobReferenced(true);
+        try {
+            imageRepository.insert(imageDoc);
+        } catch (DuplicateKeyException e) {
+            log.info("Image ID: {} was already stored by an earlier attempt", imageId);
+            return imageId;
+        }
+        recordUpload(imageDoc, ipAddress, custodyDetails);
+        return imageId;
+    }
 
+    private Image newImageRecord(String filename, String contentType, long size, String caseId, String uploaderId, String uploaderRole) {
         Image imageDoc = new Image();
-        imageDoc.setOriginalFilename(file.getOriginalFilename());
-        imageDoc.setContentType(file.getContentType());
-        imageDoc.setFileSize(file.getSize());
+        imageDoc.setOriginalFilename(filename);
+        imageDoc.setContentType(contentType);
+        imageDoc.setFileSize(size);
         imageDoc.setCaseId(caseId);
         imageDoc.setUploaderId(uploaderId);
         imageDoc.setUploaderRole(uploaderRole);
         imageDoc.setUploadTimestamp(Instant.now());
         imageDoc.setAnalysisStatus("PENDING"); // Example status
+        return imageDoc;
+    }
+
+    // Everything after the bytes are in GridFS: header parsing, deduplication, the image record and its custody trail
+    private String registerStoredFile(Image imageDoc, ObjectId fileId, String sha256, long length, byte[] header,
+                                      Supplier<Optional<Dimension>> fallbackDimensions, String ipAddress, String custodyDetails) {
+        String filename = imageDoc.getOriginalFilename();
+        describeContent(imageDoc, sha256, length, header, fallbackDimensions);
 
-        // Calculate hash first, so it's always present if possible
+        // Identical content already stored: point at that copy and drop the one just written
+        String gridFsFileId;
         try {
-            // Use a separate stream for hash calculation to avoid stream consumption issues
-            try (InputStream hashStream = file.getInputStream()) {
-                imageDoc.setSha256Hash(calculateSHA256(hashStream));
-            }
-        } catch (NoSuchAlgorithmException e) {
-            log.error("SHA-256 Algorithm not found!", e);
-            // Decide how to handle this - rethrow, set hash to null, etc.
-            throw e; // Rethrowing for now
-        } catch (IOException e) {
-            log.error("Error reading file for hashing: {}", file.getOriginalFilename(), e);
-            throw e; // Rethrowing for now
+            gridFsFileId = blobStore.claim(sha256, fileId, length);
+        } catch (RuntimeException e) {
+            // Nothing references the new file yet, so it would be orphaned for good
+            blobStore.discardUnclaimed(fileId);
+            throw e;
         }
+        imageDoc.setGridFsFileId(gridFsFileId);
+        imageDoc.setBlobReferenced(true);
 
-
-        // Extract dimensions and metadata
-        try (InputStream metadataStream = file.getInputStream()) {
-            // Extract image dimensions using ImageIO
-            BufferedImage buffImg = ImageIO.read(metadataStream); // Reads the stream
-            if (buffImg != null) {
-                imageDoc.setWidth(buffImg.getWidth());
-                imageDoc.setHeight(buffImg.getHeight());
-                // Reset stream if needed by metadata extractor and if supported
-                // If ImageIO.read consumes the stream fully and the metadata extractor needs it,
-                // you might need to read the file bytes into memory or get a new stream.
-                // For simplicity here, we assume we might need a new stream for metadata extraction.
-            } else {
-                log.warn("Could not read image dimensions for file: {}", file.getOriginalFilename());
+        // Save metadata document to MongoDB
+        Image savedImage;
+        try {
+            savedImage = imageRepository.insert(imageDoc);
+        } catch (RuntimeException e) {
+            // No image holds the reference just taken; give it back, which deletes the content if this upload brought it
+            log.error("Failed to save image record for {}, releasing its claim on blob {}", filename, sha256, e);
+            try {
+                blobStore.release(sha256, gridFsFileId);
+            } catch (RuntimeException releaseFailure) {
+                e.addSuppressed(releaseFailure);
             }
-        } catch (IOException e) {
-            log.error("Error reading image for dimensions: {}", file.getOriginalFilename(), e);
-            // Decide if this is critical - perhaps continue without dimensions
+            throw e;
         }
 
-        // Extract metadata - needs its own stream
-        try (InputStream metaStream = file.getInputStream()) {
-            imageDoc.setMetadata(metadataService.extractMetadata(metaStream, file.getOriginalFilename())); // Pass stream
+        recordUpload(savedImage, ipAddress, custodyDetails);
+        return savedImage.getId();
+    }
+
+    // Hash, dimensions and metadata of the content, all from the header unless the fallback has to decode more
+    private void describeContent(Image imageDoc, String sha256, long length, byte[] header,
+                                 Supplier<Optional<Dimension>> fallbackDimensions) {
+        String filename = imageDoc.getOriginalFilename();
+        imageDoc.setSha256Hash(sha256);
+
+        dimensionProbe.probe(header)
+                .or(fallbackDimensions)
+                .ifPresentOrElse(dimension -> {
+                    imageDoc.setWidth(dimension.width);
+                    imageDoc.setHeight(dimension.height);
+                }, () -> log.warn("Could not read image dimensions for file: {}", filename));
+        try {
+            imageDoc.setMetadata(metadataService.extractMetadata(new ByteArrayInputStream(header), filename));
         } catch (Exception e) {
             // Use proper logging instead of System.err
-            log.error("Error processing image metadata for file {}: {}", file.getOriginalFilename(), e.getMessage(), e);
+            log.error("Error processing image metadata for file {}: {}", filename, e.getMessage(), e);
             // Continue upload even if metadata extraction fails
         }
-
-        // Store image in GridFS - needs its own stream
-        ObjectId fileId;
-        try (InputStream gridfsStream = file.getInputStream()) {
-            fileId = gridFsTemplate.store(
-                    gridfsStream,
-                    file.getOriginalFilename(),
-                    file.getContentType(),
-                    // Add relevant metadata to GridFS file document if needed
-                    Map.of(
-                            "_contentType", file.getContentType(), // Standard field
-                            "originalFilename", file.getOriginalFilename(),
-                            "caseId", caseId,
-                            "uploaderId", uploaderId,
-                            "uploadTimestamp", Instant.now().toString()
-                            // Add other fields if useful for querying GridFS directly
-                    )
-            );
-        } catch (IOException e) {
-            log.error("Error storing file in GridFS: {}", file.getOriginalFilename(), e);
-            throw e; // This is likely a critical error
+        if (header.length < length) {
+            log.debug("Parsed dimensions and metadata of {} from the first {} of {} bytes",
+                    filename, header.length, length);
         }
+    }
 
-
-        imageDoc.setGridFsFileId(fileId.toString());
-
+    private void recordUpload(Image savedImage, String ipAddress, String custodyDetails) {
         // Record initial custody event
-        CustodyEvent uploadEvent = new CustodyEvent(
-                "UPLOAD",
-                uploaderId,
-                uploaderRole,
-                Instant.now(),
-                "Initial upload via API", // More descriptive detail
-                ipAddress
-        );
-        imageDoc.getCustodyTrail().add(uploadEvent);
-
-        // Save metadata document to MongoDB
-        Image savedImage = imageRepository.save(imageDoc);
+        custodyTrail.record(savedImage.getId(), "UPLOAD", savedImage.getUploaderId(), savedImage.getUploaderRole(), custodyDetails, ipAddress);
         log.info("Successfully stored image ID: {}, GridFS ID: {}", savedImage.getId(), savedImage.getGridFsFileId());
+    }
 
-        return savedImage.getId();
+    // Last resort for formats the probe does not know: a full decode of the upload
+    private Optional<Dimension> decodeDimensions(String filename, UploadContent content) {
+        if (!fullDecodeFallback) {
+            return Optional.empty();
+        }
+        log.info("Falling back to a full decode for the dimensions of {}", filename);
+        try (InputStream in = content.open()) {
+            BufferedImage decoded = ImageIO.read(in);
+            return decoded != null ? Optional.of(new Dimension(decoded.getWidth(), decoded.getHeight())) : Optional.empty();
+        } catch (IOException e) {
+            log.error("Error reading image for dimensions: {}", filename, e);
+            return Optional.empty();
+        }
     }
 
     // Define a simple structure for the download result
     public static class ImageDownload {
-        public final InputStream inputStream;
         public final String filename;
         public final String contentType;
         public final long length;
+        public final String sha256;
+        private final GridFSFile file;
+        private final GridFsRangeReader rangeReader;
 
-        public ImageDownload(InputStream inputStream, String filename, String contentType, long length) {
-            this.inputStream = inputStream;
+        public ImageDownload(GridFSFile file, GridFsRangeReader rangeReader, String filename, String contentType, String sha256) {
+            this.file = file;
+            this.rangeReader = rangeReader;
             this.filename = filename;
             this.contentType = contentType;
-            this.length = length;
+            this.length = file.getLength();
+            this.sha256 = sha256;
+        }
+
+        public InputStream openStream() {
+            return open(0, length);
+        }
+
+        // Only the chunks covering [offset, offset + count) are fetched, and not before the first read
+        public InputStream open(long offset, long count) {
+            return rangeReader.open(file, offset, count);
         }
     }
 
@@ -165,6 +269,11 @@ public class ImageStorageService {
             return Optional.empty(); // Return empty optional
         }
         Image imageDoc = imageDocOpt.get();
+        if ("DELETED".equals(imageDoc.getAnalysisStatus())) {
+            // Its GridFS file may live on as another image's content, so check the record rather than GridFS
+            log.warn("Attempted to access deleted image ID: {}", imageId);
+            return Optional.empty();
+        }
 
         // Retrieve file from GridFS *before* logging access, in case GridFS retrieval fails
         GridFSFile file = gridFsTemplate.findOne(new Query(Criteria.where("_id").is(new ObjectId(imageDoc.getGridFsFileId()))));
@@ -176,73 +285,83 @@ public class ImageStorageService {
         }
 
         // Now that we know the file exists, log the access event
-        CustodyEvent accessEvent = new CustodyEvent(
-                "ACCESS",
-                userId,
-                userRole,
-                Instant.now(),
-                "Access reason: " + accessReason,
-                ipAddress
-        );
-        imageDoc.getCustodyTrail().add(accessEvent);
-        imageRepository.save(imageDoc); // Save updated custody trail
-
-
-        // Get the download stream
-        GridFsResource resource = gridFsTemplate.getResource(file); // Simpler way to get resource
-        try {
-            InputStream stream = resource.getInputStream();
-            log.info("Retrieved image ID: {} by User ID: {}", imageId, userId);
-            return Optional.of(new ImageDownload(
-                    stream,
-                    file.getFilename(),
-                    Optional.ofNullable(file.getMetadata())
-                            .map(doc -> doc.getString("_contentType"))
-                            .orElse("application/octet-stream"), // Default content type
-                    file.getLength()
-            ));
-        } catch (IOException e) {
-            log.error("Error opening download stream for GridFS file: {}", file.getObjectId(), e);
-            // This is unexpected if getResource succeeded
-            throw new IllegalStateException("Could not open download stream for file ID: " + file.getObjectId(), e);
-        }
+        custodyTrail.recordAccess(imageId, userId, userRole, "Access reason: " + accessReason, ipAddress);
+
+        log.info("Retrieved image ID: {} by User ID: {}", imageId, userId);
+        return Optional.of(new ImageDownload(
+                file,
+                rangeReader,
+                // From the image record: a shared GridFS file carries the name of whichever upload stored it first
+                Optional.ofNullable(imageDoc.getOriginalFilename()).orElse(file.getFilename()),
+                Optional.ofNullable(imageDoc.getContentType())
+                        .or(() -> Optional.ofNullable(file.getMetadata()).map(doc -> doc.getString("_contentType")))
+                        .orElse("application/octet-stream"), // Default content type
+                imageDoc.getSha256Hash()
+        ));
+    }
+
+
+    /**
+     * Strong entity tag of an image's content, from a projected lookup that loads neither the image
+     * record nor anything from GridFS. Empty if the image is unknown, deleted or was never hashed.
+     */
+    public Optional<String> currentETag(String imageId) {
+        return imageRepository.findContentValidatorById(imageId)
+                .filter(validator -> !"DELETED".equals(validator.getAnalysisStatus()))
+                .map(ImageRepository.ContentValidator::getSha256Hash)
+                .map(ImageStorageService::etagOf);
+    }
+
+    public static String etagOf(String sha256) {
+        return "\"" + sha256 + "\"";
+    }
+
+    // A client revalidating its cached copy is still an access, recorded without loading the image record
+    public void recordCachedAccess(String imageId, String userId, String userRole, String accessReason, String ipAddress) {
+        custodyTrail.recordAccess(imageId, userId, userRole, "Access reason: " + accessReason + " (cached copy revalidated)", ipAddress);
+        log.info("Revalidated cached copy of image ID: {} for User ID: {}", imageId, userId);
     }
 
 
     public boolean deleteImage(String imageId, String userId, String userRole, String reason, String ipAddress) {
-        // Fetch the image document first to get the GridFS file ID
-        Optional<Image> imageDocOpt = imageRepository.findById(imageId);
-        if (imageDocOpt.isEmpty()) {
-            log.warn("Attempted to delete non-existent image ID: {}", imageId);
-            return false; // Indicate image was not found
+        // Mark deleted first and atomically, so only one of two concurrent deletes releases the content
+        Query notDeleted = Query.query(Criteria.where("_id").is(imageId).and("analysisStatus").ne("DELETED"));
+        notDeleted.fields().include("sha256Hash", "gridFsFileId", "blobReferenced", "analysisStatus");
+        Image imageDoc = mongoTemplate.findAndModify(notDeleted, Update.update("analysisStatus", "DELETED"), Image.class);
+        if (imageDoc == null) {
+            if (!imageRepository.existsById(imageId)) {
+                log.warn("Attempted to delete non-existent image ID: {}", imageId);
+                return false; // Indicate image was not found
+            }
+            // Its reference is already gone; releasing again would take one from another image
+            log.info("Image ID: {} was already deleted, leaving its GridFS file alone", imageId);
+            custodyTrail.record(imageId, "DELETE", userId, userRole, "Deletion reason: " + reason, ipAddress);
+            return true;
         }
-        Image imageDoc = imageDocOpt.get();
-        String gridFsId = imageDoc.getGridFsFileId(); // Get ID before potential deletion
+        String gridFsId = imageDoc.getGridFsFileId();
 
-        // Delete file from GridFS
-        try {
-            gridFsTemplate.delete(new Query(Criteria.where("_id").is(new ObjectId(gridFsId))));
-            log.info("Deleted GridFS file ID: {} for Image ID: {}", gridFsId, imageId);
-        } catch (Exception e) {
-            // Log the error but proceed to update metadata if GridFS deletion fails
-            log.error("Failed to delete GridFS file ID: {} for Image ID: {}. Error: {}", gridFsId, imageId, e.getMessage(), e);
-            // Depending on policy, you might stop here or just log the failure and continue.
+        if (imageDoc.isBlobReferenced()) {
+            // Shared content: drop this image's reference, the file goes once no image uses it
+            if (blobStore.release(imageDoc.getSha256Hash(), gridFsId)) {
+                log.info("Deleted GridFS file ID: {} for Image ID: {}", gridFsId, imageId);
+            }
+        } else if (blobStore.isBlobFile(gridFsId)) {
+            // Not yet counted by the dedup migration but pointing at a shared file; leave it to the blob's owners
+            log.warn("Image ID: {} points at shared GridFS file ID: {} without holding a reference, not deleting it", imageId, gridFsId);
+        } else {
+            // Uploaded before deduplication: the file belongs to this image alone
+            try {
+                gridFsTemplate.delete(new Query(Criteria.where("_id").is(new ObjectId(gridFsId))));
+                log.info("Deleted GridFS file ID: {} for Image ID: {}", gridFsId, imageId);
+            } catch (Exception e) {
+                // Log the error but proceed to update metadata if GridFS deletion fails
+                log.error("Failed to delete GridFS file ID: {} for Image ID: {}. Error: {}", gridFsId, imageId, e.getMessage(), e);
+                // Depending on policy, you might stop here or just log the failure and continue.
+            }
         }
 
-        // Record deletion in custody trail
-        CustodyEvent deleteEvent = new CustodyEvent(
-                "DELETE",
-                userId,
-                userRole,
-                Instant.now(),
-                "Deletion reason: " + reason,
-                ipAddress
-        );
-        imageDoc.getCustodyTrail().add(deleteEvent);
-        imageDoc.setAnalysisStatus("DELETED"); // Mark status as deleted
-
-        // Save the updated metadata record (doesn't actually delete the record)
-        imageRepository.save(imageDoc);
+        // Record deletion in custody trail; the metadata record itself is kept
+        custodyTrail.record(imageId, "DELETE", userId, userRole, "Deletion reason: " + reason, ipAddress);
         log.info("Marked image metadata record ID: {} as DELETED by User ID: {}", imageId, userId);
 
         // If you wanted to actually delete the metadata record:
@@ -252,55 +371,80 @@ public class ImageStorageService {
         return true; // Indicate successful deletion marking
     }
 
-    // Pass InputStream directly
-    private String calculateSHA256(InputStream is) throws IOException, NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        byte[] buffer = new byte[8192]; // Use a larger buffer
-        int bytesRead;
-        while ((bytesRead = is.read(buffer)) != -1) { // Check for -1
-            md.update(buffer, 0, bytesRead);
-        }
-        byte[] digest = md.digest();
-        return bytesToHex(digest);
+    /**
+     * Moves an image to {@code status} with a single conditional {@code $set}: it applies only while the
+     * stored status is {@code expectedStatus}, or any status {@code status} may follow when none is
+     * expected (see {@link AnalysisStatusTransitions}). Only the status field travels in either direction.
+     */
+    public StatusUpdateResult updateImageAnalysisStatus(String imageId, String expectedStatus, String status,
+                                                        String userId, String userRole, String ipAddress) {
+        List<CustodyEvent> events = new ArrayList<>(1);
+        StatusUpdateResult result = applyStatusUpdate(new StatusUpdate(imageId, expectedStatus, status), userId, userRole, ipAddress, events);
+        custodyTrail.recordAll(events);
+        return result;
     }
 
-    // Keep this helper method as is
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2); // Preallocate size
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+    /**
+     * Applies many status updates in one call, each under the same guard as a single update, and
+     * records the custody events of the applied ones in one insert. Items are independent: a rejected
+     * one does not stop the rest.
+     */
+    public List<StatusUpdateResult> updateImageAnalysisStatuses(List<StatusUpdate> updates, String userId, String userRole, String ipAddress) {
+        List<CustodyEvent> events = new ArrayList<>(updates.size());
+        List<StatusUpdateResult> results = new ArrayList<>(updates.size());
+        for (StatusUpdate update : updates) {
+            results.add(applyStatusUpdate(update, userId, userRole, ipAddress, events));
         }
-        return sb.toString();
+        custodyTrail.recordAll(events);
+        log.info("Bulk status update by User ID: {}: {} of {} applied", userId, events.size(), updates.size());
+        return results;
     }
 
+    private StatusUpdateResult applyStatusUpdate(StatusUpdate update, String userId, String userRole, String ipAddress,
+                                                 List<CustodyEvent> events) {
+        String imageId = update.imageId();
+        String status = update.status();
+        String expected = update.expectedStatus();
+        if (!AnalysisStatusTransitions.isSettable(status)
+                || (expected != null && !AnalysisStatusTransitions.isAllowed(expected, status))) {
+            log.warn("Rejected analysis status change for image ID: {} from [{}] to [{}]: not a legal transition",
+                    imageId, expected, status);
+            return new StatusUpdateResult(imageId, StatusUpdateResult.Outcome.ILLEGAL_TRANSITION, null, null);
+        }
 
-    public boolean updateImageAnalysisStatus(String imageId, String status, String userId, String userRole, String ipAddress) {
-        // Fetch the image document
-        Optional<Image> imageDocOpt = imageRepository.findById(imageId);
-        if (imageDocOpt.isEmpty()) {
-            log.warn("Attempted to update status for non-existent image ID: {}", imageId);
-            return false; // Image not found
+        // Swap the status in place and get the previous one back, instead of rewriting the whole record
+        List<String> allowedFrom = expected != null ? List.of(expected) : AnalysisStatusTransitions.predecessorsOf(status);
+        Query guarded = Query.query(Criteria.where("_id").is(imageId).and("analysisStatus").in(allowedFrom));
+        guarded.fields().include("analysisStatus");
+        Image previous = mongoTemplate.findAndModify(guarded, Update.update("analysisStatus", status), Image.class);
+        if (previous == null) {
+            return rejectedStatusUpdate(update);
         }
-        Image imageDoc = imageDocOpt.get();
-        String oldStatus = imageDoc.getAnalysisStatus();
-        imageDoc.setAnalysisStatus(status);
+        String oldStatus = previous.getAnalysisStatus();
 
         // Record the status change in the custody trail
-        CustodyEvent statusUpdateEvent = new CustodyEvent(
-                "STATUS_UPDATE",
-                userId,
-                userRole,
-                Instant.now(),
-                "Analysis status changed from [" + oldStatus + "] to [" + status + "]",
-                ipAddress
-        );
-        imageDoc.getCustodyTrail().add(statusUpdateEvent);
-
-        // Save the updated image document
-        imageRepository.save(imageDoc);
+        events.add(new CustodyEvent(imageId, "STATUS_UPDATE", userId, userRole,
+                "Analysis status changed from [" + oldStatus + "] to [" + status + "]", ipAddress));
         log.info("Updated analysis status for image ID: {} from [{}] to [{}]. Initiated by User ID: {}",
                 imageId, oldStatus, status, userId);
+        return new StatusUpdateResult(imageId, StatusUpdateResult.Outcome.UPDATED, oldStatus, status);
+    }
 
-        return true; // Update successful
+    // The guard did not match; a projected read of the status tells the caller why
+    private StatusUpdateResult rejectedStatusUpdate(StatusUpdate update) {
+        String imageId = update.imageId();
+        Optional<String> current = imageRepository.findContentValidatorById(imageId)
+                .map(ImageRepository.ContentValidator::getAnalysisStatus);
+        if (current.isEmpty()) {
+            log.warn("Attempted to update status for non-existent image ID: {}", imageId);
+            return new StatusUpdateResult(imageId, StatusUpdateResult.Outcome.NOT_FOUND, null, null);
+        }
+        // Deleted images stay deleted: moving one back would let a second delete release its content again
+        StatusUpdateResult.Outcome outcome = "DELETED".equals(current.get())
+                ? StatusUpdateResult.Outcome.DELETED
+                : StatusUpdateResult.Outcome.CONFLICT;
+        log.warn("Rejected analysis status change for image ID: {} to [{}] (expected [{}]): image is in [{}]",
+                imageId, update.status(), update.expectedStatus(), current.get());
+        return new StatusUpdateResult(imageId, outcome, null, current.get());
     }
 }
\ No newline at end of file
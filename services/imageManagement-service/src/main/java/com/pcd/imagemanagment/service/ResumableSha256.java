@@ -0,0 +1,159 @@
+package com.pcd.imagemanagment.service;
+
+import java.util.HexFormat;
+
+/**
+ * SHA-256 whose intermediate state can be saved and resumed in another request, possibly on
+ * another node. {@link java.security.MessageDigest} keeps its state opaque, which would force a
+ * resumable upload to hash the whole file again at the end.
+ * <p>
+ * State can only be exported on a 64-byte block boundary, where it is just the eight chaining
+ * words and the byte count; resumable uploads take chunks in multiples of the block size, so every
+ * chunk boundary but the last is one.
+ */
+final class ResumableSha256 {
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] INITIAL = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    static final int BLOCK_BYTES = 64;
+
+    private final int[] h;
+    private final int[] w = new int[64];
+    private final byte[] block = new byte[BLOCK_BYTES];
+    private int buffered;
+    private long length;
+
+    private ResumableSha256(int[] h, long length) {
+        this.h = h;
+        this.length = length;
+    }
+
+    static ResumableSha256 start() {
+        return new ResumableSha256(INITIAL.clone(), 0);
+    }
+
+    /**
+     * Continues from a state exported by {@link #state()} after {@code length} bytes.
+     */
+    static ResumableSha256 resume(int[] state, long length) {
+        if (state == null || state.length != 8 || length < 0 || length % BLOCK_BYTES != 0) {
+            throw new IllegalArgumentException("Not a SHA-256 state on a block boundary");
+        }
+        return new ResumableSha256(state.clone(), length);
+    }
+
+    void update(byte[] data, int offset, int count) {
+        length += count;
+        int end = offset + count;
+        if (buffered > 0) {
+            int take = Math.min(BLOCK_BYTES - buffered, count);
+            System.arraycopy(data, offset, block, buffered, take);
+            buffered += take;
+            offset += take;
+            if (buffered < BLOCK_BYTES) {
+                return;
+            }
+            compress(block, 0);
+            buffered = 0;
+        }
+        for (; offset + BLOCK_BYTES <= end; offset += BLOCK_BYTES) {
+            compress(data, offset);
+        }
+        buffered = end - offset;
+        System.arraycopy(data, offset, block, 0, buffered);
+    }
+
+    void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * The chaining words after {@link #length()} bytes, to be passed to {@link #resume}.
+     *
+     * @throws IllegalStateException if the bytes so far do not end on a block boundary
+     */
+    int[] state() {
+        if (buffered != 0) {
+            throw new IllegalStateException("SHA-256 state is only exportable on a 64-byte boundary, at " + length);
+        }
+        return h.clone();
+    }
+
+    /**
+     * Pads and finishes a copy of the state; this instance is left as it was.
+     */
+    String hex() {
+        ResumableSha256 copy = new ResumableSha256(h.clone(), length);
+        System.arraycopy(block, 0, copy.block, 0, buffered);
+        copy.buffered = buffered;
+        long bits = length * 8;
+        byte[] padding = new byte[(buffered < 56 ? 56 : 120) - buffered + 8];
+        padding[0] = (byte) 0x80;
+        for (int i = 0; i < 8; i++) {
+            padding[padding.length - 1 - i] = (byte) (bits >>> (8 * i));
+        }
+        copy.update(padding);
+        byte[] digest = new byte[32];
+        for (int i = 0; i < 8; i++) {
+            digest[4 * i] = (byte) (copy.h[i] >>> 24);
+            digest[4 * i + 1] = (byte) (copy.h[i] >>> 16);
+            digest[4 * i + 2] = (byte) (copy.h[i] >>> 8);
+            digest[4 * i + 3] = (byte) copy.h[i];
+        }
+        return HexFormat.of().formatHex(digest);
+    }
+
+    private void compress(byte[] data, int offset) {
+        for (int t = 0; t < 16; t++) {
+            int i = offset + 4 * t;
+            w[t] = (data[i] & 0xff) << 24 | (data[i + 1] & 0xff) << 16 | (data[i + 2] & 0xff) << 8 | (data[i + 3] & 0xff);
+        }
+        for (int t = 16; t < 64; t++) {
+            int s0 = Integer.rotateRight(w[t - 15], 7) ^ Integer.rotateRight(w[t - 15], 18) ^ (w[t - 15] >>> 3);
+            int s1 = Integer.rotateRight(w[t - 2], 17) ^ Integer.rotateRight(w[t - 2], 19) ^ (w[t - 2] >>> 10);
+            w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+        }
+        int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+        for (int t = 0; t < 64; t++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = hh + s1 + ch + K[t] + w[t];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+            hh = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += hh;
+    }
+}
@@ -0,0 +1,466 @@
+package com.pcd.imagemanagment.service;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOptions;
+import com.pcd.imagemanagment.model.Image;
+import com.pcd.imagemanagment.model.ResumableUploadStatus;
+import com.pcd.imagemanagment.model.UploadSession;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Resumable uploads for files too large to send in one request: create a session, PUT the bytes in
+ * pieces at increasing offsets, then complete it.
+ * <p>
+ * Each PUT writes its bytes straight into GridFS chunk documents of the session's file and advances
+ * the committed offset; an interrupted PUT is simply repeated from the last committed offset. The
+ * SHA-256 is carried forward in the session between PUTs, which is why every PUT but the last has to
+ * be a whole number of chunks: the hash state is then always on a block boundary and can be saved.
+ * Completing writes the GridFS file document and reads back only the header for metadata, the
+ * content is never read again; the image gets the upload's ID. Sessions not touched for
+ * {@code expire-after-ms} are discarded with their chunks by {@link ResumableUploadSweeper}.
+ */
+@Service
+public class ResumableUploadService {
+    private static final Logger log = LoggerFactory.getLogger(ResumableUploadService.class);
+
+    // GridFS chunk size of resumable uploads, and the granularity of their PUTs; a multiple of the SHA-256 block
+    public static final int CHUNK_BYTES = 256 * 1024;
+
+    // Server code for a duplicate key
+    private static final int DUPLICATE_KEY = 11000;
+
+    /**
+     * Unknown upload, or one that expired or was aborted (404).
+     */
+    public static class UploadNotFoundException extends RuntimeException {
+        public UploadNotFoundException(String uploadId) {
+            super("No upload session with ID: " + uploadId);
+        }
+    }
+
+    /**
+     * The request does not fit the state of the upload, e.g. a PUT at a stale offset (409). Carries
+     * that state so the client can resume from it.
+     */
+    public static class UploadConflictException extends RuntimeException {
+        private final ResumableUploadStatus current;
+
+        public UploadConflictException(String message, ResumableUploadStatus current) {
+            super(message);
+            this.current = current;
+        }
+
+        public ResumableUploadStatus getCurrent() {
+            return current;
+        }
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final ImageStorageService imageStorageService;
+    private final ImageBlobStore blobStore;
+    private final MongoCollection<Document> chunks;
+    private final MongoCollection<Document> files;
+
+    @Value("${image.resumable.max-bytes:4294967296}")
+    private long maxBytes;
+
+    @Value("${image.resumable.expire-after-ms:86400000}")
+    private long expireAfterMs;
+
+    // A PUT renews it while it streams; a writer that stalls longer than this loses the session to a retry
+    @Value("${image.resumable.write-lease-ms:120000}")
+    private long writeLeaseMs;
+
+    @Autowired
+    public ResumableUploadService(MongoTemplate mongoTemplate, ImageStorageService imageStorageService, ImageBlobStore blobStore,
+                                  @Value("${spring.data.mongodb.gridfs.bucket:fs}") String bucket) {
+        this.mongoTemplate = mongoTemplate;
+        this.imageStorageService = imageStorageService;
+        this.blobStore = blobStore;
+        this.chunks = mongoTemplate.getCollection(bucket + ".chunks");
+        this.files = mongoTemplate.getCollection(bucket + ".files");
+    }
+
+    // For tests, which construct the service without property injection
+    ResumableUploadService configure(long maxBytes, long expireAfterMs, long writeLeaseMs) {
+        this.maxBytes = maxBytes;
+        this.expireAfterMs = expireAfterMs;
+        this.writeLeaseMs = writeLeaseMs;
+        return this;
+    }
+
+    @PostConstruct
+    public void ensureChunkIndex() {
+        // The index GridFS itself creates on first use; chunks may be written here before any regular upload
+        try {
+            chunks.createIndex(Indexes.ascending("files_id", "n"), new IndexOptions().unique(true));
+        } catch (RuntimeException e) {
+            log.warn("Could not ensure the GridFS chunk index: {}", e.getMessage());
+        }
+    }
+
+    public ResumableUploadStatus create(String caseId, String filename, String contentType, long length,
+                                        String uploaderId, String uploaderRole) {
+        if (filename == null || filename.isBlank()) {
+            throw new IllegalArgumentException("A filename is required");
+        }
+        if (length <= 0 || length > maxBytes) {
+            throw new IllegalArgumentException("Length must be between 1 and " + maxBytes + " bytes");
+        }
+        Instant now = Instant.now();
+        UploadSession session = new UploadSession();
+        session.setCaseId(caseId);
+        session.setFilename(filename);
+        session.setContentType(contentType != null ? contentType : MediaTypeFactory.getMediaType(filename)
+                .map(MediaType::toString)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM_VALUE));
+        session.setUploaderId(uploaderId);
+        session.setUploaderRole(uploaderRole);
+        session.setLength(length);
+        session.setChunkSize(CHUNK_BYTES);
+        session.setFileId(new ObjectId());
+        session.setHashState(ResumableSha256.start().state());
+        session.setStatus(UploadSession.Status.OPEN);
+        session.setCreatedAt(now);
+        session.setExpiresAt(now.plusMillis(expireAfterMs));
+        UploadSession saved = mongoTemplate.insert(session);
+        log.info("Opened resumable upload {} of {} ({} bytes) for case ID: {} by User ID: {}",
+                saved.getId(), filename, length, caseId, uploaderId);
+        return ResumableUploadStatus.of(saved);
+    }
+
+    public ResumableUploadStatus status(String uploadId) {
+        return ResumableUploadStatus.of(findLive(uploadId));
+    }
+
+    /**
+     * Appends the bytes of {@code body} at {@code offset}, which has to be the committed offset of the
+     * upload. Everything up to a short (final) chunk is written before the offset moves on, so a
+     * failed PUT leaves the upload where it was and can be retried as is.
+     */
+    public ResumableUploadStatus append(String uploadId, long offset, InputStream body) throws IOException {
+        String lease = new ObjectId().toHexString();
+        Instant now = Instant.now();
+        Query writable = Query.query(Criteria.where("_id").is(uploadId)
+                .and("status").is(UploadSession.Status.OPEN)
+                .and("expiresAt").gt(now)
+                .and("offset").is(offset)
+                .orOperator(noActiveWriter(now)));
+        UploadSession session = mongoTemplate.findAndModify(writable,
+                new Update().set("writeLease", lease).set("writeLeaseUntil", now.plusMillis(writeLeaseMs)),
+                FindAndModifyOptions.options().returnNew(true), UploadSession.class);
+        if (session == null) {
+            throw notWritable(uploadId, offset);
+        }
+
+        try {
+            long committed = appendChunks(session, lease, body);
+            Update commit = new Update()
+                    .set("offset", committed)
+                    .set("expiresAt", Instant.now().plusMillis(expireAfterMs))
+                    .unset("writeLease")
+                    .unset("writeLeaseUntil");
+            UploadSession updated = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("_id").is(uploadId).and("writeLease").is(lease)),
+                    withHash(commit, session, committed), FindAndModifyOptions.options().returnNew(true), UploadSession.class);
+            if (updated == null) {
+                throw new UploadConflictException("Write lease expired before the chunk was committed", status(uploadId));
+            }
+            log.debug("Resumable upload {} at {} of {} bytes", uploadId, committed, session.getLength());
+            return ResumableUploadStatus.of(updated);
+        } catch (IOException | RuntimeException e) {
+            // The chunks written so far are overwritten by the retry, which starts from the old offset
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(uploadId).and("writeLease").is(lease)),
+                    new Update().unset("writeLease").unset("writeLeaseUntil"), UploadSession.class);
+            throw e;
+        }
+    }
+
+    // Streams the body into chunk documents from the session's offset on; returns the new offset
+    private long appendChunks(UploadSession session, String lease, InputStream body) throws IOException {
+        int chunkSize = session.getChunkSize();
+        long position = session.getOffset();
+        if (position == session.getLength()) {
+            throw new UploadConflictException("Upload has all its bytes, it only needs completing", ResumableUploadStatus.of(session));
+        }
+        int n = (int) (position / chunkSize);
+        // Chunks of an earlier attempt that never committed
+        chunks.deleteMany(Filters.and(Filters.eq("files_id", session.getFileId()), Filters.gte("n", n)));
+
+        ResumableSha256 hash = ResumableSha256.resume(session.getHashState(), position);
+        long renewAt = System.currentTimeMillis() + writeLeaseMs / 2;
+        while (true) {
+            byte[] data = body.readNBytes(chunkSize);
+            if (data.length == 0) {
+                break;
+            }
+            if (position + data.length > session.getLength()) {
+                throw new IllegalArgumentException("Body runs past the declared length of " + session.getLength() + " bytes");
+            }
+            if (data.length < chunkSize && position + data.length < session.getLength()) {
+                throw new IllegalArgumentException("Every PUT but the last must be a multiple of " + chunkSize + " bytes");
+            }
+            hash.update(data);
+            try {
+                chunks.insertOne(new Document("files_id", session.getFileId()).append("n", n).append("data", new Binary(data)));
+            } catch (MongoWriteException e) {
+                if (e.getError().getCode() == DUPLICATE_KEY) {
+                    throw new UploadConflictException("Another write to this upload is in progress", status(session.getId()));
+                }
+                throw e;
+            }
+            n++;
+            position += data.length;
+            if (System.currentTimeMillis() >= renewAt) {
+                renewLease(session.getId(), lease);
+                renewAt = System.currentTimeMillis() + writeLeaseMs / 2;
+            }
+        }
+        session.setSha256(position == session.getLength() ? hash.hex() : null);
+        session.setHashState(position == session.getLength() ? null : hash.state());
+        return position;
+    }
+
+    private static Update withHash(Update commit, UploadSession session, long committed) {
+        if (committed == session.getLength()) {
+            return commit.set("sha256", session.getSha256()).unset("hashState");
+        }
+        return commit.set("hashState", session.getHashState());
+    }
+
+    private void renewLease(String uploadId, String lease) {
+        boolean renewed = mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(uploadId).and("writeLease").is(lease)),
+                Update.update("writeLeaseUntil", Instant.now().plusMillis(writeLeaseMs)), UploadSession.class).getMatchedCount() > 0;
+        if (!renewed) {
+            throw new UploadConflictException("Write lease lost to another writer", status(uploadId));
+        }
+    }
+
+    // Why a session could not be locked for an append at this offset
+    private RuntimeException notWritable(String uploadId, long offset) {
+        UploadSession session = findLive(uploadId);
+        ResumableUploadStatus current = ResumableUploadStatus.of(session);
+        if (session.getStatus() != UploadSession.Status.OPEN) {
+            return new UploadConflictException("Upload is already " + session.getStatus().name().toLowerCase(), current);
+        }
+        if (session.getOffset() != offset) {
+            return new UploadConflictException("Upload continues at offset " + session.getOffset() + ", not " + offset, current);
+        }
+        return new UploadConflictException("Another write to this upload is in progress", current);
+    }
+
+    /**
+     * Turns a fully received upload into an image and returns its ID, which is the upload ID. Completing
+     * holds the session's lease as an append does, and each of its steps first checks whether an earlier
+     * attempt already got past it: if the completing node dies, a repeated complete takes over once the
+     * lease lapses and finishes the job, claiming the blob at most once. Repeating the call after it
+     * succeeded returns the same ID. If {@code expectedSha256} is given and differs from the hash of the
+     * received bytes, the upload is discarded.
+     */
+    public String complete(String uploadId, String expectedSha256, String ipAddress) throws IOException {
+        String lease = new ObjectId().toHexString();
+        Instant now = Instant.now();
+        Query completable = Query.query(Criteria.where("_id").is(uploadId)
+                .and("sha256").ne(null)
+                .andOperator(
+                        new Criteria().orOperator(
+                                Criteria.where("status").is(UploadSession.Status.OPEN).and("expiresAt").gt(now),
+                                Criteria.where("status").is(UploadSession.Status.COMPLETING)),
+                        new Criteria().orOperator(noActiveWriter(now))));
+        Update lock = new Update()
+                .set("status", UploadSession.Status.COMPLETING)
+                .set("writeLease", lease)
+                .set("writeLeaseUntil", now.plusMillis(writeLeaseMs))
+                .set("expiresAt", now.plusMillis(expireAfterMs));
+        UploadSession session = mongoTemplate.findAndModify(completable, lock,
+                FindAndModifyOptions.options().returnNew(true), UploadSession.class);
+        if (session == null) {
+            UploadSession current = findLive(uploadId);
+            if (current.getStatus() == UploadSession.Status.COMPLETED) {
+                return current.getImageId();
+            }
+            if (current.getStatus() == UploadSession.Status.COMPLETING) {
+                throw new UploadConflictException("Upload is being completed", ResumableUploadStatus.of(current));
+            }
+            if (current.getSha256() != null) {
+                throw new UploadConflictException("Another write to this upload is in progress", ResumableUploadStatus.of(current));
+            }
+            throw new UploadConflictException("Upload has " + current.getOffset() + " of " + current.getLength() + " bytes",
+                    ResumableUploadStatus.of(current));
+        }
+
+        try {
+            storeAsImage(session, lease, expectedSha256, ipAddress);
+        } catch (IOException | RuntimeException e) {
+            // Left COMPLETING: the next complete picks it up right away instead of waiting for the lease
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(uploadId).and("writeLease").is(lease)),
+                    new Update().unset("writeLease").unset("writeLeaseUntil"), UploadSession.class);
+            throw e;
+        }
+        // Kept until it expires so a repeated complete gets the same image
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(uploadId)), new Update()
+                .set("status", UploadSession.Status.COMPLETED)
+                .set("imageId", uploadId)
+                .unset("writeLease")
+                .unset("writeLeaseUntil"), UploadSession.class);
+        log.info("Completed resumable upload {} as image ID: {} (SHA-256 {})", uploadId, uploadId, session.getSha256());
+        return uploadId;
+    }
+
+    // File document, blob claim, image record, settled claim; each skipped if an earlier attempt got past it
+    private void storeAsImage(UploadSession session, String lease, String expectedSha256, String ipAddress) throws IOException {
+        String uploadId = session.getId();
+        if (!imageExists(uploadId)) {
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(session.getSha256())) {
+                discard(session);
+                throw new IllegalArgumentException("Received content has SHA-256 " + session.getSha256()
+                        + ", not " + expectedSha256 + "; the upload was discarded");
+            }
+            // Held from an attempt that died after claiming; the chunks may be gone then, dropped as a duplicate
+            String blobFileId = blobStore.claimedFile(session.getSha256(), uploadId).orElse(null);
+            if (blobFileId == null) {
+                writeFileDocument(session);
+                blobFileId = blobStore.claim(session.getSha256(), session.getFileId(), session.getLength(), uploadId);
+            }
+            // A completion that took over meanwhile stores the image itself
+            renewLease(uploadId, lease);
+            imageStorageService.storeUploadedFile(uploadId, session.getFilename(), session.getContentType(), blobFileId,
+                    session.getLength(), session.getSha256(), session.getCaseId(), session.getUploaderId(), session.getUploaderRole(),
+                    ipAddress, "Resumable upload via API");
+        }
+        blobStore.settleClaim(session.getSha256(), uploadId);
+    }
+
+    private boolean imageExists(String imageId) {
+        return mongoTemplate.exists(Query.query(Criteria.where("_id").is(imageId)), Image.class);
+    }
+
+    // Only the file document is written; the chunks are already in place and are counted, not read
+    private void writeFileDocument(UploadSession session) {
+        long expectedChunks = (session.getLength() + session.getChunkSize() - 1) / session.getChunkSize();
+        // A writer that lost its lease may have left chunks past the end
+        chunks.deleteMany(Filters.and(Filters.eq("files_id", session.getFileId()), Filters.gte("n", expectedChunks)));
+        long stored = chunks.countDocuments(Filters.eq("files_id", session.getFileId()));
+        if (stored != expectedChunks) {
+            throw new IllegalStateException("Upload " + session.getId() + " has " + stored + " of " + expectedChunks
+                    + " chunks stored; abort it and upload again");
+        }
+        Document file = new Document("_id", session.getFileId())
+                .append("length", session.getLength())
+                .append("chunkSize", session.getChunkSize())
+                .append("uploadDate", new Date())
+                .append("filename", session.getFilename())
+                // Content only, as for regular uploads: the file may end up shared by images of other cases
+                .append("metadata", new Document("_contentType", session.getContentType()));
+        files.replaceOne(Filters.eq("_id", session.getFileId()), file, new ReplaceOptions().upsert(true));
+    }
+
+    public void abort(String uploadId) {
+        Query abortable = Query.query(Criteria.where("_id").is(uploadId).and("status").is(UploadSession.Status.OPEN)
+                .orOperator(noActiveWriter(Instant.now())));
+        UploadSession session = mongoTemplate.findAndRemove(abortable, UploadSession.class);
+        if (session == null) {
+            UploadSession current = findLive(uploadId);
+            throw new UploadConflictException(current.getStatus() == UploadSession.Status.OPEN
+                    ? "Another write to this upload is in progress"
+                    : "Upload is already " + current.getStatus().name().toLowerCase(), ResumableUploadStatus.of(current));
+        }
+        deleteChunks(session);
+        log.info("Aborted resumable upload {} at {} of {} bytes", uploadId, session.getOffset(), session.getLength());
+    }
+
+    /**
+     * Removes sessions past their expiry. Open ones lose their chunks; completed ones only the session,
+     * their file belongs to the image now. A session stuck completing has its blob claim handed to the
+     * image if it got as far as storing one, and otherwise given back along with its chunks.
+     *
+     * @return the number of sessions removed
+     */
+    public int sweepExpired(int batchSize) {
+        Instant now = Instant.now();
+        Query expired = Query.query(Criteria.where("expiresAt").lt(now)).limit(batchSize);
+        expired.fields().include("_id");
+        List<UploadSession> candidates = mongoTemplate.find(expired, UploadSession.class);
+        int removed = 0;
+        for (UploadSession candidate : candidates) {
+            // Guarded again: an append or complete may have moved the expiry since the query, or still be writing
+            UploadSession session = mongoTemplate.findAndRemove(Query.query(Criteria.where("_id").is(candidate.getId())
+                    .and("expiresAt").lt(now)
+                    .orOperator(noActiveWriter(now))), UploadSession.class);
+            if (session == null) {
+                continue;
+            }
+            removed++;
+            if (session.getStatus() == UploadSession.Status.COMPLETED) {
+                continue;
+            }
+            if (session.getStatus() == UploadSession.Status.COMPLETING && imageExists(session.getId())) {
+                blobStore.settleClaim(session.getSha256(), session.getId());
+                log.info("Expired resumable upload {} had already been stored as image ID: {}", session.getId(), session.getId());
+                continue;
+            }
+            dropContent(session);
+            log.info("Discarded expired resumable upload {} of {} at {} of {} bytes",
+                    session.getId(), session.getFilename(), session.getOffset(), session.getLength());
+        }
+        return removed;
+    }
+
+    private static Criteria[] noActiveWriter(Instant now) {
+        return new Criteria[]{Criteria.where("writeLeaseUntil").is(null), Criteria.where("writeLeaseUntil").lt(now)};
+    }
+
+    private void deleteChunks(UploadSession session) {
+        chunks.deleteMany(Filters.eq("files_id", session.getFileId()));
+        files.deleteOne(Filters.eq("_id", session.getFileId()));
+    }
+
+    private void discard(UploadSession session) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(session.getId())), UploadSession.class);
+        dropContent(session);
+    }
+
+    // Content of a session that never became an image: its blob claim if it took one, otherwise its chunks
+    private void dropContent(UploadSession session) {
+        if (session.getSha256() != null && blobStore.releaseClaim(session.getSha256(), session.getId())) {
+            return;
+        }
+        if (!blobStore.isBlobFile(session.getFileId().toString())) {
+            deleteChunks(session);
+        }
+    }
+
+    // Expired sessions count as gone even before the sweeper gets to them
+    private UploadSession findLive(String uploadId) {
+        UploadSession session = mongoTemplate.findById(uploadId, UploadSession.class);
+        if (session == null || (session.getStatus() == UploadSession.Status.OPEN && session.getExpiresAt().isBefore(Instant.now()))) {
+            throw new UploadNotFoundException(uploadId);
+        }
+        return session;
+    }
+}
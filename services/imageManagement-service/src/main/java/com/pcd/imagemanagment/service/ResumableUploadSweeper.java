@@ -0,0 +1,46 @@
+package com.pcd.imagemanagment.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Discards abandoned resumable uploads and their chunks. Nodes may overlap: every removal is a
+ * guarded findAndRemove, so a session is only ever collected by one of them.
+ */
+@Component
+@ConditionalOnProperty(name = "image.resumable.sweep.enabled", havingValue = "true", matchIfMissing = true)
+public class ResumableUploadSweeper {
+    private static final Logger log = LoggerFactory.getLogger(ResumableUploadSweeper.class);
+
+    private final ResumableUploadService uploadService;
+
+    @Value("${image.resumable.sweep.batch-size:100}")
+    private int batchSize;
+
+    @Autowired
+    public ResumableUploadSweeper(ResumableUploadService uploadService) {
+        this.uploadService = uploadService;
+    }
+
+    @Scheduled(fixedDelayString = "${image.resumable.sweep.interval-ms:600000}")
+    public void sweep() {
+        try {
+            int removed;
+            int total = 0;
+            do {
+                removed = uploadService.sweepExpired(batchSize);
+                total += removed;
+            } while (removed == batchSize);
+            if (total > 0) {
+                log.info("Removed {} expired resumable upload session(s)", total);
+            }
+        } catch (Exception e) {
+            log.error("Sweep of expired resumable uploads failed", e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.pcd.imagemanagment.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Passes an upload through unchanged while it is consumed (by the GridFS store), updating a
+ * SHA-256 digest and keeping a copy of the first {@code headerLimit} bytes. Dimensions and EXIF
+ * are parsed from that header afterwards, so the upload is read exactly once.
+ */
+public class UploadTeeInputStream extends FilterInputStream {
+
+    private final MessageDigest digest;
+    private final byte[] header;
+    private int headerLength;
+    private long bytesRead;
+
+    public UploadTeeInputStream(InputStream in, int headerLimit) throws NoSuchAlgorithmException {
+        super(in);
+        this.digest = MessageDigest.getInstance("SHA-256");
+        this.header = new byte[Math.max(0, headerLimit)];
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            byte value = (byte) b;
+            digest.update(value);
+            if (headerLength < header.length) {
+                header[headerLength++] = value;
+            }
+            bytesRead++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = super.read(buffer, offset, length);
+        if (n > 0) {
+            digest.update(buffer, offset, n);
+            int copied = Math.min(n, header.length - headerLength);
+            if (copied > 0) {
+                System.arraycopy(buffer, offset, header, headerLength, copied);
+                headerLength += copied;
+            }
+            bytesRead += n;
+        }
+        return n;
+    }
+
+    // Skipped bytes would be missing from the hash, so skipping reads through them instead
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] discard = new byte[(int) Math.min(8192, Math.max(0, n))];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(discard, 0, (int) Math.min(discard.length, n - skipped));
+            if (r < 0) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Hex SHA-256 of everything read so far; call once the stream has been fully consumed.
+     */
+    public String sha256Hex() {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public byte[] header() {
+        return Arrays.copyOf(header, headerLength);
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+}
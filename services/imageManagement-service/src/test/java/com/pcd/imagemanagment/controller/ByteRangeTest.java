@@ -0,0 +1,100 @@
+package com.pcd.imagemanagment.controller;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteRangeTest {
+
+    private static final long LENGTH = 1000;
+
+    @Test
+    void parsesSingleRangesAtTheEdges() {
+        assertEquals(List.of(new ByteRange(0, 0)), parse("bytes=0-0"));
+        assertEquals(List.of(new ByteRange(999, 999)), parse("bytes=999-999"));
+        assertEquals(List.of(new ByteRange(999, 999)), parse("bytes=-1"));
+        assertEquals(List.of(new ByteRange(500, 999)), parse("bytes=500-"));
+        // Clipped to the file rather than rejected
+        assertEquals(List.of(new ByteRange(900, 999)), parse("bytes=900-5000"));
+        assertEquals(List.of(new ByteRange(0, 999)), parse("bytes=-5000"));
+        assertEquals(List.of(new ByteRange(10, 19)), parse(" Bytes=10-19 "));
+    }
+
+    @Test
+    void coalescesOverlappingAndAdjacentRanges() {
+        assertEquals(List.of(new ByteRange(0, 29)), parse("bytes=10-29,0-9"));
+        assertEquals(List.of(new ByteRange(0, 49), new ByteRange(990, 999)), parse("bytes=0-20,-10,15-49"));
+        assertEquals(List.of(new ByteRange(0, 0), new ByteRange(2, 2)), parse("bytes=0-0, ,2-2"));
+    }
+
+    @Test
+    void dropsUnsatisfiableRangesButKeepsTheRest() {
+        assertEquals(List.of(new ByteRange(0, 9)), parse("bytes=0-9,1000-1010,-0"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"bytes=1000-", "bytes=1000-2000", "bytes=-0", "bytes=5000-,-0"})
+    void rejectsRangesOutsideTheFile(String header) {
+        assertThrows(ByteRange.NotSatisfiableException.class, () -> parse(header));
+    }
+
+    @Test
+    void emptyFileSatisfiesNoRange() {
+        assertThrows(ByteRange.NotSatisfiableException.class, () -> ByteRange.parse("bytes=0-", 0, 16));
+        assertThrows(ByteRange.NotSatisfiableException.class, () -> ByteRange.parse("bytes=-10", 0, 16));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "items=0-10", "bytes=", "bytes=,", "bytes=10", "bytes=20-10", "bytes=a-b",
+            "bytes=-", "bytes=+5-10", "bytes=0--5", "bytes=99999999999999999999-"})
+    void ignoresMalformedHeaders(String header) {
+        assertEquals(List.of(), parse(header));
+    }
+
+    @Test
+    void ignoresTooManyRanges() {
+        assertEquals(List.of(), ByteRange.parse("bytes=0-0,2-2,4-4", LENGTH, 2));
+        assertEquals(2, ByteRange.parse("bytes=0-0,2-2", LENGTH, 2).size());
+        assertEquals(List.of(), parse(null));
+    }
+
+    @Test
+    void multipartBodyMatchesDeclaredLength() throws IOException {
+        byte[] content = new byte[(int) LENGTH];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        List<ByteRange> ranges = parse("bytes=0-9,500-509,-5");
+        MultipartByteRanges body = new MultipartByteRanges(ranges, "image/jpeg", LENGTH,
+                (offset, count) -> new ByteArrayInputStream(content, (int) offset, (int) count));
+
+        byte[] written;
+        try (InputStream in = body.stream()) {
+            written = in.readAllBytes();
+        }
+        assertEquals(body.contentLength(), written.length);
+
+        String boundary = body.mediaType().getParameter("boundary");
+        String text = new String(written, StandardCharsets.ISO_8859_1);
+        assertTrue(text.startsWith("--" + boundary + "\r\n"));
+        assertTrue(text.endsWith("\r\n--" + boundary + "--\r\n"));
+        assertTrue(text.contains("Content-Range: bytes 500-509/1000\r\n\r\n"));
+        int data = text.indexOf("Content-Range: bytes 995-999/1000\r\n\r\n") + "Content-Range: bytes 995-999/1000\r\n\r\n".length();
+        assertEquals(Arrays.toString(Arrays.copyOfRange(content, 995, 1000)), Arrays.toString(Arrays.copyOfRange(written, data, data + 5)));
+    }
+
+    private static List<ByteRange> parse(String header) {
+        return ByteRange.parse(header, LENGTH, 16);
+    }
+}
@@ -0,0 +1,42 @@
+package com.pcd.imagemanagment.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnalysisStatusTransitionsTest {
+
+    @Test
+    void allowsTheAnalysisLifecycle() {
+        assertTrue(AnalysisStatusTransitions.isAllowed("PENDING", "ANALYZING"));
+        assertTrue(AnalysisStatusTransitions.isAllowed("ANALYZING", "AUTHENTIC"));
+        assertTrue(AnalysisStatusTransitions.isAllowed("ANALYZING", "FALSIFIED"));
+        assertTrue(AnalysisStatusTransitions.isAllowed("ANALYZING", "ANALYSIS_RETRY_SCHEDULED"));
+        assertTrue(AnalysisStatusTransitions.isAllowed("ANALYSIS_RETRY_SCHEDULED", "ANALYZING"));
+        // A failure reported before the worker got to set ANALYZING
+        assertTrue(AnalysisStatusTransitions.isAllowed("PENDING", "ANALYSIS_FAILED"));
+        // Re-analysis of an image that already has a verdict
+        assertTrue(AnalysisStatusTransitions.isAllowed("AUTHENTIC", "ANALYZING"));
+    }
+
+    @Test
+    void rejectsStaleAndIllegalTransitions() {
+        // A late report from a superseded worker must not replace a verdict
+        assertFalse(AnalysisStatusTransitions.isAllowed("AUTHENTIC", "ANALYSIS_FAILED"));
+        assertFalse(AnalysisStatusTransitions.isAllowed("FALSIFIED", "AUTHENTIC"));
+        assertFalse(AnalysisStatusTransitions.isAllowed("PENDING", "AUTHENTIC"));
+        assertFalse(AnalysisStatusTransitions.isAllowed(null, "ANALYZING"));
+    }
+
+    @Test
+    void deletedIsNeitherSettableNorLeft() {
+        assertFalse(AnalysisStatusTransitions.isSettable("DELETED"));
+        assertFalse(AnalysisStatusTransitions.isSettable("COMPLETED"));
+        assertFalse(AnalysisStatusTransitions.isSettable(null));
+        for (String status : new String[]{"PENDING", "ANALYZING", "AUTHENTIC", "FALSIFIED", "ANALYSIS_FAILED", "ANALYSIS_RETRY_SCHEDULED"}) {
+            assertTrue(AnalysisStatusTransitions.isSettable(status));
+            assertFalse(AnalysisStatusTransitions.predecessorsOf(status).contains("DELETED"));
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.pcd.imagemanagment.service;
+
+import com.pcd.imagemanagment.model.BulkUploadResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkUploadServiceTest {
+
+    private BulkUploadService service;
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    private BulkUploadService start(int parallelism, int maxInFlight, long maxEntryBytes, int maxFiles) {
+        return start(parallelism, maxInFlight, 1024 * 1024, maxEntryBytes, maxFiles);
+    }
+
+    private BulkUploadService start(int parallelism, int maxInFlight, long maxInFlightBytes, long maxEntryBytes, int maxFiles) {
+        service = new BulkUploadService(null).configure(parallelism, maxInFlight, maxInFlightBytes, maxEntryBytes, maxFiles);
+        service.start();
+        return service;
+    }
+
+    @Test
+    void storesEveryFileOfTheArchiveInArchiveOrder() throws Exception {
+        start(4, 8, 1024, 100);
+        Map<String, String> stored = new ConcurrentHashMap<>();
+        Map<String, String> contentTypes = new ConcurrentHashMap<>();
+        List<BulkUploadResult> results = service.ingestArchive("case.zip", zip(
+                "a.jpg", "first",
+                "photos/", null,
+                "photos/b.png", "second",
+                "__MACOSX/photos/._b.png", "fork",
+                "photos/.DS_Store", "finder",
+                "c.tif", "third"), (filename, contentType, size, content, details) -> {
+            try (InputStream in = content.open()) {
+                String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                assertEquals(text.length(), size);
+                stored.put(filename, text);
+            }
+            contentTypes.put(filename, contentType);
+            return "id-" + filename;
+        });
+
+        assertEquals(List.of(
+                BulkUploadResult.stored("a.jpg", "id-a.jpg"),
+                BulkUploadResult.stored("photos/b.png", "id-photos/b.png"),
+                BulkUploadResult.stored("c.tif", "id-c.tif")), results);
+        assertEquals(Map.of("a.jpg", "first", "photos/b.png", "second", "c.tif", "third"), stored);
+        assertEquals("image/jpeg", contentTypes.get("a.jpg"));
+        assertEquals("image/png", contentTypes.get("photos/b.png"));
+    }
+
+    @Test
+    void reportsFailedAndOversizedFilesWithoutStoppingTheRest() throws Exception {
+        start(2, 4, 10, 100);
+        List<BulkUploadResult> results = service.ingestArchive("case.zip", zip(
+                "ok.jpg", "small",
+                "huge.jpg", "far more than ten bytes",
+                "broken.jpg", "boom",
+                "last.jpg", "small"), (filename, contentType, size, content, details) -> {
+            if (filename.equals("broken.jpg")) {
+                throw new IOException("GridFS unavailable");
+            }
+            return "id-" + filename;
+        });
+
+        assertEquals(4, results.size());
+        assertEquals("id-ok.jpg", results.get(0).imageId());
+        assertNull(results.get(1).imageId());
+        assertTrue(results.get(1).error().contains("Larger than 10 bytes"));
+        assertEquals(BulkUploadResult.failed("broken.jpg", "GridFS unavailable"), results.get(2));
+        assertEquals("id-last.jpg", results.get(3).imageId());
+    }
+
+    @Test
+    void keepsAtMostMaxInFlightFilesReadButNotStored() throws Exception {
+        start(8, 3, 1024, 1000);
+        AtomicInteger inProgress = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        String[] entries = new String[2 * 50];
+        for (int i = 0; i < 50; i++) {
+            entries[2 * i] = "img" + i + ".jpg";
+            entries[2 * i + 1] = "content " + i;
+        }
+        List<BulkUploadResult> results = service.ingestArchive("case.zip", zip(entries), (filename, contentType, size, content, details) -> {
+            peak.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            inProgress.decrementAndGet();
+            return "id-" + filename;
+        });
+
+        assertEquals(50, results.size());
+        assertTrue(results.stream().allMatch(result -> result.error() == null));
+        assertTrue(peak.get() <= 3, "peak " + peak.get());
+        assertTrue(peak.get() > 1, "files were not stored in parallel");
+    }
+
+    @Test
+    void keepsArchiveEntriesWithinTheByteBudget() throws Exception {
+        // Plenty of file permits, so only the byte budget holds entries back
+        start(8, 100, 10 * 1024, 4096, 1000);
+        AtomicLong heldBytes = new AtomicLong();
+        AtomicLong peak = new AtomicLong();
+        String[] entries = new String[2 * 30];
+        for (int i = 0; i < 30; i++) {
+            entries[2 * i] = "img" + i + ".jpg";
+            entries[2 * i + 1] = String.valueOf(i % 10).repeat(3000);
+        }
+        List<BulkUploadResult> results = service.ingestArchive("case.zip", zip(entries), (filename, contentType, size, content, details) -> {
+            peak.accumulateAndGet(heldBytes.addAndGet(size), Math::max);
+            Thread.sleep(5);
+            heldBytes.addAndGet(-size);
+            return "id-" + filename;
+        });
+
+        assertEquals(30, results.size());
+        assertTrue(results.stream().allMatch(result -> result.error() == null));
+        assertTrue(peak.get() <= 10 * 1024, "peak " + peak.get());
+        assertTrue(peak.get() > 3000, "files were not stored in parallel");
+    }
+
+    @Test
+    void lowersTheEntryLimitToTheByteBudget() throws Exception {
+        start(2, 4, 4096, 1024 * 1024, 100);
+        List<BulkUploadResult> results = service.ingestArchive("case.zip", zip(
+                "ok.jpg", "small",
+                "huge.jpg", "x".repeat(5000)),
+                (filename, contentType, size, content, details) -> "id-" + filename);
+
+        assertEquals("id-ok.jpg", results.get(0).imageId());
+        assertTrue(results.get(1).error().contains("Larger than 4096 bytes"), results.get(1).error());
+    }
+
+    @Test
+    void stopsReadingAtTheFileLimit() throws Exception {
+        start(2, 2, 1024, 2);
+        List<BulkUploadResult> results = service.ingestArchive("case.zip", zip(
+                "a.jpg", "1", "b.jpg", "2", "c.jpg", "3", "d.jpg", "4"),
+                (filename, contentType, size, content, details) -> "id-" + filename);
+
+        assertEquals(3, results.size());
+        assertEquals("case.zip", results.get(2).filename());
+        assertTrue(results.get(2).error().contains("More than 2 files"));
+    }
+
+    @Test
+    void rejectsInputThatIsNotAnArchive() throws Exception {
+        start(1, 1, 1024, 10);
+        List<BulkUploadResult> results = service.ingestArchive("notes.zip",
+                new ByteArrayInputStream("plain text".getBytes(StandardCharsets.UTF_8)),
+                (filename, contentType, size, content, details) -> "never");
+
+        assertEquals(List.of(BulkUploadResult.failed("notes.zip", "No files found in archive")), results);
+    }
+
+    @Test
+    void reportsEmptyPartsAndEntriesInsteadOfStoringThem() throws Exception {
+        start(2, 4, 1024, 100);
+        List<BulkUploadResult> results = service.ingestParts(List.of(
+                new MockMultipartFile("files", "empty.jpg", "image/jpeg", new byte[0]),
+                new MockMultipartFile("files", "photos.zip", "application/zip", zip(
+                        "blank.png", "",
+                        "b.png", "second").readAllBytes()),
+                new MockMultipartFile("files", "a.jpg", "image/jpeg", "first".getBytes(StandardCharsets.UTF_8))),
+                (filename, contentType, size, content, details) -> "id-" + filename);
+
+        assertEquals(List.of(
+                BulkUploadResult.failed("empty.jpg", BulkUploadService.EMPTY_FILE),
+                BulkUploadResult.failed("blank.png", BulkUploadService.EMPTY_FILE),
+                BulkUploadResult.stored("b.png", "id-b.png"),
+                BulkUploadResult.stored("a.jpg", "id-a.jpg")), results);
+    }
+
+    @Test
+    void reportsAnErrorFromAWorkerAsThatFileFailing() throws Exception {
+        start(2, 4, 1024, 100);
+        List<BulkUploadResult> results = service.ingestArchive("case.zip", zip(
+                "ok.jpg", "small",
+                "huge.tif", "decoded into too much memory",
+                "last.jpg", "small"), (filename, contentType, size, content, details) -> {
+            if (filename.equals("huge.tif")) {
+                throw new OutOfMemoryError("Java heap space");
+            }
+            return "id-" + filename;
+        });
+
+        assertEquals(List.of(
+                BulkUploadResult.stored("ok.jpg", "id-ok.jpg"),
+                BulkUploadResult.failed("huge.tif", "Java heap space"),
+                BulkUploadResult.stored("last.jpg", "id-last.jpg")), results);
+    }
+
+    // Pairs of entry name and content; null content for a folder
+    private static InputStream zip(String... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < entries.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(entries[i]));
+                if (entries[i + 1] != null) {
+                    zip.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+                }
+                zip.closeEntry();
+            }
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+}
@@ -0,0 +1,151 @@
+package com.pcd.imagemanagment.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Range reads over an in-memory chunk store laid out like GridFS: fixed-size chunks numbered from
+ * zero, the last one short.
+ */
+class ChunkRangeInputStreamTest {
+
+    private static final int CHUNK_SIZE = 64;
+    private static final byte[] CONTENT = new byte[CHUNK_SIZE * 10 + 17];
+
+    static {
+        new Random(7).nextBytes(CONTENT);
+    }
+
+    private final ConcurrentLinkedQueue<Integer> fetched = new ConcurrentLinkedQueue<>();
+
+    @Test
+    void readsRangesAroundChunkBoundaries() throws IOException {
+        long[][] ranges = {
+                {0, 1}, {0, CHUNK_SIZE}, {CHUNK_SIZE - 1, 2}, {CHUNK_SIZE, CHUNK_SIZE},
+                {CONTENT.length - 1, 1}, {CONTENT.length - 17, 17}, {CONTENT.length - 18, 18},
+                {0, CONTENT.length}, {100, 0}
+        };
+        for (long[] range : ranges) {
+            assertArrayEquals(slice(range[0], range[1]), read(range[0], range[1]),
+                    "Range at " + range[0] + " of " + range[1] + " bytes");
+        }
+    }
+
+    @Test
+    void fetchesOnlyTheChunksTheRangeCovers() throws IOException {
+        read(CHUNK_SIZE * 7 + 3, CHUNK_SIZE);
+        assertEquals(List.of(7, 8), new ArrayList<>(fetched));
+
+        fetched.clear();
+        read(CONTENT.length - 1, 1);
+        assertEquals(List.of(10), new ArrayList<>(fetched));
+    }
+
+    @Test
+    void fetchesNothingUntilTheFirstRead() throws IOException {
+        new ChunkRangeInputStream(this::chunks, CHUNK_SIZE, 0, CONTENT.length).close();
+        assertTrue(fetched.isEmpty());
+    }
+
+    @Test
+    void failsOnMissingOrTruncatedChunks() {
+        ChunkRangeInputStream.ChunkSource missing = (first, last) -> chunkList(first, last).stream()
+                .filter(chunk -> chunk.n() != 3).iterator();
+        assertThrows(IOException.class, () -> new ChunkRangeInputStream(missing, CHUNK_SIZE, 0, CONTENT.length).readAllBytes());
+
+        ChunkRangeInputStream.ChunkSource truncated = (first, last) -> chunkList(first, last).stream()
+                .map(chunk -> chunk.n() == 2 ? new ChunkRangeInputStream.Chunk(2, Arrays.copyOf(chunk.data(), 10)) : chunk)
+                .iterator();
+        assertThrows(IOException.class, () -> new ChunkRangeInputStream(truncated, CHUNK_SIZE, 0, CONTENT.length).readAllBytes());
+    }
+
+    @Test
+    void concurrentPartialReadersGetTheirOwnBytes() throws Exception {
+        int readers = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(readers);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                Random random = new Random(r);
+                Callable<Integer> reader = () -> {
+                    start.await();
+                    int checked = 0;
+                    for (int i = 0; i < 200; i++) {
+                        long offset = random.nextInt(CONTENT.length);
+                        long count = random.nextInt((int) (CONTENT.length - offset) + 1);
+                        // Small reads so the readers interleave mid-chunk
+                        byte[] actual;
+                        try (InputStream in = new ChunkRangeInputStream(this::chunks, CHUNK_SIZE, offset, count)) {
+                            actual = readInSteps(in, 1 + random.nextInt(13));
+                        }
+                        assertArrayEquals(slice(offset, count), actual, "Range at " + offset + " of " + count + " bytes");
+                        checked++;
+                    }
+                    return checked;
+                };
+                results.add(pool.submit(reader));
+            }
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            assertEquals(readers * 200, total);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Iterator<ChunkRangeInputStream.Chunk> chunks(int first, int last) {
+        return chunkList(first, last).iterator();
+    }
+
+    private List<ChunkRangeInputStream.Chunk> chunkList(int first, int last) {
+        return IntStream.rangeClosed(first, last)
+                .peek(fetched::add)
+                .mapToObj(n -> new ChunkRangeInputStream.Chunk(n, Arrays.copyOfRange(CONTENT,
+                        n * CHUNK_SIZE, Math.min(CONTENT.length, (n + 1) * CHUNK_SIZE))))
+                .toList();
+    }
+
+    private byte[] read(long offset, long count) throws IOException {
+        try (InputStream in = new ChunkRangeInputStream(this::chunks, CHUNK_SIZE, offset, count)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] readInSteps(InputStream in, int step) throws IOException {
+        byte[] buffer = new byte[step];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int n;
+        while ((n = in.read(buffer, 0, step)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] slice(long offset, long count) {
+        return Arrays.copyOfRange(CONTENT, (int) offset, (int) (offset + count));
+    }
+}
@@ -0,0 +1,299 @@
+package com.pcd.imagemanagment.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pcd.imagemanagment.model.CustodyEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The buffer's delivery contract is at least once: every queued event reaches the sink, possibly
+ * more than once after a failure, and always with the ID it was given when queued, so the sink can
+ * drop repeats. These tests check the contract through the ID sets the sink receives.
+ */
+class CustodyEventBufferTest {
+
+    @TempDir
+    Path spillDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RecordingSink sink = new RecordingSink();
+    private final List<CustodyEventBuffer> started = new ArrayList<>();
+
+    @AfterEach
+    void stopBuffers() throws InterruptedException {
+        for (CustodyEventBuffer buffer : started) {
+            buffer.shutdown();
+        }
+    }
+
+    @Test
+    void flushesFullBatchesWithoutWaitingForTheInterval() throws Exception {
+        CustodyEventBuffer buffer = start(sink, 10_000, 10, 60_000);
+        List<String> ids = enqueue(buffer, 20);
+
+        awaitTrue(() -> sink.delivered().size() == 20);
+        assertEquals(Set.copyOf(ids), sink.delivered());
+        assertTrue(sink.batchSizes().stream().allMatch(size -> size <= 10));
+    }
+
+    @Test
+    void flushesPartialBatchesAfterTheInterval() throws Exception {
+        CustodyEventBuffer buffer = start(sink, 10_000, 500, 50);
+        List<String> ids = enqueue(buffer, 3);
+
+        awaitTrue(() -> sink.delivered().size() == 3);
+        assertEquals(Set.copyOf(ids), sink.delivered());
+        assertTrue(meterRegistry.get("custody.buffer.flush.latency").timer().count() >= 1);
+        assertEquals(0.0, meterRegistry.get("custody.buffer.depth").gauge().value());
+    }
+
+    @Test
+    void enqueueDoesNotWaitForTheDatabase() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink slow = new RecordingSink() {
+            @Override
+            public void insertAll(List<CustodyEvent> events) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.insertAll(events);
+            }
+        };
+        CustodyEventBuffer buffer = start(slow, 10_000, 1, 10);
+
+        long begin = System.nanoTime();
+        List<String> ids = enqueue(buffer, 50);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 1_000);
+        assertTrue(slow.delivered().isEmpty());
+
+        release.countDown();
+        awaitTrue(() -> slow.delivered().size() == 50);
+        assertEquals(Set.copyOf(ids), slow.delivered());
+    }
+
+    @Test
+    void shutdownDrainsTheQueue() throws Exception {
+        CustodyEventBuffer buffer = start(sink, 10_000, 1_000, 60_000);
+        List<String> ids = enqueue(buffer, 250);
+
+        buffer.shutdown();
+        started.remove(buffer);
+
+        assertEquals(Set.copyOf(ids), sink.delivered());
+    }
+
+    @Test
+    void failedBatchesAreSpilledAndReplayedOnceTheDatabaseIsBack() throws Exception {
+        sink.failing.set(true);
+        CustodyEventBuffer buffer = start(sink, 10_000, 5, 20);
+        List<String> lost = enqueue(buffer, 12);
+
+        awaitTrue(() -> meterRegistry.get("custody.buffer.spilled").counter().count() == 12.0);
+        assertEquals(12, spillLines());
+        assertTrue(sink.delivered().isEmpty());
+
+        // The next successful flush replays the spill file, then removes it
+        sink.failing.set(false);
+        List<String> later = enqueue(buffer, 1);
+        awaitTrue(() -> sink.delivered().size() == 13);
+
+        Set<String> expected = new HashSet<>(lost);
+        expected.addAll(later);
+        assertEquals(expected, sink.delivered());
+        awaitTrue(() -> !Files.exists(spillDir.resolve("custody-events.spill.jsonl")));
+    }
+
+    @Test
+    void spilledEventsSurviveARestart() throws Exception {
+        sink.failing.set(true);
+        CustodyEventBuffer first = start(sink, 10_000, 100, 20);
+        List<String> ids = enqueue(first, 7);
+        first.shutdown();
+        started.remove(first);
+        assertEquals(7, spillLines());
+
+        // A new instance, as after a restart, delivers them before accepting new events
+        sink.failing.set(false);
+        start(sink, 10_000, 100, 20);
+
+        assertEquals(Set.copyOf(ids), sink.delivered());
+    }
+
+    @Test
+    void replayAfterAPartialInsertDeliversAtLeastOnceWithStableIds() throws Exception {
+        // The sink stores the first event of each batch and then fails, as on a dropped connection mid-insert
+        RecordingSink partial = new RecordingSink() {
+            @Override
+            public void insertAll(List<CustodyEvent> events) {
+                if (failing.get()) {
+                    received.add(events.get(0).getId());
+                    throw new IllegalStateException("connection reset");
+                }
+                super.insertAll(events);
+            }
+        };
+        partial.failing.set(true);
+        CustodyEventBuffer buffer = start(partial, 10_000, 4, 20);
+        List<String> ids = enqueue(buffer, 4);
+        awaitTrue(() -> spillLines() == 4);
+
+        partial.failing.set(false);
+        ids.addAll(enqueue(buffer, 1));
+        awaitTrue(() -> partial.delivered().size() == 5);
+
+        // Every event arrived, some of them twice, and the repeats carry the same ID
+        assertEquals(Set.copyOf(ids), partial.delivered());
+        assertTrue(partial.received.size() > ids.size());
+    }
+
+    @Test
+    void fullQueueSpillsInsteadOfDropping() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink blocked = new RecordingSink() {
+            @Override
+            public void insertAll(List<CustodyEvent> events) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.insertAll(events);
+            }
+        };
+        CustodyEventBuffer buffer = start(blocked, 5, 1, 10);
+        List<String> ids = enqueue(buffer, 30);
+        assertTrue(spillLines() > 0);
+
+        release.countDown();
+        awaitTrue(() -> blocked.delivered().containsAll(ids));
+    }
+
+    @Test
+    void replayDoesNotHoldUpEnqueuesThatSpill() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Set<String> spilled = ConcurrentHashMap.newKeySet();
+        // Stalls on the replay of spilled events, as a slow database would
+        RecordingSink stallingReplay = new RecordingSink() {
+            @Override
+            public void insertAll(List<CustodyEvent> events) {
+                if (!failing.get() && events.stream().anyMatch(event -> spilled.contains(event.getId()))) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.insertAll(events);
+            }
+        };
+        stallingReplay.failing.set(true);
+        CustodyEventBuffer buffer = start(stallingReplay, 1, 1, 10);
+        spilled.addAll(enqueue(buffer, 3));
+        awaitTrue(() -> spillLines() == 3);
+
+        stallingReplay.failing.set(false);
+        List<String> ids = enqueue(buffer, 1);
+        // Flushed, and the replay has taken the spill file and is now stuck inserting it
+        awaitTrue(() -> stallingReplay.delivered().containsAll(ids) && spillLines() == 0);
+        try {
+            long begin = System.nanoTime();
+            // The queue holds one, the rest spill while the replay is still running
+            ids.addAll(enqueue(buffer, 5));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 1_000);
+            assertTrue(spillLines() > 0);
+        } finally {
+            release.countDown();
+        }
+
+        Set<String> expected = new HashSet<>(ids);
+        expected.addAll(spilled);
+        awaitTrue(() -> stallingReplay.delivered().containsAll(expected));
+    }
+
+    private CustodyEventBuffer start(CustodyEventBuffer.Sink target, int capacity, int batchSize, long flushIntervalMs) throws Exception {
+        CustodyEventBuffer buffer = new CustodyEventBuffer(target, objectMapper, meterRegistry)
+                .configure(capacity, batchSize, flushIntervalMs, spillDir);
+        buffer.start();
+        started.add(buffer);
+        return buffer;
+    }
+
+    private static List<String> enqueue(CustodyEventBuffer buffer, int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CustodyEvent event = new CustodyEvent("image-" + (i % 3), "ACCESS", "viewer-" + i, "VIEWER", "Access reason: Viewing", "10.0.0.1");
+            buffer.enqueue(event);
+            ids.add(event.getId());
+        }
+        return ids;
+    }
+
+    private long spillLines() {
+        Path file = spillDir.resolve("custody-events.spill.jsonl");
+        try {
+            return Files.exists(file) ? Files.readAllLines(file).stream().filter(line -> !line.isBlank()).count() : 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not met within 10 s");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static class RecordingSink implements CustodyEventBuffer.Sink {
+        final AtomicBoolean failing = new AtomicBoolean();
+        final List<String> received = Collections.synchronizedList(new ArrayList<>());
+        private final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void insertAll(List<CustodyEvent> events) {
+            if (failing.get()) {
+                throw new IllegalStateException("database unavailable");
+            }
+            batches.add(events.size());
+            events.forEach(event -> received.add(event.getId()));
+        }
+
+        Set<String> delivered() {
+            synchronized (received) {
+                return new HashSet<>(received);
+            }
+        }
+
+        List<Integer> batchSizes() {
+            synchronized (batches) {
+                return new ArrayList<>(batches);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.pcd.imagemanagment.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageDimensionProbeTest {
+
+    private final ImageDimensionProbe probe = new ImageDimensionProbe();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"jpg", "png", "gif", "bmp", "tiff"})
+    void readsDimensionsFromHeaderOnly(String format) throws IOException {
+        byte[] encoded = encode(new BufferedImage(1234, 567, BufferedImage.TYPE_INT_RGB), format);
+        // Only the first kilobyte, as if the rest of the upload were still streaming into GridFS
+        byte[] header = Arrays.copyOf(encoded, Math.min(encoded.length, 1024));
+
+        assertEquals(Optional.of(new Dimension(1234, 567)), probe.probe(header));
+    }
+
+    @Test
+    void readsWebpVariants() {
+        byte[] lossy = webp("VP8 ", new byte[]{0, 0, 0, (byte) 0x9D, 0x01, 0x2A, (byte) 0xD2, 0x04, 0x37, 0x02});
+        // VP8L: signature, then (width-1) and (height-1) packed as 14-bit fields
+        int bits = (1234 - 1) | (567 - 1) << 14;
+        byte[] lossless = webp("VP8L", new byte[]{0x2F, (byte) bits, (byte) (bits >> 8), (byte) (bits >> 16), (byte) (bits >> 24)});
+        byte[] extended = webp("VP8X", new byte[]{0, 0, 0, 0, (byte) 0xD1, 0x04, 0x00, 0x36, 0x02, 0x00});
+
+        assertEquals(Optional.of(new Dimension(1234, 567)), probe.probe(lossy));
+        assertEquals(Optional.of(new Dimension(1234, 567)), probe.probe(lossless));
+        assertEquals(Optional.of(new Dimension(1234, 567)), probe.probe(extended));
+    }
+
+    @Test
+    void unknownOrTruncatedInputIsEmpty() {
+        assertTrue(probe.probe(new byte[0]).isEmpty());
+        assertTrue(probe.probe("not an image at all".getBytes()).isEmpty());
+        assertTrue(probe.probe(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE1, 0x7F, (byte) 0xFF}).isEmpty());
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, format, out), "No ImageIO writer for " + format);
+        return out.toByteArray();
+    }
+
+    private static byte[] webp(String chunk, byte[] payload) {
+        byte[] file = new byte[20 + payload.length];
+        System.arraycopy("RIFF".getBytes(), 0, file, 0, 4);
+        System.arraycopy("WEBP".getBytes(), 0, file, 8, 4);
+        System.arraycopy(chunk.getBytes(), 0, file, 12, 4);
+        System.arraycopy(payload, 0, file, 20, payload.length);
+        return file;
+    }
+}
@@ -0,0 +1,77 @@
+package com.pcd.imagemanagment.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResumableSha256Test {
+
+    @Test
+    void matchesKnownDigests() {
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", digest(new byte[0]));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", digest("abc".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("248d6a61d20638b8e5c026930c3e6039a33ce45964ff2167f6ecedd419db06c1",
+                digest("abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void matchesMessageDigestForEveryPaddingCase() throws Exception {
+        Random random = new Random(49);
+        for (int size = 0; size <= 200; size++) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            assertEquals(reference(data), digest(data), "size " + size);
+        }
+    }
+
+    @Test
+    void resumesFromStateExportedAtBlockBoundaries() throws Exception {
+        Random random = new Random(50);
+        byte[] data = new byte[10 * 4096 + 77];
+        random.nextBytes(data);
+
+        // As a resumable upload sees it: chunks of 4 KiB, each hashed in a fresh instance from the saved state
+        int[] state = ResumableSha256.start().state();
+        long length = 0;
+        ResumableSha256 hash = null;
+        for (int offset = 0; offset < data.length; offset += 4096) {
+            hash = ResumableSha256.resume(state, length);
+            // Odd write sizes inside a chunk, as reads from a request body come
+            int end = Math.min(data.length, offset + 4096);
+            for (int from = offset; from < end; from += 1000) {
+                hash.update(data, from, Math.min(1000, end - from));
+            }
+            length = hash.length();
+            if (length % ResumableSha256.BLOCK_BYTES == 0) {
+                state = hash.state();
+            }
+        }
+        assertEquals(reference(data), hash.hex());
+        // Finishing leaves the state untouched
+        assertEquals(reference(data), hash.hex());
+    }
+
+    @Test
+    void refusesToExportMidBlock() {
+        ResumableSha256 hash = ResumableSha256.start();
+        hash.update(new byte[100]);
+        assertThrows(IllegalStateException.class, hash::state);
+        assertThrows(IllegalArgumentException.class, () -> ResumableSha256.resume(new int[8], 100));
+    }
+
+    private static String digest(byte[] data) {
+        ResumableSha256 hash = ResumableSha256.start();
+        hash.update(data);
+        return hash.hex();
+    }
+
+    private static String reference(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
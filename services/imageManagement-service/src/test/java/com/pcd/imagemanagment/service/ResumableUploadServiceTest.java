@@ -0,0 +1,278 @@
+package com.pcd.imagemanagment.service;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.pcd.imagemanagment.model.Image;
+import com.pcd.imagemanagment.model.ImageBlob;
+import com.pcd.imagemanagment.model.ResumableUploadStatus;
+import com.pcd.imagemanagment.model.UploadSession;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResumableUploadServiceTest {
+
+    private static final String DATABASE = "resumable_upload_test";
+
+    // In-process server: the findAndModify guards are what is under test, and no mongod has to be downloaded
+    private static MongoServer server;
+    private static MongoClient client;
+
+    private MongoTemplate mongoTemplate;
+    private StubImageStorage storage;
+    private ResumableUploadService service;
+
+    @BeforeAll
+    static void startMongo() {
+        server = new MongoServer(new MemoryBackend());
+        client = MongoClients.create(server.bindAndGetConnectionString());
+    }
+
+    @AfterAll
+    static void stopMongo() {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = new MongoTemplate(client, DATABASE);
+        mongoTemplate.getDb().drop();
+        GridFsTemplate gridFsTemplate = new GridFsTemplate(new SimpleMongoClientDatabaseFactory(client, DATABASE),
+                mongoTemplate.getConverter());
+        storage = new StubImageStorage(mongoTemplate);
+        service = new ResumableUploadService(mongoTemplate, storage, new ImageBlobStore(mongoTemplate, gridFsTemplate), "fs")
+                .configure(64L * 1024 * 1024, 60_000, 60_000);
+        service.ensureChunkIndex();
+    }
+
+    @Test
+    void putAtAStaleOffsetIsAConflictCarryingTheCommittedOffset() throws IOException {
+        byte[] content = content(1, 2 * ResumableUploadService.CHUNK_BYTES + 100);
+        String uploadId = create(content);
+        service.append(uploadId, 0, slice(content, 0, ResumableUploadService.CHUNK_BYTES));
+
+        ResumableUploadService.UploadConflictException conflict = assertThrows(ResumableUploadService.UploadConflictException.class,
+                () -> service.append(uploadId, 0, slice(content, 0, ResumableUploadService.CHUNK_BYTES)));
+
+        assertEquals(ResumableUploadService.CHUNK_BYTES, conflict.getCurrent().offset());
+        ResumableUploadStatus status = service.append(uploadId, ResumableUploadService.CHUNK_BYTES,
+                slice(content, ResumableUploadService.CHUNK_BYTES, content.length));
+        assertEquals(content.length, status.offset());
+        assertEquals(sha256(content), status.sha256());
+    }
+
+    @Test
+    void lapsedWriteLeaseIsTakenOverByTheRetry() throws IOException {
+        byte[] content = content(2, 1000);
+        String uploadId = create(content);
+        holdLease(uploadId, Instant.now().plusSeconds(60));
+
+        assertThrows(ResumableUploadService.UploadConflictException.class,
+                () -> service.append(uploadId, 0, slice(content, 0, content.length)));
+
+        holdLease(uploadId, Instant.now().minusSeconds(1));
+        assertEquals(content.length, service.append(uploadId, 0, slice(content, 0, content.length)).offset());
+    }
+
+    @Test
+    void repeatedCompleteReturnsTheSameImage() throws IOException {
+        byte[] content = content(3, ResumableUploadService.CHUNK_BYTES + 10);
+        String uploadId = upload(content);
+
+        String imageId = service.complete(uploadId, sha256(content), "127.0.0.1");
+
+        assertEquals(uploadId, imageId);
+        assertEquals(imageId, service.complete(uploadId, null, "127.0.0.1"));
+        assertEquals(1, storage.calls);
+        assertSettled(content, 1);
+    }
+
+    @Test
+    void completeRetriedAfterAFailedStoreClaimsTheBlobOnce() throws IOException {
+        byte[] content = content(4, 5000);
+        String uploadId = upload(content);
+        storage.failBeforeInsert = true;
+
+        assertThrows(IllegalStateException.class, () -> service.complete(uploadId, null, "127.0.0.1"));
+        assertEquals(1, blob(content).getRefCount());
+
+        assertEquals(uploadId, service.complete(uploadId, null, "127.0.0.1"));
+        assertEquals(2, storage.calls);
+        assertSettled(content, 1);
+        assertEquals(1, mongoTemplate.getCollection("fs.files").countDocuments());
+    }
+
+    @Test
+    void completionOfADeadNodeIsTakenOverOnceItsLeaseLapses() throws IOException {
+        byte[] content = content(5, 5000);
+        String uploadId = upload(content);
+        storage.failAfterInsert = true;
+        assertThrows(IllegalStateException.class, () -> service.complete(uploadId, null, "127.0.0.1"));
+        // As if the node died instead of failing: the lease stays with it
+        holdLease(uploadId, Instant.now().plusSeconds(60));
+
+        assertThrows(ResumableUploadService.UploadConflictException.class, () -> service.complete(uploadId, null, "127.0.0.1"));
+
+        holdLease(uploadId, Instant.now().minusSeconds(1));
+        assertEquals(uploadId, service.complete(uploadId, null, "127.0.0.1"));
+        // The image was stored already; the takeover only finished the bookkeeping
+        assertEquals(1, storage.calls);
+        assertSettled(content, 1);
+        assertEquals(UploadSession.Status.COMPLETED, mongoTemplate.findById(uploadId, UploadSession.class).getStatus());
+    }
+
+    @Test
+    void mismatchedHashAfterAFailedStoreGivesTheClaimBack() throws IOException {
+        byte[] content = content(6, 5000);
+        String uploadId = upload(content);
+        storage.failBeforeInsert = true;
+        assertThrows(IllegalStateException.class, () -> service.complete(uploadId, null, "127.0.0.1"));
+
+        assertThrows(IllegalArgumentException.class, () -> service.complete(uploadId, sha256(content(7, 10)), "127.0.0.1"));
+
+        assertNull(blob(content));
+        assertEquals(0, mongoTemplate.getCollection("fs.chunks").countDocuments());
+        assertEquals(0, mongoTemplate.getCollection("fs.files").countDocuments());
+        assertThrows(ResumableUploadService.UploadNotFoundException.class, () -> service.status(uploadId));
+    }
+
+    @Test
+    void sweepDiscardsWhatNeverBecameAnImageAndKeepsWhatDid() throws IOException {
+        byte[] open = content(8, ResumableUploadService.CHUNK_BYTES + 10);
+        String openId = create(open);
+        service.append(openId, 0, slice(open, 0, ResumableUploadService.CHUNK_BYTES));
+
+        byte[] claimed = content(9, 5000);
+        String claimedId = upload(claimed);
+        storage.failBeforeInsert = true;
+        assertThrows(IllegalStateException.class, () -> service.complete(claimedId, null, "127.0.0.1"));
+
+        byte[] stored = content(10, 5000);
+        String storedId = upload(stored);
+        storage.failAfterInsert = true;
+        assertThrows(IllegalStateException.class, () -> service.complete(storedId, null, "127.0.0.1"));
+
+        byte[] completed = content(11, 5000);
+        String completedId = upload(completed);
+        service.complete(completedId, null, "127.0.0.1");
+
+        mongoTemplate.updateMulti(new Query(), Update.update("expiresAt", Instant.now().minusSeconds(1)), UploadSession.class);
+        assertEquals(4, service.sweepExpired(10));
+
+        assertEquals(0, mongoTemplate.count(new Query(), UploadSession.class));
+        assertNull(blob(claimed));
+        assertSettled(stored, 1);
+        assertSettled(completed, 1);
+        // Only the files of the two images are left, one chunk each
+        assertEquals(2, mongoTemplate.getCollection("fs.files").countDocuments());
+        assertEquals(2, mongoTemplate.getCollection("fs.chunks").countDocuments());
+    }
+
+    private String create(byte[] content) {
+        return service.create("case-1", "evidence.bin", "application/octet-stream", content.length, "user-1", "UPLOADER").uploadId();
+    }
+
+    private String upload(byte[] content) throws IOException {
+        String uploadId = create(content);
+        service.append(uploadId, 0, slice(content, 0, content.length));
+        return uploadId;
+    }
+
+    private void holdLease(String uploadId, Instant until) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(uploadId)),
+                new Update().set("writeLease", "other-node").set("writeLeaseUntil", until), UploadSession.class);
+    }
+
+    private ImageBlob blob(byte[] content) {
+        return mongoTemplate.findById(sha256(content), ImageBlob.class);
+    }
+
+    private void assertSettled(byte[] content, long refCount) {
+        ImageBlob blob = blob(content);
+        assertNotNull(blob);
+        assertEquals(refCount, blob.getRefCount());
+        assertTrue(blob.getClaims() == null || blob.getClaims().isEmpty());
+    }
+
+    private static byte[] content(long seed, int length) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    private static ByteArrayInputStream slice(byte[] content, int from, int to) {
+        return new ByteArrayInputStream(content, from, to - from);
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Stores the image record only; the header parsing of the real service is not what these tests are about
+    private static class StubImageStorage extends ImageStorageService {
+        private final MongoTemplate mongoTemplate;
+        int calls;
+        boolean failBeforeInsert;
+        boolean failAfterInsert;
+
+        StubImageStorage(MongoTemplate mongoTemplate) {
+            super(null, null, null, null, null, null, null, null, null);
+            this.mongoTemplate = mongoTemplate;
+        }
+
+        @Override
+        public String storeUploadedFile(String imageId, String filename, String contentType, String gridFsFileId, long length,
+                                        String sha256, String caseId, String uploaderId, String uploaderRole, String ipAddress,
+                                        String custodyDetails) {
+            calls++;
+            if (failBeforeInsert) {
+                failBeforeInsert = false;
+                throw new IllegalStateException("Image store unavailable");
+            }
+            Image image = new Image();
+            image.setId(imageId);
+            image.setOriginalFilename(filename);
+            image.setSha256Hash(sha256);
+            image.setGridFsFileId(gridFsFileId);
+            image.setBlobReferenced(true);
+            mongoTemplate.insert(image);
+            if (failAfterInsert) {
+                failAfterInsert = false;
+                throw new IllegalStateException("Connection lost after the insert");
+            }
+            return imageId;
+        }
+    }
+}
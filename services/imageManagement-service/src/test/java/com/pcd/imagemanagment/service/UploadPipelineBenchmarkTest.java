@@ -0,0 +1,209 @@
+package com.pcd.imagemanagment.service;
+
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.pcd.imagemanagment.model.Image;
+import com.pcd.imagemanagment.repository.ImageRepository;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares {@link ImageStorageService#storeImage} with the previous four-pass pipeline (hash, full
+ * decode for dimensions, metadata, store). The real service runs with a GridFS stub that drains the
+ * stream it is given, which is all the store does with it, and mocked repositories behind it. Both
+ * pipelines must produce the same hash and dimensions, and the service must open and read the
+ * upload exactly once.
+ * <p>
+ * The timing comparison on a 12 MP JPEG only runs with {@code UPLOAD_BENCHMARK=true}, as wall-clock
+ * assertions do not belong in the regular build.
+ */
+class UploadPipelineBenchmarkTest {
+
+    private static final int ITERATIONS = 5;
+
+    private final MetadataExtractionService metadataService = new MetadataExtractionService();
+    private final ImageRepository imageRepository = mock(ImageRepository.class);
+    private ImageStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        GridFsTemplate gridFsTemplate = mock(GridFsTemplate.class);
+        when(gridFsTemplate.store(any(InputStream.class), anyString(), anyString(), any(Object.class))).thenAnswer(invocation -> {
+            invocation.getArgument(0, InputStream.class).transferTo(OutputStream.nullOutputStream());
+            return new ObjectId();
+        });
+        ImageBlobStore blobStore = mock(ImageBlobStore.class);
+        when(blobStore.claim(anyString(), any(ObjectId.class), anyLong()))
+                .thenAnswer(invocation -> invocation.getArgument(1, ObjectId.class).toHexString());
+        when(imageRepository.insert(any(Image.class))).thenAnswer(invocation -> {
+            Image image = invocation.getArgument(0);
+            image.setId(new ObjectId().toHexString());
+            return image;
+        });
+        storageService = new ImageStorageService(gridFsTemplate, mock(GridFSBucket.class), imageRepository, metadataService,
+                new ImageDimensionProbe(), blobStore, mock(GridFsRangeReader.class), mock(MongoTemplate.class),
+                mock(CustodyTrailService.class));
+        ReflectionTestUtils.setField(storageService, "headerBufferBytes", 256 * 1024);
+        ReflectionTestUtils.setField(storageService, "fullDecodeFallback", true);
+    }
+
+    @Test
+    void singlePassReadsTheUploadOnce() throws Exception {
+        byte[] jpeg = createJpeg(1600, 1200);
+
+        Result fourPass = fourPassWithCounter(jpeg, new AtomicLong());
+        AtomicInteger opens = new AtomicInteger();
+        Result singlePass = storeWithCounter(jpeg, new AtomicLong(), opens);
+
+        assertEquals(1, opens.get());
+        assertEquals(fourPass.sha256, singlePass.sha256);
+        assertEquals(new Dimension(1600, 1200), singlePass.dimensions);
+        assertEquals(fourPass.dimensions, singlePass.dimensions);
+        assertEquals(jpeg.length, singlePass.bytesRead);
+        assertTrue(fourPass.bytesRead >= 3L * jpeg.length, "Expected the old pipeline to read the upload at least three times");
+    }
+
+    @Test
+    void singlePassIsFasterOnALargeJpeg() throws Exception {
+        assumeTrue("true".equals(System.getenv("UPLOAD_BENCHMARK")), "Upload benchmark not enabled");
+        byte[] jpeg = createJpeg(4000, 3000);
+
+        long fourPassNanos = Long.MAX_VALUE;
+        long singlePassNanos = Long.MAX_VALUE;
+        // Best of several runs after a warm-up, so JIT and ImageIO plugin loading do not skew either side
+        fourPassWithCounter(jpeg, new AtomicLong());
+        storeWithCounter(jpeg, new AtomicLong(), new AtomicInteger());
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            fourPassWithCounter(jpeg, new AtomicLong());
+            fourPassNanos = Math.min(fourPassNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            storeWithCounter(jpeg, new AtomicLong(), new AtomicInteger());
+            singlePassNanos = Math.min(singlePassNanos, System.nanoTime() - start);
+        }
+
+        assertTrue(singlePassNanos < fourPassNanos / 2,
+                "Single pass took " + singlePassNanos / 1_000_000 + " ms vs " + fourPassNanos / 1_000_000 + " ms");
+    }
+
+    private static byte[] createJpeg(int width, int height) throws IOException {
+        int[] pixels = new int[width * height];
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Gradient plus noise, so the JPEG is photo-sized rather than trivially compressible
+                int noise = random.nextInt(32);
+                pixels[y * width + x] = ((x / 16 + noise) & 0xFF) << 16 | ((y / 12 + noise) & 0xFF) << 8 | ((x + y) / 28 & 0xFF);
+            }
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    // The pipeline ImageStorageService.storeImage used before: four streams over the same upload
+    private Result fourPassWithCounter(byte[] jpeg, AtomicLong bytesRead) throws Exception {
+        CountingMultipartFile file = new CountingMultipartFile(jpeg, bytesRead);
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = file.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        Dimension dimensions;
+        try (InputStream in = file.getInputStream()) {
+            BufferedImage decoded = ImageIO.read(in);
+            dimensions = new Dimension(decoded.getWidth(), decoded.getHeight());
+        }
+        try (InputStream in = file.getInputStream()) {
+            metadataService.extractMetadata(in, file.getOriginalFilename());
+        }
+        try (InputStream in = file.getInputStream()) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return new Result(HexFormat.of().formatHex(digest.digest()), dimensions, bytesRead.get());
+    }
+
+    // The current pipeline, through the service itself
+    private Result storeWithCounter(byte[] jpeg, AtomicLong bytesRead, AtomicInteger opens) throws Exception {
+        CountingMultipartFile file = new CountingMultipartFile(jpeg, bytesRead);
+        storageService.storeImage(file.getOriginalFilename(), file.getContentType(), file.getSize(), () -> {
+            opens.incrementAndGet();
+            return file.getInputStream();
+        }, "case-1", "uploader", "INVESTIGATOR", "127.0.0.1", "Benchmark upload");
+        ArgumentCaptor<Image> stored = ArgumentCaptor.forClass(Image.class);
+        verify(imageRepository, atLeastOnce()).insert(stored.capture());
+        Image image = stored.getValue();
+        return new Result(image.getSha256Hash(), new Dimension(image.getWidth(), image.getHeight()), bytesRead.get());
+    }
+
+    private record Result(String sha256, Dimension dimensions, long bytesRead) {
+    }
+
+    private static final class CountingMultipartFile extends MockMultipartFile {
+        private final AtomicLong bytesRead;
+
+        CountingMultipartFile(byte[] content, AtomicLong bytesRead) {
+            super("file", "evidence.jpg", "image/jpeg", content);
+            this.bytesRead = bytesRead;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FilterInputStream(super.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        bytesRead.incrementAndGet();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) {
+                        bytesRead.addAndGet(n);
+                    }
+                    return n;
+                }
+            };
+        }
+    }
+}